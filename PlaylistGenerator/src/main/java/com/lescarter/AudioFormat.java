@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package com.lescarter;
+
+/**
+ * This enum is used to hold the type of an audio file, as shown in the Kind column of Rekordbox.
+ *
+ * @author Les Carter
+ */
+public enum AudioFormat
+{
+	MP3(PlaylistGenerator.STR_KIND_MP3, PlaylistGenerator.STR_MP3_FILE_EXTENSION),
+	WAV(PlaylistGenerator.STR_KIND_WAV, PlaylistGenerator.STR_WAV_FILE_EXTENSION),
+	AIFF(PlaylistGenerator.STR_KIND_AIFF, PlaylistGenerator.STR_AIFF_FILE_EXTENSION, PlaylistGenerator.STR_AIF_FILE_EXTENSION),
+	FLAC(PlaylistGenerator.STR_KIND_FLAC, PlaylistGenerator.STR_FLAC_FILE_EXTENSION),
+	M4A(PlaylistGenerator.STR_KIND_M4A, PlaylistGenerator.STR_M4A_FILE_EXTENSION);
+
+	/**
+	 * The code of a file whose type isn't known.
+	 */
+	public static final byte NONE=0;
+
+	protected static final AudioFormat[] FORMATS=values();
+
+	protected final String kind;
+	protected final String[] extensions;
+
+	private AudioFormat(String kind, String... extensions)
+	{
+		this.kind=kind;
+		this.extensions=extensions;
+	}
+
+	/**
+	 * @return the Kind shown by Rekordbox, e.g. <code>MP3 File</code>.
+	 */
+	public String getKind()
+	{
+		return kind;
+	}
+
+	/**
+	 * @return a code for the format that fits in a byte, never {@link #NONE}.
+	 */
+	public byte getCode()
+	{
+		return (byte)(ordinal()+1);
+	}
+
+	/**
+	 * @param code a format code.
+	 * @return the format, or <code>null</code> for {@link #NONE}.
+	 */
+	public static AudioFormat valueOf(byte code)
+	{
+		return code>NONE && code<=FORMATS.length ? FORMATS[code-1] : null;
+	}
+
+	/**
+	 * This method is used to work out the format of a track from the extension of its location, ignoring case.
+	 * @param location the location of the track.
+	 * @return the format, or <code>null</code> if the extension isn't one we know.
+	 */
+	public static AudioFormat forLocation(String location)
+	{
+		for(AudioFormat format : FORMATS)
+		{
+			for(String extension : format.extensions)
+			{
+				if(location.regionMatches(true, location.length()-extension.length(), extension, 0, extension.length()))
+				{
+					return format;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is used to read the bit rate, sample rate and length of an audio file from its headers, without reading the
+ * audio itself.
+ * <br/><br/>
+ * Only the few KB where each format keeps its headers are read, with positional reads on a <code>FileChannel</code>, so an
+ * ID3 tag holding the cover art or a long chunk of WAV metadata is stepped over rather than read.  The formats understood
+ * are:
+ * <ul><li>MP3 - the first frame header, with the Xing/Info or VBRI header for variable bit rate files</li>
+ * <li>WAV - the <code>fmt </code> and <code>data</code> chunks</li>
+ * <li>AIFF - the <code>COMM</code> chunk</li>
+ * <li>FLAC - the <code>STREAMINFO</code> block</li>
+ * </ul>
+ * Anything else, or a file that can't be made sense of, is left as unknown.
+ *
+ * @author Les Carter
+ */
+public class AudioHeader
+{
+	public static final int BUFFER_SIZE=8*1024;
+	public static final int MAX_CHUNKS=64;
+
+	protected static final int[][] MP3_BITRATES={
+		//MPEG 1 layers I, II and III
+		{0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+		{0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+		{0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+		//MPEG 2 and 2.5 layers I, II and III
+		{0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+		{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+		{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+	};
+	protected static final int[] MP3_SAMPLE_RATES={44100, 48000, 32000};
+
+	protected static final ThreadLocal<ByteBuffer> buffers=new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		}
+	};
+
+	public AudioFormat format=null;
+	/**
+	 * The average bit rate in kbps, or {@link PlaylistGenerator.PlaylistEntry#NONE}.
+	 */
+	public int bitRate=PlaylistGenerator.PlaylistEntry.NONE;
+	public int sampleRate=PlaylistGenerator.PlaylistEntry.NONE;
+	public int durationMillis=PlaylistGenerator.PlaylistEntry.NONE;
+
+	/**
+	 * This method is used to read the headers of an audio file.
+	 * @param path the audio file.
+	 * @return what could be read from the headers, with every value unknown if the file isn't a format we understand.
+	 * @throws IOException if the file can't be read.
+	 */
+	public static AudioHeader read(Path path) throws IOException
+	{
+		AudioHeader retVal=new AudioHeader();
+		retVal.format=AudioFormat.forLocation(path.toString());
+		FileChannel channel=FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			retVal.read(channel, buffers.get());
+		}
+		finally
+		{
+			channel.close();
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return <code>true</code> if anything was read from the headers.
+	 */
+	public boolean isKnown()
+	{
+		return bitRate!=PlaylistGenerator.PlaylistEntry.NONE || sampleRate!=PlaylistGenerator.PlaylistEntry.NONE
+				|| durationMillis!=PlaylistGenerator.PlaylistEntry.NONE;
+	}
+
+	protected void read(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		long fileSize=channel.size();
+		int length=read(channel, buffer, 0, BUFFER_SIZE, ByteOrder.BIG_ENDIAN);
+		if(length<12)
+		{
+			return;
+		}
+
+		//An ID3v2 tag can be put in front of anything, though it's only usual on MP3s
+		long start=0;
+		if(isTag(buffer, 0, "ID3") && length>=10)
+		{
+			start=10+syncsafe(buffer, 6)+((buffer.get(5)&0x10)!=0 ? 10 : 0);
+			length=read(channel, buffer, start, BUFFER_SIZE, ByteOrder.BIG_ENDIAN);
+			if(length<12)
+			{
+				return;
+			}
+		}
+
+		if(isTag(buffer, 0, "RIFF") && isTag(buffer, 8, "WAVE"))
+		{
+			format=AudioFormat.WAV;
+			readWav(channel, buffer, start, fileSize);
+		}
+		else if(isTag(buffer, 0, "FORM") && (isTag(buffer, 8, "AIFF") || isTag(buffer, 8, "AIFC")))
+		{
+			format=AudioFormat.AIFF;
+			readAiff(channel, buffer, start);
+		}
+		else if(isTag(buffer, 0, "fLaC"))
+		{
+			format=AudioFormat.FLAC;
+			readFlac(channel, buffer, start, fileSize);
+		}
+		else if(format==AudioFormat.MP3 || (format==null && start>0))
+		{
+			readMp3(channel, buffer, start, length, fileSize);
+		}
+	}
+
+	protected void readMp3(FileChannel channel, ByteBuffer buffer, long start, int length, long fileSize) throws IOException
+	{
+		//Find the first frame, checking the one after it where we can so a stray sync in the tag padding isn't taken for it
+		int frame=-1;
+		for(int i=0;i+4<=length;i++)
+		{
+			int frameLength=mp3FrameLength(buffer.getInt(i));
+			if(frameLength>0 && (i+frameLength+4>length || mp3FrameLength(buffer.getInt(i+frameLength))>0))
+			{
+				frame=i;
+				break;
+			}
+		}
+		if(frame<0)
+		{
+			return;
+		}
+
+		int header=buffer.getInt(frame);
+		int version=(header>>>19)&3;
+		int layer=4-((header>>>17)&3);
+		boolean isMpeg1=version==3;
+		boolean isMono=((header>>>6)&3)==3;
+		int headerBitRate=MP3_BITRATES[(isMpeg1 ? 0 : 3)+layer-1][(header>>>12)&0xF];
+		int headerSampleRate=MP3_SAMPLE_RATES[(header>>>10)&3]>>(isMpeg1 ? 0 : version==2 ? 1 : 2);
+		int samplesPerFrame=layer==1 ? 384 : (layer==3 && !isMpeg1) ? 576 : 1152;
+		format=AudioFormat.MP3;
+		sampleRate=headerSampleRate;
+
+		long audioStart=start+frame;
+		long audioEnd=fileSize;
+		if(fileSize-128>=audioStart && isTag(channel, buffer, fileSize-128, "TAG"))
+		{
+			audioEnd-=128;
+		}
+		buffer.clear();
+		read(channel, buffer, audioStart, BUFFER_SIZE, ByteOrder.BIG_ENDIAN);
+
+		//Variable bit rate files say how many frames there are in the first one
+		long frames=-1;
+		long bytes=-1;
+		boolean isCbr=false;
+		int xing=4+(isMpeg1 ? (isMono ? 17 : 32) : (isMono ? 9 : 17));
+		if(buffer.limit()>=xing+16 && (isTag(buffer, xing, "Xing") || isTag(buffer, xing, "Info")))
+		{
+			isCbr=isTag(buffer, xing, "Info");
+			int flags=buffer.getInt(xing+4);
+			int position=xing+8;
+			if((flags&1)!=0)
+			{
+				frames=buffer.getInt(position)&0xFFFFFFFFL;
+				position+=4;
+			}
+			if((flags&2)!=0 && buffer.limit()>=position+4)
+			{
+				bytes=buffer.getInt(position)&0xFFFFFFFFL;
+			}
+		}
+		else if(buffer.limit()>=36+18 && isTag(buffer, 36, "VBRI"))
+		{
+			bytes=buffer.getInt(36+10)&0xFFFFFFFFL;
+			frames=buffer.getInt(36+14)&0xFFFFFFFFL;
+		}
+
+		if(frames>0)
+		{
+			long millis=frames*samplesPerFrame*1000L/headerSampleRate;
+			durationMillis=(int)Math.min(Integer.MAX_VALUE, millis);
+			if(isCbr && headerBitRate>0)
+			{
+				bitRate=headerBitRate;
+			}
+			else if(millis>0)
+			{
+				bitRate=(int)(((bytes>0 ? bytes : audioEnd-audioStart)*8L+millis/2)/millis);
+			}
+		}
+		else if(headerBitRate>0)
+		{
+			bitRate=headerBitRate;
+			durationMillis=(int)Math.min(Integer.MAX_VALUE, (audioEnd-audioStart)*8L/headerBitRate);
+		}
+	}
+
+	/**
+	 * @param header the four bytes that might be a frame header.
+	 * @return the length of the frame in bytes, or 0 if it isn't a valid frame header.
+	 */
+	protected static int mp3FrameLength(int header)
+	{
+		int version=(header>>>19)&3;
+		int layer=4-((header>>>17)&3);
+		int bitRateIndex=(header>>>12)&0xF;
+		int sampleRateIndex=(header>>>10)&3;
+		if((header&0xFFE00000)!=0xFFE00000 || version==1 || layer==4 || bitRateIndex==0 || bitRateIndex==0xF || sampleRateIndex==3)
+		{
+			return 0;
+		}
+		boolean isMpeg1=version==3;
+		int bitRate=MP3_BITRATES[(isMpeg1 ? 0 : 3)+layer-1][bitRateIndex]*1000;
+		int sampleRate=MP3_SAMPLE_RATES[sampleRateIndex]>>(isMpeg1 ? 0 : version==2 ? 1 : 2);
+		int padding=(header>>>9)&1;
+		if(layer==1)
+		{
+			return (12*bitRate/sampleRate+padding)*4;
+		}
+		return (layer==3 && !isMpeg1 ? 72 : 144)*bitRate/sampleRate+padding;
+	}
+
+	protected void readWav(FileChannel channel, ByteBuffer buffer, long start, long fileSize) throws IOException
+	{
+		int byteRate=0;
+		long position=start+12;
+		for(int i=0;i<MAX_CHUNKS && position+8<=fileSize;i++)
+		{
+			if(read(channel, buffer, position, 24, ByteOrder.LITTLE_ENDIAN)<8)
+			{
+				return;
+			}
+			long size=buffer.getInt(4)&0xFFFFFFFFL;
+			if(isTag(buffer, 0, "fmt ") && buffer.limit()>=24)
+			{
+				int channels=buffer.getShort(10)&0xFFFF;
+				sampleRate=buffer.getInt(12);
+				byteRate=buffer.getInt(16);
+				int bitsPerSample=buffer.getShort(22)&0xFFFF;
+				bitRate=byteRate>0 ? byteRate*8/1000 : sampleRate*channels*bitsPerSample/1000;
+			}
+			else if(isTag(buffer, 0, "data"))
+			{
+				//A stream that was never finished off has no data size
+				long dataSize=size==0 || size==0xFFFFFFFFL ? fileSize-position-8 : Math.min(size, fileSize-position-8);
+				if(byteRate>0)
+				{
+					durationMillis=(int)Math.min(Integer.MAX_VALUE, dataSize*1000L/byteRate);
+				}
+				return;
+			}
+			position+=8+size+(size&1);
+		}
+	}
+
+	protected void readAiff(FileChannel channel, ByteBuffer buffer, long start) throws IOException
+	{
+		long position=start+12;
+		long fileSize=channel.size();
+		for(int i=0;i<MAX_CHUNKS && position+8<=fileSize;i++)
+		{
+			if(read(channel, buffer, position, 26, ByteOrder.BIG_ENDIAN)<8)
+			{
+				return;
+			}
+			long size=buffer.getInt(4)&0xFFFFFFFFL;
+			if(isTag(buffer, 0, "COMM") && buffer.limit()>=26)
+			{
+				int channels=buffer.getShort(8)&0xFFFF;
+				long frames=buffer.getInt(10)&0xFFFFFFFFL;
+				int sampleSize=buffer.getShort(14)&0xFFFF;
+				double rate=extended(buffer, 16);
+				if(rate>0 && rate<Integer.MAX_VALUE)
+				{
+					sampleRate=(int)Math.round(rate);
+					bitRate=(int)(sampleRate*(long)channels*sampleSize/1000);
+					durationMillis=(int)Math.min(Integer.MAX_VALUE, Math.round(frames*1000.0/rate));
+				}
+				return;
+			}
+			position+=8+size+(size&1);
+		}
+	}
+
+	protected void readFlac(FileChannel channel, ByteBuffer buffer, long start, long fileSize) throws IOException
+	{
+		//The STREAMINFO block always comes first
+		if(buffer.limit()<8+18 || (buffer.get(4)&0x7F)!=0)
+		{
+			return;
+		}
+		long packed=buffer.getLong(8+10);
+		sampleRate=(int)(packed>>>44);
+		long samples=packed&0xFFFFFFFFFL;
+		if(sampleRate<=0 || samples<=0)
+		{
+			return;
+		}
+		long millis=samples*1000L/sampleRate;
+		durationMillis=(int)Math.min(Integer.MAX_VALUE, millis);
+
+		//The average bit rate is over the frames, so step over the rest of the metadata to find where they start
+		long position=start+4;
+		for(int i=0;i<MAX_CHUNKS && position+4<=fileSize;i++)
+		{
+			if(read(channel, buffer, position, 4, ByteOrder.BIG_ENDIAN)<4)
+			{
+				return;
+			}
+			int header=buffer.getInt(0);
+			position+=4+(header&0xFFFFFF);
+			if(header<0)
+			{
+				//Last metadata block
+				if(millis>0 && position<fileSize)
+				{
+					bitRate=(int)(((fileSize-position)*8L+millis/2)/millis);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * This method is used to read part of a file into the buffer with a positional read.
+	 * @return the number of bytes read, the buffer is flipped ready to be read from.
+	 */
+	protected static int read(FileChannel channel, ByteBuffer buffer, long position, int length, ByteOrder order) throws IOException
+	{
+		buffer.clear();
+		buffer.limit(Math.min(length, buffer.capacity()));
+		buffer.order(order);
+		while(buffer.hasRemaining())
+		{
+			if(channel.read(buffer, position+buffer.position())<0)
+			{
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer.limit();
+	}
+
+	protected static boolean isTag(FileChannel channel, ByteBuffer buffer, long position, String tag) throws IOException
+	{
+		return read(channel, buffer, position, tag.length(), ByteOrder.BIG_ENDIAN)==tag.length() && isTag(buffer, 0, tag);
+	}
+
+	protected static boolean isTag(ByteBuffer buffer, int offset, String tag)
+	{
+		if(offset+tag.length()>buffer.limit())
+		{
+			return false;
+		}
+		for(int i=0;i<tag.length();i++)
+		{
+			if(buffer.get(offset+i)!=tag.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the size held in four bytes of seven bits each, as ID3v2 does.
+	 */
+	protected static int syncsafe(ByteBuffer buffer, int offset)
+	{
+		return (buffer.get(offset)&0x7F)<<21 | (buffer.get(offset+1)&0x7F)<<14 | (buffer.get(offset+2)&0x7F)<<7 | (buffer.get(offset+3)&0x7F);
+	}
+
+	/**
+	 * @return the 80 bit IEEE 754 extended precision number AIFF holds the sample rate in.
+	 */
+	protected static double extended(ByteBuffer buffer, int offset)
+	{
+		int exponent=((buffer.get(offset)&0x7F)<<8 | (buffer.get(offset+1)&0xFF))-16383;
+		long mantissa=buffer.getLong(offset+2);
+		double retVal=Math.scalb((double)(mantissa>>>1), exponent-62);
+		return (buffer.get(offset)&0x80)!=0 ? -retVal : retVal;
+	}
+}
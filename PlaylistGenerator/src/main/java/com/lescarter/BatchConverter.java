@@ -0,0 +1,166 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is used to convert a whole directory of playlists using a pool of worker threads.
+ * <br/><br/>
+ * Playlists are handed to the workers through a bounded queue, when the queue is full the thread submitting the
+ * playlists converts the next one itself which stops a large directory from being queued up in memory all at once.
+ * A failure in one playlist does not affect any of the others, and the results are reported in the same order
+ * that the playlists were found followed by a summary of the run.
+ *
+ * @author Les Carter
+ */
+public class BatchConverter
+{
+	public static final String STR_THREAD_NAME="PlaylistGenerator-worker-";
+
+	protected final PlaylistGenerator generator;
+	protected final int threads;
+	protected final int queueSize;
+
+	protected int playlistCount=0;
+	protected int fileCount=0;
+	protected int failedCount=0;
+	protected int upToDateCount=0;
+
+	/**
+	 * @param generator the generator used to convert each playlist.
+	 * @param threads the number of worker threads, values less than 1 are treated as 1.
+	 * @param queueSize the maximum number of playlists waiting for a worker, 0 or less means four per worker thread.
+	 */
+	public BatchConverter(PlaylistGenerator generator, int threads, int queueSize)
+	{
+		super();
+		this.generator=generator;
+		this.threads=Math.max(1, threads);
+		this.queueSize=queueSize>0 ? queueSize : this.threads*4;
+	}
+
+	/**
+	 * This method is used to convert all of the candidate playlists, reporting each result in order followed by a summary.
+	 * @param srcDir the source directory to read playlists
+	 * @param destDir the destination directory to write playlists
+	 * @param m3u8Candidates the names (without extension) of the m3u8 files to convert
+	 * @param txtCandidates the names (without extension) of the KUVO txt files available
+	 * @param sinks the output formats each playlist should be written in
+	 * @param manifest the manifest used to skip playlists that are up to date, or <code>null</code> to convert them all
+	 */
+	public void convert(String srcDir, String destDir, List<String> m3u8Candidates, Set<String> txtCandidates, List<PlaylistSink> sinks, ConversionManifest manifest)
+	{
+		convert(Paths.get(srcDir), destDir, m3u8Candidates, txtCandidates, sinks, manifest);
+	}
+
+	/**
+	 * This method is used to convert all of the candidate playlists, reporting each result in order followed by a summary.
+	 * The directory may be inside a zip, the workers then read their playlists from the zip at the same time.
+	 * @param srcDir the directory to read playlists
+	 * @param destDir the destination directory to write playlists
+	 * @param m3u8Candidates the names (without extension) of the m3u8 files to convert
+	 * @param txtCandidates the names (without extension) of the KUVO txt files available
+	 * @param sinks the output formats each playlist should be written in
+	 * @param manifest the manifest used to skip playlists that are up to date, or <code>null</code> to convert them all
+	 */
+	public void convert(final Path srcDir, final String destDir, List<String> m3u8Candidates, final Set<String> txtCandidates, final List<PlaylistSink> sinks, final ConversionManifest manifest)
+	{
+		long start=System.currentTimeMillis();
+
+		final AtomicInteger threadNumber=new AtomicInteger(1);
+		ThreadPoolExecutor executor=new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread retVal=new Thread(r, STR_THREAD_NAME+threadNumber.getAndIncrement());
+						retVal.setDaemon(true);
+						return retVal;
+					}
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		ArrayDeque<Future<ConversionResult>> pending=new ArrayDeque<Future<ConversionResult>>();
+		try {
+			for(final String m3u8 : m3u8Candidates)
+			{
+				pending.add(executor.submit(new Callable<ConversionResult>() {
+					@Override
+					public ConversionResult call()
+					{
+						return generator.convertPlaylist(srcDir, destDir, m3u8, sinks, txtCandidates.contains(m3u8), manifest);
+					}
+				}));
+
+				//Report whatever has finished at the head of the queue so output keeps flowing in order
+				while(!pending.isEmpty() && pending.peek().isDone())
+				{
+					report(pending.poll());
+				}
+			}
+
+			while(!pending.isEmpty())
+			{
+				report(pending.poll());
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		generator.getOut().println("Processed "+playlistCount+" playlist(s) using "+threads+" thread(s) in "+(System.currentTimeMillis()-start)+"ms, "
+				+fileCount+" file(s) created, "+upToDateCount+" playlist(s) up to date, "+failedCount+" playlist(s) failed");
+	}
+
+	/**
+	 * This method is used to print the result of a playlist conversion, waiting for it to finish if needed.
+	 * @param future the pending result.
+	 */
+	protected void report(Future<ConversionResult> future)
+	{
+		ConversionResult result;
+		try {
+			result=future.get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for playlist conversion", e);
+		} catch (ExecutionException e)
+		{
+			//PlaylistGenerator.convertPlaylist captures exceptions so this is only an Error escaping a worker
+			generator.getErr().println("Exception happened, unable to convert playlist : "+e.getCause());
+			e.getCause().printStackTrace(generator.getErr());
+			playlistCount++;
+			failedCount++;
+			return;
+		}
+
+		playlistCount++;
+		fileCount+=result.createdFiles.size();
+		generator.report(result);
+		if(result.isFailed())
+		{
+			failedCount++;
+		}
+		else if(result.isUpToDate())
+		{
+			upToDateCount++;
+		}
+	}
+}
@@ -0,0 +1,434 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class is used to remember which playlists have already been converted, so that unchanged playlists can be skipped.
+ * <br/><br/>
+ * The manifest is kept in the destination directory and records, per playlist, the size and last modified time of the
+ * m3u8 and KUVO txt files, a checksum of their content and the formats that were written, along with the settings that
+ * change what is written.  A playlist is up to date when all of its output files exist and either the size and modified
+ * time of its source files are unchanged, or they have been touched but their content hasn't changed.
+ *
+ * @author Les Carter
+ */
+public class ConversionManifest
+{
+	public static final String STR_MANIFEST_FILENAME=".playlistgenerator.manifest";
+	public static final String STR_MANIFEST_COMMENT="PlaylistGenerator conversion manifest: playlist=m3u8 size,m3u8 modified,txt size,txt modified,checksum,formats";
+	public static final String STR_FORMAT_SEPARATOR="+";
+	public static final String STR_SETTING_PROBE="probe";
+	public static final String STR_SETTING_INDEX="index";
+	public static final int BUFFER_SIZE=64*1024;
+
+	protected final Path file;
+	protected final Map<String, Fingerprint> records=new ConcurrentHashMap<String, Fingerprint>();
+	protected volatile boolean isModified=false;
+	protected boolean isForce=false;
+
+	/**
+	 * @param destDir the destination directory the manifest belongs to.
+	 */
+	public ConversionManifest(String destDir)
+	{
+		super();
+		this.file=Paths.get(destDir, STR_MANIFEST_FILENAME);
+	}
+
+	/**
+	 * This method is used to load the manifest for a destination directory, if the manifest can't be read an empty one is
+	 * returned and every playlist will be converted.
+	 * @param destDir the destination directory.
+	 * @return the manifest.
+	 */
+	public static ConversionManifest load(String destDir)
+	{
+		return load(destDir, System.err);
+	}
+
+	/**
+	 * This method is used to load the manifest for a destination directory, if the manifest can't be read an empty one is
+	 * returned and every playlist will be converted.
+	 * @param destDir the destination directory.
+	 * @param err where a manifest that can't be read is reported.
+	 * @return the manifest.
+	 */
+	public static ConversionManifest load(String destDir, PrintStream err)
+	{
+		ConversionManifest retVal=new ConversionManifest(destDir);
+		if(!Files.exists(retVal.file))
+		{
+			return retVal;
+		}
+
+		Properties properties=new Properties();
+		try {
+			InputStream in=new BufferedInputStream(Files.newInputStream(retVal.file));
+			try {
+				properties.load(in);
+			}
+			finally
+			{
+				in.close();
+			}
+		} catch (IOException e)
+		{
+			err.println("Unable to read "+retVal.file+", all playlists will be converted : "+e.getLocalizedMessage());
+			return retVal;
+		}
+
+		for(String playlist : properties.stringPropertyNames())
+		{
+			Fingerprint fingerprint=Fingerprint.parse(properties.getProperty(playlist));
+			if(fingerprint!=null)
+			{
+				retVal.records.put(playlist, fingerprint);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Sets whether every playlist should be treated as out of date.  The manifest is still updated as playlists are converted.
+	 * @param isForce <code>true</code> to convert every playlist.
+	 */
+	public void setForce(boolean isForce)
+	{
+		this.isForce=isForce;
+	}
+
+	/**
+	 * This method is used to take the fingerprint of a playlist's source files.  Only the file sizes and modified times are
+	 * read here, the checksum of the content is only worked out if it's needed.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param playlist the name of the playlist (without the file extension).
+	 * @param hasTxt <code>true</code> if the KUVO txt file is part of the playlist.
+	 * @param formats the formats the playlist is being converted to.
+	 * @return the fingerprint.
+	 * @throws IOException
+	 */
+	public Fingerprint fingerprint(String srcDir, String playlist, boolean hasTxt, String formats) throws IOException
+	{
+		return fingerprint(Paths.get(srcDir), playlist, hasTxt, formats);
+	}
+
+	/**
+	 * This method is used to take the fingerprint of a playlist's source files, which may be inside a zip.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param playlist the name of the playlist (without the file extension).
+	 * @param hasTxt <code>true</code> if the KUVO txt file is part of the playlist.
+	 * @param formats the formats the playlist is being converted to.
+	 * @return the fingerprint.
+	 * @throws IOException
+	 */
+	public Fingerprint fingerprint(Path srcDir, String playlist, boolean hasTxt, String formats) throws IOException
+	{
+		Fingerprint retVal=new Fingerprint();
+		retVal.m3u8=srcDir.resolve(playlist+PlaylistGenerator.STR_M3U8_FILE_EXTENSION);
+		BasicFileAttributes attributes=Files.readAttributes(retVal.m3u8, BasicFileAttributes.class);
+		retVal.m3u8Size=attributes.size();
+		retVal.m3u8Modified=attributes.lastModifiedTime().toMillis();
+		if(hasTxt)
+		{
+			retVal.txt=srcDir.resolve(playlist+PlaylistGenerator.STR_TXT_FILE_EXTENSION);
+			attributes=Files.readAttributes(retVal.txt, BasicFileAttributes.class);
+			retVal.txtSize=attributes.size();
+			retVal.txtModified=attributes.lastModifiedTime().toMillis();
+		}
+		retVal.formats=formats;
+		return retVal;
+	}
+
+	/**
+	 * This method is used to check whether a playlist needs converting.
+	 * @param destDir the directory where the converted playlists are written to.
+	 * @param playlist the name of the playlist (without the file extension).
+	 * @param sinks the sinks the playlist would be written by.
+	 * @param fingerprint the current fingerprint of the playlist's source files.
+	 * @return <code>true</code> if the playlist has already been converted from the same source.
+	 * @throws IOException
+	 */
+	public boolean isUpToDate(String destDir, String playlist, List<PlaylistSink> sinks, Fingerprint fingerprint) throws IOException
+	{
+		Fingerprint previous=records.get(playlist);
+		if(isForce || previous==null || !previous.formats.equals(fingerprint.formats))
+		{
+			return false;
+		}
+
+		for(PlaylistSink sink : sinks)
+		{
+			if(!new File(sink.getFilename(playlist, destDir)).exists())
+			{
+				return false;
+			}
+		}
+
+		if(previous.m3u8Size==fingerprint.m3u8Size && previous.m3u8Modified==fingerprint.m3u8Modified
+				&& previous.txtSize==fingerprint.txtSize && previous.txtModified==fingerprint.txtModified)
+		{
+			return true;
+		}
+
+		//Touched but possibly not changed, e.g. re-exported from Rekordbox
+		if(previous.m3u8Size!=fingerprint.m3u8Size || previous.txtSize!=fingerprint.txtSize
+				|| previous.checksum!=fingerprint.getChecksum())
+		{
+			return false;
+		}
+		records.put(playlist, fingerprint);
+		isModified=true;
+		return true;
+	}
+
+	/**
+	 * This method is used to record that a playlist has been converted.  The checksum is only read now, so if the source
+	 * files have been written to since the fingerprint was taken the playlist is left out of the manifest instead, and will
+	 * be converted again next time.
+	 * @param playlist the name of the playlist (without the file extension).
+	 * @param fingerprint the fingerprint of the source files the playlist was converted from.
+	 * @throws IOException
+	 */
+	public void update(String playlist, Fingerprint fingerprint) throws IOException
+	{
+		fingerprint.getChecksum();
+		if(!fingerprint.isUnchanged())
+		{
+			remove(playlist);
+			return;
+		}
+		records.put(playlist, fingerprint);
+		isModified=true;
+	}
+
+	/**
+	 * This method is used to forget a playlist, e.g. when its source files have been deleted.
+	 * @param playlist the name of the playlist (without the file extension).
+	 */
+	public void remove(String playlist)
+	{
+		if(records.remove(playlist)!=null)
+		{
+			isModified=true;
+		}
+	}
+
+	/**
+	 * This method is used to write the manifest back to the destination directory if anything has changed.  The manifest is
+	 * written to a temporary file first and moved into place so a failed write can't leave it half written.
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		if(!isModified)
+		{
+			return;
+		}
+		isModified=false;
+
+		Properties properties=new Properties();
+		for(Map.Entry<String, Fingerprint> record : records.entrySet())
+		{
+			properties.setProperty(record.getKey(), record.getValue().toString());
+		}
+
+		Path tempFile=file.resolveSibling(STR_MANIFEST_FILENAME+".tmp");
+		OutputStream out=new BufferedOutputStream(Files.newOutputStream(tempFile));
+		try {
+			properties.store(out, STR_MANIFEST_COMMENT);
+		}
+		finally
+		{
+			out.close();
+		}
+		try {
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * This method is used to work out the formats string recorded for a set of sinks.
+	 * @param sinks the sinks.
+	 * @return the formats of the sinks joined together.
+	 */
+	public static String getFormats(List<PlaylistSink> sinks)
+	{
+		StringBuilder retVal=new StringBuilder();
+		for(PlaylistSink sink : sinks)
+		{
+			if(retVal.length()>0)
+			{
+				retVal.append(STR_FORMAT_SEPARATOR);
+			}
+			retVal.append(sink.getFormat());
+		}
+		return retVal.toString();
+	}
+
+	/**
+	 * This method is used to work out the formats string recorded for a set of sinks, followed by the settings that change
+	 * what the sinks write, so that changing one of them converts the playlist again.
+	 * @param sinks the sinks.
+	 * @param isProbe <code>true</code> if the audio file headers are read for the track details.
+	 * @param isIndexed <code>true</code> if the playlist has no KUVO txt file and its track details come from the track index.
+	 * @return the formats of the sinks and the settings joined together.
+	 */
+	public static String getFormats(List<PlaylistSink> sinks, boolean isProbe, boolean isIndexed)
+	{
+		StringBuilder retVal=new StringBuilder(getFormats(sinks));
+		if(isProbe)
+		{
+			retVal.append(STR_FORMAT_SEPARATOR).append(STR_SETTING_PROBE);
+		}
+		if(isIndexed)
+		{
+			retVal.append(STR_FORMAT_SEPARATOR).append(STR_SETTING_INDEX);
+		}
+		return retVal.toString();
+	}
+
+	/**
+	 * This class is used to hold the state of a playlist's source files.
+	 *
+	 * @author Les Carter
+	 */
+	public static class Fingerprint
+	{
+		protected Path m3u8;
+		protected Path txt;
+		public long m3u8Size=-1;
+		public long m3u8Modified=-1;
+		public long txtSize=-1;
+		public long txtModified=-1;
+		public long checksum=-1;
+		public String formats="";
+
+		/**
+		 * @return the CRC32 of the m3u8 file followed by the KUVO txt file, worked out the first time it's asked for.
+		 * @throws IOException
+		 */
+		public long getChecksum() throws IOException
+		{
+			if(checksum<0 && m3u8!=null)
+			{
+				CRC32 crc=new CRC32();
+				ByteBuffer buffer=ByteBuffer.allocate(BUFFER_SIZE);
+				update(crc, m3u8, buffer);
+				if(txt!=null)
+				{
+					update(crc, txt, buffer);
+				}
+				checksum=crc.getValue();
+			}
+			return checksum;
+		}
+
+		/**
+		 * @return <code>true</code> if the source files still have the sizes and modified times the fingerprint was taken with.
+		 * @throws IOException
+		 */
+		public boolean isUnchanged() throws IOException
+		{
+			if(m3u8==null)
+			{
+				return false;
+			}
+			return isUnchanged(m3u8, m3u8Size, m3u8Modified) && (txt==null || isUnchanged(txt, txtSize, txtModified));
+		}
+
+		protected static boolean isUnchanged(Path path, long size, long modified) throws IOException
+		{
+			BasicFileAttributes attributes;
+			try {
+				attributes=Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (NoSuchFileException e)
+			{
+				return false;
+			}
+			return attributes.size()==size && attributes.lastModifiedTime().toMillis()==modified;
+		}
+
+		protected static void update(CRC32 crc, Path path, ByteBuffer buffer) throws IOException
+		{
+			//A FileChannel on a zip entry would extract it to a temporary file first
+			SeekableByteChannel channel;
+			try {
+				channel=Files.newByteChannel(path, StandardOpenOption.READ);
+			} catch (NoSuchFileException e)
+			{
+				return;
+			}
+			try {
+				buffer.clear();
+				while(channel.read(buffer)>0)
+				{
+					crc.update(buffer.array(), 0, buffer.position());
+					buffer.clear();
+				}
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return m3u8Size+","+m3u8Modified+","+txtSize+","+txtModified+","+checksum+","+formats;
+		}
+
+		/**
+		 * @param value a fingerprint as written by {@link #toString()}.
+		 * @return the fingerprint, or <code>null</code> if the value can't be parsed.
+		 */
+		public static Fingerprint parse(String value)
+		{
+			String[] fields=value.split(",", 6);
+			if(fields.length!=6)
+			{
+				return null;
+			}
+			try {
+				Fingerprint retVal=new Fingerprint();
+				retVal.m3u8Size=Long.parseLong(fields[0]);
+				retVal.m3u8Modified=Long.parseLong(fields[1]);
+				retVal.txtSize=Long.parseLong(fields[2]);
+				retVal.txtModified=Long.parseLong(fields[3]);
+				retVal.checksum=Long.parseLong(fields[4]);
+				retVal.formats=fields[5];
+				return retVal;
+			} catch (NumberFormatException e)
+			{
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,525 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class is used to add up how long each stage of converting playlists takes and how much work is done, so a slow
+ * run can be put down to parsing, looking at the audio files, building the DOM or writing the output.
+ * <br/><br/>
+ * Each playlist's {@link ConversionResult} holds its own timings and counts while it is converted, and is added in here
+ * once it has finished, so the worker threads only touch the shared counters once per playlist.  The totals can be read
+ * over JMX while the generator is running and are written out as a JSON report at the end of each run; the report also
+ * holds the latest result for every playlist.
+ *
+ * @author Les Carter
+ */
+public class ConversionMetrics implements ConversionMetricsMXBean
+{
+	public static final String STR_OBJECT_NAME="com.lescarter:type=PlaylistGenerator";
+	public static final String STR_REPORT_FILENAME=".playlistgenerator.report.json";
+	public static final String STR_REGISTER_THREAD_NAME="PlaylistGenerator-jmx";
+	public static final long REGISTER_DELAY=1000;
+
+	/**
+	 * The stages of converting a playlist.  Probing is part of resolving the tracks, so {@link #RESOLVE} includes the time
+	 * in {@link #PROBE}.  Building the DOM is part of writing the XML, so {@link #WRITE_XML} includes the time in
+	 * {@link #BUILD_DOM}, which is only counted in the totals.  Reading the collection of a whole Rekordbox library is
+	 * {@link #PARSE_LIBRARY}, which is also only counted in the totals.
+	 */
+	public enum Stage
+	{
+		MANIFEST("manifest"),
+		PARSE_M3U8("parseM3u8"),
+		PARSE_TXT("parseTxt"),
+		PARSE_LIBRARY("parseLibrary"),
+		RESOLVE("resolve"),
+		PROBE("probe"),
+		SYNC("sync"),
+		BUILD_INDEX("buildIndex"),
+		QUERY("query"),
+		BUILD_DOM("buildDom"),
+		WRITE_XML("writeXml"),
+		WRITE_JSON("writeJson");
+
+		protected final String label;
+
+		private Stage(String label)
+		{
+			this.label=label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+
+		/**
+		 * @param format the format of a {@link PlaylistSink}.
+		 * @return the stage writing that format, or <code>null</code> if it isn't one that is timed.
+		 */
+		public static Stage forFormat(String format)
+		{
+			if("XML".equals(format))
+			{
+				return WRITE_XML;
+			}
+			if("JSON".equals(format))
+			{
+				return WRITE_JSON;
+			}
+			return null;
+		}
+	}
+
+	protected volatile long startTime=System.currentTimeMillis();
+	protected final LongAdder playlists=new LongAdder();
+	protected final LongAdder playlistsUpToDate=new LongAdder();
+	protected final LongAdder playlistsFailed=new LongAdder();
+	protected final LongAdder filesCreated=new LongAdder();
+	protected final LongAdder filesFailed=new LongAdder();
+	protected final LongAdder tracksParsed=new LongAdder();
+	protected final LongAdder rowsJoined=new LongAdder();
+	protected final LongAdder trackLookups=new LongAdder();
+	protected final LongAdder trackProbes=new LongAdder();
+	protected final LongAdder tracksSynced=new LongAdder();
+	protected final LongAdder bytesWritten=new LongAdder();
+	protected final LongAdder[] stageNanos=new LongAdder[Stage.values().length];
+	protected final LongAdder[] stageCounts=new LongAdder[stageNanos.length];
+	protected final ConcurrentHashMap<String, ConversionResult> results=new ConcurrentHashMap<String, ConversionResult>();
+	protected ObjectName objectName=null;
+
+	public ConversionMetrics()
+	{
+		super();
+		for(int i=0;i<stageNanos.length;i++)
+		{
+			stageNanos[i]=new LongAdder();
+			stageCounts[i]=new LongAdder();
+		}
+	}
+
+	/**
+	 * This method is used to add the outcome of converting a playlist to the totals.
+	 * @param result the result of the conversion.
+	 */
+	public void record(ConversionResult result)
+	{
+		playlists.increment();
+		if(result.isFailed())
+		{
+			playlistsFailed.increment();
+		}
+		else if(result.isUpToDate())
+		{
+			playlistsUpToDate.increment();
+		}
+		filesCreated.add(result.createdFiles.size());
+		filesFailed.add(result.failures.size());
+		tracksParsed.add(result.tracks);
+		rowsJoined.add(result.rowsJoined);
+		trackLookups.add(result.trackLookups);
+		trackProbes.add(result.trackProbes);
+		tracksSynced.add(result.tracksSynced);
+		bytesWritten.add(result.bytesWritten);
+		for(int i=0;i<stageNanos.length;i++)
+		{
+			if(result.stageCounts[i]>0)
+			{
+				stageNanos[i].add(result.stageNanos[i]);
+				stageCounts[i].add(result.stageCounts[i]);
+			}
+		}
+		results.put(result.playlist, result);
+	}
+
+	/**
+	 * This method is used to add the time taken by a stage that isn't part of a single playlist's conversion.
+	 * @param stage the stage.
+	 * @param start the value of <code>System.nanoTime()</code> when the stage started.
+	 */
+	public void timed(Stage stage, long start)
+	{
+		stageNanos[stage.ordinal()].add(System.nanoTime()-start);
+		stageCounts[stage.ordinal()].increment();
+	}
+
+	/**
+	 * This method is used to record the size of a file written outside of a single playlist's conversion.
+	 * @param bytes the size of the file.
+	 */
+	public void written(long bytes)
+	{
+		filesCreated.increment();
+		bytesWritten.add(bytes);
+	}
+
+	@Override
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	@Override
+	public long getPlaylists()
+	{
+		return playlists.sum();
+	}
+
+	@Override
+	public long getPlaylistsUpToDate()
+	{
+		return playlistsUpToDate.sum();
+	}
+
+	@Override
+	public long getPlaylistsFailed()
+	{
+		return playlistsFailed.sum();
+	}
+
+	@Override
+	public long getFilesCreated()
+	{
+		return filesCreated.sum();
+	}
+
+	@Override
+	public long getFilesFailed()
+	{
+		return filesFailed.sum();
+	}
+
+	@Override
+	public long getTracksParsed()
+	{
+		return tracksParsed.sum();
+	}
+
+	@Override
+	public long getRowsJoined()
+	{
+		return rowsJoined.sum();
+	}
+
+	@Override
+	public long getTrackLookups()
+	{
+		return trackLookups.sum();
+	}
+
+	@Override
+	public long getTrackProbes()
+	{
+		return trackProbes.sum();
+	}
+
+	@Override
+	public long getTracksSynced()
+	{
+		return tracksSynced.sum();
+	}
+
+	@Override
+	public long getBytesWritten()
+	{
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public Map<String, Long> getStageMillis()
+	{
+		LinkedHashMap<String, Long> retVal=new LinkedHashMap<String, Long>();
+		for(Stage stage : Stage.values())
+		{
+			retVal.put(stage.label, Long.valueOf(stageNanos[stage.ordinal()].sum()/1000000L));
+		}
+		return retVal;
+	}
+
+	@Override
+	public Map<String, Long> getStageCounts()
+	{
+		LinkedHashMap<String, Long> retVal=new LinkedHashMap<String, Long>();
+		for(Stage stage : Stage.values())
+		{
+			retVal.put(stage.label, Long.valueOf(stageCounts[stage.ordinal()].sum()));
+		}
+		return retVal;
+	}
+
+	@Override
+	public void reset()
+	{
+		startTime=System.currentTimeMillis();
+		for(LongAdder adder : new LongAdder[] {playlists, playlistsUpToDate, playlistsFailed, filesCreated, filesFailed,
+				tracksParsed, rowsJoined, trackLookups, trackProbes, tracksSynced, bytesWritten})
+		{
+			adder.reset();
+		}
+		for(int i=0;i<stageNanos.length;i++)
+		{
+			stageNanos[i].reset();
+			stageCounts[i].reset();
+		}
+		results.clear();
+	}
+
+	/**
+	 * This method is used to make the metrics visible over JMX as {@link #STR_OBJECT_NAME}.  A failure is reported and
+	 * otherwise ignored, the conversion doesn't depend on it.
+	 */
+	public synchronized void register()
+	{
+		if(objectName!=null)
+		{
+			return;
+		}
+		try {
+			MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+			ObjectName name=new ObjectName(STR_OBJECT_NAME);
+			if(server.isRegistered(name))
+			{
+				//Another generator in the same JVM, the most recent one is the one worth watching
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			objectName=name;
+		} catch (Exception e)
+		{
+			System.err.println("Exception happened, unable to register "+STR_OBJECT_NAME+" : "+e.getLocalizedMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * This method is used to register the metrics over JMX once the run has gone on for a while.  Starting the platform
+	 * MBean server takes longer than converting a small playlist, so a short run is over before it pays for it.
+	 * @param delayMillis how long to wait before registering.
+	 */
+	public void registerLater(final long delayMillis)
+	{
+		Thread thread=new Thread(STR_REGISTER_THREAD_NAME) {
+			@Override
+			public void run()
+			{
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+				register();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * This method is used to remove the metrics from JMX.
+	 */
+	public synchronized void unregister()
+	{
+		if(objectName==null)
+		{
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (Exception e)
+		{
+			//Already gone
+		}
+		objectName=null;
+	}
+
+	/**
+	 * This method is used to write the totals, and the latest result for each playlist, as a JSON report.  The report is
+	 * written to a temporary file first and moved into place so something reading it never sees it half written.
+	 * @param filename the report file.
+	 * @param srcDir the source directory of the run.
+	 * @param destDir the destination directory of the run.
+	 * @throws IOException
+	 */
+	public void writeReport(String filename, String srcDir, String destDir) throws IOException
+	{
+		SimpleDateFormat dateFormat=new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		long now=System.currentTimeMillis();
+
+		StringBuilder json=new StringBuilder(1024+results.size()*512);
+		json.append("{\n");
+		field(json, 1, "started", dateFormat.format(new Date(startTime))).append(",\n");
+		field(json, 1, "finished", dateFormat.format(new Date(now))).append(",\n");
+		field(json, 1, "elapsedMillis", now-startTime).append(",\n");
+		field(json, 1, "srcDir", srcDir).append(",\n");
+		field(json, 1, "destDir", destDir).append(",\n");
+		indent(json, 1).append("\"totals\": {\n");
+		field(json, 2, "playlists", getPlaylists()).append(",\n");
+		field(json, 2, "playlistsUpToDate", getPlaylistsUpToDate()).append(",\n");
+		field(json, 2, "playlistsFailed", getPlaylistsFailed()).append(",\n");
+		field(json, 2, "filesCreated", getFilesCreated()).append(",\n");
+		field(json, 2, "filesFailed", getFilesFailed()).append(",\n");
+		field(json, 2, "tracksParsed", getTracksParsed()).append(",\n");
+		field(json, 2, "rowsJoined", getRowsJoined()).append(",\n");
+		field(json, 2, "trackLookups", getTrackLookups()).append(",\n");
+		field(json, 2, "trackProbes", getTrackProbes()).append(",\n");
+		field(json, 2, "tracksSynced", getTracksSynced()).append(",\n");
+		field(json, 2, "bytesWritten", getBytesWritten()).append("\n");
+		indent(json, 1).append("},\n");
+		indent(json, 1).append("\"stages\": {\n");
+		Stage[] stages=Stage.values();
+		for(int i=0;i<stages.length;i++)
+		{
+			indent(json, 2).append('"').append(stages[i].label).append("\": {\"count\": ").append(stageCounts[i].sum())
+				.append(", \"millis\": ").append(millis(stageNanos[i].sum())).append('}').append(i<stages.length-1 ? ",\n" : "\n");
+		}
+		indent(json, 1).append("},\n");
+		indent(json, 1).append("\"playlists\": [");
+		ArrayList<String> names=new ArrayList<String>(results.keySet());
+		Collections.sort(names);
+		for(int i=0;i<names.size();i++)
+		{
+			ConversionResult result=results.get(names.get(i));
+			json.append(i>0 ? ",\n" : "\n");
+			indent(json, 2).append("{\n");
+			field(json, 3, "name", result.playlist).append(",\n");
+			field(json, 3, "status", result.isFailed() ? "failed" : result.isUpToDate() ? "upToDate" : "converted").append(",\n");
+			field(json, 3, "tracks", result.tracks).append(",\n");
+			field(json, 3, "rowsJoined", result.rowsJoined).append(",\n");
+			field(json, 3, "trackLookups", result.trackLookups).append(",\n");
+			field(json, 3, "trackProbes", result.trackProbes).append(",\n");
+			field(json, 3, "tracksSynced", result.tracksSynced).append(",\n");
+			field(json, 3, "bytesWritten", result.bytesWritten).append(",\n");
+			indent(json, 3).append("\"stageMillis\": {");
+			boolean isFirst=true;
+			for(Stage stage : stages)
+			{
+				if(result.stageCounts[stage.ordinal()]>0)
+				{
+					json.append(isFirst ? "" : ", ").append('"').append(stage.label).append("\": ").append(millis(result.stageNanos[stage.ordinal()]));
+					isFirst=false;
+				}
+			}
+			json.append("},\n");
+			array(json, 3, "files", result.createdFiles).append(",\n");
+			array(json, 3, "failures", result.failures).append("\n");
+			indent(json, 2).append('}');
+		}
+		json.append(names.isEmpty() ? "]\n" : "\n\t]\n");
+		json.append("}\n");
+
+		Path file=new File(filename).toPath();
+		Path tempFile=file.resolveSibling(file.getFileName()+".tmp");
+		Files.write(tempFile, json.toString().getBytes(StandardCharsets.UTF_8));
+		try {
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	protected static StringBuilder indent(StringBuilder json, int level)
+	{
+		for(int i=0;i<level;i++)
+		{
+			json.append('\t');
+		}
+		return json;
+	}
+
+	protected static StringBuilder field(StringBuilder json, int level, String name, String value)
+	{
+		indent(json, level).append('"').append(name).append("\": ");
+		return string(json, value);
+	}
+
+	protected static StringBuilder field(StringBuilder json, int level, String name, long value)
+	{
+		return indent(json, level).append('"').append(name).append("\": ").append(value);
+	}
+
+	protected static StringBuilder array(StringBuilder json, int level, String name, List<String> values)
+	{
+		indent(json, level).append('"').append(name).append("\": [");
+		for(int i=0;i<values.size();i++)
+		{
+			string(json.append(i>0 ? ", " : ""), values.get(i));
+		}
+		return json.append(']');
+	}
+
+	protected static StringBuilder string(StringBuilder json, String value)
+	{
+		if(value==null)
+		{
+			return json.append("null");
+		}
+		json.append('"');
+		for(int i=0;i<value.length();i++)
+		{
+			char c=value.charAt(i);
+			switch(c)
+			{
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if(c<0x20)
+				{
+					json.append(String.format("\\u%04x", Integer.valueOf(c)));
+				}
+				else
+				{
+					json.append(c);
+				}
+			}
+		}
+		return json.append('"');
+	}
+
+	/**
+	 * @return the nanoseconds as milliseconds to three decimal places.
+	 */
+	protected static String millis(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", Double.valueOf(nanos/1000000.0));
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.util.Map;
+
+/**
+ * This interface is used to expose the {@link ConversionMetrics} of a running PlaylistGenerator over JMX, e.g. to
+ * JConsole or a monitoring agent, as <code>com.lescarter:type=PlaylistGenerator</code>.
+ *
+ * @author Les Carter
+ */
+public interface ConversionMetricsMXBean
+{
+	/**
+	 * @return the time the metrics started being gathered, in milliseconds since the epoch.
+	 */
+	public long getStartTime();
+
+	/**
+	 * @return the number of playlists looked at, including those that were up to date or failed.
+	 */
+	public long getPlaylists();
+
+	public long getPlaylistsUpToDate();
+
+	public long getPlaylistsFailed();
+
+	public long getFilesCreated();
+
+	public long getFilesFailed();
+
+	public long getTracksParsed();
+
+	public long getRowsJoined();
+
+	/**
+	 * @return the number of audio files looked at for their size and modified time.
+	 */
+	public long getTrackLookups();
+
+	/**
+	 * @return the number of audio files whose headers were read.
+	 */
+	public long getTrackProbes();
+
+	/**
+	 * @return the number of audio files linked or copied into the music directory being synced.
+	 */
+	public long getTracksSynced();
+
+	public long getBytesWritten();
+
+	/**
+	 * @return the total milliseconds spent in each stage, by stage name.
+	 */
+	public Map<String, Long> getStageMillis();
+
+	/**
+	 * @return the number of times each stage ran, by stage name.
+	 */
+	public Map<String, Long> getStageCounts();
+
+	/**
+	 * This method is used to start gathering the metrics again from zero.
+	 */
+	public void reset();
+}
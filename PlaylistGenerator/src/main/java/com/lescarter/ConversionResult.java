@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.util.ArrayList;
+
+/**
+ * This class is used to hold the outcome of converting a single playlist so that it can be reported
+ * once the conversion has finished, rather than as it happens.  Along with the files created it holds how long each
+ * stage of the conversion took and how much work was done, which {@link ConversionMetrics} adds up across the run.
+ *
+ * @author Les Carter
+ */
+public class ConversionResult
+{
+	public final String playlist;
+	public final ArrayList<String> createdFiles=new ArrayList<String>();
+	public final ArrayList<String> failures=new ArrayList<String>();
+	public final ArrayList<Exception> exceptions=new ArrayList<Exception>();
+	protected boolean isUpToDate=false;
+	protected final long[] stageNanos=new long[ConversionMetrics.Stage.values().length];
+	protected final int[] stageCounts=new int[stageNanos.length];
+	protected int tracks=0;
+	protected int rowsJoined=0;
+	protected int trackLookups=0;
+	protected int trackProbes=0;
+	protected int tracksSynced=0;
+	protected long bytesWritten=0;
+
+	public ConversionResult(String playlist)
+	{
+		super();
+		this.playlist=playlist;
+	}
+
+	/**
+	 * Records a file that was successfully written for this playlist.
+	 * @param filename the name of the file created.
+	 */
+	public void created(String filename)
+	{
+		createdFiles.add(filename);
+	}
+
+	/**
+	 * Records a failure to produce one of the output formats for this playlist.
+	 * @param format the description of the format that failed, e.g. <code>JSON</code> or <code>XML</code>.
+	 * @param e the exception that caused the failure.
+	 */
+	public void failed(String format, Exception e)
+	{
+		failures.add("Exception happened, unable to construct "+format+" playlist "+playlist+" : "+e.getLocalizedMessage());
+		exceptions.add(e);
+	}
+
+	/**
+	 * Records that the playlist was skipped as its output is already up to date.
+	 */
+	public void upToDate()
+	{
+		isUpToDate=true;
+	}
+
+	/**
+	 * @return <code>true</code> if the playlist was skipped as its output is already up to date.
+	 */
+	public boolean isUpToDate()
+	{
+		return isUpToDate;
+	}
+
+	/**
+	 * @return <code>true</code> if any of the output formats failed for this playlist.
+	 */
+	public boolean isFailed()
+	{
+		return !failures.isEmpty();
+	}
+
+	/**
+	 * Records the time taken by one stage of the conversion.
+	 * @param stage the stage.
+	 * @param start the value of <code>System.nanoTime()</code> when the stage started.
+	 */
+	public void timed(ConversionMetrics.Stage stage, long start)
+	{
+		stageNanos[stage.ordinal()]+=System.nanoTime()-start;
+		stageCounts[stage.ordinal()]++;
+	}
+
+	/**
+	 * Records the tracks parsed from the playlist.
+	 * @param tracks the number of tracks in the m3u8 file.
+	 * @param rowsJoined the number of KUVO txt rows joined onto them.
+	 * @param trackLookups the number of audio files looked at for their size.
+	 */
+	public void parsed(int tracks, int rowsJoined, int trackLookups)
+	{
+		this.tracks+=tracks;
+		this.rowsJoined+=rowsJoined;
+		this.trackLookups+=trackLookups;
+	}
+
+	/**
+	 * Records the audio files whose headers were read.
+	 * @param trackProbes the number of audio files probed.
+	 */
+	public void probed(int trackProbes)
+	{
+		this.trackProbes+=trackProbes;
+	}
+
+	/**
+	 * Records the audio files linked or copied into the music directory being synced.
+	 * @param tracksSynced the number of audio files linked or copied.
+	 */
+	public void synced(int tracksSynced)
+	{
+		this.tracksSynced+=tracksSynced;
+	}
+
+	/**
+	 * Records the size of a file written for this playlist.
+	 * @param bytes the size of the file.
+	 */
+	public void written(long bytes)
+	{
+		bytesWritten+=bytes;
+	}
+
+	/**
+	 * @param stage a stage of the conversion.
+	 * @return the nanoseconds spent in the stage for this playlist.
+	 */
+	public long getStageNanos(ConversionMetrics.Stage stage)
+	{
+		return stageNanos[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage a stage of the conversion.
+	 * @return the number of times the stage ran for this playlist.
+	 */
+	public int getStageCount(ConversionMetrics.Stage stage)
+	{
+		return stageCounts[stage.ordinal()];
+	}
+
+	public int getTracks()
+	{
+		return tracks;
+	}
+
+	public int getRowsJoined()
+	{
+		return rowsJoined;
+	}
+
+	public int getTrackLookups()
+	{
+		return trackLookups;
+	}
+
+	public int getTrackProbes()
+	{
+		return trackProbes;
+	}
+
+	public int getTracksSynced()
+	{
+		return tracksSynced;
+	}
+
+	public long getBytesWritten()
+	{
+		return bytesWritten;
+	}
+}
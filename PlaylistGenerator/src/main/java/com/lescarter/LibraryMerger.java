@@ -0,0 +1,364 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to merge every playlist in a directory into a single Rekordbox 5 XML library.
+ * <br/><br/>
+ * Each track is added to the <code>COLLECTION</code> once, the first time its location is seen, and is given a
+ * <code>TrackID</code> that is unique across the whole library.  Playlists are read in name order so the same source
+ * directory always gives the same IDs.  Each playlist becomes a <code>NODE</code> under <code>PLAYLISTS</code> that refers
+ * to its tracks by ID.  Only the unique tracks are held on to, in a {@link TrackTable}, and each playlist just keeps an
+ * array of track IDs, so memory grows with the size of the library rather than the number of playlist entries.
+ *
+ * @author Les Carter
+ */
+public class LibraryMerger
+{
+	public static final String STR_UNC_URI_PREFIX="file:////";
+	public static final String STR_THREAD_NAME="PlaylistGenerator-merge-";
+
+	protected final PlaylistGenerator generator;
+
+	protected final HashMap<PathStore.Location, Integer> trackIds=new HashMap<PathStore.Location, Integer>();
+	protected final HashMap<String, Integer> windowsTrackIds=new HashMap<String, Integer>();
+	protected final TrackTable tracks;
+	protected final ArrayList<String> playlistNames=new ArrayList<String>();
+	protected final ArrayList<int[]> playlistTracks=new ArrayList<int[]>();
+	protected int entryCount=0;
+
+	/**
+	 * @param generator the generator used to parse the playlists and describe the tracks.
+	 */
+	public LibraryMerger(PlaylistGenerator generator)
+	{
+		super();
+		this.generator=generator;
+		this.tracks=new TrackTable(TrackTable.INITIAL_CAPACITY, generator.getPathStore());
+	}
+
+	/**
+	 * @return the unique tracks read so far, in the order they were first seen.
+	 */
+	public TrackTable getTracks()
+	{
+		return tracks;
+	}
+
+	/**
+	 * @return the number of playlists read so far.
+	 */
+	public int getPlaylistCount()
+	{
+		return playlistNames.size();
+	}
+
+	/**
+	 * This method is used to merge all playlists in the source directory and write the library out, reporting the outcome.
+	 * @param srcDir the source directory to read playlists
+	 * @param destDir the destination directory to write the library
+	 * @param libraryName the name of the library file (without the <code>.xml</code> extension)
+	 */
+	public void merge(String srcDir, String destDir, String libraryName)
+	{
+		long start=System.currentTimeMillis();
+		String xmlFilename=destDir+File.separator+libraryName+PlaylistGenerator.STR_XML_FILE_EXTENSION;
+		try {
+			ArrayList<String> m3u8Candidates=new ArrayList<String>();
+			HashSet<String> txtCandidates=new HashSet<String>();
+			generator.findPlaylists(srcDir, m3u8Candidates, txtCandidates);
+			generator.openIndex(destDir);
+
+			ArrayList<String> playlists=new ArrayList<String>();
+			for(String m3u8 : m3u8Candidates)
+			{
+				if(txtCandidates.contains(m3u8))
+				{
+					playlists.add(m3u8);
+				}
+				else
+				{
+					generator.getErr().println("Skipping "+m3u8+", the KUVO txt file is needed for the XML library");
+				}
+			}
+
+			read(srcDir, playlists);
+			long writeStart=System.nanoTime();
+			write(xmlFilename, libraryName);
+			generator.getMetrics().timed(ConversionMetrics.Stage.WRITE_XML, writeStart);
+			generator.getMetrics().written(new File(xmlFilename).length());
+			generator.flushIndex();
+		} catch (Exception e)
+		{
+			generator.getErr().println("Exception happened, unable to construct XML library : "+e.getLocalizedMessage());
+			e.printStackTrace(generator.getErr());
+			generator.writeReport(srcDir, destDir);
+			return;
+		}
+		generator.writeReport(srcDir, destDir);
+		generator.getOut().println("Created "+xmlFilename);
+		generator.getOut().println("Merged "+playlistNames.size()+" playlist(s) with "+entryCount+" entries into "+tracks.size()
+				+" unique track(s) in "+(System.currentTimeMillis()-start)+"ms");
+	}
+
+	/**
+	 * This method is used to read the playlists and intern their tracks.  Playlists are parsed on the worker threads but
+	 * added to the library strictly in the order given, so the track IDs don't depend on thread timing.
+	 * @param srcDir the source directory to read playlists
+	 * @param playlists the names (without extension) of the playlists to read, in order.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void read(final String srcDir, List<String> playlists) throws IOException, InterruptedException
+	{
+		final AtomicInteger threadNumber=new AtomicInteger(1);
+		ExecutorService executor=Executors.newFixedThreadPool(generator.threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread retVal=new Thread(r, STR_THREAD_NAME+threadNumber.getAndIncrement());
+				retVal.setDaemon(true);
+				return retVal;
+			}
+		});
+		int window=generator.threads*2;
+		ArrayDeque<Future<ArrayList<PlaylistEntry>>> pending=new ArrayDeque<Future<ArrayList<PlaylistEntry>>>();
+		try {
+			int next=0;
+			for(String playlist : playlists)
+			{
+				while(next<playlists.size() && pending.size()<window)
+				{
+					final String toParse=playlists.get(next++);
+					pending.add(executor.submit(new Callable<ArrayList<PlaylistEntry>>() {
+						@Override
+						public ArrayList<PlaylistEntry> call() throws Exception
+						{
+							ConversionResult result=new ConversionResult(toParse);
+							try {
+								return generator.loadPlaylist(srcDir, toParse, true, result);
+							} catch (Exception e)
+							{
+								result.failed("XML", e);
+								throw e;
+							}
+							finally
+							{
+								generator.getMetrics().record(result);
+							}
+						}
+					}));
+				}
+
+				try {
+					add(playlist, pending.poll().get());
+				} catch (ExecutionException e)
+				{
+					generator.getErr().println("Exception happened, unable to read playlist "+playlist+" : "+e.getCause().getLocalizedMessage());
+					e.getCause().printStackTrace(generator.getErr());
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * This method is used to add a parsed playlist to the library, interning its tracks by location.
+	 * @param playlistName the name of the playlist.
+	 * @param entries the parsed playlist entries, joined with the KUVO txt data.
+	 */
+	public void add(String playlistName, List<PlaylistEntry> entries)
+	{
+		int[] ids=new int[entries.size()];
+		for(int i=0;i<ids.length;i++)
+		{
+			PlaylistEntry entry=entries.get(i);
+			String canonical=canonicalLocation(entry.fileLocation);
+			String key=locationKey(canonical);
+			Integer id;
+			if(key==canonical)
+			{
+				PathStore.Location location=tracks.getPaths().intern(canonical);
+				id=trackIds.get(location);
+				if(id==null)
+				{
+					id=Integer.valueOf(tracks.add(entry, location)+1);
+					trackIds.put(location, id);
+				}
+			}
+			else
+			{
+				//A Windows location is looked up in lower case, but only the location written out is interned
+				id=windowsTrackIds.get(key);
+				if(id==null)
+				{
+					id=Integer.valueOf(tracks.add(entry, tracks.getPaths().intern(canonical))+1);
+					windowsTrackIds.put(key, id);
+				}
+			}
+			ids[i]=id.intValue();
+		}
+		playlistNames.add(playlistName);
+		playlistTracks.add(ids);
+		entryCount+=ids.length;
+	}
+
+	/**
+	 * This method is used to stream the library out as Rekordbox 5 XML.
+	 * @param xmlFilename the file to write to.
+	 * @param libraryName the name of the library, used as the name of the root playlist folder.
+	 * @throws IOException
+	 */
+	public void write(String xmlFilename, String libraryName) throws IOException
+	{
+		final StreamingXMLWriter writer=new StreamingXMLWriter(FileChannel.open(Paths.get(xmlFilename),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+		try {
+			PlaylistGenerator.AttributeTarget target=new PlaylistGenerator.AttributeTarget() {
+				@Override
+				public void setAttribute(String name, String value)
+				{
+					writer.writeAttribute(name, value);
+				}
+			};
+
+			writer.writeStartDocument();
+			writer.writeStartElement(PlaylistGenerator.STR_DJ_LIST);
+			writer.writeAttribute(PlaylistGenerator.STR_VERSION, PlaylistGenerator.STR_VERSION_NUM);
+
+			writer.writeStartElement(PlaylistGenerator.STR_PRODUCT);
+			writer.writeAttribute(PlaylistGenerator.STR_NAME, PlaylistGenerator.STR_PRODUCT_NAME);
+			writer.writeAttribute(PlaylistGenerator.STR_VERSION, PlaylistGenerator.STR_PRODUCT_VERSION);
+			writer.writeAttribute(PlaylistGenerator.STR_COMPANY, PlaylistGenerator.STR_PRODUCT_COMPANY);
+			writer.writeEndElement();
+
+			writer.writeStartElement(PlaylistGenerator.STR_COLLECTION);
+			writer.writeAttribute(PlaylistGenerator.STR_ENTRIES, Integer.toString(tracks.size()));
+			for(int i=0;i<tracks.size();i++)
+			{
+				writer.writeStartElement(PlaylistGenerator.STR_TRACK);
+				generator.addTrackAttributes(tracks.get(i), Integer.toString(i+1), target);
+				writer.writeEndElement();
+			}
+			writer.writeEndElement();
+
+			writer.writeStartElement(PlaylistGenerator.STR_PLAYLISTS);
+			writer.writeStartElement(PlaylistGenerator.STR_NODE);
+			writer.writeAttribute(PlaylistGenerator.STR_TYPE, "0");
+			writer.writeAttribute(PlaylistGenerator.STR_NAME, "ROOT");
+			writer.writeAttribute(PlaylistGenerator.STR_COUNT, Integer.toString(playlistNames.size()));
+			for(int i=0;i<playlistNames.size();i++)
+			{
+				int[] ids=playlistTracks.get(i);
+				writer.writeStartElement(PlaylistGenerator.STR_NODE);
+				writer.writeAttribute(PlaylistGenerator.STR_NAME, playlistNames.get(i));
+				writer.writeAttribute(PlaylistGenerator.STR_TYPE, "1");
+				writer.writeAttribute(PlaylistGenerator.STR_KEYTYPE, "0");
+				writer.writeAttribute(PlaylistGenerator.STR_ENTRIES, Integer.toString(ids.length));
+				for(int id : ids)
+				{
+					writer.writeStartElement(PlaylistGenerator.STR_TRACK);
+					writer.writeAttribute(PlaylistGenerator.STR_KEY, Integer.toString(id));
+					writer.writeEndElement();
+				}
+				writer.writeEndElement();
+			}
+			writer.writeEndDocument();
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * This method is used to work out the location a track is interned under, so that the same file reached through
+	 * <code>.</code> or <code>..</code> path segments, or on a Windows drive given as <code>d:</code> rather than
+	 * <code>D:</code>, is only added once.
+	 * @param fileLocation the location of the track as held in the playlist entry.
+	 * @return the canonical location.
+	 */
+	protected static String canonicalLocation(String fileLocation)
+	{
+		String retVal=fileLocation;
+		if(retVal.indexOf("/./")>=0 || retVal.indexOf("/../")>=0)
+		{
+			try {
+				retVal=new URI(retVal).normalize().toString();
+			} catch (Exception e)
+			{
+				//Leave a location that isn't a URI as it is
+			}
+		}
+		int drive=driveLetterIndex(retVal);
+		if(drive>=0 && Character.isLowerCase(retVal.charAt(drive)))
+		{
+			retVal=retVal.substring(0, drive)+Character.toUpperCase(retVal.charAt(drive))+retVal.substring(drive+1);
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to work out the key a track is looked up by.  Windows file names aren't case sensitive, so
+	 * a location on a Windows drive or share is looked up in lower case, while the location written out keeps the case
+	 * it was first seen with.
+	 * @param location the canonical location of the track, see {@link #canonicalLocation(String)}.
+	 * @return the key of the track.
+	 */
+	protected static String locationKey(String location)
+	{
+		return isWindowsLocation(location) ? location.toLowerCase(Locale.ROOT) : location;
+	}
+
+	/**
+	 * @param location the location of a track.
+	 * @return <code>true</code> if the location is a file on a Windows drive, e.g. <code>file:/D:/Music/</code>, or on a
+	 * Windows share, <code>file:////server/share/</code>.
+	 */
+	protected static boolean isWindowsLocation(String location)
+	{
+		return driveLetterIndex(location)>=0 || location.startsWith(STR_UNC_URI_PREFIX);
+	}
+
+	/**
+	 * @param location the location of a track.
+	 * @return the index of the drive letter in the location, or -1 if it isn't on a Windows drive.
+	 */
+	protected static int driveLetterIndex(String location)
+	{
+		int start=location.startsWith(PlaylistGenerator.STR_LOCALHOST_URI_PREFIX) ? PlaylistGenerator.STR_LOCALHOST_URI_PREFIX.length()
+				: location.startsWith(PlaylistGenerator.STR_FILE_URI_PREFIX) ? PlaylistGenerator.STR_FILE_URI_PREFIX.length() : -1;
+		if(start<0 || location.length()<start+3 || location.charAt(start+1)!=':' || location.charAt(start+2)!='/')
+		{
+			return -1;
+		}
+		char drive=location.charAt(start);
+		return (drive>='A' && drive<='Z') || (drive>='a' && drive<='z') ? start : -1;
+	}
+}
@@ -0,0 +1,695 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to mirror the audio files of converted playlists into a music directory, e.g. one that is copied
+ * or shared to the Tribe XR machine, and to point the playlist entries at the mirrored files instead.
+ * <br/><br/>
+ * Each audio file is mirrored under the same path it has below the root of its own drive, so <code>D:\Music\a.mp3</code>
+ * becomes <code>Music/a.mp3</code> in the music directory.  The file is hard linked when the music directory is on the
+ * same file system and the links are allowed, otherwise it's copied with <code>FileChannel.transferTo</code> so the
+ * operating system can move the bytes without them passing through the JVM.  A copy is given the modified time of the
+ * file it was copied from.
+ * <br/><br/>
+ * A manifest kept in the music directory records, per audio file, the size and modified time it had when it was
+ * mirrored and where it was mirrored to.  A file whose size and modified time still match, and whose mirror is still
+ * there as it was left, isn't touched again.  A file with the same size as one already mirrored is compared by its
+ * SHA-256 and, if the content is the same, shares the existing mirror rather than being copied again, so the same
+ * track held in two places on the Rekordbox machine is only moved once.
+ * <br/><br/>
+ * Files are mirrored in parallel on a pool of daemon threads shared by every playlist being converted, and a file
+ * referenced by several playlists converted at the same time is only mirrored once.
+ *
+ * @author Les Carter
+ */
+public class LibrarySync
+{
+	public static final String STR_SYNC_MANIFEST_FILENAME=".playlistgenerator.sync";
+	public static final String STR_SYNC_MANIFEST_COMMENT="PlaylistGenerator sync manifest: location=size,modified,mirror modified,sha-256,mirror";
+	public static final String STR_SYNC_THREAD_NAME="PlaylistGenerator-sync-";
+	public static final String STR_PART_FILE_EXTENSION=".part";
+	public static final String STR_HASH_ALGORITHM="SHA-256";
+	public static final int BUFFER_SIZE=64*1024;
+
+	protected final Path syncDir;
+	protected final Path file;
+	protected final int threads;
+	protected final boolean isLinks;
+	protected final Map<String, Record> records=new ConcurrentHashMap<String, Record>();
+	protected final HashMap<Long, List<Record>> recordsBySize=new HashMap<Long, List<Record>>();
+	protected final HashMap<String, Integer> mirrorReferences=new HashMap<String, Integer>();
+	protected final ConcurrentHashMap<String, Future<Record>> running=new ConcurrentHashMap<String, Future<Record>>();
+	protected ExecutorService executor=null;
+	protected volatile boolean isModified=false;
+
+	/**
+	 * @param syncDir the music directory the audio files are mirrored into.
+	 * @param threads the maximum number of audio files mirrored at once, values less than 1 are treated as 1.
+	 * @param isLinks <code>true</code> to hard link audio files on the same file system rather than copy them.
+	 */
+	public LibrarySync(String syncDir, int threads, boolean isLinks)
+	{
+		super();
+		this.syncDir=Paths.get(syncDir).toAbsolutePath();
+		this.file=this.syncDir.resolve(STR_SYNC_MANIFEST_FILENAME);
+		this.threads=Math.max(1, threads);
+		this.isLinks=isLinks;
+	}
+
+	/**
+	 * This method is used to load the sync manifest of a music directory, if the manifest can't be read an empty one is
+	 * used and every audio file is looked at again.  Mirrors that are already there with the right size and modified time
+	 * are still kept rather than copied again.
+	 * @param syncDir the music directory the audio files are mirrored into.
+	 * @param threads the maximum number of audio files mirrored at once.
+	 * @param isLinks <code>true</code> to hard link audio files on the same file system rather than copy them.
+	 * @return the sync.
+	 */
+	public static LibrarySync load(String syncDir, int threads, boolean isLinks)
+	{
+		LibrarySync retVal=new LibrarySync(syncDir, threads, isLinks);
+		if(!Files.exists(retVal.file))
+		{
+			return retVal;
+		}
+
+		Properties properties=new Properties();
+		try {
+			InputStream in=new BufferedInputStream(Files.newInputStream(retVal.file));
+			try {
+				properties.load(in);
+			}
+			finally
+			{
+				in.close();
+			}
+		} catch (IOException e)
+		{
+			System.err.println("Unable to read "+retVal.file+", all audio files will be checked : "+e.getLocalizedMessage());
+			return retVal;
+		}
+
+		for(String location : properties.stringPropertyNames())
+		{
+			Record record=Record.parse(location, properties.getProperty(location));
+			if(record!=null)
+			{
+				retVal.add(record);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the music directory the audio files are mirrored into.
+	 */
+	public Path getSyncDir()
+	{
+		return syncDir;
+	}
+
+	/**
+	 * This method is used to mirror the audio files of a playlist and point its entries at the mirrors.  An entry whose
+	 * audio file can't be mirrored, e.g. because it isn't there, is left pointing at where it was.
+	 * @param playlist the name of the playlist, for reporting.
+	 * @param entries the entries of the playlist.
+	 * @param err where audio files that couldn't be mirrored are reported.
+	 * @return the number of audio files linked or copied for this playlist, files mirrored by another playlist or that
+	 * were already up to date aren't counted.
+	 */
+	public int sync(String playlist, List<PlaylistEntry> entries, PrintStream err)
+	{
+		int retVal=0;
+		int missing=0;
+		ArrayList<Future<Record>> futures=new ArrayList<Future<Record>>(entries.size());
+		boolean[] isOwned=new boolean[entries.size()];
+		for(int i=0;i<entries.size();i++)
+		{
+			final String location=entries.get(i).fileLocation;
+			Future<Record> future=running.get(location);
+			if(future==null)
+			{
+				FutureTask<Record> task=new FutureTask<Record>(new Callable<Record>() {
+					@Override
+					public Record call() throws Exception
+					{
+						return syncTrack(location);
+					}
+				});
+				future=running.putIfAbsent(location, task);
+				if(future==null)
+				{
+					future=task;
+					isOwned[i]=true;
+					getExecutor().execute(task);
+				}
+			}
+			futures.add(future);
+		}
+
+		for(int i=0;i<futures.size();i++)
+		{
+			try {
+				Record record=futures.get(i).get();
+				entries.get(i).fileLocation=toLocation(record);
+				if(isOwned[i] && record.isTransferred)
+				{
+					retVal++;
+				}
+			} catch (ExecutionException e)
+			{
+				missing++;
+				if(!(e.getCause() instanceof NoSuchFileException))
+				{
+					err.println("Exception happened, unable to sync "+entries.get(i).fileLocation+" : "+e.getCause().getLocalizedMessage());
+				}
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if(missing>0)
+		{
+			err.println(missing+" track(s) of "+playlist+" couldn't be synced to "+syncDir+" and still point at where they were");
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to mirror a single audio file, unless it's already mirrored and hasn't changed since.
+	 * @param location the location of the audio file as held in the playlist entry.
+	 * @return the record of where the audio file is mirrored.
+	 * @throws Exception if the audio file can't be read or mirrored.
+	 */
+	protected Record syncTrack(String location) throws Exception
+	{
+		Path source=Paths.get(new URI(location));
+		BasicFileAttributes attributes=Files.readAttributes(source, BasicFileAttributes.class);
+		Record previous=records.get(location);
+		if(previous!=null && previous.size==attributes.size() && previous.modified==attributes.lastModifiedTime().toMillis()
+				&& isMirrored(previous))
+		{
+			return previous;
+		}
+
+		Record retVal=new Record(location);
+		retVal.size=attributes.size();
+		retVal.modified=attributes.lastModifiedTime().toMillis();
+		Record original=findDuplicate(retVal, source);
+		if(original!=null)
+		{
+			retVal.mirror=original.mirror;
+			retVal.mirrorModified=original.mirrorModified;
+			add(retVal);
+			return retVal;
+		}
+
+		Path mirror=claim(retVal, source);
+		retVal.isTransferred=transfer(source, mirror, attributes);
+		retVal.mirrorModified=Files.getLastModifiedTime(mirror).toMillis();
+		add(retVal);
+		return retVal;
+	}
+
+	/**
+	 * This method is used to look for an audio file that has already been mirrored with the same content.  Only files of
+	 * the same size are compared, so most files are never hashed at all.
+	 * @param record the record of the audio file being mirrored, which is given its hash if it had to be worked out.
+	 * @param source the audio file being mirrored.
+	 * @return the record of the mirror with the same content, or <code>null</code> if there isn't one.
+	 * @throws IOException
+	 */
+	protected Record findDuplicate(Record record, Path source) throws IOException
+	{
+		ArrayList<Record> candidates;
+		synchronized(this)
+		{
+			List<Record> sameSize=recordsBySize.get(Long.valueOf(record.size));
+			if(sameSize==null)
+			{
+				return null;
+			}
+			candidates=new ArrayList<Record>(sameSize);
+		}
+
+		for(Record candidate : candidates)
+		{
+			if(candidate.location.equals(record.location) || !isMirrored(candidate))
+			{
+				continue;
+			}
+			String candidateHash=getHash(candidate);
+			if(record.hash==null)
+			{
+				record.hash=hash(source);
+			}
+			if(record.hash.equals(candidateHash))
+			{
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param record the record of a mirrored audio file.
+	 * @return the SHA-256 of the mirror, worked out from the mirror the first time it's asked for.
+	 * @throws IOException
+	 */
+	protected String getHash(Record record) throws IOException
+	{
+		String retVal=record.hash;
+		if(retVal==null)
+		{
+			retVal=hash(syncDir.resolve(record.mirror));
+			record.hash=retVal;
+			isModified=true;
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param record the record of a mirrored audio file.
+	 * @return <code>true</code> if the mirror is still there with the size and modified time it was left with.
+	 */
+	protected boolean isMirrored(Record record)
+	{
+		if(record.mirror==null || record.mirrorModified<0)
+		{
+			return false;
+		}
+		try {
+			BasicFileAttributes attributes=Files.readAttributes(syncDir.resolve(record.mirror), BasicFileAttributes.class);
+			return attributes.size()==record.size && attributes.lastModifiedTime().toMillis()==record.mirrorModified;
+		} catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * This method is used to work out where an audio file is mirrored to.  It's the path of the file below the root of its
+	 * drive, with a number added to the filename if that path is already used by a different audio file.
+	 * @param record the record of the audio file being mirrored, which is given the mirror.
+	 * @param source the audio file being mirrored.
+	 * @return the mirror.
+	 */
+	protected synchronized Path claim(Record record, Path source)
+	{
+		Record previous=records.get(record.location);
+		String path=toRelativePath(source);
+		String retVal=path;
+		for(int n=2;isClaimed(retVal, previous);n++)
+		{
+			retVal=withNumber(path, n);
+		}
+		record.mirror=retVal;
+		record.isClaimed=true;
+		reference(retVal, 1);
+		return syncDir.resolve(retVal);
+	}
+
+	protected boolean isClaimed(String mirror, Record previous)
+	{
+		Integer references=mirrorReferences.get(mirror);
+		if(references==null)
+		{
+			return false;
+		}
+		//An audio file that has changed can be mirrored over itself, unless other audio files share its mirror
+		return previous==null || !mirror.equals(previous.mirror) || references.intValue()>1;
+	}
+
+	/**
+	 * This method is used to put an audio file in place as its mirror.  A mirror that is already there with the same size
+	 * and modified time is kept, e.g. when the manifest has been lost.
+	 * @param source the audio file.
+	 * @param mirror where the audio file is mirrored to.
+	 * @param attributes the size and modified time of the audio file.
+	 * @return <code>true</code> if the audio file was linked or copied, <code>false</code> if the mirror was kept.
+	 * @throws IOException
+	 */
+	protected boolean transfer(Path source, Path mirror, BasicFileAttributes attributes) throws IOException
+	{
+		Files.createDirectories(mirror.getParent());
+		try {
+			BasicFileAttributes mirrorAttributes=Files.readAttributes(mirror, BasicFileAttributes.class);
+			if(mirrorAttributes.size()==attributes.size() && mirrorAttributes.lastModifiedTime().toMillis()==attributes.lastModifiedTime().toMillis())
+			{
+				return false;
+			}
+		} catch (NoSuchFileException e)
+		{
+			//Not mirrored yet
+		}
+
+		if(isLinks)
+		{
+			Path temp=mirror.resolveSibling(mirror.getFileName()+STR_PART_FILE_EXTENSION);
+			try {
+				Files.deleteIfExists(temp);
+				Files.createLink(temp, source);
+				move(temp, mirror);
+				return true;
+			} catch (IOException e)
+			{
+				//On a different file system, or links aren't supported there
+			} catch (UnsupportedOperationException e)
+			{
+				//Links aren't supported there
+			}
+		}
+		copy(source, mirror, attributes.size(), attributes.lastModifiedTime());
+		return true;
+	}
+
+	/**
+	 * This method is used to copy an audio file to its mirror with <code>FileChannel.transferTo</code>.  The copy is
+	 * written next to the mirror first and moved into place so a failed copy can't be taken for a finished one.
+	 * @param source the audio file.
+	 * @param mirror where the audio file is copied to.
+	 * @param size the size of the audio file.
+	 * @param modified the modified time of the audio file, which the copy is given.
+	 * @throws IOException
+	 */
+	protected static void copy(Path source, Path mirror, long size, FileTime modified) throws IOException
+	{
+		Path temp=mirror.resolveSibling(mirror.getFileName()+STR_PART_FILE_EXTENSION);
+		FileChannel in=FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			FileChannel out=FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				long position=0;
+				while(position<size)
+				{
+					long transferred=in.transferTo(position, size-position, out);
+					if(transferred<=0)
+					{
+						throw new IOException(source+" changed while it was being copied");
+					}
+					position+=transferred;
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		Files.setLastModifiedTime(temp, modified);
+		move(temp, mirror);
+	}
+
+	protected static void move(Path temp, Path target) throws IOException
+	{
+		try {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @param path a file.
+	 * @return the SHA-256 of the content of the file, in hex.
+	 * @throws IOException
+	 */
+	protected static String hash(Path path) throws IOException
+	{
+		MessageDigest digest;
+		try {
+			digest=MessageDigest.getInstance(STR_HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+		ByteBuffer buffer=ByteBuffer.allocate(BUFFER_SIZE);
+		FileChannel channel=FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			while(channel.read(buffer)>0)
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		byte[] bytes=digest.digest();
+		StringBuilder retVal=new StringBuilder(bytes.length*2);
+		for(byte b : bytes)
+		{
+			retVal.append(Character.forDigit((b>>4)&0xF, 16)).append(Character.forDigit(b&0xF, 16));
+		}
+		return retVal.toString();
+	}
+
+	/**
+	 * @param source an audio file.
+	 * @return the path of the audio file below the root of its drive, with <code>/</code> between the names.
+	 */
+	protected static String toRelativePath(Path source)
+	{
+		Path path=source.getRoot()!=null ? source.getRoot().relativize(source) : source;
+		StringBuilder retVal=new StringBuilder();
+		for(Path name : path)
+		{
+			if(retVal.length()>0)
+			{
+				retVal.append('/');
+			}
+			retVal.append(name.toString());
+		}
+		return retVal.toString();
+	}
+
+	/**
+	 * @param path the path of a mirror.
+	 * @param n the number to add.
+	 * @return the path with <code> (n)</code> added to the filename, before the file extension.
+	 */
+	protected static String withNumber(String path, int n)
+	{
+		int dot=path.lastIndexOf('.');
+		if(dot<=path.lastIndexOf('/'))
+		{
+			dot=path.length();
+		}
+		return path.substring(0, dot)+" ("+n+")"+path.substring(dot);
+	}
+
+	/**
+	 * @param record the record of a mirrored audio file.
+	 * @return the location of the mirror in the same form as a location read from an m3u8 file.
+	 */
+	protected String toLocation(Record record)
+	{
+		return syncDir.resolve(record.mirror).toFile().toURI().toString();
+	}
+
+	/**
+	 * This method is used to record where an audio file is mirrored, replacing what was recorded for it before.
+	 * @param record the record.
+	 */
+	protected synchronized void add(Record record)
+	{
+		Record previous=records.put(record.location, record);
+		if(previous!=null)
+		{
+			List<Record> sameSize=recordsBySize.get(Long.valueOf(previous.size));
+			if(sameSize!=null)
+			{
+				sameSize.remove(previous);
+			}
+			if(previous.mirror!=null)
+			{
+				reference(previous.mirror, -1);
+			}
+		}
+		List<Record> sameSize=recordsBySize.get(Long.valueOf(record.size));
+		if(sameSize==null)
+		{
+			sameSize=new ArrayList<Record>(1);
+			recordsBySize.put(Long.valueOf(record.size), sameSize);
+		}
+		sameSize.add(record);
+		//A claimed mirror is already referenced
+		if(!record.isClaimed)
+		{
+			reference(record.mirror, 1);
+		}
+		isModified=true;
+	}
+
+	protected void reference(String mirror, int count)
+	{
+		Integer references=mirrorReferences.get(mirror);
+		int total=(references!=null ? references.intValue() : 0)+count;
+		if(total>0)
+		{
+			mirrorReferences.put(mirror, Integer.valueOf(total));
+		}
+		else
+		{
+			mirrorReferences.remove(mirror);
+		}
+	}
+
+	/**
+	 * This method is used to write the sync manifest back to the music directory if anything has changed, and to let the
+	 * audio files be looked at again the next time their playlists are converted.  The manifest is written to a
+	 * temporary file first and moved into place so a failed write can't leave it half written.
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		running.clear();
+		for(Record record : records.values())
+		{
+			record.isTransferred=false;
+		}
+		if(!isModified)
+		{
+			return;
+		}
+		isModified=false;
+
+		Properties properties=new Properties();
+		for(Record record : records.values())
+		{
+			properties.setProperty(record.location, record.toString());
+		}
+
+		Files.createDirectories(syncDir);
+		Path tempFile=file.resolveSibling(STR_SYNC_MANIFEST_FILENAME+".tmp");
+		OutputStream out=new BufferedOutputStream(Files.newOutputStream(tempFile));
+		try {
+			properties.store(out, STR_SYNC_MANIFEST_COMMENT);
+		}
+		finally
+		{
+			out.close();
+		}
+		move(tempFile, file);
+	}
+
+	protected synchronized ExecutorService getExecutor()
+	{
+		if(executor==null)
+		{
+			final AtomicInteger threadNumber=new AtomicInteger(1);
+			executor=Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread retVal=new Thread(r, STR_SYNC_THREAD_NAME+threadNumber.getAndIncrement());
+					retVal.setDaemon(true);
+					return retVal;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * This class is used to hold where an audio file is mirrored and the state it was in when it was.
+	 *
+	 * @author Les Carter
+	 */
+	public static class Record
+	{
+		public final String location;
+		public long size=-1;
+		public long modified=-1;
+		public long mirrorModified=-1;
+		public String hash=null;
+		public String mirror=null;
+		protected boolean isClaimed=false;
+		protected boolean isTransferred=false;
+
+		public Record(String location)
+		{
+			super();
+			this.location=location;
+		}
+
+		@Override
+		public String toString()
+		{
+			return size+","+modified+","+mirrorModified+","+(hash!=null ? hash : "")+","+mirror;
+		}
+
+		/**
+		 * @param location the location of the audio file.
+		 * @param value a record as written by {@link #toString()}.
+		 * @return the record, or <code>null</code> if the value can't be parsed.
+		 */
+		public static Record parse(String location, String value)
+		{
+			String[] fields=value.split(",", 5);
+			if(fields.length!=5 || fields[4].isEmpty())
+			{
+				return null;
+			}
+			try {
+				Record retVal=new Record(location);
+				retVal.size=Long.parseLong(fields[0]);
+				retVal.modified=Long.parseLong(fields[1]);
+				retVal.mirrorModified=Long.parseLong(fields[2]);
+				retVal.hash=fields[3].isEmpty() ? null : fields[3];
+				retVal.mirror=fields[4];
+				return retVal;
+			} catch (NumberFormatException e)
+			{
+				return null;
+			}
+		}
+	}
+}
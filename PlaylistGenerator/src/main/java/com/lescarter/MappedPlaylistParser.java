@@ -0,0 +1,610 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to parse the m3u8 and KUVO txt files exported from Rekordbox straight from their bytes.
+ * <br/><br/>
+ * Large files are memory mapped, smaller ones are read into a buffer that is kept for the next file (a mapping can't be
+ * released until it is garbage collected, and on Windows that would stop Rekordbox from exporting over the file).  The
+ * lines are tokenized over the bytes and strings are only made for the values that are used, so the unused KUVO columns
+ * are never decoded.  A byte order mark picks UTF-8, UTF-16LE or UTF-16BE.  Files without one are read as UTF-8, but a
+ * value that isn't valid UTF-8 is read in the platform charset as the reader would, as older exports on Windows are.
+ * <br/><br/>
+ * The m3u8 path of each track is turned into the same <code>file:/</code> URI as <code>File.toURI()</code> gives, but
+ * without looking the file up to see if it is a directory.
+ * <br/><br/>
+ * A parser keeps its buffers between files so it must only be used by one thread at a time.
+ *
+ * @author Les Carter
+ */
+public class MappedPlaylistParser
+{
+	public static final int MAP_THRESHOLD=256*1024;
+	public static final String STR_URI_SCHEME="file:";
+
+	protected static final char[] HEX_DIGITS="0123456789ABCDEF".toCharArray();
+	protected static final String STR_PATH_PUNCTUATION="-_.!~*'();/:@&=+$,";
+
+	protected final PlaylistGenerator generator;
+	protected final CharsetDecoder decoder=StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+	protected final CharsetDecoder fallbackDecoder=Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	protected final StringBuilder builder=new StringBuilder();
+
+	protected ByteBuffer readBuffer=ByteBuffer.allocate(16*1024);
+	protected char[] chars=new char[256];
+	protected CharBuffer charBuffer=CharBuffer.wrap(chars);
+
+	//The file being parsed, positions are in bytes
+	protected ByteBuffer buffer;
+	protected ByteBuffer view;
+	protected int unitSize;
+	protected int position;
+	protected int limit;
+	protected int lineStart;
+	protected int lineEnd;
+	protected int lineNumber;
+
+	/**
+	 * @param generator the generator the parsed entries belong to.
+	 */
+	public MappedPlaylistParser(PlaylistGenerator generator)
+	{
+		super();
+		this.generator=generator;
+	}
+
+	/**
+	 * This method is used to parse the m3u8 file exported from Rekordbox.
+	 * @param filename the location of the m3u8 file.
+	 * @return the entries of the playlist, in order.
+	 * @throws IOException
+	 */
+	public ArrayList<PlaylistEntry> parsem3u8(String filename) throws IOException
+	{
+		return parsem3u8(Paths.get(filename));
+	}
+
+	/**
+	 * This method is used to parse the m3u8 file exported from Rekordbox, which may be inside a zip.
+	 * @param filename the m3u8 file.
+	 * @return the entries of the playlist, in order.
+	 * @throws IOException
+	 */
+	public ArrayList<PlaylistEntry> parsem3u8(Path filename) throws IOException
+	{
+		ArrayList<PlaylistEntry> retVal=new ArrayList<PlaylistEntry>();
+		open(filename);
+		try {
+			while(nextLine())
+			{
+				if(startsWith(lineStart, PlaylistGenerator.STR_EXTINF))
+				{
+					retVal.add(parseEntry(filename.toString()));
+				}
+			}
+		}
+		finally
+		{
+			close();
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to parse the track that starts on the current line, which must be an
+	 * {@link PlaylistGenerator#STR_EXTINF} line, moving on to the line with its file.
+	 * @param filename the name of the m3u8 file, for reporting errors.
+	 * @return the entry.
+	 * @throws PlaylistFormatException if the track can't be parsed.
+	 */
+	protected PlaylistEntry parseEntry(String filename) throws PlaylistFormatException
+	{
+		int durationStart=lineStart+PlaylistGenerator.STR_EXTINF.length()*unitSize;
+		int firstComma=indexOf(',', durationStart, lineEnd);
+		int separator=firstComma<0 ? -1 : indexOf(PlaylistGenerator.STR_M3U8_SEPARATOR, firstComma, lineEnd);
+		if(separator<0)
+		{
+			throw new PlaylistFormatException(filename, lineNumber, "Unable to parse line "+lineNumber+" of "+filename+", expected "
+					+PlaylistGenerator.STR_EXTINF+"<duration>,<artist>"+PlaylistGenerator.STR_M3U8_SEPARATOR+"<title>");
+		}
+		String durationInS=string(durationStart, firstComma);
+		String artist=generator.dictionary.intern(string(firstComma+unitSize, separator));
+		String title=string(separator+PlaylistGenerator.STR_M3U8_SEPARATOR.length()*unitSize, lineEnd);
+
+		if(!nextLine())
+		{
+			throw new PlaylistFormatException(filename, lineNumber, "Unable to parse "+filename+", the last "+PlaylistGenerator.STR_EXTINF+" line has no file");
+		}
+		return new PlaylistEntry(durationInS, artist, title, toLocation(string(lineStart, lineEnd)));
+	}
+
+	/**
+	 * This method is used to parse the KUVO txt file exported from Rekordbox and join it onto the m3u8 entries, row by row.
+	 * Only the columns that are used are decoded, missing columns are left empty.
+	 * @param filename the location of the KUVO txt file.
+	 * @param entries the entries parsed from the m3u8 file.
+	 * @throws IOException
+	 */
+	public void parseKTxt(String filename, ArrayList<PlaylistEntry> entries) throws IOException
+	{
+		parseKTxt(Paths.get(filename), entries);
+	}
+
+	/**
+	 * This method is used to parse the KUVO txt file exported from Rekordbox, which may be inside a zip, and join it onto
+	 * the m3u8 entries.
+	 * @param filename the KUVO txt file.
+	 * @param entries the entries parsed from the m3u8 file.
+	 * @throws IOException
+	 */
+	public void parseKTxt(Path filename, ArrayList<PlaylistEntry> entries) throws IOException
+	{
+		open(filename);
+		try {
+			//Ignore the header
+			nextLine();
+			Iterator<PlaylistEntry> it=entries.iterator();
+			while(it.hasNext() && nextLine())
+			{
+				if(isBlank(lineStart, lineEnd))
+				{
+					continue;
+				}
+				parseRow(it.next());
+			}
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	/**
+	 * This method is used to join the KUVO row on the current line onto an entry.
+	 * @param entry the entry parsed from the m3u8 file.
+	 */
+	protected void parseRow(PlaylistEntry entry)
+	{
+		int column=0;
+		int fieldStart=lineStart;
+		while(column<=PlaylistGenerator.INDEX_DATEADDED)
+		{
+			int fieldEnd=indexOf('\t', fieldStart, lineEnd);
+			if(fieldEnd<0)
+			{
+				fieldEnd=lineEnd;
+			}
+			switch(column)
+			{
+			case PlaylistGenerator.INDEX_TRACKNUM:
+				entry.setTrackNumber(string(fieldStart, fieldEnd));
+				break;
+			case PlaylistGenerator.INDEX_ALBUM:
+				entry.album=generator.dictionary.intern(string(fieldStart, fieldEnd));
+				break;
+			case PlaylistGenerator.INDEX_GENRE:
+				entry.genre=generator.dictionary.intern(string(fieldStart, fieldEnd));
+				break;
+			case PlaylistGenerator.INDEX_BPM:
+				entry.setBpm(string(fieldStart, fieldEnd));
+				break;
+			case PlaylistGenerator.INDEX_KEY:
+				entry.setKey(string(fieldStart, fieldEnd));
+				break;
+			case PlaylistGenerator.INDEX_DATEADDED:
+				entry.setDateAdded(string(fieldStart, fieldEnd));
+				break;
+			default:
+			}
+			if(fieldEnd==lineEnd)
+			{
+				break;
+			}
+			fieldStart=fieldEnd+unitSize;
+			column++;
+		}
+
+		entry.hasMetadata=true;
+	}
+
+	/**
+	 * This method is used to map or read a file and work out its encoding from the byte order mark.
+	 * @param filename the file.
+	 * @throws IOException
+	 */
+	protected void open(Path filename) throws IOException
+	{
+		ByteBuffer bytes=read(filename, readBuffer);
+		if(!(bytes instanceof MappedByteBuffer))
+		{
+			readBuffer=bytes;
+		}
+		open(bytes);
+	}
+
+	/**
+	 * This method is used to map or read a whole file.  A file inside a zip can't be mapped so it is always read.
+	 * @param filename the file.
+	 * @param reuse a buffer to read a small file into if it's big enough, or <code>null</code> to always use a new one.
+	 * @return the bytes of the file, from position 0 up to the limit.
+	 * @throws IOException
+	 */
+	public static ByteBuffer read(Path filename, ByteBuffer reuse) throws IOException
+	{
+		return read(filename, reuse, true);
+	}
+
+	/**
+	 * This method is used to map or read a whole file.  A mapping holds on to the file until it is garbage collected,
+	 * which on Windows stops the file being deleted or replaced, so a caller that doesn't control how long the bytes are
+	 * kept should read it instead.
+	 * @param filename the file.
+	 * @param reuse a buffer to read a small file into if it's big enough, or <code>null</code> to always use a new one.
+	 * @param isMappable <code>true</code> to map a large file, <code>false</code> to always read it.
+	 * @return the bytes of the file, from position 0 up to the limit.
+	 * @throws IOException
+	 */
+	public static ByteBuffer read(Path filename, ByteBuffer reuse, boolean isMappable) throws IOException
+	{
+		ByteBuffer retVal;
+		SeekableByteChannel channel=Files.newByteChannel(filename, StandardOpenOption.READ);
+		try {
+			long size=channel.size();
+			if(size>Integer.MAX_VALUE)
+			{
+				throw new IOException("Unable to parse "+filename+", it is too large");
+			}
+			if(isMappable && size>=MAP_THRESHOLD && channel instanceof FileChannel)
+			{
+				retVal=((FileChannel)channel).map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			else
+			{
+				retVal=reuse;
+				if(retVal==null || retVal.capacity()<size)
+				{
+					retVal=ByteBuffer.allocate(reuse==null ? (int)size : (int)Math.max(size, reuse.capacity()*2L));
+				}
+				retVal.clear();
+				while(retVal.position()<size && channel.read(retVal)>=0);
+				retVal.flip();
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to start parsing the bytes of a file, working out the encoding from the byte order mark.
+	 * @param bytes the whole file, from position 0 up to the limit.
+	 */
+	protected void open(ByteBuffer bytes)
+	{
+		buffer=bytes;
+		limit=buffer.limit();
+		position=0;
+		lineNumber=0;
+		unitSize=1;
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if(limit>=3 && (buffer.get(0)&0xFF)==0xEF && (buffer.get(1)&0xFF)==0xBB && (buffer.get(2)&0xFF)==0xBF)
+		{
+			position=3;
+		}
+		else if(limit>=2 && (buffer.get(0)&0xFF)==0xFF && (buffer.get(1)&0xFF)==0xFE)
+		{
+			unitSize=2;
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			position=2;
+		}
+		else if(limit>=2 && (buffer.get(0)&0xFF)==0xFE && (buffer.get(1)&0xFF)==0xFF)
+		{
+			unitSize=2;
+			position=2;
+		}
+		//Ignore a dangling odd byte
+		limit-=(limit-position)%unitSize;
+		view=buffer.duplicate();
+	}
+
+	/**
+	 * This method is used to parse the same file as another parser, so different parts of it can be parsed on different
+	 * threads.  The bytes are shared, only the positions are this parser's own.
+	 * @param other a parser that has the file open.
+	 */
+	protected void open(MappedPlaylistParser other)
+	{
+		buffer=other.buffer.duplicate().order(other.buffer.order());
+		limit=other.limit;
+		position=other.position;
+		lineNumber=other.lineNumber;
+		unitSize=other.unitSize;
+		view=buffer.duplicate();
+	}
+
+	protected void close()
+	{
+		buffer=null;
+		view=null;
+	}
+
+	/**
+	 * This method is used to move on to the next line, a line ends with <code>\n</code>, <code>\r</code> or
+	 * <code>\r\n</code> as with <code>BufferedReader.readLine()</code>.
+	 * @return <code>false</code> if there are no more lines.
+	 */
+	protected boolean nextLine()
+	{
+		if(position>=limit)
+		{
+			return false;
+		}
+		lineStart=position;
+		while(position<limit)
+		{
+			int c=unit(position);
+			if(c=='\n' || c=='\r')
+			{
+				lineEnd=position;
+				position+=unitSize;
+				if(c=='\r' && position<limit && unit(position)=='\n')
+				{
+					position+=unitSize;
+				}
+				lineNumber++;
+				return true;
+			}
+			position+=unitSize;
+		}
+		lineEnd=limit;
+		lineNumber++;
+		return true;
+	}
+
+	/**
+	 * @param index the position in bytes.
+	 * @return the UTF-8 byte or UTF-16 char at the position, which is the character itself for ASCII.
+	 */
+	protected int unit(int index)
+	{
+		return unitSize==1 ? buffer.get(index)&0xFF : buffer.getChar(index);
+	}
+
+	protected int indexOf(char c, int from, int to)
+	{
+		for(int i=from;i<to;i+=unitSize)
+		{
+			if(unit(i)==c)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	protected int indexOf(String value, int from, int to)
+	{
+		int last=to-value.length()*unitSize;
+		for(int i=from;i<=last;i+=unitSize)
+		{
+			if(startsWith(i, value))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	protected boolean startsWith(int from, String value)
+	{
+		int length=value.length();
+		if(from+length*unitSize>lineEnd)
+		{
+			return false;
+		}
+		for(int i=0;i<length;i++)
+		{
+			if(unit(from+i*unitSize)!=value.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected boolean isBlank(int from, int to)
+	{
+		for(int i=from;i<to;i+=unitSize)
+		{
+			if(unit(i)>' ')
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This method is used to make a string from part of the current file, decoding it through the reusable char buffer.
+	 * @param from the start position in bytes.
+	 * @param to the end position in bytes.
+	 * @return the string.
+	 */
+	protected String string(int from, int to)
+	{
+		int length=(to-from)/unitSize;
+		if(length<=0)
+		{
+			return "";
+		}
+		if(chars.length<length)
+		{
+			chars=new char[Math.max(length, chars.length*2)];
+			charBuffer=CharBuffer.wrap(chars);
+		}
+
+		if(unitSize==2)
+		{
+			for(int i=0;i<length;i++)
+			{
+				chars[i]=buffer.getChar(from+i*2);
+			}
+			return new String(chars, 0, length);
+		}
+
+		for(int i=0;i<length;i++)
+		{
+			byte b=buffer.get(from+i);
+			if(b<0)
+			{
+				return decode(from, to);
+			}
+			chars[i]=(char)b;
+		}
+		return new String(chars, 0, length);
+	}
+
+	protected String decode(int from, int to)
+	{
+		if(!decode(decoder, from, to))
+		{
+			decode(fallbackDecoder, from, to);
+		}
+		return new String(chars, 0, charBuffer.position());
+	}
+
+	/**
+	 * @return <code>false</code> if the bytes couldn't be decoded.
+	 */
+	protected boolean decode(CharsetDecoder charsetDecoder, int from, int to)
+	{
+		view.limit(to);
+		view.position(from);
+		charBuffer.clear();
+		charsetDecoder.reset();
+		if(charsetDecoder.decode(view, charBuffer, true).isError())
+		{
+			return false;
+		}
+		if(charsetDecoder.flush(charBuffer).isOverflow())
+		{
+			//A charset that gives more chars than bytes
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * This method is used to turn a path from the m3u8 file into the location held in the playlist entry, giving the same
+	 * result as <code>new File(path).toURI().toString()</code> for a file.
+	 * @param path the path of the track.
+	 * @return the <code>file:/</code> URI of the track.
+	 */
+	protected String toLocation(String path)
+	{
+		String absolute=path;
+		if(File.separatorChar!='/' || !isNormalAbsolute(path))
+		{
+			absolute=new File(path).getAbsolutePath();
+		}
+
+		builder.setLength(0);
+		builder.append(STR_URI_SCHEME);
+		if(absolute.isEmpty() || (absolute.charAt(0)!='/' && absolute.charAt(0)!=File.separatorChar))
+		{
+			builder.append('/');
+		}
+		int length=absolute.length();
+		for(int i=0;i<length;i++)
+		{
+			char c=absolute.charAt(i);
+			if(c==File.separatorChar)
+			{
+				c='/';
+			}
+			appendPathChar(c);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * This method is used to append a character of a URI path, quoting it the way <code>java.net.URI</code> does.
+	 * @param c the character.
+	 */
+	protected void appendPathChar(char c)
+	{
+		if(c<0x80)
+		{
+			if((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || (c!=0 && STR_PATH_PUNCTUATION.indexOf(c)>=0))
+			{
+				builder.append(c);
+			}
+			else
+			{
+				appendEscape(c);
+			}
+		}
+		else if(Character.isSpaceChar(c) || Character.isISOControl(c))
+		{
+			byte[] bytes=String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+			for(byte b : bytes)
+			{
+				appendEscape(b&0xFF);
+			}
+		}
+		else
+		{
+			builder.append(c);
+		}
+	}
+
+	protected void appendEscape(int b)
+	{
+		builder.append('%');
+		builder.append(HEX_DIGITS[(b>>4)&0xF]);
+		builder.append(HEX_DIGITS[b&0xF]);
+	}
+
+	/**
+	 * @param path a path.
+	 * @return <code>true</code> if the path is already what <code>File.getAbsolutePath()</code> would give on Unix.
+	 */
+	protected static boolean isNormalAbsolute(String path)
+	{
+		int length=path.length();
+		if(length==0 || path.charAt(0)!='/' || (length>1 && path.charAt(length-1)=='/'))
+		{
+			return false;
+		}
+		return path.indexOf("//")<0;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.util.HashMap;
+
+/**
+ * This enum is used to hold the key of a track, in the order of the Camelot wheel (1A to 12A then 1B to 12B).
+ * <br/><br/>
+ * Rekordbox writes the key in whichever notation it is set to show: classic (<code>Am</code>, <code>F#m</code>,
+ * <code>Db</code>), Camelot (<code>8A</code>) or Open Key (<code>1m</code>).  Each way of writing a key is given a
+ * spelling code that fits in a byte, so a track can hold its key in a byte and still be written out exactly as it was
+ * read.
+ *
+ * @author Les Carter
+ */
+public enum MusicalKey
+{
+	A_FLAT_MINOR(8, true),
+	E_FLAT_MINOR(3, true),
+	B_FLAT_MINOR(10, true),
+	F_MINOR(5, true),
+	C_MINOR(0, true),
+	G_MINOR(7, true),
+	D_MINOR(2, true),
+	A_MINOR(9, true),
+	E_MINOR(4, true),
+	B_MINOR(11, true),
+	F_SHARP_MINOR(6, true),
+	D_FLAT_MINOR(1, true),
+	B_MAJOR(11, false),
+	F_SHARP_MAJOR(6, false),
+	D_FLAT_MAJOR(1, false),
+	A_FLAT_MAJOR(8, false),
+	E_FLAT_MAJOR(3, false),
+	B_FLAT_MAJOR(10, false),
+	F_MAJOR(5, false),
+	C_MAJOR(0, false),
+	G_MAJOR(7, false),
+	D_MAJOR(2, false),
+	A_MAJOR(9, false),
+	E_MAJOR(4, false);
+
+	/**
+	 * The spelling code of a track without a key.
+	 */
+	public static final byte NONE=0;
+
+	protected static final String[] SHARP_NAMES={"C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"};
+	protected static final String[] FLAT_NAMES={"C", "Db", "D", "Eb", "E", "F", "Gb", "G", "Ab", "A", "Bb", "B"};
+
+	//Index 0 is NONE
+	protected static final String[] SPELLINGS;
+	protected static final MusicalKey[] SPELLING_KEYS;
+	protected static final HashMap<String, Byte> CODES=new HashMap<String, Byte>();
+
+	static
+	{
+		MusicalKey[] keys=values();
+		String[] spellings=new String[1+keys.length*4+10];
+		MusicalKey[] spellingKeys=new MusicalKey[spellings.length];
+		int count=1;
+		for(MusicalKey key : keys)
+		{
+			String mode=key.isMinor ? "m" : "";
+			spellings[count]=FLAT_NAMES[key.pitchClass]+mode;
+			spellingKeys[count++]=key;
+			if(!SHARP_NAMES[key.pitchClass].equals(FLAT_NAMES[key.pitchClass]))
+			{
+				spellings[count]=SHARP_NAMES[key.pitchClass]+mode;
+				spellingKeys[count++]=key;
+			}
+			spellings[count]=key.getCamelot();
+			spellingKeys[count++]=key;
+			spellings[count]=key.getOpenKey();
+			spellingKeys[count++]=key;
+		}
+		SPELLINGS=new String[count];
+		SPELLING_KEYS=new MusicalKey[count];
+		System.arraycopy(spellings, 0, SPELLINGS, 0, count);
+		System.arraycopy(spellingKeys, 0, SPELLING_KEYS, 0, count);
+		for(int i=1;i<count;i++)
+		{
+			CODES.put(SPELLINGS[i], Byte.valueOf((byte)i));
+		}
+	}
+
+	protected final int pitchClass;
+	protected final boolean isMinor;
+
+	private MusicalKey(int pitchClass, boolean isMinor)
+	{
+		this.pitchClass=pitchClass;
+		this.isMinor=isMinor;
+	}
+
+	/**
+	 * @return the pitch class of the tonic, 0 for C up to 11 for B.
+	 */
+	public int getPitchClass()
+	{
+		return pitchClass;
+	}
+
+	public boolean isMinor()
+	{
+		return isMinor;
+	}
+
+	/**
+	 * @return the number of the key on the Camelot wheel, 1 to 12.
+	 */
+	public int getCamelotNumber()
+	{
+		return ordinal()%12+1;
+	}
+
+	/**
+	 * @return the key in Camelot notation, e.g. <code>8A</code> for A minor.
+	 */
+	public String getCamelot()
+	{
+		return getCamelotNumber()+(isMinor ? "A" : "B");
+	}
+
+	/**
+	 * @return the key in Open Key notation, e.g. <code>1m</code> for A minor.
+	 */
+	public String getOpenKey()
+	{
+		return ((getCamelotNumber()+4)%12+1)+(isMinor ? "m" : "d");
+	}
+
+	/**
+	 * @return the keys that mix with this one on the Camelot wheel: the key itself, the keys either side of it with the
+	 * same letter and the relative major or minor with the same number.
+	 */
+	public MusicalKey[] getCompatible()
+	{
+		MusicalKey[] keys=values();
+		int number=ordinal()%12;
+		int mode=ordinal()-number;
+		return new MusicalKey[] {this, keys[mode+(number+11)%12], keys[mode+(number+1)%12], keys[(ordinal()+12)%keys.length]};
+	}
+
+	/**
+	 * This method is used to look up the spelling code of a key as written by Rekordbox.
+	 * @param text the key.
+	 * @return the spelling code, {@link #NONE} for an empty key or -1 if the key isn't recognised.
+	 */
+	public static byte parse(String text)
+	{
+		if(text==null || text.isEmpty())
+		{
+			return NONE;
+		}
+		Byte retVal=CODES.get(text);
+		return retVal!=null ? retVal.byteValue() : -1;
+	}
+
+	/**
+	 * @param code a spelling code.
+	 * @return the key as it was written, or an empty string for {@link #NONE}.
+	 */
+	public static String getSpelling(byte code)
+	{
+		return code>NONE && code<SPELLINGS.length ? SPELLINGS[code] : "";
+	}
+
+	/**
+	 * @param code a spelling code.
+	 * @return the key, or <code>null</code> for {@link #NONE}.
+	 */
+	public static MusicalKey valueOf(byte code)
+	{
+		return code>NONE && code<SPELLING_KEYS.length ? SPELLING_KEYS[code] : null;
+	}
+}
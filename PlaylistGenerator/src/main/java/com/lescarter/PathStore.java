@@ -0,0 +1,302 @@
+/**
+ *
+ */
+package com.lescarter;
+
+/**
+ * This class is used to hold the locations of tracks as a tree of directories, so the long directory paths that the
+ * tracks of a crate share are only held once.
+ * <br/><br/>
+ * A location such as <code>file:/d:/Music/juno/16-Garden.mp3</code> is split at each <code>/</code> after the
+ * <code>file:/</code> prefix.  Each directory is held once with its path both as it appears in the URI and decoded, and
+ * each track is a {@link Location} holding just its directory and its own name, both as it appears in the URI and
+ * decoded.  Decoding, and working out the filename, is done once per unique location when it is first stored.  The
+ * full URI and decoded path of a location can be rebuilt from its directory, or written straight out a piece at a time
+ * without being built at all.
+ * <br/><br/>
+ * Looking up a location that is already stored doesn't allocate anything, the parts of the URI are compared where they
+ * are.  Locations are never removed.
+ *
+ * @author Les Carter
+ */
+public class PathStore
+{
+	protected final Directory fileRoot=new Directory(PlaylistGenerator.STR_FILE_URI_PREFIX);
+	protected final Directory localhostRoot=new Directory(PlaylistGenerator.STR_LOCALHOST_URI_PREFIX);
+	protected final Directory relativeRoot=new Directory("");
+	protected int directoryCount=0;
+	protected int locationCount=0;
+
+	/**
+	 * This method is used to look up a location, storing it if it hasn't been seen before.
+	 * @param fileLocation the location of the track as held in the playlist entry.
+	 * @return the stored location, the same instance each time for the same URI.
+	 */
+	public synchronized Location intern(String fileLocation)
+	{
+		Directory directory=fileLocation.startsWith(PlaylistGenerator.STR_LOCALHOST_URI_PREFIX) ? localhostRoot
+				: fileLocation.startsWith(PlaylistGenerator.STR_FILE_URI_PREFIX) ? fileRoot : relativeRoot;
+		int start=directory.uriPath.length();
+		int slash;
+		while((slash=fileLocation.indexOf('/', start))>=0)
+		{
+			Directory child=(Directory)directory.directories.get(fileLocation, start, slash);
+			if(child==null)
+			{
+				child=new Directory(directory, fileLocation.substring(start, slash));
+				directory.directories.add(child);
+				directoryCount++;
+			}
+			directory=child;
+			start=slash+1;
+		}
+
+		Location retVal=(Location)directory.locations.get(fileLocation, start, fileLocation.length());
+		if(retVal==null)
+		{
+			retVal=new Location(directory, fileLocation.substring(start));
+			directory.locations.add(retVal);
+			locationCount++;
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the number of unique directories stored.
+	 */
+	public synchronized int getDirectoryCount()
+	{
+		return directoryCount;
+	}
+
+	/**
+	 * @return the number of unique locations stored.
+	 */
+	public synchronized int getLocationCount()
+	{
+		return locationCount;
+	}
+
+	/**
+	 * This class is used to hold a name within a directory, along with the hash it's looked up by.
+	 */
+	protected abstract static class Node
+	{
+		protected final String name;
+		protected final int hash;
+
+		protected Node(String name)
+		{
+			super();
+			this.name=name;
+			this.hash=hash(name, 0, name.length());
+		}
+
+		protected static int hash(String value, int start, int end)
+		{
+			int retVal=0;
+			for(int i=start;i<end;i++)
+			{
+				retVal=31*retVal+value.charAt(i);
+			}
+			return retVal;
+		}
+	}
+
+	/**
+	 * This class is used to hold a directory, with its path both as it appears in a URI and decoded.
+	 *
+	 * @author Les Carter
+	 */
+	public static class Directory extends Node
+	{
+		protected final Directory parent;
+		protected final String uriPath;
+		protected final String decodedPath;
+		protected final Children directories=new Children();
+		protected final Children locations=new Children();
+
+		/**
+		 * @param prefix the URI prefix of a root directory.
+		 */
+		protected Directory(String prefix)
+		{
+			super(prefix);
+			this.parent=null;
+			this.uriPath=prefix;
+			this.decodedPath="";
+		}
+
+		protected Directory(Directory parent, String name)
+		{
+			super(name);
+			this.parent=parent;
+			this.uriPath=parent.uriPath+name+"/";
+			this.decodedPath=parent.decodedPath+PlaylistGenerator.decodeLocation(name)+"/";
+		}
+
+		/**
+		 * @return the path of the directory as it appears in the URI, including the <code>file:/</code> prefix and the
+		 * trailing <code>/</code>.
+		 */
+		public String getUriPath()
+		{
+			return uriPath;
+		}
+
+		/**
+		 * @return the path of the directory decoded, as {@link PlaylistGenerator#decodeLocation(String)} gives it,
+		 * including the trailing <code>/</code>.
+		 */
+		public String getDecodedPath()
+		{
+			return decodedPath;
+		}
+
+		public Directory getParent()
+		{
+			return parent;
+		}
+	}
+
+	/**
+	 * This class is used to hold the location of a track, as its directory and its own name.
+	 *
+	 * @author Les Carter
+	 */
+	public static class Location extends Node
+	{
+		protected final Directory directory;
+		protected final String decodedName;
+		protected final String filename;
+
+		protected Location(Directory directory, String name)
+		{
+			super(name);
+			this.directory=directory;
+			this.decodedName=PlaylistGenerator.decodeLocation(name);
+			//An encoded / in the name still separates the filename once decoded
+			this.filename=decodedName.substring(decodedName.lastIndexOf('/')+1);
+		}
+
+		public Directory getDirectory()
+		{
+			return directory;
+		}
+
+		/**
+		 * @return the name of the track's file as it appears in the URI.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return the name of the track's file decoded.
+		 */
+		public String getDecodedName()
+		{
+			return decodedName;
+		}
+
+		/**
+		 * @return the filename of the track, everything after the last <code>/</code> of the decoded path.
+		 */
+		public String getFilename()
+		{
+			return filename;
+		}
+
+		/**
+		 * @return the location as a URI, built each time it's asked for.
+		 */
+		public String getUri()
+		{
+			return directory.uriPath.concat(name);
+		}
+
+		/**
+		 * @return the decoded path, as {@link PlaylistGenerator#decodeLocation(String)} gives it, built each time it's
+		 * asked for.
+		 */
+		public String getDecodedPath()
+		{
+			return directory.decodedPath.concat(decodedName);
+		}
+
+		@Override
+		public String toString()
+		{
+			return getUri();
+		}
+	}
+
+	/**
+	 * This class is used to hold the directories or locations within a directory, as an open addressed table that can
+	 * be searched for part of a string without taking it out as a string of its own.
+	 */
+	protected static class Children
+	{
+		protected Node[] nodes=null;
+		protected int size=0;
+
+		protected Node get(String value, int start, int end)
+		{
+			if(nodes==null)
+			{
+				return null;
+			}
+			int hash=Node.hash(value, start, end);
+			int length=end-start;
+			int mask=nodes.length-1;
+			for(int i=spread(hash)&mask;nodes[i]!=null;i=(i+1)&mask)
+			{
+				Node node=nodes[i];
+				if(node.hash==hash && node.name.length()==length && node.name.regionMatches(0, value, start, length))
+				{
+					return node;
+				}
+			}
+			return null;
+		}
+
+		protected void add(Node node)
+		{
+			if(nodes==null)
+			{
+				nodes=new Node[4];
+			}
+			else if((size+1)*4>nodes.length*3)
+			{
+				Node[] old=nodes;
+				nodes=new Node[old.length*2];
+				for(Node oldNode : old)
+				{
+					if(oldNode!=null)
+					{
+						put(oldNode);
+					}
+				}
+			}
+			put(node);
+			size++;
+		}
+
+		protected void put(Node node)
+		{
+			int mask=nodes.length-1;
+			int i=spread(node.hash)&mask;
+			while(nodes[i]!=null)
+			{
+				i=(i+1)&mask;
+			}
+			nodes[i]=node;
+		}
+
+		protected static int spread(int hash)
+		{
+			return hash^(hash>>>16);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.IOException;
+
+/**
+ * This exception is thrown when a playlist file can be read but what's in it can't be understood, as opposed to the
+ * other <code>IOException</code>s which mean the file couldn't be read at all.  It carries the file and line so a caller
+ * can report exactly where the export is broken.
+ *
+ * @author Les Carter
+ */
+public class PlaylistFormatException extends IOException
+{
+	private static final long serialVersionUID=1L;
+
+	protected final String source;
+	protected final int lineNumber;
+
+	/**
+	 * @param source the name of the file being parsed.
+	 * @param lineNumber the line that couldn't be parsed, starting at 1.
+	 * @param message the description of the problem.
+	 */
+	public PlaylistFormatException(String source, int lineNumber, String message)
+	{
+		super(message);
+		this.source=source;
+		this.lineNumber=lineNumber;
+	}
+
+	/**
+	 * @return the name of the file being parsed.
+	 */
+	public String getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * @return the line that couldn't be parsed, starting at 1.
+	 */
+	public int getLineNumber()
+	{
+		return lineNumber;
+	}
+}
@@ -5,26 +5,37 @@ package com.lescarter;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.URLDecoder;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 /**
  * This is a utility class that takes KUVO txt and m3u8 playlist data from Rekordbox
@@ -44,6 +55,30 @@ public class PlaylistGenerator {
 	public static final String PARAM_PLAYLIST="pg.playlist";
 	public static final String PARAM_ISJSON="pg.isjson";
 	public static final String PARAM_ISXML="pg.isxml";
+	public static final String PARAM_THREADS="pg.threads";
+	public static final String PARAM_QUEUE="pg.queue";
+	public static final String PARAM_XMLDOM="pg.xmldom";
+	public static final String PARAM_FORCE="pg.force";
+	public static final String PARAM_WATCH="pg.watch";
+	public static final String PARAM_DEBOUNCE="pg.debounce";
+	public static final String PARAM_MERGE="pg.merge";
+	public static final String PARAM_ISINDEX="pg.isindex";
+	public static final String PARAM_INDEX="pg.index";
+	public static final String PARAM_INDEXVERIFY="pg.indexverify";
+	public static final String PARAM_PARSER="pg.parser";
+	public static final String PARAM_ISREPORT="pg.isreport";
+	public static final String PARAM_REPORT="pg.report";
+	public static final String PARAM_ISPROBE="pg.isprobe";
+	public static final String PARAM_PROBETHREADS="pg.probethreads";
+	public static final String PARAM_LIBRARY="pg.library";
+	public static final String PARAM_SERVER="pg.server";
+	public static final String PARAM_PORT="pg.port";
+	public static final String PARAM_ISCLIENT="pg.isclient";
+	public static final String PARAM_SYNCDIR="pg.syncdir";
+	public static final String PARAM_SYNCTHREADS="pg.syncthreads";
+	public static final String PARAM_SYNCLINKS="pg.synclinks";
+	public static final String PARAM_QUERY="pg.query";
+	public static final String PARAM_QUERYNAME="pg.queryname";
 	
 	public static final String STR_DJ_LIST="DJ_PLAYLISTS";
 	public static final String STR_VERSION="Version";
@@ -66,6 +101,9 @@ public class PlaylistGenerator {
 	public static final String STR_KIND="Kind";
 	public static final String STR_KIND_MP3="MP3 File";
 	public static final String STR_KIND_WAV="WAV File";
+	public static final String STR_KIND_AIFF="AIFF File";
+	public static final String STR_KIND_FLAC="FLAC File";
+	public static final String STR_KIND_M4A="M4A File";
 	public static final String STR_SIZE="Size";
 	public static final String STR_TOTALTIME="TotalTime";
 	public static final String STR_DISCNUMBER="DiscNumber";
@@ -95,6 +133,25 @@ public class PlaylistGenerator {
 	public static final String STR_DEFAULT_DESTDIR=System.getProperty("user.dir");
 	public static final String STR_DEFAULT_ISXML=Boolean.FALSE.toString();
 	public static final String STR_DEFAULT_ISJSON=Boolean.TRUE.toString();
+	public static final String STR_DEFAULT_THREADS=Integer.toString(Runtime.getRuntime().availableProcessors());
+	public static final String STR_DEFAULT_QUEUE="0";
+	public static final String STR_DEFAULT_XMLDOM=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_FORCE=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_WATCH=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_DEBOUNCE="500";
+	public static final String STR_DEFAULT_ISINDEX=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_INDEXVERIFY=Boolean.TRUE.toString();
+	public static final String STR_PARSER_READER="reader";
+	public static final String STR_PARSER_MAPPED="mapped";
+	public static final String STR_DEFAULT_PARSER=STR_PARSER_READER;
+	public static final String STR_DEFAULT_ISREPORT=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_ISPROBE=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_PROBETHREADS="4";
+	public static final String STR_DEFAULT_SERVER=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_PORT="47800";
+	public static final String STR_DEFAULT_ISCLIENT=Boolean.FALSE.toString();
+	public static final String STR_DEFAULT_SYNCTHREADS="4";
+	public static final String STR_DEFAULT_SYNCLINKS=Boolean.TRUE.toString();
 	public static final String STR_DEFAULT_BITRATE="320";
 	public static final String STR_DEFAULT_SAMPLERATE="44100";
 	public static final String STR_DEFAULT_DISCNUMBER="0";	
@@ -103,13 +160,22 @@ public class PlaylistGenerator {
 	public static final String STR_DEFAULT_INZIO="0.0";
 	
 	public static final String STR_EXTINF="#EXTINF:";
+	public static final String STR_PROBE_THREAD_NAME="PlaylistGenerator-probe-";
+	public static final String STR_FILE_URI_PREFIX="file:/";
+	public static final String STR_LOCALHOST_URI_PREFIX="file://localhost/";
 	
 	public static final String STR_M3U8_FILE_EXTENSION=".m3u8";
 	public static final String STR_TXT_FILE_EXTENSION=".txt";
 	public static final String STR_MP3_FILE_EXTENSION=".mp3";
 	public static final String STR_WAV_FILE_EXTENSION=".wav";
+	public static final String STR_AIFF_FILE_EXTENSION=".aiff";
+	public static final String STR_AIF_FILE_EXTENSION=".aif";
+	public static final String STR_FLAC_FILE_EXTENSION=".flac";
+	public static final String STR_M4A_FILE_EXTENSION=".m4a";
 	public static final String STR_XML_FILE_EXTENSION=".xml";
 	public static final String STR_JSON_FILE_EXTENSION=".json";
+	public static final String STR_ZIP_FILE_EXTENSION=".zip";
+	public static final String STR_MACOS_METADATA_DIR="__MACOSX";
 	
 	public static final int INDEX_TRACKNUM=0;
 	public static final int INDEX_ALBUM=4;
@@ -123,6 +189,30 @@ public class PlaylistGenerator {
 	protected static String cmdPlaylist=System.getProperty(PARAM_PLAYLIST,null);
 	protected static boolean cmdIsXML=Boolean.parseBoolean(System.getProperty(PARAM_ISXML,STR_DEFAULT_ISXML));
 	protected static boolean cmdIsJSON=Boolean.parseBoolean(System.getProperty(PARAM_ISJSON,STR_DEFAULT_ISJSON));
+	protected static int cmdThreads=Integer.parseInt(System.getProperty(PARAM_THREADS,STR_DEFAULT_THREADS));
+	protected static int cmdQueue=Integer.parseInt(System.getProperty(PARAM_QUEUE,STR_DEFAULT_QUEUE));
+	protected static boolean cmdIsXMLDOM=Boolean.parseBoolean(System.getProperty(PARAM_XMLDOM,STR_DEFAULT_XMLDOM));
+	protected static boolean cmdIsForce=Boolean.parseBoolean(System.getProperty(PARAM_FORCE,STR_DEFAULT_FORCE));
+	protected static boolean cmdIsWatch=Boolean.parseBoolean(System.getProperty(PARAM_WATCH,STR_DEFAULT_WATCH));
+	protected static long cmdDebounce=Long.parseLong(System.getProperty(PARAM_DEBOUNCE,STR_DEFAULT_DEBOUNCE));
+	protected static String cmdMerge=System.getProperty(PARAM_MERGE,null);
+	protected static boolean cmdIsIndex=Boolean.parseBoolean(System.getProperty(PARAM_ISINDEX,STR_DEFAULT_ISINDEX));
+	protected static String cmdIndex=System.getProperty(PARAM_INDEX,null);
+	protected static boolean cmdIsIndexVerify=Boolean.parseBoolean(System.getProperty(PARAM_INDEXVERIFY,STR_DEFAULT_INDEXVERIFY));
+	protected static String cmdParser=System.getProperty(PARAM_PARSER,STR_DEFAULT_PARSER);
+	protected static boolean cmdIsReport=Boolean.parseBoolean(System.getProperty(PARAM_ISREPORT,STR_DEFAULT_ISREPORT));
+	protected static String cmdReport=System.getProperty(PARAM_REPORT,null);
+	protected static boolean cmdIsProbe=Boolean.parseBoolean(System.getProperty(PARAM_ISPROBE,STR_DEFAULT_ISPROBE));
+	protected static int cmdProbeThreads=Integer.parseInt(System.getProperty(PARAM_PROBETHREADS,STR_DEFAULT_PROBETHREADS));
+	protected static String cmdLibrary=System.getProperty(PARAM_LIBRARY,null);
+	protected static boolean cmdIsServer=Boolean.parseBoolean(System.getProperty(PARAM_SERVER,STR_DEFAULT_SERVER));
+	protected static int cmdPort=Integer.parseInt(System.getProperty(PARAM_PORT,STR_DEFAULT_PORT));
+	protected static boolean cmdIsClient=Boolean.parseBoolean(System.getProperty(PARAM_ISCLIENT,STR_DEFAULT_ISCLIENT));
+	protected static String cmdSyncDir=System.getProperty(PARAM_SYNCDIR,null);
+	protected static int cmdSyncThreads=Integer.parseInt(System.getProperty(PARAM_SYNCTHREADS,STR_DEFAULT_SYNCTHREADS));
+	protected static boolean cmdIsSyncLinks=Boolean.parseBoolean(System.getProperty(PARAM_SYNCLINKS,STR_DEFAULT_SYNCLINKS));
+	protected static String cmdQuery=System.getProperty(PARAM_QUERY,null);
+	protected static String cmdQueryName=System.getProperty(PARAM_QUERYNAME,null);
 	
 	/**
 	 * This application is used to generate Tribe XR JSON and Rekordbox 5 XML playlist files from the m3u8 and KUVO txt playlist formats exported by newer
@@ -139,384 +229,1851 @@ public class PlaylistGenerator {
 					+ "-D"+PARAM_DESTDIR+"=<destdir> "
 					+ "-D"+PARAM_PLAYLIST+"=<playlist> "
 					+ "-D"+PARAM_ISXML+"<isxml> "
-					+ "-D"+PARAM_ISJSON+"<isjson>\n"
+					+ "-D"+PARAM_ISJSON+"<isjson> "
+					+ "-D"+PARAM_THREADS+"=<threads> "
+					+ "-D"+PARAM_QUEUE+"=<queue> "
+					+ "-D"+PARAM_XMLDOM+"=<xmldom> "
+					+ "-D"+PARAM_FORCE+"=<force> "
+					+ "-D"+PARAM_WATCH+"=<watch> "
+					+ "-D"+PARAM_DEBOUNCE+"=<debounce> "
+					+ "-D"+PARAM_MERGE+"=<merge> "
+					+ "-D"+PARAM_ISINDEX+"=<isindex> "
+					+ "-D"+PARAM_INDEX+"=<index> "
+					+ "-D"+PARAM_INDEXVERIFY+"=<indexverify> "
+					+ "-D"+PARAM_PARSER+"=<parser> "
+					+ "-D"+PARAM_LIBRARY+"=<library> "
+					+ "-D"+PARAM_SERVER+"=<server> "
+					+ "-D"+PARAM_PORT+"=<port> "
+					+ "-D"+PARAM_ISCLIENT+"=<isclient> "
+					+ "-D"+PARAM_SYNCDIR+"=<syncdir> "
+					+ "-D"+PARAM_SYNCTHREADS+"=<syncthreads> "
+					+ "-D"+PARAM_SYNCLINKS+"=<synclinks> "
+					+ "-D"+PARAM_QUERY+"=<query> "
+					+ "-D"+PARAM_QUERYNAME+"=<queryname>\n"
 					+ "PlaylistGenerator -help [displays this help]\n\n"
-					+ "srcdir - the source directory containing the playlist(s) exported from Rekordbox (default is current directory)\n"
+					+ "srcdir - the source directory containing the playlist(s) exported from Rekordbox, or a zip of them; the playlists are read straight from a zip without extracting it, and each zip in the source directory is converted into a directory of the same name in the destination directory, with the folders in a zip kept apart as sub-directories (default is current directory)\n"
 					+ "destdir - the destination directory to put the transformed playlist (default is current directory)\n"
 					+ "playlist - the parameter to specify a single playlist file (without the extension) instead of processing all playlists in the source directory (default is to omit and process all applicable playlists in the source directory)\n"
 					+ "isxml - true|false parameter to state whether Rekordbox 5 XML format will be produced or not (default is "+STR_DEFAULT_ISXML.toLowerCase()+")\n"
-					+ "isjson - true|false parameter to state whether Tribe XR JSON format will be produced or not (default is "+STR_DEFAULT_ISJSON.toLowerCase()+")\n");
+					+ "isjson - true|false parameter to state whether Tribe XR JSON format will be produced or not (default is "+STR_DEFAULT_ISJSON.toLowerCase()+")\n"
+					+ "threads - the number of worker threads used when processing all playlists in the source directory (default is the number of available processors)\n"
+					+ "queue - the maximum number of playlists waiting for a worker thread, 0 means four per worker thread (default is "+STR_DEFAULT_QUEUE+")\n"
+					+ "xmldom - true|false parameter to build each Rekordbox 5 XML playlist as a DOM before writing it instead of streaming it (default is "+STR_DEFAULT_XMLDOM.toLowerCase()+")\n"
+					+ "force - true|false parameter to convert playlists even if the manifest in the destination directory shows they are up to date (default is "+STR_DEFAULT_FORCE.toLowerCase()+")\n"
+					+ "watch - true|false parameter to keep running and convert playlists in the source directory again whenever they change (default is "+STR_DEFAULT_WATCH.toLowerCase()+")\n"
+					+ "debounce - the number of milliseconds the source directory must be quiet for in watch mode before changed playlists are converted (default is "+STR_DEFAULT_DEBOUNCE+")\n"
+					+ "merge - the name of a single Rekordbox 5 XML library (without the extension) to merge all playlists in the source directory into, with each track appearing once in the collection (default is to omit and convert each playlist separately)\n"
+					+ "isindex - true|false parameter to keep an index of every track seen, which remembers file sizes and KUVO metadata between runs and lets Rekordbox 5 XML be produced for playlists without a txt file when all of their tracks are known (default is "+STR_DEFAULT_ISINDEX.toLowerCase()+")\n"
+					+ "index - the track index file (default is "+TrackIndex.STR_INDEX_FILENAME+" in the destination directory)\n"
+					+ "indexverify - true|false parameter to check the modified time of every indexed track, false trusts the index and never touches the audio files of tracks it knows (default is "+STR_DEFAULT_INDEXVERIFY.toLowerCase()+")\n"
+					+ "parser - "+STR_PARSER_READER+"|"+STR_PARSER_MAPPED+" parameter for how the m3u8 and KUVO txt files are read, "+STR_PARSER_MAPPED+" tokenizes the bytes of the files directly and only decodes the values that are used, reading UTF-8 or UTF-16 by the byte order mark (default is "+STR_DEFAULT_PARSER+")\n"
+					+ "isreport - true|false parameter to write a JSON report at the end of each run with the time spent in each stage and the tracks, rows and bytes handled, in total and for each playlist; the same totals are available over JMX as "+ConversionMetrics.STR_OBJECT_NAME+" once a run has gone on for a second (default is "+STR_DEFAULT_ISREPORT.toLowerCase()+")\n"
+					+ "report - the JSON report file (default is "+ConversionMetrics.STR_REPORT_FILENAME+" in the destination directory)\n"
+					+ "isprobe - true|false parameter to read the bit rate, sample rate and length of each MP3, WAV, AIFF and FLAC track from the first few KB of the audio file for the Rekordbox 5 XML, the results are kept in the track index until the file changes (default is "+STR_DEFAULT_ISPROBE.toLowerCase()+")\n"
+					+ "probethreads - the maximum number of audio files read at once when probing (default is "+STR_DEFAULT_PROBETHREADS+")\n"
+					+ "library - a whole Rekordbox library exported as Rekordbox XML to split into a Tribe XR JSON playlist for every playlist in it, with folders as sub-directories of the destination directory (default is to omit and convert the playlists in the source directory)\n"
+					+ "server - true|false parameter to keep running as a daemon that converts playlists for the command line, reusing the XML factories, caches and track index between jobs; the other parameters given to the daemon apply to every job (default is "+STR_DEFAULT_SERVER.toLowerCase()+")\n"
+					+ "port - the local port the daemon listens on (default is "+STR_DEFAULT_PORT+")\n"
+					+ "isclient - true|false parameter to hand the srcdir, destdir, playlist, isxml, isjson and force parameters to the daemon when one is running instead of converting here; watch, merge, library, syncdir and query always run here (default is "+STR_DEFAULT_ISCLIENT.toLowerCase()+")\n"
+					+ "syncdir - a music directory to mirror the audio files of each converted playlist into, with the Tribe XR JSON and Rekordbox 5 XML pointing at the mirrored files; files that haven't changed since they were last mirrored aren't touched and files with the same content are only mirrored once, merge and library don't sync (default is to omit and point at the audio files where they are)\n"
+					+ "syncthreads - the maximum number of audio files mirrored at once (default is "+STR_DEFAULT_SYNCTHREADS+")\n"
+					+ "synclinks - true|false parameter to hard link audio files into the music directory when it is on the same file system instead of copying them (default is "+STR_DEFAULT_SYNCLINKS.toLowerCase()+")\n"
+					+ "query - build a smart playlist of every track in the source directory's playlists that meets all of a list of criteria separated by ;, e.g. bpm=122-125;key=Gm;genre=house;added>2020-07 where key matches the keys that mix with it on the Camelot wheel and genre matches genres containing the text, or a file of name=query lines so a whole set of smart playlists is built from one pass over the source directory (default is to omit and convert the playlists in the source directory)\n"
+					+ "queryname - the name of the smart playlist built from a single query (default is "+SmartPlaylistGenerator.STR_DEFAULT_QUERY_NAME+")\n");
 			System.exit(-1);
 		}
+		
+		boolean isLocalOnly=cmdIsWatch || (cmdMerge!=null && !cmdMerge.trim().isEmpty()) || (cmdLibrary!=null && !cmdLibrary.trim().isEmpty())
+				|| (cmdSyncDir!=null && !cmdSyncDir.trim().isEmpty()) || (cmdQuery!=null && !cmdQuery.trim().isEmpty());
+		if(!cmdIsServer && cmdIsClient && !isLocalOnly
+				&& PlaylistServer.handOff(cmdPort, cmdSrcDir, cmdDestDir, cmdPlaylist, cmdIsXML, cmdIsJSON, cmdIsForce))
+		{
+			return;
+		}
 	
 		PlaylistGenerator app=new PlaylistGenerator();
-		app.process(cmdSrcDir, cmdDestDir, cmdPlaylist, cmdIsXML, cmdIsJSON);
-	}
-
-	/**
-	 * This method is used to transform playlists.
-	 * @param srcDir the source directory to read playlists
-	 * @param destDir the destination directory to write playlists
-	 * @param playlist if <code>null</code>, this parameter indicates all applicable playlists should be processed, otherwiwse if not <code>null</code> it specifies the single playlist (without filename extension) to be processed
-	 * @param isXML if set to <code>true</code> generates applicable playlists in Rekordbox 5 XML format
-	 * @param isJSON if set to <code>true</code> generates applicable playlists in Tribe XR JSON format
-	 */
-	public void process(String srcDir, String destDir, String playlist, boolean isXML, boolean isJSON)
-	{
-		ArrayList<String> m3u8Candidates=new ArrayList<String>();
-		ArrayList<String> txtCandidates=new ArrayList<String>();
-
-		if(playlist==null || playlist.trim().isEmpty())
+		app.setThreads(cmdThreads);
+		app.setQueueSize(cmdQueue);
+		app.setXMLDOM(cmdIsXMLDOM);
+		app.setForce(cmdIsForce);
+		app.setIndex(cmdIsIndex, cmdIndex, cmdIsIndexVerify);
+		app.setMappedParser(STR_PARSER_MAPPED.equalsIgnoreCase(cmdParser));
+		app.setReport(cmdIsReport, cmdReport);
+		app.setProbe(cmdIsProbe, cmdProbeThreads);
+		app.setSync(cmdSyncDir, cmdSyncThreads, cmdIsSyncLinks);
+		if(cmdIsServer || cmdIsWatch)
 		{
-			
-			File srcDirFile=new File(srcDir);
-			File[] files=srcDirFile.listFiles();
-			for(File file : files)
-			{
-				String filename=file.getName();
-				if(file.getName().endsWith(STR_M3U8_FILE_EXTENSION))
-				{
-					m3u8Candidates.add(filename.substring(0, filename.length()-STR_M3U8_FILE_EXTENSION.length()));
-				}
-				else if(file.getName().endsWith(STR_TXT_FILE_EXTENSION))
-				{
-					txtCandidates.add(filename.substring(0, filename.length()-STR_TXT_FILE_EXTENSION.length()));				
-				}
-			}
+			app.getMetrics().register();
 		}
 		else
 		{
-			m3u8Candidates.add(playlist);
+			app.getMetrics().registerLater(ConversionMetrics.REGISTER_DELAY);
 		}
-		
-		//Only process where we have both m3u8 files and txt files
-		for(String m3u8 : m3u8Candidates)
+		if(cmdIsServer)
 		{
-			if(isJSON)
+			try {
+				new PlaylistServer(app, cmdPort).start();
+			} catch (IOException e)
 			{
-				generateJSON(srcDir,destDir,m3u8);
+				System.err.println("Exception happened, unable to listen on port "+cmdPort+" : "+e.getLocalizedMessage());
+				e.printStackTrace();
+				System.exit(-1);
 			}
-			
-			if(isXML)
+			return;
+		}
+		if(cmdLibrary!=null && !cmdLibrary.trim().isEmpty())
+		{
+			new RekordboxLibrarySplitter(app).split(cmdLibrary, cmdDestDir);
+			app.closeIndex();
+			return;
+		}
+		if(cmdQuery!=null && !cmdQuery.trim().isEmpty())
+		{
+			new SmartPlaylistGenerator(app).generate(cmdSrcDir, cmdDestDir, cmdQuery, cmdQueryName, app.createSinks(cmdIsXML, cmdIsJSON));
+			app.closeIndex();
+			return;
+		}
+		if(cmdMerge!=null && !cmdMerge.trim().isEmpty())
+		{
+			LibraryMerger merger=new LibraryMerger(app);
+			merger.merge(cmdSrcDir, cmdDestDir, cmdMerge);
+			app.closeIndex();
+			return;
+		}
+		if(cmdIsWatch)
+		{
+			try {
+				new PlaylistWatcher(app, cmdSrcDir, cmdDestDir, app.createSinks(cmdIsXML, cmdIsJSON), cmdDebounce).watch();
+			} catch (Exception e)
 			{
-				if(!txtCandidates.contains(m3u8))
-				{
-					continue;
-				}
-				generateXML(srcDir,destDir,m3u8);
+				System.err.println("Exception happened, unable to watch "+cmdSrcDir+" : "+e.getLocalizedMessage());
+				e.printStackTrace();
+				System.exit(-1);
 			}
+			return;
+		}
+		app.process(cmdSrcDir, cmdDestDir, cmdPlaylist, cmdIsXML, cmdIsJSON);
+		app.closeIndex();
+	}
+
+	protected int threads=1;
+	protected int queueSize=0;
+	protected boolean isXMLDOM=false;
+	protected boolean isForce=false;
+	protected boolean isIndex=false;
+	protected String indexFilename=null;
+	protected boolean isIndexVerify=true;
+	protected TrackIndex trackIndex=null;
+	protected boolean isMappedParser=false;
+	protected boolean isReport=false;
+	protected boolean isProbe=false;
+	protected int probeThreads=1;
+	protected ExecutorService probeExecutor=null;
+	protected LibrarySync librarySync=null;
+	protected String reportFilename=null;
+	protected PrintStream out=null;
+	protected PrintStream err=null;
+	protected final ConversionMetrics metrics=new ConversionMetrics();
+	protected final StringDictionary dictionary=new StringDictionary();
+	protected final PathStore pathStore=new PathStore();
+	protected final ThreadLocal<MappedPlaylistParser> mappedParsers=new ThreadLocal<MappedPlaylistParser>() {
+		@Override
+		protected MappedPlaylistParser initialValue()
+		{
+			return new MappedPlaylistParser(PlaylistGenerator.this);
 		}
+	};
+
+	/**
+	 * Sets the number of worker threads used when all playlists in the source directory are processed.
+	 * @param threads the number of worker threads, values less than 1 are treated as 1.
+	 */
+	public void setThreads(int threads)
+	{
+		this.threads=Math.max(1, threads);
+	}
+
+	/**
+	 * Sets the maximum number of playlists queued up waiting for a worker thread.
+	 * @param queueSize the queue size, 0 or less means four playlists per worker thread.
+	 */
+	public void setQueueSize(int queueSize)
+	{
+		this.queueSize=queueSize;
+	}
+
+	/**
+	 * Sets whether Rekordbox 5 XML playlists are built as a DOM and then written out, instead of being streamed.  Both produce 
+	 * the same output, the DOM is kept for comparison.
+	 * @param isXMLDOM <code>true</code> to build a DOM.
+	 */
+	public void setXMLDOM(boolean isXMLDOM)
+	{
+		this.isXMLDOM=isXMLDOM;
 	}
 	
 	/**
-	 * This method is used to generate an XML playlist in the format that was used by Rekordbox 5.
-	 * @param directory the directory that holds the m3u8 and txt files.
-	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 * @return <code>true</code> if Rekordbox 5 XML playlists are built as a DOM instead of being streamed.
 	 */
-	public void generateXML(String srcDir, String destDir, String filenamePrefix)
+	public boolean isXMLDOM()
 	{
-		try {
-			//Create XML structure
-			Document doc=createDocument(srcDir,destDir,filenamePrefix);
-			
-			//Dump out to XML file
-			writeDocument(doc, destDir, filenamePrefix);
-		} catch (Exception e) 
+		return isXMLDOM;
+	}
+
+	/**
+	 * Sets whether playlists should be converted even if the manifest in the destination directory shows they are up to date.
+	 * @param isForce <code>true</code> to convert every playlist.
+	 */
+	public void setForce(boolean isForce)
+	{
+		this.isForce=isForce;
+	}
+
+	/**
+	 * Sets whether playlists are parsed by a {@link MappedPlaylistParser}, straight from the bytes of the files, rather 
+	 * than line by line with a reader.
+	 * @param isMappedParser <code>true</code> to use the mapped parser.
+	 */
+	public void setMappedParser(boolean isMappedParser)
+	{
+		this.isMappedParser=isMappedParser;
+	}
+	
+	/**
+	 * Sets whether an index of every track seen is kept between runs.  The index remembers the file size, modified time and 
+	 * KUVO metadata of each track by location, and is used to fill in tracks from playlists that don't have a KUVO txt file.
+	 * @param isIndex <code>true</code> to keep the index.
+	 * @param indexFilename the index file, or <code>null</code> to keep it in the destination directory.
+	 * @param isIndexVerify <code>true</code> to check each indexed track's modified time, <code>false</code> to trust the index.
+	 */
+	public void setIndex(boolean isIndex, String indexFilename, boolean isIndexVerify)
+	{
+		this.isIndex=isIndex;
+		this.indexFilename=indexFilename;
+		this.isIndexVerify=isIndexVerify;
+	}
+	
+	/**
+	 * Sets whether the headers of each audio file are read for its real bit rate, sample rate and length.
+	 * @param isProbe <code>true</code> to read the headers.
+	 * @param probeThreads the maximum number of audio files read at once, values less than 1 are treated as 1.
+	 */
+	public void setProbe(boolean isProbe, int probeThreads)
+	{
+		this.isProbe=isProbe;
+		this.probeThreads=Math.max(1, probeThreads);
+	}
+	
+	/**
+	 * Sets the music directory the audio files of each converted playlist are mirrored into.  The playlists are then 
+	 * written pointing at the mirrored files, and are converted every time so that audio files that have changed are found
+	 * even when the playlist itself hasn't.
+	 * @param syncDir the music directory, or <code>null</code> to leave the audio files where they are.
+	 * @param syncThreads the maximum number of audio files mirrored at once, values less than 1 are treated as 1.
+	 * @param isSyncLinks <code>true</code> to hard link audio files on the same file system rather than copy them.
+	 */
+	public void setSync(String syncDir, int syncThreads, boolean isSyncLinks)
+	{
+		librarySync=syncDir!=null && !syncDir.trim().isEmpty() ? LibrarySync.load(syncDir, syncThreads, isSyncLinks) : null;
+	}
+	
+	/**
+	 * Sets whether a JSON report of the time spent in each stage and the work done is written at the end of each run.
+	 * @param isReport <code>true</code> to write the report.
+	 * @param reportFilename the report file, or <code>null</code> to write it to the destination directory.
+	 */
+	public void setReport(boolean isReport, String reportFilename)
+	{
+		this.isReport=isReport;
+		this.reportFilename=reportFilename;
+	}
+	
+	/**
+	 * Sets where what this generator prints goes, e.g. to the client of a {@link PlaylistServer} job rather than the 
+	 * daemon's own console.
+	 * @param out receives what would be printed to standard out, or <code>null</code> for <code>System.out</code>.
+	 * @param err receives what would be printed to standard error, or <code>null</code> for <code>System.err</code>.
+	 */
+	public void setOutput(PrintStream out, PrintStream err)
+	{
+		this.out=out;
+		this.err=err;
+	}
+	
+	/**
+	 * @return where this generator prints what would go to standard out.
+	 */
+	public PrintStream getOut()
+	{
+		return out!=null ? out : System.out;
+	}
+	
+	/**
+	 * @return where this generator prints what would go to standard error.
+	 */
+	public PrintStream getErr()
+	{
+		return err!=null ? err : System.err;
+	}
+	
+	/**
+	 * @return the store the locations of tracks are held in, shared by everything this generator converts.
+	 */
+	public PathStore getPathStore()
+	{
+		return pathStore;
+	}
+	
+	/**
+	 * @return the timings and counts of every playlist converted so far.
+	 */
+	public ConversionMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * This method is used to write the JSON report if one was asked for, a failure is reported but doesn't affect the 
+	 * playlists already converted.
+	 * @param srcDir the source directory of the run.
+	 * @param destDir the destination directory, where the report is written unless a file was given.
+	 */
+	public void writeReport(String srcDir, String destDir)
+	{
+		if(!isReport)
 		{
-			System.err.println("Exception happened, unable to construct XML playlist : "+e.getLocalizedMessage());
-			e.printStackTrace();
 			return;
 		}
-		System.out.println("Created "+destDir+File.separator+filenamePrefix+STR_XML_FILE_EXTENSION);
+		String filename=reportFilename!=null ? reportFilename : destDir+File.separator+ConversionMetrics.STR_REPORT_FILENAME;
+		try {
+			metrics.writeReport(filename, srcDir, destDir);
+		} catch (IOException e)
+		{
+			getErr().println("Exception happened, unable to write the report "+filename+" : "+e.getLocalizedMessage());
+			e.printStackTrace(getErr());
+		}
 	}
 	
 	/**
-	 * This method is used to generate a JSON playlist in the format that was used by Tribe XR.
-	 * @param directory the directory that holds the m3u8 and txt files.
-	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 * This method is used to open the track index if one is being kept, it stays open until {@link #closeIndex()} is called.
+	 * A failure to open the index is reported and the run carries on without it.
+	 * @param destDir the destination directory, where the index is kept unless a file was given.
 	 */
-	public void generateJSON(String srcDir, String destDir, String filenamePrefix)
+	public synchronized void openIndex(String destDir)
 	{
-		try {
-			String m3u8Filename=srcDir+File.separator+filenamePrefix+STR_M3U8_FILE_EXTENSION;
-			String jsonFilename=destDir+File.separator+filenamePrefix+STR_JSON_FILE_EXTENSION;
-
-			//Parse the m3u8
-			ArrayList<PlaylistEntry> entries=parsem3u8(m3u8Filename);
-			
-			//Create JSON file
-			FileWriter fw=new FileWriter(jsonFilename);
-			fw.write("{\n");
-			fw.write("\"name\": \""+filenamePrefix+" \",\n");
-			fw.write("\"tracks\": [\n");
-			
-			//Iterate through the tracks
-			Iterator<PlaylistEntry> it=entries.iterator();
-			PlaylistEntry entry=it.next();
-			fw.write("{\n\"trackName\": \""+URLDecoder.decode(entry.title, StandardCharsets.UTF_8.toString())+"\",\n");
-			fw.write("\"filename\": \""+URLDecoder.decode(entry.fileLocation.substring(entry.fileLocation.lastIndexOf("/")+1), StandardCharsets.UTF_8.toString())+"\",\n");
-			fw.write("\"fullPath\": \""+URLDecoder.decode(entry.fileLocation.substring(6), StandardCharsets.UTF_8.toString())+"\"\n}\n");
-			
-			while(it.hasNext())
-			{
-				entry=it.next();
-				fw.write(",\n{\n\"trackName\": \""+URLDecoder.decode(entry.title, StandardCharsets.UTF_8.toString())+"\",\n");
-				fw.write("\"filename\": \""+URLDecoder.decode(entry.fileLocation.substring(entry.fileLocation.lastIndexOf("/")+1), StandardCharsets.UTF_8.toString())+"\",\n");
-				fw.write("\"fullPath\": \""+URLDecoder.decode(entry.fileLocation.substring(6), StandardCharsets.UTF_8.toString())+"\"\n}\n");
-			}
-			
-			
-			
-			
-			//Wrap it up
-			fw.write("]\n}");
-			fw.close();
-		} catch (Exception e) 
+		if(!isIndex || trackIndex!=null)
 		{
-			System.err.println("Exception happened, unable to construct JSON playlist : "+e.getLocalizedMessage());
-			e.printStackTrace();
 			return;
 		}
-		System.out.println("Created "+destDir+File.separator+filenamePrefix+STR_JSON_FILE_EXTENSION);
+		String filename=indexFilename!=null ? indexFilename : destDir+File.separator+TrackIndex.STR_INDEX_FILENAME;
+		try {
+			trackIndex=TrackIndex.open(filename, getErr());
+		} catch (TrackIndex.LockedException e)
+		{
+			//Tried again next run, e.g. the daemon's next job once the other run has finished
+			getErr().println(e.getLocalizedMessage()+", running without it");
+		} catch (IOException e)
+		{
+			getErr().println("Exception happened, unable to open the track index "+filename+" : "+e.getLocalizedMessage());
+			e.printStackTrace(getErr());
+			isIndex=false;
+		}
 	}
 	
 	/**
-	 * This method is used to create the XML document, root node and preamble before the collection is created.
-	 * @param directory the directory that holds the m3u8 and txt files.
-	 * @param filenamePrefix the name of the file (without the file extension) to convert.
-	 * @return <code>org.w3c.dom.Document</code> instance that contains the basic document structure ready to be populated with a collection.
-	 * @throws ParserConfigurationException
-	 * @throws IOException 
+	 * This method is used to write any changes to the track index to disk.
 	 */
-	public Document createDocument(String srcDir, String destDir, String filenamePrefix) throws ParserConfigurationException, IOException
+	public synchronized void flushIndex()
 	{
-		String m3u8Filename=srcDir+File.separator+filenamePrefix+STR_M3U8_FILE_EXTENSION;
-		String txtFilename=destDir+File.separator+filenamePrefix+STR_TXT_FILE_EXTENSION;
-
-		
-		//Parse the m3u8
-		ArrayList<PlaylistEntry> entries=parsem3u8(m3u8Filename);
-		
-		//Add in the txt data
-		if(entries!=null && entries.size()>0)
+		if(trackIndex!=null)
 		{
-			parseKTxt(txtFilename,entries);
+			trackIndex.flush();
 		}
-		else
+	}
+	
+	/**
+	 * This method is used to close the track index.
+	 */
+	public synchronized void closeIndex()
+	{
+		if(trackIndex==null)
 		{
-			return null;
+			return;
 		}
-		
-		//Create the document
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = factory.newDocumentBuilder();
-	    Document retVal = builder.newDocument();
-	     
-	    //Create the root element
-	    Element root=retVal.createElement(STR_DJ_LIST);
-	    root.setAttribute(STR_VERSION, STR_VERSION_NUM);
-	    retVal.appendChild(root);
-	    
-	    //Add in the PRODUCT element
-	    Element productElement=retVal.createElement(STR_PRODUCT);
-	    productElement.setAttribute(STR_NAME, STR_PRODUCT_NAME);
-	    productElement.setAttribute(STR_VERSION, STR_PRODUCT_VERSION);
-	    productElement.setAttribute(STR_COMPANY, STR_PRODUCT_COMPANY);
-	    root.appendChild(productElement);
-	    
-	    //Iterate through the entries and add the appropriate XML nodes
-	    //with the COLLECTION and PLAYLISTS
-	    Element collectionElement=retVal.createElement(STR_COLLECTION);
-	    collectionElement.setAttribute(STR_ENTRIES, Integer.toString(entries.size()));
-	    root.appendChild(collectionElement);
-	    
-	    Element playlistsElement=retVal.createElement(STR_PLAYLISTS);
-	    root.appendChild(playlistsElement);
-	    
-	    Element parentNodeElement=retVal.createElement(STR_NODE);
-	    parentNodeElement.setAttribute(STR_TYPE, "0");
-	    parentNodeElement.setAttribute(STR_NAME, "ROOT");
-	    parentNodeElement.setAttribute(STR_COUNT, "1");
-	    playlistsElement.appendChild(parentNodeElement);
-	    
-	    Element childNodeElement=retVal.createElement(STR_NODE);
-	    childNodeElement.setAttribute(STR_NAME, filenamePrefix);
-	    childNodeElement.setAttribute(STR_TYPE, "1");
-	    childNodeElement.setAttribute(STR_KEYTYPE, "0");
-	    childNodeElement.setAttribute(STR_ENTRIES, Integer.toString(entries.size()));
-	    parentNodeElement.appendChild(childNodeElement);
-	    
-	    
-	    //Go through each entry and create track and tempo elements
-	    for(PlaylistEntry entry : entries)
-	    {
-	    	Element trackElement=retVal.createElement(STR_TRACK);
-	    	trackElement.setAttribute(STR_TRACKID, entry.trackNumber);
-	    	trackElement.setAttribute(STR_NAME,entry.title);
-	    	trackElement.setAttribute(STR_ARTIST, entry.artist);
-	    	trackElement.setAttribute(STR_COMPOSER, "");
-	    	trackElement.setAttribute(STR_ALBUM,"");
-	    	trackElement.setAttribute(STR_GROUPING, "");
-	    	trackElement.setAttribute(STR_GENRE, entry.genre);
-	    	String extension=entry.fileLocation.substring(entry.fileLocation.length()-4).toLowerCase();
-	    	
-	    	if(extension.equalsIgnoreCase(STR_MP3_FILE_EXTENSION))
-	    	{
-	    		trackElement.setAttribute(STR_KIND, STR_KIND_MP3);
-	    	}
-	    	else if(extension.equalsIgnoreCase(STR_WAV_FILE_EXTENSION))
-	    	{
-	    		trackElement.setAttribute(STR_KIND, STR_KIND_WAV);
-	    	}
-	    	
-	    	trackElement.setAttribute(STR_SIZE, Long.toString(entry.fileSize));
-	    	trackElement.setAttribute(STR_TOTALTIME, entry.durationInS);
-	    	trackElement.setAttribute(STR_DISCNUMBER, STR_DEFAULT_DISCNUMBER);
-	    	trackElement.setAttribute(STR_TRACKNUMBER, STR_DEFAULT_TRACKNUMBER);
-	    	trackElement.setAttribute(STR_YEAR, entry.dateAdded.substring(0, 4));
-	    	trackElement.setAttribute(STR_AVERAGEBPM, entry.bpm);
-	    	trackElement.setAttribute(STR_DATEADDED, entry.dateAdded);
-	    	trackElement.setAttribute(STR_BITRATE, STR_DEFAULT_BITRATE);
-	    	trackElement.setAttribute(STR_COMMENTS, "");
-	    	trackElement.setAttribute(STR_PLAYCOUNT,"0");
-	    	trackElement.setAttribute(STR_RATING, "0");
-	    	trackElement.setAttribute(STR_LOCATION, entry.fileLocation);
-	    	trackElement.setAttribute(STR_REMIX, "");
-	    	trackElement.setAttribute(STR_TONALITY, entry.key);
-	    	trackElement.setAttribute(STR_LABEL, "");
-	    	trackElement.setAttribute(STR_MIX, "");
-	    	
-	    	collectionElement.appendChild(trackElement);
-	    	
-	    	//Create the playlist Track entry
-	    	Element playlistTrackElement=retVal.createElement(STR_TRACK);
-	    	playlistTrackElement.setAttribute(STR_KEY, entry.trackNumber);
-	    	childNodeElement.appendChild(playlistTrackElement);
-	    }
-	    
-	     
-	    return retVal;
+		try {
+			trackIndex.close();
+		} catch (IOException e)
+		{
+			getErr().println("Exception happened, unable to close the track index : "+e.getLocalizedMessage());
+		}
+		trackIndex=null;
+	}
+
+	/**
+	 * This method is used to transform playlists.
+	 * @param srcDir the source directory to read playlists
+	 * @param destDir the destination directory to write playlists
+	 * @param playlist if <code>null</code>, this parameter indicates all applicable playlists should be processed, otherwiwse if not <code>null</code> it specifies the single playlist (without filename extension) to be processed
+	 * @param isXML if set to <code>true</code> generates applicable playlists in Rekordbox 5 XML format
+	 * @param isJSON if set to <code>true</code> generates applicable playlists in Tribe XR JSON format
+	 */
+	public void process(String srcDir, String destDir, String playlist, boolean isXML, boolean isJSON)
+	{
+		process(srcDir, destDir, playlist, createSinks(isXML, isJSON));
 	}
 	
 	/**
-	 * This method is used to parse the m3u8 file exported from Rekordbox.
-	 * @param filename the location of the m3u8 file.
-	 * @return <code>java.util.ArrayList&lt;KEntry&gt; containing the initial parsed data.
-	 * @throws IOException 
+	 * This method is used to transform playlists, each playlist is parsed once and then written out by every sink.  The source 
+	 * may be a zip, in which case the playlists are read from wherever they are in the zip, and any zips in a source 
+	 * directory are converted after its own playlists into a directory of the same name in the destination directory.
+	 * @param srcDir the source directory to read playlists, or a zip of them
+	 * @param destDir the destination directory to write playlists
+	 * @param playlist if <code>null</code>, this parameter indicates all applicable playlists should be processed, otherwiwse if not <code>null</code> it specifies the single playlist (without filename extension) to be processed
+	 * @param sinks the output formats each playlist should be written in
 	 */
-	public ArrayList<PlaylistEntry> parsem3u8(String filename) throws IOException
+	public void process(String srcDir, String destDir, String playlist, List<PlaylistSink> sinks)
 	{
-		ArrayList<PlaylistEntry> retVal=new ArrayList<PlaylistEntry>();
-		
-		BufferedReader reader=new BufferedReader(new FileReader(filename));
-		String line=reader.readLine();
-		while(line!=null)
+		openIndex(destDir);
+		Path source=Paths.get(srcDir);
+		if(isArchive(source))
 		{
-			if(line.startsWith(STR_EXTINF))
+			processArchive(source, destDir, playlist, sinks);
+		}
+		else
+		{
+			process(source, destDir, playlist, sinks);
+			if(playlist==null || playlist.trim().isEmpty())
 			{
-				int firstCommaIndex=line.indexOf(",");
-				int separatorIndex=line.indexOf(STR_M3U8_SEPARATOR, firstCommaIndex);
-				String durationInS=line.substring(STR_EXTINF.length(),firstCommaIndex);
-				String artist=line.substring(firstCommaIndex+1,separatorIndex);
-				String title=line.substring(separatorIndex+STR_M3U8_SEPARATOR.length());
-				File file=new File(reader.readLine());
-				String assetFilename=file.toURI().toString();
-				PlaylistEntry entry=new PlaylistEntry(durationInS,artist,title,assetFilename);
-				retVal.add(entry);
+				for(Path archive : findArchives(source))
+				{
+					String archiveName=archive.getFileName().toString();
+					File archiveDestDir=new File(destDir, archiveName.substring(0, archiveName.length()-STR_ZIP_FILE_EXTENSION.length()));
+					if(!archiveDestDir.isDirectory() && !archiveDestDir.mkdirs())
+					{
+						getErr().println("Unable to create "+archiveDestDir+", skipping "+archive);
+						continue;
+					}
+					processArchive(archive, archiveDestDir.getPath(), null, sinks);
+				}
 			}
-			line=reader.readLine();
 		}
 		
-		reader.close();
-		
-		return retVal;
+		flushIndex();
+		writeReport(srcDir, destDir);
 	}
 	
 	/**
-	 * This method is used to parse the KUVO txt file exported from Rekordbox.
-	 * @param filename the location of the KUVO txt file.
-	 * @param The collection containing the initial parsed data from the m3u8 file.
-	 * @throws IOException 
+	 * This method is used to transform the playlists in a single directory, which may be inside a zip.
+	 * @param srcDir the directory to read playlists
+	 * @param destDir the destination directory to write playlists
+	 * @param playlist the single playlist (without filename extension) to be processed, or <code>null</code> for all of them
+	 * @param sinks the output formats each playlist should be written in
 	 */
-	public void parseKTxt(String filename, ArrayList<PlaylistEntry> entries) throws IOException
+	protected void process(Path srcDir, String destDir, String playlist, List<PlaylistSink> sinks)
 	{
-		BufferedReader reader=new BufferedReader(new FileReader(filename));
-		String line=reader.readLine();
-		Iterator<PlaylistEntry> it=entries.iterator();
-		
-		while(it.hasNext())
+		ConversionManifest manifest=ConversionManifest.load(destDir, getErr());
+		manifest.setForce(isForce);
+
+		if(playlist==null || playlist.trim().isEmpty())
 		{
-			//Ignore the header
-			line=reader.readLine();
-			if(line.trim().isEmpty())
+			ArrayList<String> m3u8Candidates=new ArrayList<String>();
+			HashSet<String> txtCandidates=new HashSet<String>();
+			try {
+				findPlaylists(srcDir, m3u8Candidates, txtCandidates);
+			} catch (IOException e)
 			{
-				continue;
+				getErr().println("Exception happened, unable to list the playlists in "+srcDir+" : "+e.getLocalizedMessage());
+				e.printStackTrace(getErr());
+				return;
 			}
-			String[] fields=line.split("\t");			
-			PlaylistEntry entry=it.next();
-			
-			entry.trackNumber=fields[INDEX_TRACKNUM];
-			entry.album=fields[INDEX_ALBUM];
-			entry.genre=fields[INDEX_GENRE];
-			entry.bpm=fields[INDEX_BPM];
-			entry.key=fields[INDEX_KEY];
-			entry.dateAdded=fields[INDEX_DATEADDED];
+			convertPlaylists(srcDir, destDir, m3u8Candidates, txtCandidates, sinks, manifest);
+		}
+		else
+		{
+			boolean hasTxt=Files.exists(srcDir.resolve(playlist+STR_TXT_FILE_EXTENSION));
+			ConversionResult result=convertPlaylist(srcDir, destDir, playlist, sinks, hasTxt, manifest);
+			if(result.isUpToDate())
+			{
+				getOut().println(playlist+" is up to date");
+			}
+			report(result);
 		}
 		
-		reader.close();
+		saveManifest(manifest);
 	}
 	
 	/**
-	 * This method is used to pretty print an XML playlist in the format used by Rekordbox 5 to a file.
-	 * @param doc the XML <code>Document</code> instance to be output.
-	 * @param directory the directory where the file should be written to.
-	 * @param filenamePrefix the name of the file to write to (without the <code>.xml</code> extension.
-	 * @throws IOException
-	 * @throws TransformerException
+	 * This method is used to transform the playlists in a zip without extracting it.  The zip is opened as a file system 
+	 * and every directory in it that holds m3u8 files is converted in turn, the worker threads reading the playlists 
+	 * from the zip at the same time.  Each directory is written to the same place under the destination directory as it 
+	 * is under the directory they all share in the zip, so playlists with the same name in different directories are 
+	 * kept apart and each directory has its own manifest.
+	 * @param archive the zip to read playlists
+	 * @param destDir the destination directory to write playlists
+	 * @param playlist the single playlist (without filename extension) to be processed, or <code>null</code> for all of them
+	 * @param sinks the output formats each playlist should be written in
 	 */
-	public void writeDocument(Document doc, String directory, String filenamePrefix) throws IOException, TransformerException
+	protected void processArchive(Path archive, String destDir, String playlist, List<PlaylistSink> sinks)
 	{
-		TransformerFactory transformerFactory = TransformerFactory.newInstance();
-		Transformer transformer = transformerFactory.newTransformer();
-		DOMSource dom = new DOMSource(doc);
-		FileWriter writer = new FileWriter(new File(directory+File.separator+filenamePrefix+STR_XML_FILE_EXTENSION));
-		StreamResult result = new StreamResult(writer);
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-		transformer.transform(dom, result);
-		writer.close();
+		boolean isSingle=playlist!=null && !playlist.trim().isEmpty();
+		try {
+			FileSystem zip=FileSystems.newFileSystem(archive, (ClassLoader)null);
+			try {
+				boolean isFound=false;
+				SortedSet<Path> directories=findPlaylistDirectories(zip);
+				Path shared=getSharedDirectory(directories);
+				for(Path directory : directories)
+				{
+					if(isSingle && !Files.exists(directory.resolve(playlist+STR_M3U8_FILE_EXTENSION)))
+					{
+						continue;
+					}
+					isFound=true;
+					File directoryDestDir=getArchiveDestDir(destDir, shared.relativize(directory));
+					if(directoryDestDir==null)
+					{
+						getErr().println("Skipping "+directory+" in "+archive+", it would be written outside "+destDir);
+						continue;
+					}
+					if(!directoryDestDir.isDirectory() && !directoryDestDir.mkdirs())
+					{
+						getErr().println("Unable to create "+directoryDestDir+", skipping "+directory+" in "+archive);
+						continue;
+					}
+					process(directory, directoryDestDir.getPath(), playlist, sinks);
+				}
+				if(!isFound)
+				{
+					getErr().println("No "+(isSingle ? playlist+STR_M3U8_FILE_EXTENSION : "m3u8 playlists")+" found in "+archive);
+				}
+			}
+			finally
+			{
+				zip.close();
+			}
+		} catch (Exception e)
+		{
+			getErr().println("Exception happened, unable to read the playlists in "+archive+" : "+e.getLocalizedMessage());
+			e.printStackTrace(getErr());
+		}
 	}
 	
 	/**
-	 * This class is used to hold the playlist data parsed from Rekordbox.
-	 * 
-	 * @author Les Carter
+	 * @param directories the directories in a zip that hold m3u8 files.
+	 * @return the deepest directory that all of them are in, which is the directory itself when there is only one.
 	 */
-	public class PlaylistEntry
+	protected static Path getSharedDirectory(SortedSet<Path> directories)
 	{
-		public String durationInS="";
-		public String artist="";
-		public String title="";
-		public String fileLocation="";
-		public long fileSize=0;
-		public String trackNumber="";
-		public String album="";
+		Path retVal=null;
+		for(Path directory : directories)
+		{
+			if(retVal==null)
+			{
+				retVal=directory;
+			}
+			while(!directory.startsWith(retVal))
+			{
+				retVal=retVal.getParent();
+			}
+		}
+		return retVal;
+	}
+	
+	/**
+	 * @param destDir the destination directory the zip is converted into.
+	 * @param relative the path of a directory in the zip, relative to the directory shared by all of them.
+	 * @return the directory to write the directory's playlists to, or <code>null</code> if the path would lead outside 
+	 * the destination directory.
+	 */
+	protected static File getArchiveDestDir(String destDir, Path relative)
+	{
+		File retVal=new File(destDir);
+		for(Path name : relative)
+		{
+			String element=name.toString();
+			if(element.equals("..") || element.equals("."))
+			{
+				return null;
+			}
+			if(!element.isEmpty())
+			{
+				retVal=new File(retVal, element);
+			}
+		}
+		return retVal;
+	}
+	
+	/**
+	 * @param source the source directory or file.
+	 * @return <code>true</code> if the source is a zip file.
+	 */
+	public static boolean isArchive(Path source)
+	{
+		Path filename=source.getFileName();
+		return filename!=null && endsWithIgnoreCase(filename.toString(), STR_ZIP_FILE_EXTENSION) && Files.isRegularFile(source);
+	}
+	
+	protected static boolean endsWithIgnoreCase(String value, String suffix)
+	{
+		return value.regionMatches(true, value.length()-suffix.length(), suffix, 0, suffix.length());
+	}
+	
+	/**
+	 * This method is used to find the zips in the source directory.
+	 * @param srcDir the source directory.
+	 * @return the zips, sorted by name.
+	 */
+	public List<Path> findArchives(Path srcDir)
+	{
+		ArrayList<Path> retVal=new ArrayList<Path>();
+		try {
+			DirectoryStream<Path> files=Files.newDirectoryStream(srcDir);
+			try {
+				for(Path file : files)
+				{
+					if(isArchive(file))
+					{
+						retVal.add(file);
+					}
+				}
+			}
+			finally
+			{
+				files.close();
+			}
+		} catch (IOException e)
+		{
+			getErr().println("Exception happened, unable to list the zips in "+srcDir+" : "+e.getLocalizedMessage());
+			e.printStackTrace(getErr());
+		}
+		Collections.sort(retVal);
+		return retVal;
+	}
+	
+	/**
+	 * This method is used to find the directories in a zip that hold m3u8 files, whether the playlists were zipped on 
+	 * their own or inside the directory they were exported to.
+	 * @param zip the zip, opened as a file system.
+	 * @return the directories, sorted by path.
+	 * @throws IOException
+	 */
+	public SortedSet<Path> findPlaylistDirectories(FileSystem zip) throws IOException
+	{
+		final TreeSet<Path> retVal=new TreeSet<Path>();
+		for(Path root : zip.getRootDirectories())
+		{
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+				{
+					//The resource forks added by the macOS archiver have the same names as the playlists
+					Path filename=dir.getFileName();
+					return filename!=null && filename.toString().startsWith(STR_MACOS_METADATA_DIR) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+				{
+					if(file.getFileName().toString().endsWith(STR_M3U8_FILE_EXTENSION))
+					{
+						retVal.add(file.getParent());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		return retVal;
+	}
+	
+	/**
+	 * This method is used to find the playlists in the source directory.
+	 * @param srcDir the source directory to read playlists
+	 * @param m3u8Candidates receives the names (without extension) of the m3u8 files, sorted by name
+	 * @param txtCandidates receives the names (without extension) of the KUVO txt files
+	 */
+	public void findPlaylists(String srcDir, List<String> m3u8Candidates, Set<String> txtCandidates)
+	{
+		try {
+			findPlaylists(Paths.get(srcDir), m3u8Candidates, txtCandidates);
+		} catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * This method is used to find the playlists in a directory, which may be inside a zip.
+	 * @param srcDir the directory to read playlists
+	 * @param m3u8Candidates receives the names (without extension) of the m3u8 files, sorted by name
+	 * @param txtCandidates receives the names (without extension) of the KUVO txt files
+	 * @throws IOException
+	 */
+	public void findPlaylists(Path srcDir, List<String> m3u8Candidates, Set<String> txtCandidates) throws IOException
+	{
+		DirectoryStream<Path> files=Files.newDirectoryStream(srcDir);
+		try {
+			for(Path file : files)
+			{
+				String filename=file.getFileName().toString();
+				if(filename.endsWith(STR_M3U8_FILE_EXTENSION))
+				{
+					m3u8Candidates.add(filename.substring(0, filename.length()-STR_M3U8_FILE_EXTENSION.length()));
+				}
+				else if(filename.endsWith(STR_TXT_FILE_EXTENSION))
+				{
+					txtCandidates.add(filename.substring(0, filename.length()-STR_TXT_FILE_EXTENSION.length()));				
+				}
+			}
+		}
+		finally
+		{
+			files.close();
+		}
+		Collections.sort(m3u8Candidates);
+	}
+	
+	/**
+	 * This method is used to convert a number of playlists on the worker threads, reporting the results in order.
+	 * @param srcDir the source directory to read playlists
+	 * @param destDir the destination directory to write playlists
+	 * @param m3u8Candidates the names (without extension) of the m3u8 files to convert
+	 * @param txtCandidates the names (without extension) of the KUVO txt files available
+	 * @param sinks the output formats each playlist should be written in
+	 * @param manifest the manifest used to skip playlists that are up to date, or <code>null</code> to convert them all
+	 */
+	public void convertPlaylists(String srcDir, String destDir, List<String> m3u8Candidates, Set<String> txtCandidates, List<PlaylistSink> sinks, ConversionManifest manifest)
+	{
+		convertPlaylists(Paths.get(srcDir), destDir, m3u8Candidates, txtCandidates, sinks, manifest);
+	}
+	
+	/**
+	 * This method is used to convert a number of playlists on the worker threads, reporting the results in order.
+	 * @param srcDir the directory to read playlists, which may be inside a zip
+	 * @param destDir the destination directory to write playlists
+	 * @param m3u8Candidates the names (without extension) of the m3u8 files to convert
+	 * @param txtCandidates the names (without extension) of the KUVO txt files available
+	 * @param sinks the output formats each playlist should be written in
+	 * @param manifest the manifest used to skip playlists that are up to date, or <code>null</code> to convert them all
+	 */
+	public void convertPlaylists(Path srcDir, String destDir, List<String> m3u8Candidates, Set<String> txtCandidates, List<PlaylistSink> sinks, ConversionManifest manifest)
+	{
+		BatchConverter batch=new BatchConverter(this, threads, queueSize);
+		batch.convert(srcDir, destDir, m3u8Candidates, txtCandidates, sinks, manifest);
+	}
+	
+	/**
+	 * This method is used to save the manifest, and the sync manifest if audio files are being synced, a failure is 
+	 * reported but doesn't affect the playlists already converted.
+	 * @param manifest the manifest to save.
+	 */
+	public void saveManifest(ConversionManifest manifest)
+	{
+		try {
+			manifest.save();
+		} catch (IOException e)
+		{
+			getErr().println("Exception happened, unable to save the manifest : "+e.getLocalizedMessage());
+			e.printStackTrace(getErr());
+		}
+		if(librarySync!=null)
+		{
+			try {
+				librarySync.save();
+			} catch (IOException e)
+			{
+				getErr().println("Exception happened, unable to save the sync manifest in "+librarySync.getSyncDir()+" : "+e.getLocalizedMessage());
+				e.printStackTrace(getErr());
+			}
+		}
+	}
+	
+	/**
+	 * This method is used to create the output sinks for the formats requested.
+	 * @param isXML if set to <code>true</code> includes the Rekordbox 5 XML format
+	 * @param isJSON if set to <code>true</code> includes the Tribe XR JSON format
+	 * @return the sinks to write each playlist to.
+	 */
+	public ArrayList<PlaylistSink> createSinks(boolean isXML, boolean isJSON)
+	{
+		ArrayList<PlaylistSink> retVal=new ArrayList<PlaylistSink>();
+		if(isJSON)
+		{
+			retVal.add(new TribeJSONSink(pathStore));
+		}
+		if(isXML)
+		{
+			retVal.add(new RekordboxXMLSink(this));
+		}
+		return retVal;
+	}
+	
+	/**
+	 * This method is used to convert a single playlist, the m3u8 (and KUVO txt if any sink needs it) are parsed once and the 
+	 * result handed to each sink in turn.  A failure in one sink does not stop the others.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param destDir the directory where the converted playlists should be written to.
+	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 * @param sinks the output formats to write.
+	 * @param hasTxt <code>true</code> if the KUVO txt file is available, sinks that require it are skipped otherwise.
+	 * @return the files created and any failures.
+	 */
+	public ConversionResult convertPlaylist(String srcDir, String destDir, String filenamePrefix, List<PlaylistSink> sinks, boolean hasTxt)
+	{
+		return convertPlaylist(srcDir, destDir, filenamePrefix, sinks, hasTxt, null);
+	}
+	
+	/**
+	 * This method is used to convert a single playlist unless the manifest shows it is already up to date.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param destDir the directory where the converted playlists should be written to.
+	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 * @param sinks the output formats to write.
+	 * @param hasTxt <code>true</code> if the KUVO txt file is available, sinks that require it are skipped otherwise.
+	 * @param manifest the manifest of playlists already converted, or <code>null</code> to always convert.
+	 * @return the files created and any failures.
+	 */
+	public ConversionResult convertPlaylist(String srcDir, String destDir, String filenamePrefix, List<PlaylistSink> sinks, boolean hasTxt, ConversionManifest manifest)
+	{
+		return convertPlaylist(Paths.get(srcDir), destDir, filenamePrefix, sinks, hasTxt, manifest);
+	}
+	
+	/**
+	 * This method is used to convert a single playlist unless the manifest shows it is already up to date.
+	 * @param srcDir the directory that holds the m3u8 and txt files, which may be inside a zip.
+	 * @param destDir the directory where the converted playlists should be written to.
+	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 * @param sinks the output formats to write.
+	 * @param hasTxt <code>true</code> if the KUVO txt file is available, sinks that require it are skipped otherwise.
+	 * @param manifest the manifest of playlists already converted, or <code>null</code> to always convert.
+	 * @return the files created and any failures.
+	 */
+	public ConversionResult convertPlaylist(Path srcDir, String destDir, String filenamePrefix, List<PlaylistSink> sinks, boolean hasTxt, ConversionManifest manifest)
+	{
+		ConversionResult retVal=new ConversionResult(filenamePrefix);
+		try {
+			convertPlaylist(srcDir, destDir, sinks, hasTxt, manifest, retVal);
+		}
+		finally
+		{
+			metrics.record(retVal);
+		}
+		return retVal;
+	}
+	
+	/**
+	 * This method is used to convert a single playlist, recording the outcome, timings and counts in the result.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param destDir the directory where the converted playlists should be written to.
+	 * @param sinks the output formats to write.
+	 * @param hasTxt <code>true</code> if the KUVO txt file is available, sinks that require it are skipped otherwise.
+	 * @param manifest the manifest of playlists already converted, or <code>null</code> to always convert.
+	 * @param result the result of the playlist being converted.
+	 */
+	protected void convertPlaylist(Path srcDir, String destDir, List<PlaylistSink> sinks, boolean hasTxt, ConversionManifest manifest, ConversionResult result)
+	{
+		String filenamePrefix=result.playlist;
+		
+		boolean isTxtNeeded=false;
+		ArrayList<PlaylistSink> applicableSinks=new ArrayList<PlaylistSink>();
+		for(PlaylistSink sink : sinks)
+		{
+			//Without the txt file the track index may still know enough about every track
+			if(sink.isTxtRequired() && !hasTxt && trackIndex==null)
+			{
+				continue;
+			}
+			isTxtNeeded|=sink.isTxtRequired() && hasTxt;
+			applicableSinks.add(sink);
+		}
+		if(applicableSinks.isEmpty())
+		{
+			return;
+		}
+		
+		ConversionManifest.Fingerprint fingerprint=null;
+		if(manifest!=null)
+		{
+			long start=System.nanoTime();
+			try {
+				fingerprint=manifest.fingerprint(srcDir, filenamePrefix, isTxtNeeded, ConversionManifest.getFormats(applicableSinks, isProbe, !hasTxt && trackIndex!=null));
+				//When syncing the audio files may have changed even though the playlist hasn't
+				if(librarySync==null && manifest.isUpToDate(destDir, filenamePrefix, applicableSinks, fingerprint))
+				{
+					result.upToDate();
+					return;
+				}
+			} catch (IOException e)
+			{
+				//Can't tell, so convert it and let any real problem be reported from there
+				fingerprint=null;
+			}
+			finally
+			{
+				result.timed(ConversionMetrics.Stage.MANIFEST, start);
+			}
+		}
+		
+		ArrayList<PlaylistEntry> entries;
+		try {
+			entries=loadPlaylist(srcDir, filenamePrefix, isTxtNeeded, result);
+		} catch (Exception e)
+		{
+			for(PlaylistSink sink : applicableSinks)
+			{
+				result.failed(sink.getFormat(), e);
+			}
+			return;
+		}
+		
+		if(librarySync!=null)
+		{
+			long start=System.nanoTime();
+			result.synced(librarySync.sync(filenamePrefix, entries, getErr()));
+			result.timed(ConversionMetrics.Stage.SYNC, start);
+		}
+		
+		boolean hasMetadata=hasTxt || hasMetadata(entries);
+		for(PlaylistSink sink : applicableSinks)
+		{
+			if(sink.isTxtRequired() && !hasMetadata)
+			{
+				continue;
+			}
+			ConversionMetrics.Stage stage=ConversionMetrics.Stage.forFormat(sink.getFormat());
+			long start=System.nanoTime();
+			try {
+				String filename=sink.write(filenamePrefix, entries, destDir, result);
+				result.created(filename);
+				result.written(new File(filename).length());
+			} catch (Exception e)
+			{
+				result.failed(sink.getFormat(), e);
+			}
+			if(stage!=null)
+			{
+				result.timed(stage, start);
+			}
+		}
+		
+		if(fingerprint!=null && !result.isFailed())
+		{
+			try {
+				manifest.update(filenamePrefix, fingerprint);
+			} catch (IOException e)
+			{
+				//Leave it out of the manifest so it's converted again next time
+			}
+		}
+	}
+	
+	/**
+	 * This method is used to print the outcome of converting a playlist.
+	 * @param result the result of the conversion.
+	 */
+	public void report(ConversionResult result)
+	{
+		for(String filename : result.createdFiles)
+		{
+			getOut().println("Created "+filename);
+		}
+		for(int i=0;i<result.failures.size();i++)
+		{
+			getErr().println(result.failures.get(i));
+			result.exceptions.get(i).printStackTrace(getErr());
+		}
+	}
+	
+	/**
+	 * This method is used to parse a playlist, joining the KUVO txt data onto the m3u8 entries if requested.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param filenamePrefix the name of the file (without the file extension) to parse.
+	 * @param isTxt if set to <code>true</code> the KUVO txt file is parsed as well.
+	 * @return the parsed playlist entries.
+	 * @throws IOException
+	 */
+	public ArrayList<PlaylistEntry> loadPlaylist(String srcDir, String filenamePrefix, boolean isTxt) throws IOException
+	{
+		return loadPlaylist(srcDir, filenamePrefix, isTxt, null);
+	}
+	
+	/**
+	 * This method is used to parse a playlist, timing each stage.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param filenamePrefix the name of the file (without the file extension) to parse.
+	 * @param isTxt if set to <code>true</code> the KUVO txt file is parsed as well.
+	 * @param result receives the time taken by each stage and the number of tracks parsed, or <code>null</code>.
+	 * @return the parsed playlist entries.
+	 * @throws IOException
+	 */
+	public ArrayList<PlaylistEntry> loadPlaylist(String srcDir, String filenamePrefix, boolean isTxt, ConversionResult result) throws IOException
+	{
+		return loadPlaylist(Paths.get(srcDir), filenamePrefix, isTxt, result);
+	}
+	
+	/**
+	 * This method is used to parse a playlist, timing each stage.
+	 * @param srcDir the directory that holds the m3u8 and txt files, which may be inside a zip.
+	 * @param filenamePrefix the name of the file (without the file extension) to parse.
+	 * @param isTxt if set to <code>true</code> the KUVO txt file is parsed as well.
+	 * @param result receives the time taken by each stage and the number of tracks parsed, or <code>null</code>.
+	 * @return the parsed playlist entries.
+	 * @throws IOException
+	 */
+	public ArrayList<PlaylistEntry> loadPlaylist(Path srcDir, String filenamePrefix, boolean isTxt, ConversionResult result) throws IOException
+	{
+		Path m3u8Filename=srcDir.resolve(filenamePrefix+STR_M3U8_FILE_EXTENSION);
+		Path txtFilename=srcDir.resolve(filenamePrefix+STR_TXT_FILE_EXTENSION);
+		ArrayList<PlaylistEntry> retVal;
+		MappedPlaylistParser parser=isMappedParser ? mappedParsers.get() : null;
+		long start=System.nanoTime();
+		retVal=parser!=null ? parser.parsem3u8(m3u8Filename) : parsem3u8(m3u8Filename);
+		if(result!=null)
+		{
+			result.timed(ConversionMetrics.Stage.PARSE_M3U8, start);
+		}
+		
+		boolean isJoined=isTxt && retVal.size()>0;
+		if(isJoined)
+		{
+			start=System.nanoTime();
+			if(parser!=null)
+			{
+				parser.parseKTxt(txtFilename, retVal);
+			}
+			else
+			{
+				parseKTxt(txtFilename, retVal);
+			}
+			if(result!=null)
+			{
+				result.timed(ConversionMetrics.Stage.PARSE_TXT, start);
+			}
+		}
+		
+		start=System.nanoTime();
+		int trackLookups=resolveTracks(retVal, isTxt, result);
+		if(result!=null)
+		{
+			result.timed(ConversionMetrics.Stage.RESOLVE, start);
+			result.parsed(retVal.size(), isJoined ? retVal.size() : 0, trackLookups);
+		}
+		return retVal;
+	}
+	
+	/**
+	 * This method is used to fill in the file size of each entry, and the KUVO metadata of entries that don't have it, from 
+	 * the track index.  The index is updated with anything new learnt from the entries.  Without an index each audio file is
+	 * looked at directly.  If probing is on, the headers of any audio file that hasn't been probed since it last changed are
+	 * read as well.
+	 * @param entries the parsed playlist entries.
+	 * @param isTxt <code>true</code> if the KUVO txt data has been joined onto the entries.
+	 * @param result receives the time spent probing and the number of files probed, or <code>null</code>.
+	 * @return the number of audio files looked at.
+	 */
+	protected int resolveTracks(List<PlaylistEntry> entries, boolean isTxt, ConversionResult result)
+	{
+		int retVal=0;
+		TrackIndex index=trackIndex;
+		ArrayList<PlaylistEntry> probeEntries=new ArrayList<PlaylistEntry>(0);
+		ArrayList<TrackIndex.Track> probeTracks=new ArrayList<TrackIndex.Track>(0);
+		for(int i=0;i<entries.size();i++)
+		{
+			PlaylistEntry entry=entries.get(i);
+			if(!isTxt)
+			{
+				//The KUVO row number is just the position in the playlist
+				entry.setTrackNumber(i+1);
+			}
+			
+			String location=LibraryMerger.locationKey(LibraryMerger.canonicalLocation(entry.fileLocation));
+			TrackIndex.Track track=index!=null ? index.get(location) : null;
+			boolean isChanged=false;
+			if(track==null)
+			{
+				track=new TrackIndex.Track(location);
+				isChanged=true;
+			}
+			if(track.modified<0 || isIndexVerify)
+			{
+				BasicFileAttributes attributes=readAttributes(entry.fileLocation);
+				retVal++;
+				if(attributes!=null)
+				{
+					if(track.size!=attributes.size() || track.modified!=attributes.lastModifiedTime().toMillis())
+					{
+						//Anything read from the headers before no longer holds
+						isChanged=true;
+						track.isProbed=false;
+					}
+					track.size=attributes.size();
+					track.modified=attributes.lastModifiedTime().toMillis();
+				}
+			}
+			entry.fileSize=track.size;
+			
+			if(entry.hasMetadata)
+			{
+				isChanged|=!track.metadata.isSameMetadata(entry);
+				track.metadata.copyMetadata(entry);
+			}
+			else if(track.metadata.hasMetadata)
+			{
+				entry.copyMetadata(track.metadata);
+				entry.album=dictionary.intern(entry.album);
+				entry.genre=dictionary.intern(entry.genre);
+			}
+			
+			if(track.isProbed)
+			{
+				entry.copyHeader(track.metadata);
+			}
+			else if(isProbe && track.modified>=0)
+			{
+				//Added to the index once the headers have been read
+				probeEntries.add(entry);
+				probeTracks.add(track);
+				continue;
+			}
+			
+			//Nothing worth remembering about a missing file we have no metadata for
+			isChanged&=track.modified>=0 || track.metadata.hasMetadata;
+			if(index!=null && isChanged)
+			{
+				index.put(track);
+			}
+		}
+		
+		if(!probeEntries.isEmpty())
+		{
+			long start=System.nanoTime();
+			probeTracks(probeEntries, probeTracks);
+			for(int i=0;i<probeEntries.size();i++)
+			{
+				TrackIndex.Track track=probeTracks.get(i);
+				probeEntries.get(i).copyHeader(track.metadata);
+				if(index!=null)
+				{
+					index.put(track);
+				}
+			}
+			if(result!=null)
+			{
+				result.timed(ConversionMetrics.Stage.PROBE, start);
+				result.probed(probeEntries.size());
+			}
+		}
+		return retVal;
+	}
+	
+	/**
+	 * This method is used to read the headers of a number of audio files, sharing them out between the probe threads.  The 
+	 * probe threads are shared by every playlist being converted, so no more than that many audio files are ever being read 
+	 * at once however many playlists are converted in parallel.
+	 * @param entries the entries of the audio files.
+	 * @param tracks receives what is read from the headers of each entry's audio file.
+	 */
+	protected void probeTracks(final List<PlaylistEntry> entries, final List<TrackIndex.Track> tracks)
+	{
+		int tasks=Math.min(probeThreads, entries.size());
+		if(tasks<=1)
+		{
+			for(int i=0;i<entries.size();i++)
+			{
+				probeTrack(entries.get(i), tracks.get(i));
+			}
+			return;
+		}
+		
+		final AtomicInteger next=new AtomicInteger();
+		ExecutorService executor=getProbeExecutor();
+		ArrayList<Future<?>> futures=new ArrayList<Future<?>>(tasks);
+		for(int i=0;i<tasks;i++)
+		{
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run()
+				{
+					int i;
+					while((i=next.getAndIncrement())<entries.size())
+					{
+						probeTrack(entries.get(i), tracks.get(i));
+					}
+				}
+			}));
+		}
+		try {
+			for(Future<?> future : futures)
+			{
+				future.get();
+			}
+		} catch (InterruptedException e)
+		{
+			//Leave whatever isn't probed yet to be probed next time
+			next.set(entries.size());
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e)
+		{
+			//probeTrack captures exceptions so this is only an Error escaping a probe thread
+			getErr().println("Exception happened, unable to probe audio files : "+e.getCause());
+			e.getCause().printStackTrace(getErr());
+		}
+	}
+	
+	/**
+	 * This method is used to read the headers of an audio file.  A file that can be read but not made sense of is still 
+	 * marked as probed, so it isn't read again until it changes.
+	 * @param entry the entry of the audio file.
+	 * @param track receives what is read from the headers.
+	 */
+	protected static void probeTrack(PlaylistEntry entry, TrackIndex.Track track)
+	{
+		try {
+			track.metadata.setHeader(AudioHeader.read(Paths.get(new URI(entry.fileLocation))));
+			track.isProbed=true;
+		} catch (Exception e)
+		{
+			//Unreadable, try again next time
+		}
+	}
+	
+	protected synchronized ExecutorService getProbeExecutor()
+	{
+		if(probeExecutor==null)
+		{
+			final AtomicInteger threadNumber=new AtomicInteger(1);
+			probeExecutor=Executors.newFixedThreadPool(probeThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread retVal=new Thread(r, STR_PROBE_THREAD_NAME+threadNumber.getAndIncrement());
+					retVal.setDaemon(true);
+					return retVal;
+				}
+			});
+		}
+		return probeExecutor;
+	}
+	
+	/**
+	 * @param fileLocation the location of the track as held in the playlist entry.
+	 * @return the size and modified time of the audio file, or <code>null</code> if it can't be found.
+	 */
+	protected static BasicFileAttributes readAttributes(String fileLocation)
+	{
+		try {
+			return Files.readAttributes(Paths.get(new URI(fileLocation)), BasicFileAttributes.class);
+		} catch (Exception e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * @param entries the playlist entries.
+	 * @return <code>true</code> if every entry has its KUVO metadata, either from the txt file or from the track index.
+	 */
+	protected static boolean hasMetadata(List<PlaylistEntry> entries)
+	{
+		if(entries.isEmpty())
+		{
+			return false;
+		}
+		for(PlaylistEntry entry : entries)
+		{
+			if(!entry.hasMetadata)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * This method is used to generate an XML playlist in the format that was used by Rekordbox 5.
+	 * @param directory the directory that holds the m3u8 and txt files.
+	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 */
+	public void generateXML(String srcDir, String destDir, String filenamePrefix)
+	{
+		report(convertPlaylist(srcDir, destDir, filenamePrefix, createSinks(true, false), true));
+	}
+	
+	/**
+	 * This method is used to generate a JSON playlist in the format that was used by Tribe XR.
+	 * @param directory the directory that holds the m3u8 and txt files.
+	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 */
+	public void generateJSON(String srcDir, String destDir, String filenamePrefix)
+	{
+		report(convertPlaylist(srcDir, destDir, filenamePrefix, createSinks(false, true), false));
+	}
+	
+	/**
+	 * This method is used to add the attributes of a <code>COLLECTION</code> track, it is shared by the DOM and streaming 
+	 * XML output so that both describe a track in exactly the same way.
+	 * @param entry the playlist entry, joined with the KUVO txt data.
+	 * @param target where the attributes should be set.
+	 */
+	public void addTrackAttributes(PlaylistEntry entry, AttributeTarget target)
+	{
+		addTrackAttributes(entry, entry.getTrackNumberText(), target);
+	}
+	
+	/**
+	 * This method is used to add the attributes of a <code>COLLECTION</code> track under a given track ID.
+	 * @param entry the playlist entry, joined with the KUVO txt data.
+	 * @param trackId the ID the track is known by in the document.
+	 * @param target where the attributes should be set.
+	 */
+	public void addTrackAttributes(PlaylistEntry entry, String trackId, AttributeTarget target)
+	{
+		target.setAttribute(STR_TRACKID, trackId);
+		target.setAttribute(STR_NAME,entry.title);
+		target.setAttribute(STR_ARTIST, entry.artist);
+		target.setAttribute(STR_COMPOSER, "");
+		target.setAttribute(STR_ALBUM,"");
+		target.setAttribute(STR_GROUPING, "");
+		target.setAttribute(STR_GENRE, entry.genre);
+		AudioFormat format=entry.format!=AudioFormat.NONE ? AudioFormat.valueOf(entry.format) : AudioFormat.forLocation(entry.fileLocation);
+		if(format!=null)
+		{
+			target.setAttribute(STR_KIND, format.getKind());
+		}
+		
+		target.setAttribute(STR_SIZE, Long.toString(entry.fileSize));
+		target.setAttribute(STR_TOTALTIME, entry.getTotalTimeText());
+		target.setAttribute(STR_DISCNUMBER, STR_DEFAULT_DISCNUMBER);
+		target.setAttribute(STR_TRACKNUMBER, STR_DEFAULT_TRACKNUMBER);
+		target.setAttribute(STR_YEAR, entry.getYearText());
+		target.setAttribute(STR_AVERAGEBPM, entry.getBpmText());
+		target.setAttribute(STR_DATEADDED, entry.getDateAddedText());
+		target.setAttribute(STR_BITRATE, entry.bitRate!=PlaylistEntry.NONE ? Integer.toString(entry.bitRate) : STR_DEFAULT_BITRATE);
+		if(entry.sampleRate!=PlaylistEntry.NONE)
+		{
+			target.setAttribute(STR_SAMPLERATE, Integer.toString(entry.sampleRate));
+		}
+		target.setAttribute(STR_COMMENTS, "");
+		target.setAttribute(STR_PLAYCOUNT,"0");
+		target.setAttribute(STR_RATING, "0");
+		target.setAttribute(STR_LOCATION, entry.fileLocation);
+		target.setAttribute(STR_REMIX, "");
+		target.setAttribute(STR_TONALITY, entry.getKeyText());
+		target.setAttribute(STR_LABEL, "");
+		target.setAttribute(STR_MIX, "");
+	}
+	
+	/**
+	 * This method is used to parse the m3u8 file exported from Rekordbox.
+	 * @param filename the location of the m3u8 file.
+	 * @return <code>java.util.ArrayList&lt;KEntry&gt; containing the initial parsed data.
+	 * @throws IOException 
+	 */
+	public ArrayList<PlaylistEntry> parsem3u8(String filename) throws IOException
+	{
+		return parsem3u8(Paths.get(filename));
+	}
+	
+	/**
+	 * This method is used to parse the m3u8 file exported from Rekordbox, which may be inside a zip.
+	 * @param file the m3u8 file.
+	 * @return <code>java.util.ArrayList&lt;KEntry&gt; containing the initial parsed data.
+	 * @throws IOException 
+	 */
+	public ArrayList<PlaylistEntry> parsem3u8(Path file) throws IOException
+	{
+		ArrayList<PlaylistEntry> retVal=new ArrayList<PlaylistEntry>();
+		
+		BufferedReader reader=new BufferedReader(new InputStreamReader(Files.newInputStream(file)));
+		String line=reader.readLine();
+		while(line!=null)
+		{
+			if(line.startsWith(STR_EXTINF))
+			{
+				int firstCommaIndex=line.indexOf(",");
+				int separatorIndex=line.indexOf(STR_M3U8_SEPARATOR, firstCommaIndex);
+				String durationInS=line.substring(STR_EXTINF.length(),firstCommaIndex);
+				String artist=dictionary.intern(line.substring(firstCommaIndex+1,separatorIndex));
+				String title=line.substring(separatorIndex+STR_M3U8_SEPARATOR.length());
+				String assetFilename=new File(reader.readLine()).toURI().toString();
+				PlaylistEntry entry=new PlaylistEntry(durationInS,artist,title,assetFilename);
+				retVal.add(entry);
+			}
+			line=reader.readLine();
+		}
+		
+		reader.close();
+		
+		return retVal;
+	}
+	
+	/**
+	 * This method is used to parse the KUVO txt file exported from Rekordbox.
+	 * @param filename the location of the KUVO txt file.
+	 * @param The collection containing the initial parsed data from the m3u8 file.
+	 * @throws IOException 
+	 */
+	public void parseKTxt(String filename, ArrayList<PlaylistEntry> entries) throws IOException
+	{
+		parseKTxt(Paths.get(filename), entries);
+	}
+	
+	/**
+	 * This method is used to parse the KUVO txt file exported from Rekordbox, which may be inside a zip.
+	 * @param file the KUVO txt file.
+	 * @param The collection containing the initial parsed data from the m3u8 file.
+	 * @throws IOException 
+	 */
+	public void parseKTxt(Path file, ArrayList<PlaylistEntry> entries) throws IOException
+	{
+		BufferedReader reader=new BufferedReader(new InputStreamReader(Files.newInputStream(file)));
+		String line=reader.readLine();
+		Iterator<PlaylistEntry> it=entries.iterator();
+		
+		while(it.hasNext())
+		{
+			//Ignore the header
+			line=reader.readLine();
+			if(line.trim().isEmpty())
+			{
+				continue;
+			}
+			String[] fields=line.split("\t");			
+			PlaylistEntry entry=it.next();
+			
+			entry.setTrackNumber(fields[INDEX_TRACKNUM]);
+			entry.album=dictionary.intern(fields[INDEX_ALBUM]);
+			entry.genre=dictionary.intern(fields[INDEX_GENRE]);
+			entry.setBpm(fields[INDEX_BPM]);
+			entry.setKey(fields[INDEX_KEY]);
+			entry.setDateAdded(fields[INDEX_DATEADDED]);
+			entry.hasMetadata=true;
+		}
+		
+		reader.close();
+	}
+	
+	/**
+	 * This method is used to turn the <code>file:/</code> URI of a track back into a path, with any percent encoded 
+	 * characters decoded as UTF-8.  Unlike <code>java.net.URLDecoder</code> a <code>+</code> is left as it is, as it is 
+	 * a legal character in a URI path.
+	 * @param fileLocation the location of the track as held in the playlist entry.
+	 * @return the decoded path, without the <code>file:/</code> prefix.
+	 */
+	public static String decodeLocation(String fileLocation)
+	{
+		int start=fileLocation.startsWith(STR_LOCALHOST_URI_PREFIX) ? STR_LOCALHOST_URI_PREFIX.length()
+				: fileLocation.startsWith(STR_FILE_URI_PREFIX) ? STR_FILE_URI_PREFIX.length() : 0;
+		int firstPercent=fileLocation.indexOf('%', start);
+		if(firstPercent<0)
+		{
+			return fileLocation.substring(start);
+		}
+		
+		StringBuilder retVal=new StringBuilder(fileLocation.length()-start);
+		retVal.append(fileLocation, start, firstPercent);
+		byte[] bytes=new byte[(fileLocation.length()-firstPercent)/3];
+		int i=firstPercent;
+		while(i<fileLocation.length())
+		{
+			char c=fileLocation.charAt(i);
+			if(c!='%')
+			{
+				retVal.append(c);
+				i++;
+				continue;
+			}
+			
+			//Gather the whole run of escapes so multi-byte UTF-8 sequences decode together
+			int count=0;
+			while(i+2<fileLocation.length() && fileLocation.charAt(i)=='%')
+			{
+				int hi=Character.digit(fileLocation.charAt(i+1), 16);
+				int lo=Character.digit(fileLocation.charAt(i+2), 16);
+				if(hi<0 || lo<0)
+				{
+					break;
+				}
+				bytes[count++]=(byte)((hi<<4)+lo);
+				i+=3;
+			}
+			if(count==0)
+			{
+				//Not a valid escape, keep it as it is
+				retVal.append(c);
+				i++;
+				continue;
+			}
+			retVal.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+		}
+		return retVal.toString();
+	}
+	
+	/**
+	 * This interface is used to receive the attributes of an XML element, whether it is being built as a DOM or streamed.
+	 * 
+	 * @author Les Carter
+	 */
+	public interface AttributeTarget
+	{
+		public void setAttribute(String name, String value);
+	}
+	
+	/**
+	 * This class is used to hold the playlist data parsed from Rekordbox.
+	 * <br/><br/>
+	 * Numbers, dates and keys are held as primitives and only turned back into text when the playlist is written: the 
+	 * duration and track number as <code>int</code>s, the BPM in hundredths, the date added as a day since the epoch and 
+	 * the key as a {@link MusicalKey} spelling code.  A value that isn't in the form Rekordbox writes, and so wouldn't come 
+	 * back out the same, is kept as text instead.
+	 * 
+	 * @author Les Carter
+	 */
+	public static class PlaylistEntry
+	{
+		/**
+		 * The value of a number or date that is empty, or is held as text.
+		 */
+		public static final int NONE=Integer.MIN_VALUE;
+		
+		protected static final int TEXT_DURATION=0;
+		protected static final int TEXT_TRACKNUMBER=1;
+		protected static final int TEXT_BPM=2;
+		protected static final int TEXT_KEY=3;
+		protected static final int TEXT_DATEADDED=4;
+		protected static final int TEXT_COUNT=5;
+		
+		public int seconds=NONE;
+		public String artist="";
+		public String title="";
+		public String fileLocation="";
+		public long fileSize=0;
+		public int trackNumber=NONE;
+		public String album="";
 		public String genre="";
-		public String bpm="";;
-		public String key="";
-		public String dateAdded="";
+		public int bpm=NONE;
+		public byte key=MusicalKey.NONE;
+		public int dateAdded=NONE;
+		public boolean hasMetadata=false;
+		//Read from the headers of the audio file
+		public byte format=AudioFormat.NONE;
+		public int bitRate=NONE;
+		public int sampleRate=NONE;
+		public int durationMillis=NONE;
+		
+		//Values that can't be held as primitives, usually null
+		protected String[] text;
+		
+		public PlaylistEntry()
+		{
+			super();
+		}
 		
 		public PlaylistEntry(String durationInS, String artist, String title, String fileLocation)
 		{
 			super();
-			this.durationInS=durationInS;
+			setDuration(durationInS);
 			this.artist=artist;
 			this.title=title;
 			this.fileLocation=fileLocation;
-			
-			fileSize=new File(fileLocation).length();
-		}	
+		}
+		
+		public void setDuration(String value)
+		{
+			seconds=parseInt(value);
+			setText(TEXT_DURATION, seconds==NONE ? value : null);
+		}
+		
+		public String getDurationText()
+		{
+			return seconds!=NONE ? Integer.toString(seconds) : getText(TEXT_DURATION);
+		}
+		
+		public void setTrackNumber(String value)
+		{
+			trackNumber=parseInt(value);
+			setText(TEXT_TRACKNUMBER, trackNumber==NONE ? value : null);
+		}
+		
+		public void setTrackNumber(int value)
+		{
+			trackNumber=value;
+			setText(TEXT_TRACKNUMBER, null);
+		}
+		
+		public String getTrackNumberText()
+		{
+			return trackNumber!=NONE ? Integer.toString(trackNumber) : getText(TEXT_TRACKNUMBER);
+		}
+		
+		public void setBpm(String value)
+		{
+			bpm=parseBpm(value);
+			setText(TEXT_BPM, bpm==NONE ? value : null);
+		}
+		
+		/**
+		 * @return the BPM with two decimal places, as Rekordbox writes it.
+		 */
+		public String getBpmText()
+		{
+			return bpm!=NONE ? formatBpm(bpm) : getText(TEXT_BPM);
+		}
+		
+		public void setKey(String value)
+		{
+			key=MusicalKey.parse(value);
+			if(key<0)
+			{
+				key=MusicalKey.NONE;
+				setText(TEXT_KEY, value);
+			}
+			else
+			{
+				setText(TEXT_KEY, null);
+			}
+		}
+		
+		public String getKeyText()
+		{
+			return key!=MusicalKey.NONE ? MusicalKey.getSpelling(key) : getText(TEXT_KEY);
+		}
+		
+		public void setDateAdded(String value)
+		{
+			dateAdded=parseDate(value);
+			setText(TEXT_DATEADDED, dateAdded==NONE ? value : null);
+		}
+		
+		/**
+		 * @return the date added as <code>yyyy-MM-dd</code>.
+		 */
+		public String getDateAddedText()
+		{
+			return dateAdded!=NONE ? formatDate(dateAdded) : getText(TEXT_DATEADDED);
+		}
+		
+		/**
+		 * @return the first four characters of the date added.
+		 */
+		public String getYearText()
+		{
+			if(dateAdded!=NONE)
+			{
+				return formatDate(dateAdded).substring(0, 4);
+			}
+			String retVal=getText(TEXT_DATEADDED);
+			return retVal.length()>=4 ? retVal.substring(0, 4) : "";
+		}
+		
+		/**
+		 * @return the length of the track in seconds from the m3u8 file, or from the headers of the audio file if the m3u8 
+		 * file doesn't give one.
+		 */
+		public String getTotalTimeText()
+		{
+			boolean hasDuration=seconds!=NONE ? seconds>0 : getText(TEXT_DURATION, null)!=null;
+			if(!hasDuration && durationMillis!=NONE)
+			{
+				return Integer.toString((durationMillis+500)/1000);
+			}
+			return getDurationText();
+		}
+		
+		/**
+		 * This method is used to copy the KUVO metadata from another entry.
+		 * @param other the entry to copy from.
+		 */
+		public void copyMetadata(PlaylistEntry other)
+		{
+			album=other.album;
+			genre=other.genre;
+			bpm=other.bpm;
+			key=other.key;
+			dateAdded=other.dateAdded;
+			setText(TEXT_BPM, other.getText(TEXT_BPM, null));
+			setText(TEXT_KEY, other.getText(TEXT_KEY, null));
+			setText(TEXT_DATEADDED, other.getText(TEXT_DATEADDED, null));
+			hasMetadata=other.hasMetadata;
+		}
+		
+		/**
+		 * @param other another entry.
+		 * @return <code>true</code> if both entries have the same KUVO metadata.
+		 */
+		public boolean isSameMetadata(PlaylistEntry other)
+		{
+			return hasMetadata==other.hasMetadata && album.equals(other.album) && genre.equals(other.genre) 
+					&& bpm==other.bpm && key==other.key && dateAdded==other.dateAdded
+					&& getText(TEXT_BPM).equals(other.getText(TEXT_BPM)) && getText(TEXT_KEY).equals(other.getText(TEXT_KEY))
+					&& getText(TEXT_DATEADDED).equals(other.getText(TEXT_DATEADDED));
+		}
+		
+		/**
+		 * This method is used to copy what was read from the headers of the audio file from another entry.
+		 * @param other the entry to copy from.
+		 */
+		public void copyHeader(PlaylistEntry other)
+		{
+			format=other.format;
+			bitRate=other.bitRate;
+			sampleRate=other.sampleRate;
+			durationMillis=other.durationMillis;
+		}
+		
+		/**
+		 * This method is used to hold what was read from the headers of the audio file.
+		 * @param header the headers.
+		 */
+		public void setHeader(AudioHeader header)
+		{
+			format=header.format!=null ? header.format.getCode() : AudioFormat.NONE;
+			bitRate=header.bitRate;
+			sampleRate=header.sampleRate;
+			durationMillis=header.durationMillis;
+		}
+		
+		protected String getText(int field)
+		{
+			return getText(field, "");
+		}
+		
+		protected String getText(int field, String defaultValue)
+		{
+			return text!=null && text[field]!=null ? text[field] : defaultValue;
+		}
+		
+		protected void setText(int field, String value)
+		{
+			if(value==null || value.isEmpty())
+			{
+				if(text!=null)
+				{
+					text[field]=null;
+				}
+				return;
+			}
+			if(text==null)
+			{
+				text=new String[TEXT_COUNT];
+			}
+			text[field]=value;
+		}
+		
+		/**
+		 * @param value the text of a whole number.
+		 * @return the number, or {@link #NONE} if the text is empty or wouldn't be written back the same.
+		 */
+		public static int parseInt(String value)
+		{
+			if(value==null)
+			{
+				return NONE;
+			}
+			int length=value.length();
+			int start=length>0 && value.charAt(0)=='-' ? 1 : 0;
+			if(length==start || length-start>9 || (value.charAt(start)=='0' && length>start+1) || (start==1 && value.charAt(1)=='0'))
+			{
+				return NONE;
+			}
+			int retVal=0;
+			for(int i=start;i<length;i++)
+			{
+				char c=value.charAt(i);
+				if(c<'0' || c>'9')
+				{
+					return NONE;
+				}
+				retVal=retVal*10+(c-'0');
+			}
+			return start==1 ? -retVal : retVal;
+		}
+		
+		/**
+		 * @param value the text of a BPM with two decimal places, e.g. <code>124.00</code>.
+		 * @return the BPM in hundredths, or {@link #NONE} if the text isn't in that form.
+		 */
+		public static int parseBpm(String value)
+		{
+			if(value==null)
+			{
+				return NONE;
+			}
+			int point=value.length()-3;
+			if(point<1 || value.charAt(point)!='.')
+			{
+				return NONE;
+			}
+			int whole=parseInt(value.substring(0, point));
+			if(whole==NONE || whole<0 || whole>999999)
+			{
+				return NONE;
+			}
+			char tenths=value.charAt(point+1);
+			char hundredths=value.charAt(point+2);
+			if(tenths<'0' || tenths>'9' || hundredths<'0' || hundredths>'9')
+			{
+				return NONE;
+			}
+			return whole*100+(tenths-'0')*10+(hundredths-'0');
+		}
+		
+		public static String formatBpm(int bpm)
+		{
+			int fraction=bpm%100;
+			return (bpm/100)+(fraction<10 ? ".0" : ".")+fraction;
+		}
+		
+		/**
+		 * @param value the text of a date as <code>yyyy-MM-dd</code>.
+		 * @return the day since the epoch, or {@link #NONE} if the text isn't a date in that form.
+		 */
+		public static int parseDate(String value)
+		{
+			if(value==null || value.length()!=10 || value.charAt(4)!='-' || value.charAt(7)!='-')
+			{
+				return NONE;
+			}
+			int year=parseDigits(value, 0, 4);
+			int month=parseDigits(value, 5, 7);
+			int day=parseDigits(value, 8, 10);
+			if(year<0 || month<1 || month>12 || day<1 || day>LocalDate.of(year, month, 1).lengthOfMonth())
+			{
+				return NONE;
+			}
+			return (int)LocalDate.of(year, month, day).toEpochDay();
+		}
+		
+		public static String formatDate(int epochDay)
+		{
+			LocalDate date=LocalDate.ofEpochDay(epochDay);
+			char[] retVal=new char[10];
+			int year=date.getYear();
+			retVal[0]=(char)('0'+year/1000);
+			retVal[1]=(char)('0'+year/100%10);
+			retVal[2]=(char)('0'+year/10%10);
+			retVal[3]=(char)('0'+year%10);
+			retVal[4]='-';
+			retVal[5]=(char)('0'+date.getMonthValue()/10);
+			retVal[6]=(char)('0'+date.getMonthValue()%10);
+			retVal[7]='-';
+			retVal[8]=(char)('0'+date.getDayOfMonth()/10);
+			retVal[9]=(char)('0'+date.getDayOfMonth()%10);
+			return new String(retVal);
+		}
+		
+		protected static int parseDigits(String value, int start, int end)
+		{
+			int retVal=0;
+			for(int i=start;i<end;i++)
+			{
+				char c=value.charAt(i);
+				if(c<'0' || c>'9')
+				{
+					return -1;
+				}
+				retVal=retVal*10+(c-'0');
+			}
+			return retVal;
+		}
 	}
-	
-	
 }
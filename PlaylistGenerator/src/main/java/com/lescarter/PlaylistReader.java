@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to read a playlist exported from Rekordbox as a stream of entries, for embedding the conversion in
+ * another application rather than running it over directories.
+ * <br/><br/>
+ * Nothing is read until the stream's terminal operation starts, and each track is only parsed when the stream gets to
+ * it, see {@link PlaylistSpliterator}.  The stream can be made parallel, and the caller decides what to do with each
+ * entry, e.g. hand them to {@link PlaylistWriter}.  The file size and audio headers of the tracks are left unset, as the
+ * audio files usually aren't on the machine reading the playlist; {@link PlaylistGenerator#loadPlaylist(String, String, boolean)}
+ * fills them in.
+ * <br/><br/>
+ * Files are read into memory rather than mapped, so nothing holds on to them once the stream has them, and the bytes
+ * are let go of when the stream gets to the end or is closed, e.g. by try-with-resources.
+ * <br/><br/>
+ * A file that can't be read, or a track that can't be parsed, is thrown from the stream as an
+ * <code>UncheckedIOException</code> caused by the <code>IOException</code>, a {@link PlaylistFormatException} for a
+ * track that can't be parsed.  A reader is safe to use from many threads.
+ *
+ * @author Les Carter
+ */
+public class PlaylistReader
+{
+	public static final String STR_DEFAULT_SOURCE="playlist";
+
+	protected final PlaylistGenerator generator;
+
+	public PlaylistReader()
+	{
+		this(new PlaylistGenerator());
+	}
+
+	/**
+	 * @param generator the generator the entries belong to, repeated strings such as genres are shared between all of
+	 * the entries it reads.
+	 */
+	public PlaylistReader(PlaylistGenerator generator)
+	{
+		super();
+		this.generator=generator;
+	}
+
+	/**
+	 * This method is used to read the tracks of an m3u8 file.
+	 * @param m3u8 the m3u8 file, which may be inside a zip.
+	 * @return the entries of the playlist, in order.
+	 */
+	public Stream<PlaylistEntry> read(Path m3u8)
+	{
+		return read(m3u8, null);
+	}
+
+	/**
+	 * This method is used to read the tracks of an m3u8 file joined with the KUVO txt file, row by row.
+	 * @param m3u8 the m3u8 file, which may be inside a zip.
+	 * @param txt the KUVO txt file, or <code>null</code> to read the m3u8 file on its own.
+	 * @return the entries of the playlist, in order.
+	 */
+	public Stream<PlaylistEntry> read(final Path m3u8, final Path txt)
+	{
+		return stream(new Supplier<PlaylistSpliterator>() {
+			@Override
+			public PlaylistSpliterator get()
+			{
+				try {
+					//Read rather than mapped, so the files can be deleted as soon as the stream is closed
+					return new PlaylistSpliterator(generator, m3u8.toString(), MappedPlaylistParser.read(m3u8, null, false),
+							txt!=null ? MappedPlaylistParser.read(txt, null, false) : null);
+				} catch (IOException e)
+				{
+					throw new UncheckedIOException(e.getLocalizedMessage(), e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * This method is used to read the tracks of an m3u8 file already in memory.  The buffers are read from their
+	 * position to their limit and aren't changed.
+	 * @param source the name of the m3u8 file, for reporting errors, or <code>null</code>.
+	 * @param m3u8 the bytes of the m3u8 file.
+	 * @param txt the bytes of the KUVO txt file, or <code>null</code> to read the m3u8 file on its own.
+	 * @return the entries of the playlist, in order.
+	 */
+	public Stream<PlaylistEntry> read(String source, ByteBuffer m3u8, ByteBuffer txt)
+	{
+		final String name=source!=null ? source : STR_DEFAULT_SOURCE;
+		final ByteBuffer m3u8Bytes=m3u8.slice();
+		final ByteBuffer txtBytes=txt!=null ? txt.slice() : null;
+		return stream(new Supplier<PlaylistSpliterator>() {
+			@Override
+			public PlaylistSpliterator get()
+			{
+				return new PlaylistSpliterator(generator, name, m3u8Bytes, txtBytes);
+			}
+		});
+	}
+
+	/**
+	 * This method is used to read the tracks of an m3u8 file from input streams, e.g. an upload.  The streams are read to
+	 * the end when the stream's terminal operation starts, and are closed.
+	 * @param source the name of the m3u8 file, for reporting errors, or <code>null</code>.
+	 * @param m3u8 the m3u8 file.
+	 * @param txt the KUVO txt file, or <code>null</code> to read the m3u8 file on its own.
+	 * @return the entries of the playlist, in order.
+	 */
+	public Stream<PlaylistEntry> read(String source, final InputStream m3u8, final InputStream txt)
+	{
+		final String name=source!=null ? source : STR_DEFAULT_SOURCE;
+		return stream(new Supplier<PlaylistSpliterator>() {
+			@Override
+			public PlaylistSpliterator get()
+			{
+				try {
+					return new PlaylistSpliterator(generator, name, readFully(m3u8), txt!=null ? readFully(txt) : null);
+				} catch (IOException e)
+				{
+					throw new UncheckedIOException(e.getLocalizedMessage(), e);
+				}
+			}
+		});
+	}
+
+	protected static Stream<PlaylistEntry> stream(final Supplier<PlaylistSpliterator> supplier)
+	{
+		//Holds the spliterator once the terminal operation has started, so closing the stream can let go of the bytes
+		final AtomicReference<PlaylistSpliterator> spliterator=new AtomicReference<PlaylistSpliterator>();
+		return StreamSupport.stream(new Supplier<Spliterator<PlaylistEntry>>() {
+			@Override
+			public Spliterator<PlaylistEntry> get()
+			{
+				PlaylistSpliterator retVal=supplier.get();
+				spliterator.set(retVal);
+				return retVal;
+			}
+		}, PlaylistSpliterator.CHARACTERISTICS, false).onClose(new Runnable() {
+			@Override
+			public void run()
+			{
+				PlaylistSpliterator retVal=spliterator.getAndSet(null);
+				if(retVal!=null)
+				{
+					retVal.release();
+				}
+			}
+		});
+	}
+
+	protected static ByteBuffer readFully(InputStream in) throws IOException
+	{
+		try {
+			ByteArrayOutputStream out=new ByteArrayOutputStream(16*1024);
+			byte[] chunk=new byte[16*1024];
+			int read;
+			while((read=in.read(chunk))>=0)
+			{
+				out.write(chunk, 0, read);
+			}
+			return ByteBuffer.wrap(out.toByteArray());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
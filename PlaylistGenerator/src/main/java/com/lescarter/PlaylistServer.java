@@ -0,0 +1,397 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class is used to keep a warm {@link PlaylistGenerator} running so that converting a playlist doesn't pay for
+ * starting a JVM, loading the XML factories and opening the track index every time.
+ * <br/><br/>
+ * The daemon listens on the loopback address only and takes jobs as a form <code>POST</code> to
+ * <code>/convert</code> holding the source directory, destination directory, playlist and output formats under their
+ * <code>pg.*</code> parameter names.  Jobs are run one at a time on the same generator, so the DOM builders, transformers,
+ * string dictionary and track index are reused from one job to the next.  Everything a job prints is sent back to the
+ * client, which prints it as if it had done the conversion itself.  Requests must carry the
+ * {@link #STR_CLIENT_HEADER} header, which a web page can't add without the daemon agreeing to it first.  Every
+ * response carries the {@link #STR_SERVER_HEADER} header, so the client can tell the daemon from anything else that
+ * happens to be listening on the port, and a <code>GET</code> is answered straight away so the client can check before
+ * handing over a job.
+ *
+ * @author Les Carter
+ */
+public class PlaylistServer implements HttpHandler
+{
+	public static final String STR_CONVERT_PATH="/convert";
+	public static final String STR_CLIENT_HEADER="X-PlaylistGenerator-Client";
+	public static final String STR_SERVER_HEADER="X-PlaylistGenerator-Server";
+	public static final String STR_ERR_LENGTH_HEADER="X-PlaylistGenerator-Err-Length";
+	public static final String STR_FORM_CONTENT_TYPE="application/x-www-form-urlencoded; charset=UTF-8";
+	public static final String STR_TEXT_CONTENT_TYPE="text/plain; charset=UTF-8";
+	public static final int CONNECT_TIMEOUT=250;
+	public static final int PING_TIMEOUT=1000;
+	public static final int JOB_TIMEOUT=30*60*1000;
+
+	protected final PlaylistGenerator generator;
+	protected final int port;
+	protected HttpServer server=null;
+	protected String indexDestDir=null;
+
+	/**
+	 * @param generator the generator that is kept warm, configured as it should be for every job.
+	 * @param port the port to listen on.
+	 */
+	public PlaylistServer(PlaylistGenerator generator, int port)
+	{
+		super();
+		this.generator=generator;
+		this.port=port;
+	}
+
+	/**
+	 * This method is used to start listening for jobs.  The daemon keeps the JVM running until it is stopped, when the
+	 * track index is closed.
+	 * @throws IOException if the port can't be listened on, e.g. because a daemon is already running.
+	 */
+	public void start() throws IOException
+	{
+		server=HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(STR_CONVERT_PATH, this);
+		//The default executor is the single dispatcher thread, which keeps the jobs one at a time
+		server.setExecutor(null);
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				//Flushes and closes the track index
+				stop();
+			}
+		}));
+		System.out.println("Waiting for playlists to convert on "+InetAddress.getLoopbackAddress().getHostAddress()+":"+port);
+	}
+
+	/**
+	 * This method is used to stop listening and close the track index.
+	 */
+	public synchronized void stop()
+	{
+		if(server!=null)
+		{
+			server.stop(0);
+			server=null;
+		}
+		generator.closeIndex();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException
+	{
+		try {
+			if(exchange.getRequestHeaders().getFirst(STR_CLIENT_HEADER)==null)
+			{
+				respond(exchange, 403, "Jobs must be sent by the PlaylistGenerator client", 0);
+				return;
+			}
+			if("GET".equals(exchange.getRequestMethod()))
+			{
+				respond(exchange, 200, "", 0);
+				return;
+			}
+			if(!"POST".equals(exchange.getRequestMethod()))
+			{
+				respond(exchange, 405, "Jobs must be sent with POST", 0);
+				return;
+			}
+			Map<String, String> params=parseForm(readAll(exchange.getRequestBody()));
+			String srcDir=params.get(PlaylistGenerator.PARAM_SRCDIR);
+			String destDir=params.get(PlaylistGenerator.PARAM_DESTDIR);
+			if(srcDir==null || destDir==null || !new File(srcDir).isAbsolute() || !new File(destDir).isAbsolute())
+			{
+				respond(exchange, 400, "Absolute "+PlaylistGenerator.PARAM_SRCDIR+" and "+PlaylistGenerator.PARAM_DESTDIR+" are needed", 0);
+				return;
+			}
+
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			ByteArrayOutputStream err=new ByteArrayOutputStream();
+			convert(srcDir, destDir, params.get(PlaylistGenerator.PARAM_PLAYLIST),
+					Boolean.parseBoolean(params.get(PlaylistGenerator.PARAM_ISXML)),
+					Boolean.parseBoolean(params.get(PlaylistGenerator.PARAM_ISJSON)),
+					Boolean.parseBoolean(params.get(PlaylistGenerator.PARAM_FORCE)), out, err);
+			out.write(err.toByteArray());
+			respond(exchange, 200, out.toByteArray(), err.size());
+		} catch (Exception e)
+		{
+			System.err.println("Exception happened, unable to run job : "+e.getLocalizedMessage());
+			e.printStackTrace();
+			respond(exchange, 500, "Exception happened, unable to run job : "+e.getLocalizedMessage(), 0);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	/**
+	 * This method is used to run a job on the warm generator, with what it prints sent to the given streams.
+	 * @param srcDir the source directory to read playlists
+	 * @param destDir the destination directory to write playlists
+	 * @param playlist the single playlist (without filename extension) to convert, or <code>null</code> for all of them
+	 * @param isXML <code>true</code> to write Rekordbox 5 XML
+	 * @param isJSON <code>true</code> to write Tribe XR JSON
+	 * @param isForce <code>true</code> to convert playlists the manifest shows are up to date
+	 * @param out receives what the job prints to standard out
+	 * @param err receives what the job prints to standard error
+	 */
+	public synchronized void convert(String srcDir, String destDir, String playlist, boolean isXML, boolean isJSON, boolean isForce,
+			OutputStream out, OutputStream err) throws UnsupportedEncodingException
+	{
+		//The index is kept in the destination directory unless a file was given, so it moves with the destination
+		if(generator.indexFilename==null && !destDir.equals(indexDestDir))
+		{
+			generator.closeIndex();
+		}
+		indexDestDir=destDir;
+		generator.setForce(isForce);
+		//Each job's report only covers that job
+		generator.getMetrics().reset();
+
+		//Only this job's output goes to the client, anything else the daemon prints stays on its own console
+		PrintStream jobOut=new PrintStream(out, true, StandardCharsets.UTF_8.name());
+		PrintStream jobErr=new PrintStream(err, true, StandardCharsets.UTF_8.name());
+		generator.setOutput(jobOut, jobErr);
+		try {
+			generator.process(srcDir, destDir, playlist, isXML, isJSON);
+			generator.flushIndex();
+		}
+		finally
+		{
+			generator.setOutput(null, null);
+			jobOut.flush();
+			jobErr.flush();
+		}
+	}
+
+	/**
+	 * This method is used by the command line to hand a job to a daemon that is already running.
+	 * @param port the port the daemon listens on.
+	 * @param srcDir the source directory to read playlists, made absolute as the daemon may be running elsewhere
+	 * @param destDir the destination directory to write playlists, made absolute as well
+	 * @param playlist the single playlist (without filename extension) to convert, or <code>null</code> for all of them
+	 * @param isXML <code>true</code> to write Rekordbox 5 XML
+	 * @param isJSON <code>true</code> to write Tribe XR JSON
+	 * @param isForce <code>true</code> to convert playlists the manifest shows are up to date
+	 * @return <code>true</code> if the daemon ran the job, <code>false</code> if there's no daemon running or it
+	 * wouldn't take the job, so it should be run here.
+	 */
+	public static boolean handOff(int port, String srcDir, String destDir, String playlist, boolean isXML, boolean isJSON, boolean isForce)
+	{
+		StringBuilder form=new StringBuilder();
+		appendField(form, PlaylistGenerator.PARAM_SRCDIR, new File(srcDir).getAbsolutePath());
+		appendField(form, PlaylistGenerator.PARAM_DESTDIR, new File(destDir).getAbsolutePath());
+		if(playlist!=null)
+		{
+			appendField(form, PlaylistGenerator.PARAM_PLAYLIST, playlist);
+		}
+		appendField(form, PlaylistGenerator.PARAM_ISXML, Boolean.toString(isXML));
+		appendField(form, PlaylistGenerator.PARAM_ISJSON, Boolean.toString(isJSON));
+		appendField(form, PlaylistGenerator.PARAM_FORCE, Boolean.toString(isForce));
+
+		if(!isRunning(port))
+		{
+			return false;
+		}
+
+		HttpURLConnection connection=null;
+		try {
+			connection=openConnection(port, JOB_TIMEOUT);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", STR_FORM_CONTENT_TYPE);
+			connection.setDoOutput(true);
+			byte[] body=form.toString().getBytes(StandardCharsets.UTF_8);
+			connection.setFixedLengthStreamingMode(body.length);
+			OutputStream out=connection.getOutputStream();
+			out.write(body);
+			out.close();
+
+			int status=connection.getResponseCode();
+			if(connection.getHeaderField(STR_SERVER_HEADER)==null)
+			{
+				System.err.println("Something other than the daemon answered on port "+port+", converting here instead");
+				return false;
+			}
+			if(status!=200)
+			{
+				InputStream errorStream=connection.getErrorStream();
+				String message=errorStream==null ? "" : new String(readAll(errorStream), StandardCharsets.UTF_8);
+				System.err.println("The daemon on port "+port+" didn't run the job ("+status+" "+message+"), converting here instead");
+				return false;
+			}
+			byte[] output=readAll(connection.getInputStream());
+			int errLength=parseErrLength(connection.getHeaderField(STR_ERR_LENGTH_HEADER), output.length);
+			System.out.write(output, 0, output.length-errLength);
+			System.out.flush();
+			System.err.write(output, output.length-errLength, errLength);
+			System.err.flush();
+			return true;
+		} catch (SocketTimeoutException e)
+		{
+			System.err.println("The daemon on port "+port+" didn't finish the job in "+(JOB_TIMEOUT/60000)+" minutes, converting here instead");
+			return false;
+		} catch (Exception e)
+		{
+			System.err.println("Exception happened, unable to hand the job to the daemon on port "+port+" : "+e.getLocalizedMessage());
+			return false;
+		}
+		finally
+		{
+			if(connection!=null)
+			{
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * This method is used to check that the daemon is listening on the port before a job is handed to it, so the
+	 * command line never waits on something else that holds the port but doesn't answer.
+	 * @param port the port the daemon listens on.
+	 * @return <code>true</code> if the daemon answered.
+	 */
+	public static boolean isRunning(int port)
+	{
+		HttpURLConnection connection=null;
+		try {
+			connection=openConnection(port, PING_TIMEOUT);
+			connection.setRequestMethod("GET");
+			return connection.getResponseCode()==200 && connection.getHeaderField(STR_SERVER_HEADER)!=null;
+		} catch (ConnectException e)
+		{
+			//No daemon running
+			return false;
+		} catch (IOException e)
+		{
+			System.err.println("The daemon didn't answer on port "+port+" ("+e.getLocalizedMessage()+"), converting here instead");
+			return false;
+		}
+		finally
+		{
+			if(connection!=null)
+			{
+				connection.disconnect();
+			}
+		}
+	}
+
+	protected static HttpURLConnection openConnection(int port, int readTimeout) throws IOException
+	{
+		HttpURLConnection retVal=(HttpURLConnection)new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, STR_CONVERT_PATH).openConnection();
+		retVal.setConnectTimeout(CONNECT_TIMEOUT);
+		retVal.setReadTimeout(readTimeout);
+		retVal.setRequestProperty(STR_CLIENT_HEADER, PlaylistGenerator.STR_PRODUCT_VERSION);
+		return retVal;
+	}
+
+	/**
+	 * @param value the value of the {@link #STR_ERR_LENGTH_HEADER} header.
+	 * @param length the length of the output.
+	 * @return the number of bytes at the end of the output that were printed to standard error, 0 if the header is
+	 * missing or doesn't make sense so the whole output goes to standard out rather than being lost.
+	 */
+	protected static int parseErrLength(String value, int length)
+	{
+		try {
+			int retVal=Integer.parseInt(value);
+			return retVal>=0 && retVal<=length ? retVal : 0;
+		} catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+	protected static void respond(HttpExchange exchange, int status, String message, int errLength) throws IOException
+	{
+		respond(exchange, status, message.getBytes(StandardCharsets.UTF_8), errLength);
+	}
+
+	protected static void respond(HttpExchange exchange, int status, byte[] body, int errLength) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", STR_TEXT_CONTENT_TYPE);
+		exchange.getResponseHeaders().set(STR_SERVER_HEADER, PlaylistGenerator.STR_PRODUCT_VERSION);
+		exchange.getResponseHeaders().set(STR_ERR_LENGTH_HEADER, Integer.toString(errLength));
+		exchange.sendResponseHeaders(status, body.length==0 ? -1 : body.length);
+		if(body.length>0)
+		{
+			OutputStream out=exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+
+	protected static Map<String, String> parseForm(byte[] body) throws UnsupportedEncodingException
+	{
+		HashMap<String, String> retVal=new HashMap<String, String>();
+		for(String field : new String(body, StandardCharsets.UTF_8).split("&"))
+		{
+			int equalsIndex=field.indexOf('=');
+			if(equalsIndex>0)
+			{
+				retVal.put(URLDecoder.decode(field.substring(0, equalsIndex), StandardCharsets.UTF_8.name()),
+						URLDecoder.decode(field.substring(equalsIndex+1), StandardCharsets.UTF_8.name()));
+			}
+		}
+		return retVal;
+	}
+
+	protected static void appendField(StringBuilder form, String name, String value)
+	{
+		try {
+			form.append(form.length()==0 ? "" : "&").append(URLEncoder.encode(name, StandardCharsets.UTF_8.name()))
+					.append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8.name()));
+		} catch (UnsupportedEncodingException e)
+		{
+			//UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected static byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream retVal=new ByteArrayOutputStream();
+		byte[] buffer=new byte[8192];
+		try {
+			int count;
+			while((count=in.read(buffer))>=0)
+			{
+				retVal.write(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return retVal.toByteArray();
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * 
+ */
+package com.lescarter;
+
+import java.util.List;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This interface is implemented by each output format a playlist can be converted to.  A playlist is parsed once and 
+ * then handed to every sink in turn, so adding a new format only needs a new implementation of this interface.
+ * 
+ * @author Les Carter
+ */
+public interface PlaylistSink
+{
+	/**
+	 * @return a short description of the format, e.g. <code>JSON</code>, used when reporting failures.
+	 */
+	public String getFormat();
+	
+	/**
+	 * @return <code>true</code> if this format needs the KUVO txt data joined onto the m3u8 entries.
+	 */
+	public boolean isTxtRequired();
+	
+	/**
+	 * @param playlistName the name of the playlist (the source filename without the extension).
+	 * @param destDir the directory where the playlist is written to.
+	 * @return the name of the file this sink writes the playlist to.
+	 */
+	public String getFilename(String playlistName, String destDir);
+	
+	/**
+	 * This method is used to write a parsed playlist out in this format.
+	 * @param playlistName the name of the playlist (the source filename without the extension).
+	 * @param entries the parsed playlist entries.
+	 * @param destDir the directory where the playlist should be written to.
+	 * @return the name of the file that was created.
+	 * @throws Exception
+	 */
+	public String write(String playlistName, List<PlaylistEntry> entries, String destDir) throws Exception;
+	
+	/**
+	 * This method is used to write a parsed playlist out in this format, timing any stages of its own, e.g. building a 
+	 * DOM, onto the playlist's result.  By default there are none.
+	 * @param playlistName the name of the playlist (the source filename without the extension).
+	 * @param entries the parsed playlist entries.
+	 * @param destDir the directory where the playlist should be written to.
+	 * @param result the result of converting the playlist.
+	 * @return the name of the file that was created.
+	 * @throws Exception
+	 */
+	public default String write(String playlistName, List<PlaylistEntry> entries, String destDir, ConversionResult result) throws Exception
+	{
+		return write(playlistName, entries, destDir);
+	}
+}
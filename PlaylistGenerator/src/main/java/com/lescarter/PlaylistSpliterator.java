@@ -0,0 +1,223 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to parse the tracks of an m3u8 file, joined with its KUVO txt file if there is one, one at a time
+ * as a stream asks for them.
+ * <br/><br/>
+ * When it is created the bytes of the files are scanned once for where each {@link PlaylistGenerator#STR_EXTINF} line
+ * and each KUVO row starts, without decoding anything.  A track is only decoded when it is asked for, by a
+ * {@link MappedPlaylistParser} moved straight to its lines.  Knowing where every track starts means the playlist can be
+ * split in half at an {@link PlaylistGenerator#STR_EXTINF} boundary, and the KUVO row of each half found, without
+ * reading either half, so a parallel stream gets evenly sized parts that keep the tracks in order.  Each part has its
+ * own parser sharing the bytes of the files.
+ * <br/><br/>
+ * A track that can't be parsed is thrown as an <code>UncheckedIOException</code> caused by a
+ * {@link PlaylistFormatException}.
+ *
+ * @author Les Carter
+ */
+public class PlaylistSpliterator implements Spliterator<PlaylistEntry>
+{
+	public static final int CHARACTERISTICS=ORDERED|SIZED|SUBSIZED|NONNULL|IMMUTABLE;
+
+	protected final String source;
+	protected final MappedPlaylistParser m3u8;
+	protected final MappedPlaylistParser txt;
+	//Where each track and KUVO row starts, shared by every part of a split playlist
+	protected final int[] entryPositions;
+	protected final int[] entryLines;
+	protected final int entryCount;
+	protected final int[] rowPositions;
+	protected final int rowCount;
+	protected int index;
+	protected final int fence;
+
+	/**
+	 * @param generator the generator the parsed entries belong to, which shares repeated strings between them.
+	 * @param source the name of the m3u8 file, for reporting errors.
+	 * @param m3u8Bytes the whole m3u8 file, from position 0 up to the limit.
+	 * @param txtBytes the whole KUVO txt file, from position 0 up to the limit, or <code>null</code> if there isn't one.
+	 */
+	public PlaylistSpliterator(PlaylistGenerator generator, String source, ByteBuffer m3u8Bytes, ByteBuffer txtBytes)
+	{
+		super();
+		this.source=source;
+
+		m3u8=new MappedPlaylistParser(generator);
+		m3u8.open(m3u8Bytes);
+		int[] positions=new int[64];
+		int[] lines=new int[64];
+		int count=0;
+		while(m3u8.nextLine())
+		{
+			if(m3u8.startsWith(m3u8.lineStart, PlaylistGenerator.STR_EXTINF))
+			{
+				if(count==positions.length)
+				{
+					positions=Arrays.copyOf(positions, count*2);
+					lines=Arrays.copyOf(lines, count*2);
+				}
+				positions[count]=m3u8.lineStart;
+				lines[count++]=m3u8.lineNumber;
+				//The next line is the file, whatever it starts with
+				m3u8.nextLine();
+			}
+		}
+		entryPositions=positions;
+		entryLines=lines;
+		entryCount=count;
+
+		count=0;
+		positions=null;
+		if(txtBytes!=null)
+		{
+			txt=new MappedPlaylistParser(generator);
+			txt.open(txtBytes);
+			positions=new int[Math.max(1, entryCount)];
+			//Ignore the header
+			txt.nextLine();
+			while(count<entryCount && txt.nextLine())
+			{
+				if(!txt.isBlank(txt.lineStart, txt.lineEnd))
+				{
+					positions[count++]=txt.lineStart;
+				}
+			}
+		}
+		else
+		{
+			txt=null;
+		}
+		rowPositions=positions;
+		rowCount=count;
+
+		index=0;
+		fence=entryCount;
+	}
+
+	/**
+	 * @param parent the part of the playlist being split.
+	 * @param index the first track of this part.
+	 * @param fence the track after the last one of this part.
+	 */
+	protected PlaylistSpliterator(PlaylistSpliterator parent, int index, int fence)
+	{
+		super();
+		source=parent.source;
+		m3u8=new MappedPlaylistParser(parent.m3u8.generator);
+		m3u8.open(parent.m3u8);
+		if(parent.txt!=null)
+		{
+			txt=new MappedPlaylistParser(parent.txt.generator);
+			txt.open(parent.txt);
+		}
+		else
+		{
+			txt=null;
+		}
+		entryPositions=parent.entryPositions;
+		entryLines=parent.entryLines;
+		entryCount=parent.entryCount;
+		rowPositions=parent.rowPositions;
+		rowCount=parent.rowCount;
+		this.index=index;
+		this.fence=fence;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super PlaylistEntry> action)
+	{
+		if(index>=fence)
+		{
+			release();
+			return false;
+		}
+		PlaylistEntry entry;
+		try {
+			entry=parse(index++);
+		} catch (IOException e)
+		{
+			throw new UncheckedIOException(e.getLocalizedMessage(), e);
+		}
+		action.accept(entry);
+		return true;
+	}
+
+	/**
+	 * This method is used to parse a track, joining its KUVO row onto it.  As with
+	 * {@link PlaylistGenerator#loadPlaylist(String, String, boolean)} the track number is the position in the playlist
+	 * when there is no KUVO txt file.
+	 * @param track the position of the track in the playlist, starting at 0.
+	 * @return the entry.
+	 * @throws PlaylistFormatException if the track can't be parsed.
+	 */
+	protected PlaylistEntry parse(int track) throws PlaylistFormatException
+	{
+		m3u8.position=entryPositions[track];
+		m3u8.lineNumber=entryLines[track]-1;
+		m3u8.nextLine();
+		PlaylistEntry retVal=m3u8.parseEntry(source);
+		if(txt==null)
+		{
+			retVal.setTrackNumber(track+1);
+		}
+		else if(track<rowCount)
+		{
+			txt.position=rowPositions[track];
+			txt.nextLine();
+			txt.parseRow(retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to let go of the bytes of the files once this part of the playlist is finished with, or the
+	 * stream is closed before it gets to the end.  Other parts of a split playlist keep their own hold on the bytes.
+	 */
+	public void release()
+	{
+		index=fence;
+		m3u8.close();
+		if(txt!=null)
+		{
+			txt.close();
+		}
+	}
+
+	@Override
+	public Spliterator<PlaylistEntry> trySplit()
+	{
+		int middle=(index+fence)>>>1;
+		if(middle<=index)
+		{
+			return null;
+		}
+		PlaylistSpliterator retVal=new PlaylistSpliterator(this, index, middle);
+		index=middle;
+		return retVal;
+	}
+
+	@Override
+	public long estimateSize()
+	{
+		return fence-index;
+	}
+
+	@Override
+	public int characteristics()
+	{
+		return CHARACTERISTICS;
+	}
+}
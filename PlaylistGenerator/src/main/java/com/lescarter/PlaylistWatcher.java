@@ -0,0 +1,176 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is used to keep the converted playlists in step with the source directory.
+ * <br/><br/>
+ * All playlists are converted once at the start (skipping any the manifest shows are up to date), then the source directory
+ * is watched.  Changes to m3u8 and KUVO txt files are gathered until the directory has been quiet for the debounce period,
+ * so an export that writes both files of a playlist (or many playlists) is converted in one go, and then only the playlists
+ * that changed are converted again.  The manifest is checked before each conversion so a file that is touched without its
+ * content changing isn't converted.
+ *
+ * @author Les Carter
+ */
+public class PlaylistWatcher
+{
+	protected final PlaylistGenerator generator;
+	protected final String srcDir;
+	protected final String destDir;
+	protected final List<PlaylistSink> sinks;
+	protected final long debounce;
+
+	/**
+	 * @param generator the generator used to convert the playlists.
+	 * @param srcDir the source directory to watch.
+	 * @param destDir the destination directory to write playlists.
+	 * @param sinks the output formats each playlist should be written in.
+	 * @param debounce the number of milliseconds the source directory must be quiet for before changes are converted.
+	 */
+	public PlaylistWatcher(PlaylistGenerator generator, String srcDir, String destDir, List<PlaylistSink> sinks, long debounce)
+	{
+		super();
+		this.generator=generator;
+		this.srcDir=srcDir;
+		this.destDir=destDir;
+		this.sinks=sinks;
+		this.debounce=Math.max(0, debounce);
+	}
+
+	/**
+	 * This method is used to watch the source directory until the thread is interrupted or the JVM is stopped.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void watch() throws IOException, InterruptedException
+	{
+		ConversionManifest manifest=ConversionManifest.load(destDir, generator.getErr());
+		manifest.setForce(generator.isForce);
+		generator.openIndex(destDir);
+
+		WatchService watchService=FileSystems.getDefault().newWatchService();
+		try {
+			Path dir=Paths.get(srcDir);
+			dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+			//Catch up with anything that changed while we weren't watching
+			convertAll(manifest);
+
+			//Only the first run is forced, after that the manifest decides
+			manifest.setForce(false);
+			generator.getOut().println("Watching "+srcDir+" for changes");
+
+			while(!Thread.currentThread().isInterrupted())
+			{
+				TreeSet<String> changed=new TreeSet<String>();
+				boolean isOverflow=collect(watchService.take(), changed);
+
+				//Wait for the directory to go quiet
+				WatchKey key;
+				while((key=watchService.poll(debounce, TimeUnit.MILLISECONDS))!=null)
+				{
+					isOverflow|=collect(key, changed);
+				}
+
+				if(isOverflow)
+				{
+					convertAll(manifest);
+				}
+				else if(!changed.isEmpty())
+				{
+					convertChanged(changed, manifest);
+				}
+			}
+		}
+		finally
+		{
+			watchService.close();
+		}
+	}
+
+	/**
+	 * This method is used to gather the names of the playlists affected by the events on a watch key.
+	 * @param key the watch key.
+	 * @param changed receives the names (without extension) of the changed playlists.
+	 * @return <code>true</code> if events were lost and the whole directory needs checking.
+	 */
+	protected boolean collect(WatchKey key, TreeSet<String> changed)
+	{
+		boolean retVal=false;
+		for(WatchEvent<?> event : key.pollEvents())
+		{
+			if(event.kind()==StandardWatchEventKinds.OVERFLOW)
+			{
+				retVal=true;
+				continue;
+			}
+			String filename=event.context().toString();
+			if(filename.endsWith(PlaylistGenerator.STR_M3U8_FILE_EXTENSION))
+			{
+				changed.add(filename.substring(0, filename.length()-PlaylistGenerator.STR_M3U8_FILE_EXTENSION.length()));
+			}
+			else if(filename.endsWith(PlaylistGenerator.STR_TXT_FILE_EXTENSION))
+			{
+				changed.add(filename.substring(0, filename.length()-PlaylistGenerator.STR_TXT_FILE_EXTENSION.length()));
+			}
+		}
+		key.reset();
+		return retVal;
+	}
+
+	protected void convertAll(ConversionManifest manifest)
+	{
+		ArrayList<String> m3u8Candidates=new ArrayList<String>();
+		HashSet<String> txtCandidates=new HashSet<String>();
+		generator.findPlaylists(srcDir, m3u8Candidates, txtCandidates);
+		generator.convertPlaylists(srcDir, destDir, m3u8Candidates, txtCandidates, sinks, manifest);
+		generator.saveManifest(manifest);
+		generator.flushIndex();
+		generator.writeReport(srcDir, destDir);
+	}
+
+	protected void convertChanged(TreeSet<String> changed, ConversionManifest manifest)
+	{
+		ArrayList<String> m3u8Candidates=new ArrayList<String>();
+		HashSet<String> txtCandidates=new HashSet<String>();
+		for(String playlist : changed)
+		{
+			if(!new File(srcDir, playlist+PlaylistGenerator.STR_M3U8_FILE_EXTENSION).exists())
+			{
+				//Deleted, or only the txt file is there so far
+				manifest.remove(playlist);
+				continue;
+			}
+			m3u8Candidates.add(playlist);
+			if(new File(srcDir, playlist+PlaylistGenerator.STR_TXT_FILE_EXTENSION).exists())
+			{
+				txtCandidates.add(playlist);
+			}
+		}
+
+		if(!m3u8Candidates.isEmpty())
+		{
+			generator.convertPlaylists(srcDir, destDir, m3u8Candidates, txtCandidates, sinks, manifest);
+		}
+		generator.saveManifest(manifest);
+		generator.flushIndex();
+		generator.writeReport(srcDir, destDir);
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to write playlists to any output stream or channel, for embedding the conversion in another
+ * application rather than running it over directories.  The output is the same as {@link TribeJSONSink} and
+ * {@link RekordboxXMLSink} write to files.
+ * <br/><br/>
+ * The output is flushed when the playlist is finished but never closed, so the caller can write more to it or use it
+ * for a response.  Any failure writing to it is thrown as it happened, and a stream being written from throws whatever
+ * reading it throws, see {@link PlaylistReader}.  A writer is safe to use from many threads, each writing its own
+ * playlist.
+ *
+ * @author Les Carter
+ */
+public class PlaylistWriter
+{
+	protected final PlaylistGenerator generator;
+	protected final RekordboxXMLSink xmlSink;
+
+	public PlaylistWriter()
+	{
+		this(new PlaylistGenerator());
+	}
+
+	/**
+	 * @param generator the generator that describes each track in the Rekordbox 5 XML.
+	 */
+	public PlaylistWriter(PlaylistGenerator generator)
+	{
+		super();
+		this.generator=generator;
+		this.xmlSink=new RekordboxXMLSink(generator);
+	}
+
+	/**
+	 * This method is used to write a playlist in the JSON format used by Tribe XR.  The entries are taken from the stream
+	 * one at a time as they're written, in order, so a playlist is never held in memory.
+	 * @param playlistName the name of the playlist.
+	 * @param entries the entries of the playlist.
+	 * @param out where the JSON should be written to, it's flushed but not closed.
+	 * @throws IOException
+	 */
+	public void writeJSON(String playlistName, Stream<PlaylistEntry> entries, OutputStream out) throws IOException
+	{
+		writeJSON(playlistName, entries, Channels.newChannel(out));
+		out.flush();
+	}
+
+	/**
+	 * This method is used to write a playlist in the JSON format used by Tribe XR.  The entries are taken from the stream
+	 * one at a time as they're written, in order, so a playlist is never held in memory.
+	 * @param playlistName the name of the playlist.
+	 * @param entries the entries of the playlist.
+	 * @param channel where the JSON should be written to, it isn't closed.
+	 * @throws IOException
+	 */
+	public void writeJSON(String playlistName, Stream<PlaylistEntry> entries, WritableByteChannel channel) throws IOException
+	{
+		TribeJSONWriter writer=TribeJSONSink.writers.get();
+		writer.open(channel);
+		try {
+			writer.writeStartPlaylist(playlistName);
+			Iterator<PlaylistEntry> it=entries.iterator();
+			while(it.hasNext())
+			{
+				PlaylistEntry entry=it.next();
+				writer.writeTrack(entry.title, PlaylistGenerator.decodeLocation(entry.fileLocation));
+			}
+			writer.writeEndPlaylist();
+		}
+		finally
+		{
+			//Don't hold on to the caller's channel
+			writer.open(null);
+		}
+	}
+
+	/**
+	 * This method is used to write a playlist in the XML format used by Rekordbox 5.  The tracks appear twice in the XML,
+	 * once in the collection and again in the playlist, so they're needed as a list, e.g. collected from a
+	 * {@link PlaylistReader} stream.
+	 * @param playlistName the name of the playlist.
+	 * @param entries the entries of the playlist, joined with the KUVO txt data.
+	 * @param out where the XML should be written to, it's flushed but not closed.
+	 * @throws IOException
+	 */
+	public void writeXML(String playlistName, List<PlaylistEntry> entries, OutputStream out) throws IOException
+	{
+		writeXML(playlistName, entries, Channels.newChannel(out));
+		out.flush();
+	}
+
+	/**
+	 * This method is used to write a playlist in the XML format used by Rekordbox 5.
+	 * @param playlistName the name of the playlist.
+	 * @param entries the entries of the playlist, joined with the KUVO txt data.
+	 * @param channel where the XML should be written to, it isn't closed.
+	 * @throws IOException
+	 */
+	public void writeXML(String playlistName, List<PlaylistEntry> entries, WritableByteChannel channel) throws IOException
+	{
+		//Finishing the document flushes it to the channel, closing the writer would close the channel too
+		xmlSink.writeStream(new StreamingXMLWriter(channel), playlistName, entries);
+	}
+}
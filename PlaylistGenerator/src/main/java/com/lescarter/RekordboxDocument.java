@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to build a playlist as a DOM in the XML format used by Rekordbox 5 and to pretty print it to a file.
+ * <br/><br/>
+ * It is kept apart from {@link PlaylistGenerator} so that JAXP is only loaded when a DOM is actually built, see
+ * {@link PlaylistGenerator#setXMLDOM(boolean)}; JSON and streamed XML never touch it.  Looking up the JAXP factories
+ * costs more than building a small playlist, so each thread keeps the builder and transformer it created.
+ *
+ * @author Les Carter
+ */
+public class RekordboxDocument
+{
+	protected static final ThreadLocal<DocumentBuilder> documentBuilders=new ThreadLocal<DocumentBuilder>();
+	protected static final ThreadLocal<Transformer> transformers=new ThreadLocal<Transformer>();
+
+	private RekordboxDocument()
+	{
+		super();
+	}
+
+	/**
+	 * This method is used to parse a playlist and create its XML document.
+	 * @param generator the generator used to parse the playlist and describe each track.
+	 * @param srcDir the directory that holds the m3u8 and txt files.
+	 * @param filenamePrefix the name of the file (without the file extension) to convert.
+	 * @return <code>org.w3c.dom.Document</code> instance that contains the collection and playlist, or <code>null</code>
+	 * if the playlist is empty.
+	 * @throws ParserConfigurationException
+	 * @throws IOException
+	 */
+	public static Document create(PlaylistGenerator generator, String srcDir, String filenamePrefix) throws ParserConfigurationException, IOException
+	{
+		//Parse the m3u8 and add in the txt data
+		List<PlaylistEntry> entries=generator.loadPlaylist(srcDir, filenamePrefix, true);
+		if(entries.isEmpty())
+		{
+			return null;
+		}
+		return create(generator, filenamePrefix, entries);
+	}
+
+	/**
+	 * This method is used to create the XML document for entries that have already been parsed.
+	 * @param generator the generator that describes each track.
+	 * @param playlistName the name of the playlist.
+	 * @param entries the playlist entries, joined with the KUVO txt data.
+	 * @return <code>org.w3c.dom.Document</code> instance that contains the collection and playlist.
+	 * @throws ParserConfigurationException
+	 */
+	public static Document create(PlaylistGenerator generator, String playlistName, List<PlaylistEntry> entries) throws ParserConfigurationException
+	{
+		//Create the document
+		DocumentBuilder builder = documentBuilders.get();
+		if(builder==null)
+		{
+			builder=DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			documentBuilders.set(builder);
+		}
+		Document retVal = builder.newDocument();
+		 
+		//Create the root element
+		Element root=retVal.createElement(PlaylistGenerator.STR_DJ_LIST);
+		root.setAttribute(PlaylistGenerator.STR_VERSION, PlaylistGenerator.STR_VERSION_NUM);
+		retVal.appendChild(root);
+		
+		//Add in the PRODUCT element
+		Element productElement=retVal.createElement(PlaylistGenerator.STR_PRODUCT);
+		productElement.setAttribute(PlaylistGenerator.STR_NAME, PlaylistGenerator.STR_PRODUCT_NAME);
+		productElement.setAttribute(PlaylistGenerator.STR_VERSION, PlaylistGenerator.STR_PRODUCT_VERSION);
+		productElement.setAttribute(PlaylistGenerator.STR_COMPANY, PlaylistGenerator.STR_PRODUCT_COMPANY);
+		root.appendChild(productElement);
+		
+		//Iterate through the entries and add the appropriate XML nodes
+		//with the COLLECTION and PLAYLISTS
+		Element collectionElement=retVal.createElement(PlaylistGenerator.STR_COLLECTION);
+		collectionElement.setAttribute(PlaylistGenerator.STR_ENTRIES, Integer.toString(entries.size()));
+		root.appendChild(collectionElement);
+		
+		Element playlistsElement=retVal.createElement(PlaylistGenerator.STR_PLAYLISTS);
+		root.appendChild(playlistsElement);
+		
+		Element parentNodeElement=retVal.createElement(PlaylistGenerator.STR_NODE);
+		parentNodeElement.setAttribute(PlaylistGenerator.STR_TYPE, "0");
+		parentNodeElement.setAttribute(PlaylistGenerator.STR_NAME, "ROOT");
+		parentNodeElement.setAttribute(PlaylistGenerator.STR_COUNT, "1");
+		playlistsElement.appendChild(parentNodeElement);
+		
+		Element childNodeElement=retVal.createElement(PlaylistGenerator.STR_NODE);
+		childNodeElement.setAttribute(PlaylistGenerator.STR_NAME, playlistName);
+		childNodeElement.setAttribute(PlaylistGenerator.STR_TYPE, "1");
+		childNodeElement.setAttribute(PlaylistGenerator.STR_KEYTYPE, "0");
+		childNodeElement.setAttribute(PlaylistGenerator.STR_ENTRIES, Integer.toString(entries.size()));
+		parentNodeElement.appendChild(childNodeElement);
+		
+		
+		//Go through each entry and create track and tempo elements
+		for(PlaylistEntry entry : entries)
+		{
+			final Element trackElement=retVal.createElement(PlaylistGenerator.STR_TRACK);
+			generator.addTrackAttributes(entry, new PlaylistGenerator.AttributeTarget() {
+				@Override
+				public void setAttribute(String name, String value)
+				{
+					trackElement.setAttribute(name, value);
+				}
+			});
+			collectionElement.appendChild(trackElement);
+			
+			//Create the playlist Track entry
+			Element playlistTrackElement=retVal.createElement(PlaylistGenerator.STR_TRACK);
+			playlistTrackElement.setAttribute(PlaylistGenerator.STR_KEY, entry.getTrackNumberText());
+			childNodeElement.appendChild(playlistTrackElement);
+		}
+		
+		 
+		return retVal;
+	}
+
+	/**
+	 * This method is used to pretty print an XML playlist in the format used by Rekordbox 5 to a file.
+	 * @param doc the XML <code>Document</code> instance to be output.
+	 * @param directory the directory where the file should be written to.
+	 * @param filenamePrefix the name of the file to write to (without the <code>.xml</code> extension.
+	 * @throws IOException
+	 * @throws TransformerException
+	 */
+	public static void write(Document doc, String directory, String filenamePrefix) throws IOException, TransformerException
+	{
+		write(doc, directory+File.separator+filenamePrefix+PlaylistGenerator.STR_XML_FILE_EXTENSION);
+	}
+
+	/**
+	 * This method is used to pretty print an XML playlist in the format used by Rekordbox 5 to a file.
+	 * @param doc the XML <code>Document</code> instance to be output.
+	 * @param filename the file to write to.
+	 * @throws IOException
+	 * @throws TransformerException
+	 */
+	public static void write(Document doc, String filename) throws IOException, TransformerException
+	{
+		Transformer transformer = transformers.get();
+		if(transformer==null)
+		{
+			transformer=TransformerFactory.newInstance().newTransformer();
+			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+			transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+			transformers.set(transformer);
+		}
+		DOMSource dom = new DOMSource(doc);
+		OutputStream writer = new BufferedOutputStream(new FileOutputStream(filename));
+		StreamResult result = new StreamResult(writer);
+		try {
+			transformer.transform(dom, result);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+}
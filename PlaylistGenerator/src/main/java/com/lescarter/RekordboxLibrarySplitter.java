@@ -0,0 +1,447 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class is used to split a whole Rekordbox library, exported as Rekordbox XML, into a Tribe XR JSON playlist for
+ * every playlist in it.
+ * <br/><br/>
+ * The library is streamed through once with StAX and never held as a DOM.  Only the title and location of each
+ * <code>TRACK</code> in the <code>COLLECTION</code> are kept, in arrays looked up by <code>TrackID</code> through an
+ * open addressed table of ints and with the locations held in the generator's {@link PathStore}, so memory grows with
+ * the number of tracks in the collection and not the size of the file.  Each playlist <code>NODE</code> under
+ * <code>PLAYLISTS</code> is written out as its tracks are read, and folder nodes become sub-directories of the destination
+ * directory.  Rekordbox writes the <code>COLLECTION</code> before the <code>PLAYLISTS</code>, tracks a playlist refers to
+ * that haven't been seen are left out and reported.
+ *
+ * @author Les Carter
+ */
+public class RekordboxLibrarySplitter
+{
+	public static final String STR_KEYTYPE_LOCATION="1";
+	public static final String STR_TYPE_PLAYLIST="1";
+
+	protected static final int INITIAL_CAPACITY=1024;
+
+	protected final PlaylistGenerator generator;
+	protected final TribeJSONWriter writer=new TribeJSONWriter();
+
+	//The collection, by the order tracks were read
+	protected String[] titles=new String[INITIAL_CAPACITY];
+	protected PathStore.Location[] paths=new PathStore.Location[INITIAL_CAPACITY];
+	protected int trackCount=0;
+	//Open addressed table of TrackID to the position of the track plus one, 0 is an empty slot
+	protected int[] idKeys=new int[INITIAL_CAPACITY*2];
+	protected int[] idSlots=new int[INITIAL_CAPACITY*2];
+	//Only built if a playlist refers to its tracks by location
+	protected HashMap<String, Integer> pathSlots=null;
+
+	protected final HashSet<String> filenames=new HashSet<String>();
+	protected int playlistCount=0;
+	protected int folderCount=0;
+	protected int entryCount=0;
+	protected int missingCount=0;
+
+	/**
+	 * @param generator the generator whose metrics and report the split is recorded in.
+	 */
+	public RekordboxLibrarySplitter(PlaylistGenerator generator)
+	{
+		super();
+		this.generator=generator;
+	}
+
+	/**
+	 * This method is used to split the library into playlists and write them out, reporting the outcome.
+	 * @param libraryFilename the Rekordbox XML library.
+	 * @param destDir the destination directory to write the playlists, folders become sub-directories of it.
+	 */
+	public void split(String libraryFilename, String destDir)
+	{
+		long start=System.currentTimeMillis();
+		File libraryFile=new File(libraryFilename);
+		try {
+			InputStream in=new BufferedInputStream(new FileInputStream(libraryFile), TribeJSONWriter.BUFFER_SIZE);
+			try {
+				split(in, new File(destDir));
+			}
+			finally
+			{
+				in.close();
+			}
+		} catch (Exception e)
+		{
+			generator.getErr().println("Exception happened, unable to split the library "+libraryFilename+" : "+e.getLocalizedMessage());
+			e.printStackTrace(generator.getErr());
+			generator.writeReport(libraryFile.getAbsoluteFile().getParent(), destDir);
+			return;
+		}
+		generator.writeReport(libraryFile.getAbsoluteFile().getParent(), destDir);
+		if(missingCount>0)
+		{
+			generator.getErr().println(missingCount+" playlist entries refer to tracks that aren't in the collection and were left out");
+		}
+		generator.getOut().println("Split "+trackCount+" track(s) into "+playlistCount+" playlist(s) in "+folderCount+" folder(s) with "
+				+entryCount+" entries in "+(System.currentTimeMillis()-start)+"ms");
+	}
+
+	/**
+	 * This method is used to stream the library and write each playlist as soon as it has been read.
+	 * @param in the Rekordbox XML library.
+	 * @param destDir the destination directory to write the playlists.
+	 * @throws XMLStreamException if the library isn't well formed XML.
+	 * @throws IOException if a folder can't be created.
+	 */
+	public void split(InputStream in, File destDir) throws XMLStreamException, IOException
+	{
+		XMLInputFactory factory=XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		XMLStreamReader reader=factory.createXMLStreamReader(in);
+
+		//The directory of each open NODE, a playlist keeps the directory it is in
+		ArrayDeque<File> dirs=new ArrayDeque<File>();
+		boolean isInCollection=false;
+		boolean isKeyedByLocation=false;
+		ConversionResult result=null;
+		long collectionStart=0;
+		long playlistStart=0;
+		int playlistEntries=0;
+		try {
+			while(reader.hasNext())
+			{
+				int event=reader.next();
+				if(event==XMLStreamConstants.START_ELEMENT)
+				{
+					String name=reader.getLocalName();
+					if(PlaylistGenerator.STR_TRACK.equals(name))
+					{
+						if(isInCollection)
+						{
+							addTrack(reader);
+						}
+						else if(result!=null)
+						{
+							playlistEntries++;
+							writeTrack(reader.getAttributeValue(null, PlaylistGenerator.STR_KEY), isKeyedByLocation, result);
+						}
+					}
+					else if(PlaylistGenerator.STR_NODE.equals(name))
+					{
+						String nodeName=reader.getAttributeValue(null, PlaylistGenerator.STR_NAME);
+						String type=reader.getAttributeValue(null, PlaylistGenerator.STR_TYPE);
+						File parent=dirs.isEmpty() ? destDir : dirs.peek();
+						if(STR_TYPE_PLAYLIST.equals(type))
+						{
+							dirs.push(parent);
+							isKeyedByLocation=STR_KEYTYPE_LOCATION.equals(reader.getAttributeValue(null, PlaylistGenerator.STR_KEYTYPE));
+							playlistEntries=0;
+							playlistStart=System.nanoTime();
+							result=startPlaylist(nodeName==null ? "" : nodeName, parent);
+						}
+						else
+						{
+							//The outermost folder is the ROOT of the library, which isn't a folder of its own
+							File dir=dirs.isEmpty() ? destDir : new File(parent, toFilename(nodeName));
+							if(!dir.isDirectory() && !dir.mkdirs())
+							{
+								throw new IOException("Unable to create "+dir);
+							}
+							if(!dirs.isEmpty())
+							{
+								folderCount++;
+							}
+							dirs.push(dir);
+						}
+					}
+					else if(PlaylistGenerator.STR_COLLECTION.equals(name))
+					{
+						isInCollection=true;
+						collectionStart=System.nanoTime();
+					}
+				}
+				else if(event==XMLStreamConstants.END_ELEMENT)
+				{
+					String name=reader.getLocalName();
+					if(PlaylistGenerator.STR_NODE.equals(name))
+					{
+						dirs.poll();
+						if(result!=null)
+						{
+							endPlaylist(result, playlistEntries, playlistStart);
+							result=null;
+						}
+					}
+					else if(PlaylistGenerator.STR_COLLECTION.equals(name))
+					{
+						isInCollection=false;
+						generator.getMetrics().timed(ConversionMetrics.Stage.PARSE_LIBRARY, collectionStart);
+					}
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+			if(result!=null)
+			{
+				//The library ended part way through a playlist
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * This method is used to keep the title and location of a track in the collection.
+	 * @param reader positioned on the start of the <code>TRACK</code>.
+	 */
+	protected void addTrack(XMLStreamReader reader)
+	{
+		String trackId=reader.getAttributeValue(null, PlaylistGenerator.STR_TRACKID);
+		String location=reader.getAttributeValue(null, PlaylistGenerator.STR_LOCATION);
+		if(trackId==null || location==null)
+		{
+			return;
+		}
+		int id;
+		try {
+			id=Integer.parseInt(trackId.trim());
+		} catch (NumberFormatException e)
+		{
+			return;
+		}
+
+		if(trackCount==titles.length)
+		{
+			titles=Arrays.copyOf(titles, trackCount*2);
+			paths=Arrays.copyOf(paths, trackCount*2);
+		}
+		String title=reader.getAttributeValue(null, PlaylistGenerator.STR_NAME);
+		titles[trackCount]=title==null ? "" : title;
+		paths[trackCount]=generator.getPathStore().intern(location);
+		trackCount++;
+		putSlot(id, trackCount);
+	}
+
+	/**
+	 * This method is used to open the JSON file for a playlist and write its start.
+	 * @param playlistName the name of the playlist in Rekordbox.
+	 * @param dir the directory of the folder the playlist is in.
+	 * @return the result of the playlist, or <code>null</code> if it couldn't be started.
+	 */
+	protected ConversionResult startPlaylist(String playlistName, File dir)
+	{
+		String filename=toFilename(playlistName);
+		String path=new File(dir, filename+PlaylistGenerator.STR_JSON_FILE_EXTENSION).getPath();
+		for(int i=2;!filenames.add(path);i++)
+		{
+			//Rekordbox allows playlists with the same name in a folder
+			path=new File(dir, filename+" ("+i+")"+PlaylistGenerator.STR_JSON_FILE_EXTENSION).getPath();
+		}
+
+		ConversionResult retVal=new ConversionResult(path);
+		try {
+			writer.open(FileChannel.open(Paths.get(path),
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+			writer.writeStartPlaylist(playlistName);
+		} catch (IOException e)
+		{
+			fail(retVal, e);
+			generator.getMetrics().record(retVal);
+			return null;
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to write a track of the playlist being streamed.
+	 * @param key the <code>Key</code> of the playlist entry, a <code>TrackID</code> or a location.
+	 * @param isKeyedByLocation <code>true</code> if the key is a location.
+	 * @param result the result of the playlist.
+	 */
+	protected void writeTrack(String key, boolean isKeyedByLocation, ConversionResult result)
+	{
+		int slot=key==null ? 0 : isKeyedByLocation ? getPathSlot(key) : getSlot(key.trim());
+		if(slot==0)
+		{
+			missingCount++;
+			return;
+		}
+		if(result.isFailed())
+		{
+			return;
+		}
+		try {
+			writer.writeTrack(titles[slot-1], paths[slot-1]);
+		} catch (IOException e)
+		{
+			fail(result, e);
+		}
+	}
+
+	/**
+	 * This method is used to finish writing a playlist and record how it went.
+	 * @param result the result of the playlist.
+	 * @param playlistEntries the number of entries the playlist had in the library.
+	 * @param start the time the playlist was started, from {@link System#nanoTime()}.
+	 */
+	protected void endPlaylist(ConversionResult result, int playlistEntries, long start)
+	{
+		if(!result.isFailed())
+		{
+			try {
+				writer.writeEndPlaylist();
+				writer.close();
+				result.created(result.playlist);
+				result.written(new File(result.playlist).length());
+				playlistCount++;
+			} catch (IOException e)
+			{
+				fail(result, e);
+			}
+		}
+		entryCount+=playlistEntries;
+		result.parsed(playlistEntries, 0, 0);
+		result.timed(ConversionMetrics.Stage.WRITE_JSON, start);
+		generator.getMetrics().record(result);
+	}
+
+	protected void fail(ConversionResult result, IOException e)
+	{
+		generator.getErr().println("Exception happened, unable to construct JSON playlist "+result.playlist+" : "+e.getLocalizedMessage());
+		e.printStackTrace(generator.getErr());
+		result.failed("JSON", e);
+		try {
+			writer.close();
+		} catch (IOException closeException)
+		{
+			//Already reported
+		}
+	}
+
+	/**
+	 * @param trackId the <code>TrackID</code> of a track.
+	 * @return the position of the track plus one, or 0 if it isn't in the collection.
+	 */
+	protected int getSlot(String trackId)
+	{
+		int id;
+		try {
+			id=Integer.parseInt(trackId);
+		} catch (NumberFormatException e)
+		{
+			return 0;
+		}
+		int mask=idKeys.length-1;
+		for(int i=mix(id)&mask;idSlots[i]!=0;i=(i+1)&mask)
+		{
+			if(idKeys[i]==id)
+			{
+				return idSlots[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param location the location of a track, as held in the library.
+	 * @return the position of the track plus one, or 0 if it isn't in the collection.
+	 */
+	protected int getPathSlot(String location)
+	{
+		if(pathSlots==null)
+		{
+			pathSlots=new HashMap<String, Integer>(trackCount*2);
+			for(int i=0;i<trackCount;i++)
+			{
+				pathSlots.put(paths[i].getDecodedPath(), Integer.valueOf(i+1));
+			}
+		}
+		Integer retVal=pathSlots.get(PlaylistGenerator.decodeLocation(location));
+		return retVal==null ? 0 : retVal.intValue();
+	}
+
+	protected void putSlot(int id, int slot)
+	{
+		if(trackCount*2>idKeys.length)
+		{
+			int[] oldKeys=idKeys;
+			int[] oldSlots=idSlots;
+			idKeys=new int[oldKeys.length*2];
+			idSlots=new int[oldSlots.length*2];
+			for(int i=0;i<oldKeys.length;i++)
+			{
+				if(oldSlots[i]!=0)
+				{
+					insert(oldKeys[i], oldSlots[i]);
+				}
+			}
+		}
+		insert(id, slot);
+	}
+
+	protected void insert(int id, int slot)
+	{
+		int mask=idKeys.length-1;
+		int i=mix(id)&mask;
+		while(idSlots[i]!=0 && idKeys[i]!=id)
+		{
+			i=(i+1)&mask;
+		}
+		idKeys[i]=id;
+		idSlots[i]=slot;
+	}
+
+	protected static int mix(int id)
+	{
+		int retVal=id*0x9E3779B9;
+		return retVal^(retVal>>>16);
+	}
+
+	/**
+	 * This method is used to turn the name of a playlist or folder into something that can be used as a file name.
+	 * @param name the name in Rekordbox.
+	 * @return the name with path separators and characters Windows doesn't allow replaced by <code>_</code>.
+	 */
+	public static String toFilename(String name)
+	{
+		if(name==null)
+		{
+			return "_";
+		}
+		StringBuilder retVal=new StringBuilder(name.length());
+		for(int i=0;i<name.length();i++)
+		{
+			char c=name.charAt(i);
+			retVal.append(c<0x20 || "\\/:*?\"<>|".indexOf(c)>=0 ? '_' : c);
+		}
+		//Windows drops trailing dots and spaces
+		int length=retVal.length();
+		while(length>0 && (retVal.charAt(length-1)=='.' || retVal.charAt(length-1)==' '))
+		{
+			length--;
+		}
+		retVal.setLength(length);
+		return length==0 ? "_" : retVal.toString();
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * 
+ */
+package com.lescarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.w3c.dom.Document;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to write playlists in the XML format used by Rekordbox 5.  By default the XML is streamed straight
+ * to the file, see {@link PlaylistGenerator#setXMLDOM(boolean)} to build a DOM first instead.
+ * 
+ * @author Les Carter
+ */
+public class RekordboxXMLSink implements PlaylistSink
+{
+	protected final PlaylistGenerator generator;
+	
+	public RekordboxXMLSink(PlaylistGenerator generator)
+	{
+		super();
+		this.generator=generator;
+	}
+	
+	@Override
+	public String getFormat()
+	{
+		return "XML";
+	}
+	
+	@Override
+	public boolean isTxtRequired()
+	{
+		return true;
+	}
+	
+	@Override
+	public String getFilename(String playlistName, String destDir)
+	{
+		return destDir+File.separator+playlistName+PlaylistGenerator.STR_XML_FILE_EXTENSION;
+	}
+	
+	@Override
+	public String write(String playlistName, List<PlaylistEntry> entries, String destDir) throws Exception
+	{
+		return write(playlistName, entries, destDir, new ConversionResult(playlistName));
+	}
+	
+	@Override
+	public String write(String playlistName, List<PlaylistEntry> entries, String destDir, ConversionResult result) throws Exception
+	{
+		String xmlFilename=getFilename(playlistName, destDir);
+		if(generator.isXMLDOM())
+		{
+			//Create XML structure
+			long start=System.nanoTime();
+			Document doc=RekordboxDocument.create(generator, playlistName, entries);
+			result.timed(ConversionMetrics.Stage.BUILD_DOM, start);
+			
+			//Dump out to XML file
+			RekordboxDocument.write(doc, xmlFilename);
+		}
+		else
+		{
+			FileChannel channel=FileChannel.open(Paths.get(xmlFilename), 
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			StreamingXMLWriter writer=new StreamingXMLWriter(channel);
+			try {
+				writeStream(writer, playlistName, entries);
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		return xmlFilename;
+	}
+	
+	/**
+	 * This method is used to stream a playlist out in the same structure as {@link RekordboxDocument#create(PlaylistGenerator, String, List)}, 
+	 * one element at a time.
+	 * @param writer where the XML should be written to.
+	 * @param playlistName the name of the playlist.
+	 * @param entries the playlist entries, joined with the KUVO txt data.
+	 * @throws IOException
+	 */
+	public void writeStream(final StreamingXMLWriter writer, String playlistName, List<PlaylistEntry> entries) throws IOException
+	{
+		PlaylistGenerator.AttributeTarget target=new PlaylistGenerator.AttributeTarget() {
+			@Override
+			public void setAttribute(String name, String value)
+			{
+				writer.writeAttribute(name, value);
+			}
+		};
+		
+		writer.writeStartDocument();
+		writer.writeStartElement(PlaylistGenerator.STR_DJ_LIST);
+		writer.writeAttribute(PlaylistGenerator.STR_VERSION, PlaylistGenerator.STR_VERSION_NUM);
+		
+		writer.writeStartElement(PlaylistGenerator.STR_PRODUCT);
+		writer.writeAttribute(PlaylistGenerator.STR_NAME, PlaylistGenerator.STR_PRODUCT_NAME);
+		writer.writeAttribute(PlaylistGenerator.STR_VERSION, PlaylistGenerator.STR_PRODUCT_VERSION);
+		writer.writeAttribute(PlaylistGenerator.STR_COMPANY, PlaylistGenerator.STR_PRODUCT_COMPANY);
+		writer.writeEndElement();
+		
+		//The COLLECTION holds the full track details
+		writer.writeStartElement(PlaylistGenerator.STR_COLLECTION);
+		writer.writeAttribute(PlaylistGenerator.STR_ENTRIES, Integer.toString(entries.size()));
+		for(PlaylistEntry entry : entries)
+		{
+			writer.writeStartElement(PlaylistGenerator.STR_TRACK);
+			generator.addTrackAttributes(entry, target);
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		
+		//The PLAYLISTS just refer to the tracks in the COLLECTION
+		writer.writeStartElement(PlaylistGenerator.STR_PLAYLISTS);
+		writer.writeStartElement(PlaylistGenerator.STR_NODE);
+		writer.writeAttribute(PlaylistGenerator.STR_TYPE, "0");
+		writer.writeAttribute(PlaylistGenerator.STR_NAME, "ROOT");
+		writer.writeAttribute(PlaylistGenerator.STR_COUNT, "1");
+		
+		writer.writeStartElement(PlaylistGenerator.STR_NODE);
+		writer.writeAttribute(PlaylistGenerator.STR_NAME, playlistName);
+		writer.writeAttribute(PlaylistGenerator.STR_TYPE, "1");
+		writer.writeAttribute(PlaylistGenerator.STR_KEYTYPE, "0");
+		writer.writeAttribute(PlaylistGenerator.STR_ENTRIES, Integer.toString(entries.size()));
+		for(PlaylistEntry entry : entries)
+		{
+			writer.writeStartElement(PlaylistGenerator.STR_TRACK);
+			writer.writeAttribute(PlaylistGenerator.STR_KEY, entry.getTrackNumberText());
+			writer.writeEndElement();
+		}
+		writer.writeEndDocument();
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to build smart playlists, playlists of every track in the source directory that meets a
+ * {@link TrackQuery}, e.g. <code>bpm=122-125;key=Gm;genre=house;added&gt;2020-07</code>.
+ * <br/><br/>
+ * Every playlist in the source directory is read once, with each track kept once however many playlists it is in, and
+ * a {@link TrackTableIndex} is built over the tracks.  Each query is then answered from the index and the matching
+ * tracks are written out by the sinks like any other playlist, in the order they were first seen.  A file of queries
+ * can be given so that a whole set of smart playlists comes from a single pass over the source directory.
+ *
+ * @author Les Carter
+ */
+public class SmartPlaylistGenerator
+{
+	public static final String STR_DEFAULT_QUERY_NAME="Smart Playlist";
+	public static final String STR_COMMENT="#";
+
+	protected final PlaylistGenerator generator;
+
+	/**
+	 * @param generator the generator used to parse the playlists.
+	 */
+	public SmartPlaylistGenerator(PlaylistGenerator generator)
+	{
+		super();
+		this.generator=generator;
+	}
+
+	/**
+	 * This method is used to load the queries to answer.  A file of queries is read as UTF-8 with a line of
+	 * <code>name=query</code> for each smart playlist, split at the first <code>=</code>, and blank lines and lines
+	 * starting with <code>#</code> are skipped.
+	 * @param query a query, or a file of queries.
+	 * @param queryName the name of the smart playlist when a single query is given, or <code>null</code> for the default.
+	 * @return the queries by the name of their smart playlist, in the order they were given.
+	 * @throws IOException if the file of queries can't be read.
+	 * @throws IllegalArgumentException if a query can't be understood.
+	 */
+	public static Map<String, TrackQuery> loadQueries(String query, String queryName) throws IOException
+	{
+		LinkedHashMap<String, TrackQuery> retVal=new LinkedHashMap<String, TrackQuery>();
+		if(!new File(query).isFile())
+		{
+			retVal.put(queryName!=null && !queryName.trim().isEmpty() ? queryName : STR_DEFAULT_QUERY_NAME, TrackQuery.parse(query));
+			return retVal;
+		}
+
+		for(String line : Files.readAllLines(Paths.get(query), StandardCharsets.UTF_8))
+		{
+			line=line.trim();
+			if(line.isEmpty() || line.startsWith(STR_COMMENT))
+			{
+				continue;
+			}
+			int separator=line.indexOf('=');
+			if(separator<=0)
+			{
+				throw new IllegalArgumentException("Unable to understand \""+line+"\" in "+query+", expected name=query");
+			}
+			retVal.put(line.substring(0, separator).trim(), TrackQuery.parse(line.substring(separator+1)));
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to build the smart playlists for the playlists in the source directory and write them out,
+	 * reporting the outcome.
+	 * @param srcDir the source directory to read playlists
+	 * @param destDir the destination directory to write the smart playlists
+	 * @param query a query, or a file of queries with a line of <code>name=query</code> for each smart playlist.
+	 * @param queryName the name of the smart playlist when a single query is given, or <code>null</code> for the default.
+	 * @param sinks the output formats each smart playlist should be written in
+	 */
+	public void generate(String srcDir, String destDir, String query, String queryName, List<PlaylistSink> sinks)
+	{
+		long start=System.currentTimeMillis();
+		Map<String, TrackQuery> queries;
+		TrackTableIndex index;
+		try {
+			queries=loadQueries(query, queryName);
+			index=createIndex(srcDir, destDir);
+		} catch (Exception e)
+		{
+			generator.getErr().println("Exception happened, unable to build smart playlists : "+e.getLocalizedMessage());
+			e.printStackTrace(generator.getErr());
+			generator.writeReport(srcDir, destDir);
+			return;
+		}
+		generator.getOut().println("Indexed "+index.getTracks().size()+" unique track(s) in "+(System.currentTimeMillis()-start)+"ms");
+
+		for(Map.Entry<String, TrackQuery> smartPlaylist : queries.entrySet())
+		{
+			ConversionResult result=write(index, RekordboxLibrarySplitter.toFilename(smartPlaylist.getKey()),
+					smartPlaylist.getValue(), destDir, sinks);
+			generator.getMetrics().record(result);
+			generator.report(result);
+		}
+		generator.writeReport(srcDir, destDir);
+	}
+
+	/**
+	 * This method is used to read every playlist in the source directory that has a KUVO txt file and index its tracks.
+	 * @param srcDir the source directory to read playlists
+	 * @param destDir the destination directory, where the track index is kept unless a file was given.
+	 * @return the index of the unique tracks.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public TrackTableIndex createIndex(String srcDir, String destDir) throws IOException, InterruptedException
+	{
+		ArrayList<String> m3u8Candidates=new ArrayList<String>();
+		HashSet<String> txtCandidates=new HashSet<String>();
+		generator.findPlaylists(srcDir, m3u8Candidates, txtCandidates);
+		generator.openIndex(destDir);
+
+		ArrayList<String> playlists=new ArrayList<String>();
+		for(String m3u8 : m3u8Candidates)
+		{
+			if(txtCandidates.contains(m3u8))
+			{
+				playlists.add(m3u8);
+			}
+			else
+			{
+				generator.getErr().println("Skipping "+m3u8+", the KUVO txt file is needed for smart playlists");
+			}
+		}
+
+		LibraryMerger merger=new LibraryMerger(generator);
+		merger.read(srcDir, playlists);
+		generator.flushIndex();
+		long start=System.nanoTime();
+		TrackTableIndex retVal=new TrackTableIndex(merger.getTracks());
+		generator.getMetrics().timed(ConversionMetrics.Stage.BUILD_INDEX, start);
+		return retVal;
+	}
+
+	/**
+	 * This method is used to answer a query and write the matching tracks out as a playlist.  A failure in one sink does
+	 * not stop the others.
+	 * @param index the index of the tracks.
+	 * @param playlistName the name of the smart playlist.
+	 * @param query the query.
+	 * @param destDir the destination directory to write the smart playlist
+	 * @param sinks the output formats to write.
+	 * @return the files created and any failures.
+	 */
+	public ConversionResult write(TrackTableIndex index, String playlistName, TrackQuery query, String destDir, List<PlaylistSink> sinks)
+	{
+		ConversionResult retVal=new ConversionResult(playlistName);
+		long start=System.nanoTime();
+		BitSet matches=index.select(query);
+		retVal.timed(ConversionMetrics.Stage.QUERY, start);
+
+		ArrayList<PlaylistEntry> entries=new ArrayList<PlaylistEntry>(matches.cardinality());
+		for(int i=matches.nextSetBit(0);i>=0;i=matches.nextSetBit(i+1))
+		{
+			entries.add(index.getTracks().get(i));
+		}
+		retVal.parsed(entries.size(), 0, 0);
+		generator.getOut().println(playlistName+" matched "+entries.size()+" track(s) in "
+				+String.format("%.3f", retVal.getStageNanos(ConversionMetrics.Stage.QUERY)/1e6)+"ms");
+
+		for(PlaylistSink sink : sinks)
+		{
+			ConversionMetrics.Stage stage=ConversionMetrics.Stage.forFormat(sink.getFormat());
+			start=System.nanoTime();
+			try {
+				String filename=sink.write(playlistName, entries, destDir, retVal);
+				retVal.created(filename);
+				retVal.written(new File(filename).length());
+			} catch (Exception e)
+			{
+				retVal.failed(sink.getFormat(), e);
+			}
+			if(stage!=null)
+			{
+				retVal.timed(stage, start);
+			}
+		}
+		return retVal;
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class is used to write XML incrementally, one element at a time, so that a playlist never has to be held as a DOM.
+ * <br/><br/>
+ * The output is laid out the same way as the pretty printed output of the JAXP identity <code>Transformer</code> used by
+ * {@link RekordboxDocument#write(org.w3c.dom.Document, String)}: a 4 space indent per level, attributes
+ * in name order, childless elements closed with <code>/&gt;</code>, and the same character escaping.  This means the two
+ * paths produce identical files.  <code>javax.xml.stream.XMLStreamWriter</code> isn't used as it leaves tabs and line
+ * breaks inside attribute values unescaped, which doesn't round trip.
+ *
+ * @author Les Carter
+ */
+public class StreamingXMLWriter implements Closeable
+{
+	public static final String STR_INDENT="    ";
+	public static final String STR_DECLARATION="<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+	public static final int BUFFER_SIZE=64*1024;
+
+	protected final Writer writer;
+	protected final String lineSeparator=System.lineSeparator();
+
+	protected String[] elementStack=new String[16];
+	protected int depth=0;
+
+	//The start tag being built, held back until we know if the element has any children
+	protected boolean isStartTagPending=false;
+	protected String[] attributeNames=new String[32];
+	protected String[] attributeValues=new String[32];
+	protected int attributeCount=0;
+
+	/**
+	 * @param channel the channel to write the UTF-8 encoded XML to.
+	 */
+	public StreamingXMLWriter(WritableByteChannel channel)
+	{
+		this(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE), BUFFER_SIZE), BUFFER_SIZE));
+	}
+
+	/**
+	 * @param writer the writer to write the XML to, it should be buffered and encode as UTF-8 to match the declaration.
+	 */
+	public StreamingXMLWriter(Writer writer)
+	{
+		super();
+		this.writer=writer;
+	}
+
+	/**
+	 * Writes the XML declaration.
+	 * @throws IOException
+	 */
+	public void writeStartDocument() throws IOException
+	{
+		writer.write(STR_DECLARATION);
+		writer.write(lineSeparator);
+	}
+
+	/**
+	 * Starts a new element, attributes can be added until the next element is started or this one is ended.
+	 * @param name the element name.
+	 * @throws IOException
+	 */
+	public void writeStartElement(String name) throws IOException
+	{
+		if(isStartTagPending)
+		{
+			flushStartTag(false);
+		}
+		if(depth==elementStack.length)
+		{
+			elementStack=Arrays.copyOf(elementStack, depth*2);
+		}
+		elementStack[depth++]=name;
+		isStartTagPending=true;
+		attributeCount=0;
+	}
+
+	/**
+	 * Adds an attribute to the element that has just been started.  Attributes can be added in any order.
+	 * @param name the attribute name.
+	 * @param value the attribute value, which will be escaped.
+	 */
+	public void writeAttribute(String name, String value)
+	{
+		if(!isStartTagPending)
+		{
+			throw new IllegalStateException("Attribute "+name+" written outside of a start tag");
+		}
+		if(attributeCount==attributeNames.length)
+		{
+			attributeNames=Arrays.copyOf(attributeNames, attributeCount*2);
+			attributeValues=Arrays.copyOf(attributeValues, attributeCount*2);
+		}
+		attributeNames[attributeCount]=name;
+		attributeValues[attributeCount]=value;
+		attributeCount++;
+	}
+
+	/**
+	 * Ends the most recently started element that is still open.
+	 * @throws IOException
+	 */
+	public void writeEndElement() throws IOException
+	{
+		if(depth==0)
+		{
+			throw new IllegalStateException("No element to end");
+		}
+		if(isStartTagPending)
+		{
+			flushStartTag(true);
+			depth--;
+			return;
+		}
+		depth--;
+		writeIndent(depth);
+		writer.write("</");
+		writer.write(elementStack[depth]);
+		writer.write('>');
+		writer.write(lineSeparator);
+	}
+
+	/**
+	 * Ends all open elements and flushes the output.
+	 * @throws IOException
+	 */
+	public void writeEndDocument() throws IOException
+	{
+		while(depth>0)
+		{
+			writeEndElement();
+		}
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		writer.close();
+	}
+
+	/**
+	 * Writes the pending start tag with its attributes sorted by name, as the DOM does.
+	 * @param isEmpty <code>true</code> if the element has no children and should be closed straight away.
+	 * @throws IOException
+	 */
+	protected void flushStartTag(boolean isEmpty) throws IOException
+	{
+		//Insertion sort, there are only ever a couple of dozen attributes
+		for(int i=1;i<attributeCount;i++)
+		{
+			String name=attributeNames[i];
+			String value=attributeValues[i];
+			int j=i-1;
+			while(j>=0 && attributeNames[j].compareTo(name)>0)
+			{
+				attributeNames[j+1]=attributeNames[j];
+				attributeValues[j+1]=attributeValues[j];
+				j--;
+			}
+			attributeNames[j+1]=name;
+			attributeValues[j+1]=value;
+		}
+
+		writeIndent(depth-1);
+		writer.write('<');
+		writer.write(elementStack[depth-1]);
+		for(int i=0;i<attributeCount;i++)
+		{
+			writer.write(' ');
+			writer.write(attributeNames[i]);
+			writer.write("=\"");
+			writeEscaped(attributeValues[i]);
+			writer.write('"');
+			attributeNames[i]=null;
+			attributeValues[i]=null;
+		}
+		writer.write(isEmpty ? "/>" : ">");
+		writer.write(lineSeparator);
+		attributeCount=0;
+		isStartTagPending=false;
+	}
+
+	protected void writeIndent(int level) throws IOException
+	{
+		for(int i=0;i<level;i++)
+		{
+			writer.write(STR_INDENT);
+		}
+	}
+
+	/**
+	 * Writes an attribute value escaped the same way as the JAXP serializer, markup characters are replaced by entities
+	 * and control characters and characters outside of the Basic Multilingual Plane by character references.
+	 * @param value the value to write.
+	 * @throws IOException
+	 */
+	protected void writeEscaped(String value) throws IOException
+	{
+		if(value==null)
+		{
+			return;
+		}
+		int length=value.length();
+		int start=0;
+		for(int i=0;i<length;i++)
+		{
+			char c=value.charAt(i);
+			String replacement;
+			if(c=='&')
+			{
+				replacement="&amp;";
+			}
+			else if(c=='<')
+			{
+				replacement="&lt;";
+			}
+			else if(c=='>')
+			{
+				replacement="&gt;";
+			}
+			else if(c=='"')
+			{
+				replacement="&quot;";
+			}
+			else if(c<0x20)
+			{
+				replacement="&#"+(int)c+";";
+			}
+			else if(Character.isHighSurrogate(c) && i+1<length && Character.isLowSurrogate(value.charAt(i+1)))
+			{
+				replacement="&#"+Character.toCodePoint(c, value.charAt(i+1))+";";
+				writer.write(value, start, i-start);
+				writer.write(replacement);
+				i++;
+				start=i+1;
+				continue;
+			}
+			else
+			{
+				continue;
+			}
+			writer.write(value, start, i-start);
+			writer.write(replacement);
+			start=i+1;
+		}
+		writer.write(value, start, length-start);
+	}
+}
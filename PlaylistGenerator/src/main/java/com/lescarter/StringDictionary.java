@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is used to share one copy of each string that repeats across many tracks, such as genres, artists and albums.
+ * A library with tens of thousands of tracks only has a few hundred distinct genres, so holding each of them once keeps
+ * the heap in proportion to the distinct values rather than the number of tracks.  It is safe to use from many threads.
+ *
+ * @author Les Carter
+ */
+public class StringDictionary
+{
+	protected final ConcurrentHashMap<String, String> values=new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param value a string.
+	 * @return the shared copy of the string.
+	 */
+	public String intern(String value)
+	{
+		if(value==null || value.isEmpty())
+		{
+			return "";
+		}
+		String retVal=values.putIfAbsent(value, value);
+		return retVal!=null ? retVal : value;
+	}
+
+	/**
+	 * @return the number of distinct strings held.
+	 */
+	public int size()
+	{
+		return values.size();
+	}
+}
@@ -0,0 +1,495 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to remember what is known about each track between runs, keyed by the track's location.
+ * <br/><br/>
+ * The index is a single memory mapped file holding an open addressing hash table of record offsets followed by the
+ * records themselves, so a lookup is a hash, a probe or two of the table and a read of the record straight out of the
+ * mapping with no parsing of the whole file up front.  Each record holds the file size and last modified time of the
+ * track, the KUVO metadata last seen for it and, once the track has been probed, what was read from the headers of its
+ * audio file.  Those are only trusted while the size and modified time still match.
+ * <br/><br/>
+ * Records are only ever appended, or overwritten in place when the new version fits.  When the table gets more than half
+ * full a table twice the size is appended to the end of the file and the header pointed at it, so the file never has to
+ * be rewritten or replaced while it is mapped.  Delete the file to compact it.
+ * <br/><br/>
+ * The file is locked while it is open, so two generators, e.g. a daemon and a command line run on the same destination
+ * directory, never write to it at once.  The second one is refused with a {@link LockedException} and runs without an
+ * index.
+ * <br/><br/>
+ * File layout (all big endian):
+ * <pre>
+ * header: int magic, int version, long table offset, int table slots, int record count, long end of data
+ * table:  long per slot, the record's hash in the top 32 bits and its offset in the bottom 32, 0 if empty
+ * record: int record length, int hash, key, long size, long modified, byte flags, int bpm, byte key, int date added,
+ *         byte format, int bit rate, int sample rate, int duration in milliseconds,
+ *         album, genre, then the bpm, key and date added text if they aren't held as numbers
+ *         where the key and each string is a short byte length followed by UTF-8 bytes
+ * </pre>
+ *
+ * @author Les Carter
+ */
+public class TrackIndex implements Closeable
+{
+	public static final String STR_INDEX_FILENAME=".playlistgenerator.index";
+	public static final int MAGIC=0x50474958;
+	public static final int VERSION=3;
+	public static final int HEADER_SIZE=32;
+	public static final int INITIAL_SLOTS=1024;
+	public static final int INITIAL_CAPACITY=1024*1024;
+
+	protected static final int OFFSET_MAGIC=0;
+	protected static final int OFFSET_VERSION=4;
+	protected static final int OFFSET_TABLE=8;
+	protected static final int OFFSET_SLOTS=16;
+	protected static final int OFFSET_COUNT=20;
+	protected static final int OFFSET_END=24;
+
+	protected static final byte FLAG_METADATA=1;
+	protected static final byte FLAG_TEXT=2;
+	protected static final byte FLAG_PROBED=4;
+
+	protected final Path file;
+	protected final FileChannel channel;
+	protected final FileLock lock;
+	protected MappedByteBuffer buffer;
+
+	protected long tableOffset;
+	protected int slotCount;
+	protected int recordCount;
+	protected long dataEnd;
+
+	/**
+	 * This method is used to open an index, creating it if it doesn't exist.  An index written by a different version, or
+	 * that isn't an index at all, is started again from empty.
+	 * @param filename the index file.
+	 * @return the open index.
+	 * @throws LockedException if another generator has the index open.
+	 * @throws IOException
+	 */
+	public static TrackIndex open(String filename) throws IOException
+	{
+		return open(filename, System.err);
+	}
+
+	/**
+	 * This method is used to open an index, creating it if it doesn't exist.  An index written by a different version, or
+	 * that isn't an index at all, is started again from empty.
+	 * @param filename the index file.
+	 * @param err where an index that is started again is reported.
+	 * @return the open index.
+	 * @throws LockedException if another generator has the index open.
+	 * @throws IOException
+	 */
+	public static TrackIndex open(String filename, PrintStream err) throws IOException
+	{
+		return new TrackIndex(Paths.get(filename), err);
+	}
+
+	protected TrackIndex(Path file, PrintStream err) throws IOException
+	{
+		super();
+		this.file=file;
+		channel=FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileLock fileLock;
+		try {
+			fileLock=channel.tryLock();
+		} catch (OverlappingFileLockException e)
+		{
+			//Held by another generator in this JVM
+			fileLock=null;
+		}
+		if(fileLock==null)
+		{
+			channel.close();
+			throw new LockedException(file);
+		}
+		lock=fileLock;
+
+		long size=channel.size();
+		if(size>=HEADER_SIZE)
+		{
+			//Check the header before mapping, so a file we can't use is never mapped
+			ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE);
+			while(header.hasRemaining() && channel.read(header, header.position())>0);
+			tableOffset=header.getLong(OFFSET_TABLE);
+			slotCount=header.getInt(OFFSET_SLOTS);
+			recordCount=header.getInt(OFFSET_COUNT);
+			dataEnd=header.getLong(OFFSET_END);
+			if(header.getInt(OFFSET_MAGIC)==MAGIC && header.getInt(OFFSET_VERSION)==VERSION
+					&& dataEnd<=size && size<=Integer.MAX_VALUE && tableOffset>=HEADER_SIZE 
+					&& tableOffset+(long)slotCount*8<=dataEnd && Integer.bitCount(slotCount)==1)
+			{
+				buffer=channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				return;
+			}
+			err.println("Ignoring the contents of "+file+", it isn't a track index this version can read");
+		}
+
+		//Start a new index
+		channel.truncate(0);
+		buffer=channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+		tableOffset=HEADER_SIZE;
+		slotCount=INITIAL_SLOTS;
+		recordCount=0;
+		dataEnd=tableOffset+(long)slotCount*8;
+		for(int i=0;i<slotCount;i++)
+		{
+			buffer.putLong((int)tableOffset+i*8, 0L);
+		}
+		buffer.putInt(OFFSET_MAGIC, MAGIC);
+		buffer.putInt(OFFSET_VERSION, VERSION);
+		writeHeader();
+	}
+
+	/**
+	 * @return the number of tracks in the index.
+	 */
+	public synchronized int size()
+	{
+		return recordCount;
+	}
+
+	/**
+	 * This method is used to look up a track.
+	 * @param location the location of the track.
+	 * @return what is known about the track, or <code>null</code> if it isn't in the index.
+	 */
+	public synchronized Track get(String location)
+	{
+		byte[] key=location.getBytes(StandardCharsets.UTF_8);
+		int hash=location.hashCode();
+		int slot=findSlot(key, hash);
+		long entry=buffer.getLong(slotPosition(slot));
+		if(entry==0)
+		{
+			return null;
+		}
+		return readRecord(location, (int)entry);
+	}
+
+	/**
+	 * This method is used to add or replace a track.
+	 * @param track what is known about the track.
+	 */
+	public synchronized void put(Track track)
+	{
+		byte[] key=bytes(track.location);
+		PlaylistEntry metadata=track.metadata;
+		boolean hasText=metadata.text!=null;
+		byte[][] strings=hasText ? new byte[][] {
+			bytes(metadata.album), bytes(metadata.genre), bytes(metadata.getText(PlaylistEntry.TEXT_BPM)), 
+			bytes(metadata.getText(PlaylistEntry.TEXT_KEY)), bytes(metadata.getText(PlaylistEntry.TEXT_DATEADDED))
+		} : new byte[][] {
+			bytes(metadata.album), bytes(metadata.genre)
+		};
+		int length=4+4+2+key.length+8+8+1+4+1+4+1+4+4+4;
+		for(byte[] string : strings)
+		{
+			length+=2+string.length;
+		}
+
+		int hash=track.location.hashCode();
+		int slot=findSlot(key, hash);
+		int slotPosition=slotPosition(slot);
+		long entry=buffer.getLong(slotPosition);
+		int offset;
+		if(entry!=0 && buffer.getInt((int)entry)>=length)
+		{
+			//Fits where it was
+			offset=(int)entry;
+			length=buffer.getInt(offset);
+		}
+		else
+		{
+			offset=(int)allocate(length);
+			if(entry==0)
+			{
+				recordCount++;
+			}
+		}
+
+		ByteBuffer record=buffer.duplicate();
+		record.position(offset);
+		record.putInt(length);
+		record.putInt(hash);
+		record.putShort((short)key.length);
+		record.put(key);
+		record.putLong(track.size);
+		record.putLong(track.modified);
+		record.put((byte)((metadata.hasMetadata ? FLAG_METADATA : 0) | (hasText ? FLAG_TEXT : 0) | (track.isProbed ? FLAG_PROBED : 0)));
+		record.putInt(metadata.bpm);
+		record.put(metadata.key);
+		record.putInt(metadata.dateAdded);
+		record.put(metadata.format);
+		record.putInt(metadata.bitRate);
+		record.putInt(metadata.sampleRate);
+		record.putInt(metadata.durationMillis);
+		for(byte[] string : strings)
+		{
+			record.putShort((short)string.length);
+			record.put(string);
+		}
+
+		//Point the table at the record only once it is complete
+		buffer.putLong(slotPosition, ((long)hash<<32) | (offset & 0xFFFFFFFFL));
+		writeHeader();
+
+		if(recordCount*2>slotCount)
+		{
+			rehash();
+		}
+	}
+
+	/**
+	 * This method is used to make sure everything written so far has reached the disk.
+	 */
+	public synchronized void flush()
+	{
+		buffer.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		flush();
+		channel.close();
+	}
+
+	/**
+	 * @param key the UTF-8 bytes of the location.
+	 * @param hash the hash of the location.
+	 * @return the slot holding the location, or the empty slot where it would go.
+	 */
+	protected int findSlot(byte[] key, int hash)
+	{
+		int mask=slotCount-1;
+		int slot=mix(hash)&mask;
+		while(true)
+		{
+			long entry=buffer.getLong(slotPosition(slot));
+			if(entry==0 || ((int)(entry>>>32)==hash && isKey((int)entry, key)))
+			{
+				return slot;
+			}
+			slot=(slot+1)&mask;
+		}
+	}
+
+	protected boolean isKey(int offset, byte[] key)
+	{
+		int position=offset+8;
+		if(buffer.getShort(position)!=key.length)
+		{
+			return false;
+		}
+		position+=2;
+		for(int i=0;i<key.length;i++)
+		{
+			if(buffer.get(position+i)!=key[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected Track readRecord(String location, int offset)
+	{
+		ByteBuffer record=buffer.duplicate();
+		record.position(offset+8);
+		record.position(record.position()+2+record.getShort());
+		Track retVal=new Track(location);
+		retVal.size=record.getLong();
+		retVal.modified=record.getLong();
+		byte flags=record.get();
+		PlaylistEntry metadata=retVal.metadata;
+		metadata.hasMetadata=(flags&FLAG_METADATA)!=0;
+		metadata.bpm=record.getInt();
+		metadata.key=record.get();
+		metadata.dateAdded=record.getInt();
+		metadata.format=record.get();
+		metadata.bitRate=record.getInt();
+		metadata.sampleRate=record.getInt();
+		metadata.durationMillis=record.getInt();
+		retVal.isProbed=(flags&FLAG_PROBED)!=0;
+		metadata.album=readString(record);
+		metadata.genre=readString(record);
+		if((flags&FLAG_TEXT)!=0)
+		{
+			metadata.setText(PlaylistEntry.TEXT_BPM, readString(record));
+			metadata.setText(PlaylistEntry.TEXT_KEY, readString(record));
+			metadata.setText(PlaylistEntry.TEXT_DATEADDED, readString(record));
+		}
+		return retVal;
+	}
+
+	protected static String readString(ByteBuffer record)
+	{
+		int length=record.getShort();
+		if(length==0)
+		{
+			return "";
+		}
+		byte[] bytes=new byte[length];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	protected static byte[] bytes(String value)
+	{
+		if(value==null || value.isEmpty())
+		{
+			return new byte[0];
+		}
+		byte[] retVal=value.getBytes(StandardCharsets.UTF_8);
+		if(retVal.length>Short.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Value too long for the track index : "+value.substring(0, 32)+"...");
+		}
+		return retVal;
+	}
+
+	/**
+	 * This method is used to make room for a record at the end of the data, growing the file if needed.
+	 * @param length the number of bytes needed.
+	 * @return the offset of the space.
+	 */
+	protected long allocate(long length)
+	{
+		long retVal=dataEnd;
+		long needed=dataEnd+length;
+		if(needed>Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Track index "+file+" is full, delete it to start a new one");
+		}
+		if(needed>buffer.capacity())
+		{
+			long capacity=Math.min(Integer.MAX_VALUE, Math.max(needed, (long)buffer.capacity()*2));
+			try {
+				buffer=channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			} catch (IOException e)
+			{
+				throw new IllegalStateException("Unable to grow track index "+file, e);
+			}
+		}
+		dataEnd=needed;
+		return retVal;
+	}
+
+	/**
+	 * This method is used to append a table twice the size and move every entry across to it.
+	 */
+	protected void rehash()
+	{
+		long oldTableOffset=tableOffset;
+		int oldSlotCount=slotCount;
+
+		int newSlotCount=slotCount*2;
+		long newTableOffset=allocate((long)newSlotCount*8);
+		for(int i=0;i<newSlotCount;i++)
+		{
+			buffer.putLong((int)newTableOffset+i*8, 0L);
+		}
+
+		int mask=newSlotCount-1;
+		for(int i=0;i<oldSlotCount;i++)
+		{
+			long entry=buffer.getLong((int)oldTableOffset+i*8);
+			if(entry==0)
+			{
+				continue;
+			}
+			int slot=mix((int)(entry>>>32))&mask;
+			while(buffer.getLong((int)newTableOffset+slot*8)!=0)
+			{
+				slot=(slot+1)&mask;
+			}
+			buffer.putLong((int)newTableOffset+slot*8, entry);
+		}
+
+		tableOffset=newTableOffset;
+		slotCount=newSlotCount;
+		writeHeader();
+	}
+
+	protected int slotPosition(int slot)
+	{
+		return (int)tableOffset+slot*8;
+	}
+
+	protected void writeHeader()
+	{
+		buffer.putLong(OFFSET_TABLE, tableOffset);
+		buffer.putInt(OFFSET_SLOTS, slotCount);
+		buffer.putInt(OFFSET_COUNT, recordCount);
+		buffer.putLong(OFFSET_END, dataEnd);
+	}
+
+	/**
+	 * Spreads the bits of <code>String.hashCode()</code>, which are poor in the low bits for paths that only differ at the end.
+	 */
+	protected static int mix(int hash)
+	{
+		hash*=0x9E3779B9;
+		return hash^(hash>>>16);
+	}
+
+	/**
+	 * This class is used to hold what is known about a track.
+	 *
+	 * @author Les Carter
+	 */
+	public static class Track
+	{
+		public final String location;
+		public long size=0;
+		public long modified=-1;
+		//true if the headers of the audio file have been read since it last changed
+		public boolean isProbed=false;
+		//Only the KUVO metadata and headers of the entry are used
+		public final PlaylistEntry metadata=new PlaylistEntry();
+
+		public Track(String location)
+		{
+			super();
+			this.location=location;
+		}
+	}
+
+	/**
+	 * This exception is thrown when an index can't be opened because another generator has it open.
+	 *
+	 * @author Les Carter
+	 */
+	public static class LockedException extends IOException
+	{
+		private static final long serialVersionUID=1L;
+
+		/**
+		 * @param file the index file.
+		 */
+		public LockedException(Path file)
+		{
+			super("Track index "+file+" is in use by another PlaylistGenerator");
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.time.LocalDate;
+import java.util.Locale;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to hold the criteria of a smart playlist, which {@link TrackTableIndex} finds the matching tracks
+ * for.
+ * <br/><br/>
+ * A query is a list of criteria separated by <code>;</code>, all of which a track has to meet, for example
+ * <pre>
+ * bpm=122-125;key=Gm;genre=house;added&gt;2020-07
+ * </pre>
+ * <ul><li><code>bpm</code> takes a range (<code>122-125</code>), a single BPM or a comparison (<code>bpm&gt;=128</code>),
+ * with up to two decimal places</li>
+ * <li><code>key</code> takes a key in any notation Rekordbox writes (<code>Gm</code>, <code>6A</code>, <code>6m</code>) and
+ * matches every key that mixes with it on the Camelot wheel</li>
+ * <li><code>genre</code> matches every genre containing the text, ignoring case</li>
+ * <li><code>added</code> takes a year, month or day (<code>2020</code>, <code>2020-07</code>, <code>2020-07-30</code>)
+ * with <code>=</code> for the whole of it, or a comparison where <code>&gt;2020-07</code> means after July 2020 and
+ * <code>&gt;=2020-07</code> from the start of it</li>
+ * </ul>
+ *
+ * @author Les Carter
+ */
+public class TrackQuery
+{
+	public static final String STR_CRITERIA_SEPARATOR=";";
+	public static final String STR_BPM="bpm";
+	public static final String STR_KEY="key";
+	public static final String STR_GENRE="genre";
+	public static final String STR_ADDED="added";
+
+	public static final int NONE=PlaylistEntry.NONE;
+
+	protected int minBpm=NONE;
+	protected int maxBpm=NONE;
+	protected MusicalKey key=null;
+	protected String genre=null;
+	protected int minDateAdded=NONE;
+	protected int maxDateAdded=NONE;
+
+	/**
+	 * This method is used to parse a query.
+	 * @param text the criteria, separated by <code>;</code>.
+	 * @return the query.
+	 * @throws IllegalArgumentException if any of the criteria can't be understood.
+	 */
+	public static TrackQuery parse(String text)
+	{
+		TrackQuery retVal=new TrackQuery();
+		for(String criterion : text.split(STR_CRITERIA_SEPARATOR))
+		{
+			criterion=criterion.trim();
+			if(criterion.isEmpty())
+			{
+				continue;
+			}
+			int operatorStart=indexOfOperator(criterion);
+			if(operatorStart<=0)
+			{
+				throw new IllegalArgumentException("Unable to understand \""+criterion+"\", expected a field such as bpm=122-125");
+			}
+			int valueStart=operatorStart+1;
+			if(valueStart<criterion.length() && criterion.charAt(valueStart)=='=' && criterion.charAt(operatorStart)!='=')
+			{
+				valueStart++;
+			}
+			String field=criterion.substring(0, operatorStart).trim().toLowerCase(Locale.ROOT);
+			String operator=criterion.substring(operatorStart, valueStart);
+			String value=criterion.substring(valueStart).trim();
+			try {
+				if(STR_BPM.equals(field))
+				{
+					retVal.parseBpm(operator, value);
+				}
+				else if(STR_KEY.equals(field) && "=".equals(operator))
+				{
+					retVal.key=MusicalKey.valueOf(MusicalKey.parse(value));
+					if(retVal.key==null)
+					{
+						throw new IllegalArgumentException("unknown key");
+					}
+				}
+				else if(STR_GENRE.equals(field) && "=".equals(operator))
+				{
+					retVal.genre=value.toLowerCase(Locale.ROOT);
+				}
+				else if(STR_ADDED.equals(field))
+				{
+					retVal.parseDateAdded(operator, value);
+				}
+				else
+				{
+					throw new IllegalArgumentException("expected bpm, key=, genre= or added");
+				}
+			} catch (RuntimeException e)
+			{
+				throw new IllegalArgumentException("Unable to understand \""+criterion+"\", "+e.getLocalizedMessage(), e);
+			}
+		}
+		return retVal;
+	}
+
+	protected static int indexOfOperator(String criterion)
+	{
+		for(int i=0;i<criterion.length();i++)
+		{
+			char c=criterion.charAt(i);
+			if(c=='=' || c=='<' || c=='>')
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	protected void parseBpm(String operator, String value)
+	{
+		if("=".equals(operator))
+		{
+			int dash=value.indexOf('-', 1);
+			minBpm=toHundredths(dash>0 ? value.substring(0, dash) : value);
+			maxBpm=dash>0 ? toHundredths(value.substring(dash+1)) : minBpm;
+		}
+		else if(">=".equals(operator))
+		{
+			minBpm=toHundredths(value);
+		}
+		else if(">".equals(operator))
+		{
+			minBpm=toHundredths(value)+1;
+		}
+		else if("<=".equals(operator))
+		{
+			maxBpm=toHundredths(value);
+		}
+		else
+		{
+			maxBpm=toHundredths(value)-1;
+		}
+	}
+
+	protected static int toHundredths(String value)
+	{
+		return (int)Math.round(Double.parseDouble(value.trim())*100);
+	}
+
+	/**
+	 * This method is used to parse the date criterion, a year or month stands for every day in it.
+	 * @param operator the comparison.
+	 * @param value the year, month or day.
+	 */
+	protected void parseDateAdded(String operator, String value)
+	{
+		LocalDate first;
+		LocalDate last;
+		if(value.length()==4)
+		{
+			first=LocalDate.of(Integer.parseInt(value), 1, 1);
+			last=first.plusYears(1).minusDays(1);
+		}
+		else if(value.length()==7 && value.charAt(4)=='-')
+		{
+			first=LocalDate.of(Integer.parseInt(value.substring(0, 4)), Integer.parseInt(value.substring(5)), 1);
+			last=first.plusMonths(1).minusDays(1);
+		}
+		else
+		{
+			first=LocalDate.parse(value);
+			last=first;
+		}
+
+		if("=".equals(operator))
+		{
+			minDateAdded=(int)first.toEpochDay();
+			maxDateAdded=(int)last.toEpochDay();
+		}
+		else if(">=".equals(operator))
+		{
+			minDateAdded=(int)first.toEpochDay();
+		}
+		else if(">".equals(operator))
+		{
+			minDateAdded=(int)last.toEpochDay()+1;
+		}
+		else if("<=".equals(operator))
+		{
+			maxDateAdded=(int)last.toEpochDay();
+		}
+		else
+		{
+			maxDateAdded=(int)first.toEpochDay()-1;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the query limits the BPM.
+	 */
+	public boolean hasBpm()
+	{
+		return minBpm!=NONE || maxBpm!=NONE;
+	}
+
+	/**
+	 * @return the lowest BPM in hundredths, or {@link #NONE}.
+	 */
+	public int getMinBpm()
+	{
+		return minBpm;
+	}
+
+	/**
+	 * @return the highest BPM in hundredths, or {@link #NONE}.
+	 */
+	public int getMaxBpm()
+	{
+		return maxBpm;
+	}
+
+	/**
+	 * @return the key the tracks have to mix with, or <code>null</code>.
+	 */
+	public MusicalKey getKey()
+	{
+		return key;
+	}
+
+	/**
+	 * @return the text the genre has to contain in lower case, or <code>null</code>.
+	 */
+	public String getGenre()
+	{
+		return genre;
+	}
+
+	/**
+	 * @return <code>true</code> if the query limits the date added.
+	 */
+	public boolean hasDateAdded()
+	{
+		return minDateAdded!=NONE || maxDateAdded!=NONE;
+	}
+
+	/**
+	 * @return the first day since the epoch a track can have been added, or {@link #NONE}.
+	 */
+	public int getMinDateAdded()
+	{
+		return minDateAdded;
+	}
+
+	/**
+	 * @return the last day since the epoch a track can have been added, or {@link #NONE}.
+	 */
+	public int getMaxDateAdded()
+	{
+		return maxDateAdded;
+	}
+}
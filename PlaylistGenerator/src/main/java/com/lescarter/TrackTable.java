@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.util.Arrays;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to hold a large number of tracks column by column, one array per field, rather than as an object
+ * per track.  Numbers, dates and keys are held in primitive arrays, so a whole library costs a few bytes per track per
+ * field and operations over one field, such as finding every track in a BPM range, run straight down a single array.
+ * <br/><br/>
+ * Tracks are added as {@link PlaylistEntry}s and can be read back the same way when they are written out.  Locations
+ * are held in a {@link PathStore}, so the directories the tracks share are only held once.
+ *
+ * @author Les Carter
+ */
+public class TrackTable
+{
+	public static final int INITIAL_CAPACITY=1024;
+
+	protected int size=0;
+	protected String[] artists;
+	protected String[] titles;
+	protected final PathStore paths;
+	protected PathStore.Location[] locations;
+	protected String[] albums;
+	protected String[] genres;
+	protected int[] seconds;
+	protected int[] trackNumbers;
+	protected int[] bpms;
+	protected int[] datesAdded;
+	protected byte[] keys;
+	protected long[] fileSizes;
+	protected boolean[] hasMetadata;
+	protected byte[] formats;
+	protected int[] bitRates;
+	protected int[] sampleRates;
+	protected int[] durationsMillis;
+	//Values that can't be held as primitives, usually null
+	protected String[][] texts;
+
+	public TrackTable()
+	{
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of tracks to make room for up front.
+	 */
+	public TrackTable(int capacity)
+	{
+		this(capacity, new PathStore());
+	}
+
+	/**
+	 * @param capacity the number of tracks to make room for up front.
+	 * @param paths the store the locations of the tracks are held in.
+	 */
+	public TrackTable(int capacity, PathStore paths)
+	{
+		super();
+		this.paths=paths;
+		capacity=Math.max(capacity, 16);
+		artists=new String[capacity];
+		titles=new String[capacity];
+		locations=new PathStore.Location[capacity];
+		albums=new String[capacity];
+		genres=new String[capacity];
+		seconds=new int[capacity];
+		trackNumbers=new int[capacity];
+		bpms=new int[capacity];
+		datesAdded=new int[capacity];
+		keys=new byte[capacity];
+		fileSizes=new long[capacity];
+		hasMetadata=new boolean[capacity];
+		formats=new byte[capacity];
+		bitRates=new int[capacity];
+		sampleRates=new int[capacity];
+		durationsMillis=new int[capacity];
+		texts=new String[capacity][];
+	}
+
+	/**
+	 * @return the number of tracks in the table.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * This method is used to add a track to the end of the table.
+	 * @param entry the track.
+	 * @return the index of the track in the table.
+	 */
+	public int add(PlaylistEntry entry)
+	{
+		return add(entry, paths.intern(entry.fileLocation));
+	}
+
+	/**
+	 * This method is used to add a track to the end of the table.
+	 * @param entry the track.
+	 * @param location the location of the track, already looked up in the table's {@link PathStore}.
+	 * @return the index of the track in the table.
+	 */
+	public int add(PlaylistEntry entry, PathStore.Location location)
+	{
+		if(size==seconds.length)
+		{
+			grow();
+		}
+		int retVal=size++;
+		artists[retVal]=entry.artist;
+		titles[retVal]=entry.title;
+		locations[retVal]=location;
+		albums[retVal]=entry.album;
+		genres[retVal]=entry.genre;
+		seconds[retVal]=entry.seconds;
+		trackNumbers[retVal]=entry.trackNumber;
+		bpms[retVal]=entry.bpm;
+		datesAdded[retVal]=entry.dateAdded;
+		keys[retVal]=entry.key;
+		fileSizes[retVal]=entry.fileSize;
+		hasMetadata[retVal]=entry.hasMetadata;
+		formats[retVal]=entry.format;
+		bitRates[retVal]=entry.bitRate;
+		sampleRates[retVal]=entry.sampleRate;
+		durationsMillis[retVal]=entry.durationMillis;
+		texts[retVal]=entry.text!=null ? entry.text.clone() : null;
+		return retVal;
+	}
+
+	/**
+	 * This method is used to read a track back out of the table.
+	 * @param index the index of the track.
+	 * @return a new entry holding the track.
+	 */
+	public PlaylistEntry get(int index)
+	{
+		checkIndex(index);
+		PlaylistEntry retVal=new PlaylistEntry();
+		retVal.artist=artists[index];
+		retVal.title=titles[index];
+		retVal.fileLocation=locations[index].getUri();
+		retVal.album=albums[index];
+		retVal.genre=genres[index];
+		retVal.seconds=seconds[index];
+		retVal.trackNumber=trackNumbers[index];
+		retVal.bpm=bpms[index];
+		retVal.dateAdded=datesAdded[index];
+		retVal.key=keys[index];
+		retVal.fileSize=fileSizes[index];
+		retVal.hasMetadata=hasMetadata[index];
+		retVal.format=formats[index];
+		retVal.bitRate=bitRates[index];
+		retVal.sampleRate=sampleRates[index];
+		retVal.durationMillis=durationsMillis[index];
+		retVal.text=texts[index];
+		return retVal;
+	}
+
+	public PathStore.Location getLocation(int index)
+	{
+		checkIndex(index);
+		return locations[index];
+	}
+
+	/**
+	 * @return the store the locations of the tracks are held in.
+	 */
+	public PathStore getPaths()
+	{
+		return paths;
+	}
+
+	public String getGenre(int index)
+	{
+		checkIndex(index);
+		return genres[index];
+	}
+
+	/**
+	 * @return the BPM of the track in hundredths, or {@link PlaylistEntry#NONE}.
+	 */
+	public int getBpm(int index)
+	{
+		checkIndex(index);
+		return bpms[index];
+	}
+
+	/**
+	 * @return the {@link MusicalKey} spelling code of the track.
+	 */
+	public byte getKey(int index)
+	{
+		checkIndex(index);
+		return keys[index];
+	}
+
+	/**
+	 * @return the day since the epoch the track was added, or {@link PlaylistEntry#NONE}.
+	 */
+	public int getDateAdded(int index)
+	{
+		checkIndex(index);
+		return datesAdded[index];
+	}
+
+	protected void checkIndex(int index)
+	{
+		if(index<0 || index>=size)
+		{
+			throw new IndexOutOfBoundsException("Track "+index+" of "+size);
+		}
+	}
+
+	protected void grow()
+	{
+		int capacity=seconds.length+(seconds.length>>1);
+		artists=Arrays.copyOf(artists, capacity);
+		titles=Arrays.copyOf(titles, capacity);
+		locations=Arrays.copyOf(locations, capacity);
+		albums=Arrays.copyOf(albums, capacity);
+		genres=Arrays.copyOf(genres, capacity);
+		seconds=Arrays.copyOf(seconds, capacity);
+		trackNumbers=Arrays.copyOf(trackNumbers, capacity);
+		bpms=Arrays.copyOf(bpms, capacity);
+		datesAdded=Arrays.copyOf(datesAdded, capacity);
+		keys=Arrays.copyOf(keys, capacity);
+		fileSizes=Arrays.copyOf(fileSizes, capacity);
+		hasMetadata=Arrays.copyOf(hasMetadata, capacity);
+		formats=Arrays.copyOf(formats, capacity);
+		bitRates=Arrays.copyOf(bitRates, capacity);
+		sampleRates=Arrays.copyOf(sampleRates, capacity);
+		durationsMillis=Arrays.copyOf(durationsMillis, capacity);
+		texts=Arrays.copyOf(texts, capacity);
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class is used to find the tracks in a {@link TrackTable} that meet a {@link TrackQuery} without looking at every
+ * track.
+ * <br/><br/>
+ * The indices are built once for the table and any number of queries are then answered from them.  The BPM and date
+ * added columns are each held sorted alongside the track they came from, so a range is found with two binary searches.
+ * The keys and genres are held as a {@link BitSet} of the tracks per key and per distinct genre, so a key matches the
+ * union of the sets of its compatible keys and a genre search only looks at each distinct genre once.  The matches for
+ * each criterion are intersected to give the result.
+ *
+ * @author Les Carter
+ */
+public class TrackTableIndex
+{
+	protected final TrackTable tracks;
+	protected final int[] bpms;
+	protected final int[] bpmTracks;
+	protected final int[] datesAdded;
+	protected final int[] dateAddedTracks;
+	protected final BitSet[] keyTracks=new BitSet[MusicalKey.values().length];
+	protected final HashMap<String, BitSet> genreTracks=new HashMap<String, BitSet>();
+
+	/**
+	 * @param tracks the tracks to index, which shouldn't be added to afterwards.
+	 */
+	public TrackTableIndex(TrackTable tracks)
+	{
+		super();
+		this.tracks=tracks;
+		int size=tracks.size();
+		long[] bpmOrder=new long[size];
+		long[] dateAddedOrder=new long[size];
+		int bpmCount=0;
+		int dateAddedCount=0;
+		for(int i=0;i<keyTracks.length;i++)
+		{
+			keyTracks[i]=new BitSet(size);
+		}
+		for(int i=0;i<size;i++)
+		{
+			int bpm=tracks.getBpm(i);
+			if(bpm!=TrackQuery.NONE)
+			{
+				bpmOrder[bpmCount++]=pack(bpm, i);
+			}
+			int dateAdded=tracks.getDateAdded(i);
+			if(dateAdded!=TrackQuery.NONE)
+			{
+				dateAddedOrder[dateAddedCount++]=pack(dateAdded, i);
+			}
+			MusicalKey key=MusicalKey.valueOf(tracks.getKey(i));
+			if(key!=null)
+			{
+				keyTracks[key.ordinal()].set(i);
+			}
+			String genre=tracks.getGenre(i);
+			if(genre!=null && !genre.isEmpty())
+			{
+				genre=genre.toLowerCase(Locale.ROOT);
+				BitSet genreSet=genreTracks.get(genre);
+				if(genreSet==null)
+				{
+					genreSet=new BitSet(size);
+					genreTracks.put(genre, genreSet);
+				}
+				genreSet.set(i);
+			}
+		}
+
+		bpms=new int[bpmCount];
+		bpmTracks=new int[bpmCount];
+		unpack(bpmOrder, bpmCount, bpms, bpmTracks);
+		datesAdded=new int[dateAddedCount];
+		dateAddedTracks=new int[dateAddedCount];
+		unpack(dateAddedOrder, dateAddedCount, datesAdded, dateAddedTracks);
+	}
+
+	/**
+	 * @return the tracks that were indexed.
+	 */
+	public TrackTable getTracks()
+	{
+		return tracks;
+	}
+
+	/**
+	 * This method is used to find the tracks that meet every criterion of a query.
+	 * @param query the query.
+	 * @return the indices in the table of the matching tracks.
+	 */
+	public BitSet select(TrackQuery query)
+	{
+		BitSet retVal=new BitSet(tracks.size());
+		retVal.set(0, tracks.size());
+		if(query.hasBpm())
+		{
+			retVal.and(range(bpms, bpmTracks, query.getMinBpm(), query.getMaxBpm()));
+		}
+		if(query.hasDateAdded())
+		{
+			retVal.and(range(datesAdded, dateAddedTracks, query.getMinDateAdded(), query.getMaxDateAdded()));
+		}
+		if(query.getKey()!=null)
+		{
+			BitSet compatible=new BitSet(tracks.size());
+			for(MusicalKey key : query.getKey().getCompatible())
+			{
+				compatible.or(keyTracks[key.ordinal()]);
+			}
+			retVal.and(compatible);
+		}
+		if(query.getGenre()!=null)
+		{
+			BitSet genres=new BitSet(tracks.size());
+			for(Map.Entry<String, BitSet> genre : genreTracks.entrySet())
+			{
+				if(genre.getKey().contains(query.getGenre()))
+				{
+					genres.or(genre.getValue());
+				}
+			}
+			retVal.and(genres);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param values a column sorted in ascending order.
+	 * @param valueTracks the track each value came from.
+	 * @param min the lowest value to include, or {@link TrackQuery#NONE} for no lower limit.
+	 * @param max the highest value to include, or {@link TrackQuery#NONE} for no upper limit.
+	 * @return the tracks with a value in the range.
+	 */
+	protected BitSet range(int[] values, int[] valueTracks, int min, int max)
+	{
+		BitSet retVal=new BitSet(tracks.size());
+		int from=min!=TrackQuery.NONE ? firstAtLeast(values, min) : 0;
+		int to=max!=TrackQuery.NONE ? firstAtLeast(values, max==Integer.MAX_VALUE ? max : max+1) : values.length;
+		for(int i=from;i<to;i++)
+		{
+			retVal.set(valueTracks[i]);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param values a column sorted in ascending order.
+	 * @param value the value to look for.
+	 * @return the index of the first value that is at least the value given, or the length of the column.
+	 */
+	protected static int firstAtLeast(int[] values, int value)
+	{
+		int low=0;
+		int high=values.length;
+		while(low<high)
+		{
+			int middle=(low+high)>>>1;
+			if(values[middle]<value)
+			{
+				low=middle+1;
+			}
+			else
+			{
+				high=middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the value in the top half and the track in the bottom half, so sorting orders by value then track.
+	 */
+	protected static long pack(int value, int track)
+	{
+		return ((long)value<<32)|(track&0xFFFFFFFFL);
+	}
+
+	protected static void unpack(long[] packed, int count, int[] values, int[] valueTracks)
+	{
+		Arrays.sort(packed, 0, count);
+		for(int i=0;i<count;i++)
+		{
+			values[i]=(int)(packed[i]>>32);
+			valueTracks[i]=(int)packed[i];
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * 
+ */
+package com.lescarter;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to write playlists in the JSON format used by Tribe XR.  Each thread keeps its own 
+ * {@link TribeJSONWriter} so the buffers are reused from one playlist to the next.  The locations of the tracks are 
+ * looked up in a {@link PathStore}, so each unique location is only decoded once however many playlists it's in.
+ * 
+ * @author Les Carter
+ */
+public class TribeJSONSink implements PlaylistSink
+{
+	protected static final ThreadLocal<TribeJSONWriter> writers=new ThreadLocal<TribeJSONWriter>() {
+		@Override
+		protected TribeJSONWriter initialValue()
+		{
+			return new TribeJSONWriter();
+		}
+	};
+	
+	protected final PathStore paths;
+	
+	public TribeJSONSink()
+	{
+		this(new PathStore());
+	}
+	
+	/**
+	 * @param paths the store the locations of the tracks are looked up in, shared with the rest of the conversion.
+	 */
+	public TribeJSONSink(PathStore paths)
+	{
+		super();
+		this.paths=paths;
+	}
+	
+	@Override
+	public String getFormat()
+	{
+		return "JSON";
+	}
+	
+	@Override
+	public boolean isTxtRequired()
+	{
+		return false;
+	}
+	
+	@Override
+	public String getFilename(String playlistName, String destDir)
+	{
+		return destDir+File.separator+playlistName+PlaylistGenerator.STR_JSON_FILE_EXTENSION;
+	}
+	
+	@Override
+	public String write(String playlistName, List<PlaylistEntry> entries, String destDir) throws Exception
+	{
+		String jsonFilename=getFilename(playlistName, destDir);
+		
+		//Create JSON file
+		TribeJSONWriter writer=writers.get();
+		writer.open(FileChannel.open(Paths.get(jsonFilename), 
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+		try {
+			writer.writeStartPlaylist(playlistName);
+			
+			//Iterate through the tracks, the location is only decoded the first time it's stored
+			for(PlaylistEntry entry : entries)
+			{
+				writer.writeTrack(entry.title, paths.intern(entry.fileLocation));
+			}
+			
+			//Wrap it up
+			writer.writeEndPlaylist();
+		}
+		finally
+		{
+			writer.close();
+		}
+		return jsonFilename;
+	}
+}
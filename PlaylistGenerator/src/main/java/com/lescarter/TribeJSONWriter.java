@@ -0,0 +1,302 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is used to stream a playlist out in the JSON format used by Tribe XR.
+ * <br/><br/>
+ * Text is gathered in a char buffer, encoded as UTF-8 into a byte buffer and written to the channel whenever the buffers
+ * fill up, so no intermediate strings are built per track.  The buffers are kept between playlists, call
+ * {@link #open(WritableByteChannel)} to reuse a writer for the next one.  All strings are escaped so that quotes,
+ * backslashes and control characters in track names can't break the file.
+ *
+ * @author Les Carter
+ */
+public class TribeJSONWriter implements Closeable
+{
+	public static final int BUFFER_SIZE=64*1024;
+
+	protected final char[] chars=new char[BUFFER_SIZE/4];
+	protected final CharBuffer charBuffer=CharBuffer.wrap(chars);
+	protected final ByteBuffer byteBuffer=ByteBuffer.allocateDirect(BUFFER_SIZE);
+	protected final CharsetEncoder encoder=StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	protected WritableByteChannel channel;
+	protected int position=0;
+	protected boolean isFirstTrack=true;
+
+	public TribeJSONWriter()
+	{
+		super();
+	}
+
+	/**
+	 * @param channel the channel to write the playlist to.
+	 */
+	public TribeJSONWriter(WritableByteChannel channel)
+	{
+		this();
+		open(channel);
+	}
+
+	/**
+	 * Points this writer at a new channel, reusing its buffers.
+	 * @param channel the channel to write the playlist to.
+	 */
+	public void open(WritableByteChannel channel)
+	{
+		this.channel=channel;
+		position=0;
+		isFirstTrack=true;
+		encoder.reset();
+		byteBuffer.clear();
+	}
+
+	/**
+	 * Writes the start of the playlist up to the opening of the track list.
+	 * @param name the name of the playlist.
+	 * @throws IOException
+	 */
+	public void writeStartPlaylist(String name) throws IOException
+	{
+		write("{\n\"name\": \"");
+		writeEscaped(name);
+		write(" \",\n\"tracks\": [\n");
+	}
+
+	/**
+	 * Writes a single track.
+	 * @param trackName the title of the track.
+	 * @param filename the filename of the audio file, without the directory.
+	 * @param fullPath the full path to the audio file.
+	 * @throws IOException
+	 */
+	public void writeTrack(String trackName, String filename, String fullPath) throws IOException
+	{
+		writeStartTrack(trackName, filename);
+		writeEscaped(fullPath);
+		writeEndTrack();
+	}
+
+	/**
+	 * Writes a single track from its stored location.  The full path is written as the decoded path of the directory
+	 * followed by the decoded name, so nothing is built to write it.
+	 * @param trackName the title of the track.
+	 * @param location the location of the audio file.
+	 * @throws IOException
+	 */
+	public void writeTrack(String trackName, PathStore.Location location) throws IOException
+	{
+		writeStartTrack(trackName, location.getFilename());
+		writeEscaped(location.getDirectory().getDecodedPath());
+		writeEscaped(location.getDecodedName());
+		writeEndTrack();
+	}
+
+	/**
+	 * Writes a single track from its decoded location.
+	 * @param trackName the title of the track.
+	 * @param fullPath the full path to the audio file, the filename is everything after the last <code>/</code>.
+	 * @throws IOException
+	 */
+	public void writeTrack(String trackName, String fullPath) throws IOException
+	{
+		writeTrack(trackName, fullPath.substring(fullPath.lastIndexOf('/')+1), fullPath);
+	}
+
+	protected void writeStartTrack(String trackName, String filename) throws IOException
+	{
+		write(isFirstTrack ? "{\n\"trackName\": \"" : ",\n{\n\"trackName\": \"");
+		writeEscaped(trackName);
+		write("\",\n\"filename\": \"");
+		writeEscaped(filename);
+		write("\",\n\"fullPath\": \"");
+	}
+
+	protected void writeEndTrack() throws IOException
+	{
+		write("\"\n}\n");
+		isFirstTrack=false;
+	}
+
+	/**
+	 * Writes the end of the track list and the playlist, and flushes everything to the channel.
+	 * @throws IOException
+	 */
+	public void writeEndPlaylist() throws IOException
+	{
+		write("]\n}");
+		flush();
+	}
+
+	/**
+	 * Encodes and writes everything buffered so far to the channel.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException
+	{
+		encode(true);
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(channel!=null)
+		{
+			flush();
+			channel.close();
+			channel=null;
+		}
+	}
+
+	protected void write(String value) throws IOException
+	{
+		int length=value.length();
+		int offset=0;
+		while(offset<length)
+		{
+			if(position==chars.length)
+			{
+				encode(false);
+			}
+			int count=Math.min(length-offset, chars.length-position);
+			value.getChars(offset, offset+count, chars, position);
+			position+=count;
+			offset+=count;
+		}
+	}
+
+	protected void write(char c) throws IOException
+	{
+		if(position==chars.length)
+		{
+			encode(false);
+		}
+		chars[position++]=c;
+	}
+
+	/**
+	 * Writes a string escaped for use inside a JSON string literal.
+	 * @param value the string to write, <code>null</code> is written as an empty string.
+	 * @throws IOException
+	 */
+	protected void writeEscaped(String value) throws IOException
+	{
+		if(value==null)
+		{
+			return;
+		}
+		int length=value.length();
+		for(int i=0;i<length;i++)
+		{
+			char c=value.charAt(i);
+			switch(c)
+			{
+			case '"':
+				write('\\');
+				write('"');
+				break;
+			case '\\':
+				write('\\');
+				write('\\');
+				break;
+			case '\n':
+				write('\\');
+				write('n');
+				break;
+			case '\r':
+				write('\\');
+				write('r');
+				break;
+			case '\t':
+				write('\\');
+				write('t');
+				break;
+			case '\b':
+				write('\\');
+				write('b');
+				break;
+			case '\f':
+				write('\\');
+				write('f');
+				break;
+			default:
+				if(c<0x20)
+				{
+					write("\\u00");
+					write(Character.forDigit(c>>4, 16));
+					write(Character.forDigit(c&0xF, 16));
+				}
+				else
+				{
+					write(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encodes the buffered characters into the byte buffer, writing the byte buffer out whenever it fills up.
+	 * @param isEndOfInput <code>true</code> if no more characters will follow before the next flush.
+	 * @throws IOException
+	 */
+	protected void encode(boolean isEndOfInput) throws IOException
+	{
+		charBuffer.limit(position);
+		charBuffer.position(0);
+		while(true)
+		{
+			CoderResult result=encoder.encode(charBuffer, byteBuffer, false);
+			if(result.isOverflow())
+			{
+				drain();
+				continue;
+			}
+			break;
+		}
+
+		//Keep back a trailing high surrogate until its pair arrives
+		int remaining=charBuffer.remaining();
+		if(remaining>0)
+		{
+			System.arraycopy(chars, charBuffer.position(), chars, 0, remaining);
+		}
+		position=remaining;
+
+		if(isEndOfInput && position>0)
+		{
+			charBuffer.limit(position);
+			charBuffer.position(0);
+			while(encoder.encode(charBuffer, byteBuffer, true).isOverflow())
+			{
+				drain();
+			}
+			position=0;
+			encoder.reset();
+		}
+	}
+
+	protected void drain() throws IOException
+	{
+		byteBuffer.flip();
+		while(byteBuffer.hasRemaining())
+		{
+			channel.write(byteBuffer);
+		}
+		byteBuffer.clear();
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to test that {@link AudioHeader} reads the bit rate, sample rate and length from small audio files
+ * built by the test, holding the headers of each format followed by silence.
+ *
+ * @author Les Carter
+ */
+public class AudioHeaderTest
+{
+	//MPEG 1 layer III, 128kbps, 44.1kHz, stereo, no padding
+	protected static final int MP3_HEADER=0xFFFB9000;
+	protected static final int MP3_FRAME_LENGTH=144*128000/44100;
+
+	@TempDir
+	protected Path dir;
+
+	@Test
+	public void testWav() throws IOException
+	{
+		//2 seconds of 16 bit stereo at 44.1kHz, with an odd sized chunk before the data to be stepped over
+		ByteBuffer buffer=buffer(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(tag("RIFF")).putInt(0).put(tag("WAVE"));
+		wavFormat(buffer);
+		buffer.put(tag("LIST")).putInt(5).put(new byte[6]);
+		buffer.put(tag("data")).putInt(176400*2).put(new byte[176400*2]);
+		AudioHeader header=AudioHeader.read(write("track.wav", buffer));
+		assertSame(AudioFormat.WAV, header.format);
+		assertEquals(1411, header.bitRate);
+		assertEquals(44100, header.sampleRate);
+		assertEquals(2000, header.durationMillis);
+	}
+
+	@Test
+	public void testUnfinishedWav() throws IOException
+	{
+		//A recording that was never finished off has no data size, so the rest of the file is the audio
+		ByteBuffer buffer=buffer(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(tag("RIFF")).putInt(0).put(tag("WAVE"));
+		wavFormat(buffer);
+		buffer.put(tag("data")).putInt(0).put(new byte[176400/2]);
+		AudioHeader header=AudioHeader.read(write("track.wav", buffer));
+		assertEquals(500, header.durationMillis);
+	}
+
+	@Test
+	public void testAiff() throws IOException
+	{
+		ByteBuffer buffer=buffer(ByteOrder.BIG_ENDIAN);
+		buffer.put(tag("FORM")).putInt(0).put(tag("AIFF"));
+		buffer.put(tag("COMM")).putInt(18);
+		//Channels, frames, bits per sample and 44100 as an 80 bit extended
+		buffer.putShort((short)2).putInt(88200).putShort((short)16);
+		buffer.putShort((short)(16383+15)).putLong(44100L<<48);
+		buffer.put(tag("SSND")).putInt(8).put(new byte[8]);
+		AudioHeader header=AudioHeader.read(write("track.aiff", buffer));
+		assertSame(AudioFormat.AIFF, header.format);
+		assertEquals(1411, header.bitRate);
+		assertEquals(44100, header.sampleRate);
+		assertEquals(2000, header.durationMillis);
+	}
+
+	@Test
+	public void testFlac() throws IOException
+	{
+		ByteBuffer buffer=buffer(ByteOrder.BIG_ENDIAN);
+		buffer.put(tag("fLaC"));
+		//STREAMINFO: block and frame sizes, then the sample rate, channels, bits per sample and samples packed together
+		buffer.putInt(34).put(new byte[10]);
+		buffer.putLong(44100L<<44 | 1L<<41 | 15L<<36 | 88200L).put(new byte[16]);
+		//The last block, padding
+		buffer.putInt(0x81000000 | 100).put(new byte[100]);
+		buffer.put(new byte[250000]);
+		AudioHeader header=AudioHeader.read(write("track.flac", buffer));
+		assertSame(AudioFormat.FLAC, header.format);
+		assertEquals(1000, header.bitRate);
+		assertEquals(44100, header.sampleRate);
+		assertEquals(2000, header.durationMillis);
+	}
+
+	@Test
+	public void testMp3() throws IOException
+	{
+		//An ID3v2 tag to step over in front and an ID3v1 tag behind
+		ByteBuffer buffer=buffer(ByteOrder.BIG_ENDIAN);
+		id3(buffer, 100);
+		buffer.put(new byte[100]);
+		for(int i=0;i<100;i++)
+		{
+			mp3Frame(buffer);
+		}
+		buffer.put(tag("TAG")).put(new byte[125]);
+		AudioHeader header=AudioHeader.read(write("track.mp3", buffer));
+		assertSame(AudioFormat.MP3, header.format);
+		assertEquals(128, header.bitRate);
+		assertEquals(44100, header.sampleRate);
+		assertEquals(100*MP3_FRAME_LENGTH*8/128, header.durationMillis);
+	}
+
+	@Test
+	public void testMp3StraySync() throws IOException
+	{
+		//Something between the tag and the audio that looks like a frame header, but isn't followed by a frame
+		ByteBuffer buffer=buffer(ByteOrder.BIG_ENDIAN);
+		id3(buffer, 0);
+		buffer.putInt(MP3_HEADER).put(new byte[MP3_FRAME_LENGTH*2]);
+		for(int i=0;i<10;i++)
+		{
+			mp3Frame(buffer);
+		}
+		AudioHeader header=AudioHeader.read(write("track.mp3", buffer));
+		assertEquals(10*MP3_FRAME_LENGTH*8/128, header.durationMillis);
+	}
+
+	@Test
+	public void testMp3Xing() throws IOException
+	{
+		//A variable bit rate file says how many frames and bytes there are in its first frame
+		ByteBuffer buffer=buffer(ByteOrder.BIG_ENDIAN);
+		int start=buffer.position();
+		mp3Frame(buffer);
+		buffer.position(start+4+32);
+		buffer.put(tag("Xing")).putInt(3).putInt(1000).putInt(500000);
+		buffer.position(start+MP3_FRAME_LENGTH);
+		mp3Frame(buffer);
+		AudioHeader header=AudioHeader.read(write("track.mp3", buffer));
+		assertEquals(1000*1152*1000/44100, header.durationMillis);
+		assertEquals((500000*8+1000*1152*1000/44100/2)/(1000*1152*1000/44100), header.bitRate);
+		assertEquals(44100, header.sampleRate);
+	}
+
+	@Test
+	public void testMp3Info() throws IOException
+	{
+		//A constant bit rate file written by the same encoders says Info, and its bit rate is the frame's
+		ByteBuffer buffer=buffer(ByteOrder.BIG_ENDIAN);
+		int start=buffer.position();
+		mp3Frame(buffer);
+		buffer.position(start+4+32);
+		buffer.put(tag("Info")).putInt(1).putInt(500);
+		buffer.position(start+MP3_FRAME_LENGTH);
+		mp3Frame(buffer);
+		AudioHeader header=AudioHeader.read(write("track.mp3", buffer));
+		assertEquals(500*1152*1000/44100, header.durationMillis);
+		assertEquals(128, header.bitRate);
+	}
+
+	@Test
+	public void testContentOverExtension() throws IOException
+	{
+		//A WAV with the wrong extension is still read as a WAV
+		ByteBuffer buffer=buffer(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(tag("RIFF")).putInt(0).put(tag("WAVE"));
+		wavFormat(buffer);
+		buffer.put(tag("data")).putInt(176400).put(new byte[176400]);
+		AudioHeader header=AudioHeader.read(write("track.mp3", buffer));
+		assertSame(AudioFormat.WAV, header.format);
+		assertEquals(1000, header.durationMillis);
+	}
+
+	@Test
+	public void testUnknown() throws IOException
+	{
+		ByteBuffer buffer=buffer(ByteOrder.BIG_ENDIAN);
+		buffer.put("Not audio at all, just some text".getBytes(StandardCharsets.US_ASCII));
+		AudioHeader header=AudioHeader.read(write("track.txt", buffer));
+		assertNull(header.format);
+		assertFalse(header.isKnown());
+
+		//Known by its extension, but its headers aren't read
+		header=AudioHeader.read(write("track.m4a", buffer));
+		assertSame(AudioFormat.M4A, header.format);
+		assertFalse(header.isKnown());
+		assertEquals(PlaylistEntry.NONE, header.bitRate);
+
+		//Too short to hold any headers
+		buffer=buffer(ByteOrder.BIG_ENDIAN);
+		buffer.put(tag("RIFF"));
+		header=AudioHeader.read(write("short.wav", buffer));
+		assertFalse(header.isKnown());
+	}
+
+	protected static ByteBuffer buffer(ByteOrder order)
+	{
+		return ByteBuffer.allocate(1024*1024).order(order);
+	}
+
+	protected static byte[] tag(String tag)
+	{
+		return tag.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	protected static void wavFormat(ByteBuffer buffer)
+	{
+		//PCM, stereo, 44.1kHz, bytes per second, bytes per frame, bits per sample
+		buffer.put(tag("fmt ")).putInt(16);
+		buffer.putShort((short)1).putShort((short)2).putInt(44100).putInt(176400).putShort((short)4).putShort((short)16);
+	}
+
+	/**
+	 * Writes the header of an ID3v2 tag, the caller writes the body.
+	 */
+	protected static void id3(ByteBuffer buffer, int size)
+	{
+		buffer.put(tag("ID3")).put((byte)4).put((byte)0).put((byte)0);
+		buffer.put((byte)(size>>21 & 0x7F)).put((byte)(size>>14 & 0x7F)).put((byte)(size>>7 & 0x7F)).put((byte)(size & 0x7F));
+	}
+
+	protected static void mp3Frame(ByteBuffer buffer)
+	{
+		byte[] frame=new byte[MP3_FRAME_LENGTH];
+		Arrays.fill(frame, (byte)0x55);
+		ByteBuffer.wrap(frame).putInt(MP3_HEADER);
+		buffer.put(frame);
+	}
+
+	protected Path write(String filename, ByteBuffer buffer) throws IOException
+	{
+		byte[] bytes=Arrays.copyOf(buffer.array(), buffer.position());
+		return Files.write(dir.resolve(filename), bytes);
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to test that {@link MappedPlaylistParser} reads the files exported from Rekordbox the same way as
+ * the reader of {@link PlaylistGenerator}, whatever the line endings, byte order mark and encoding of the files.
+ *
+ * @author Les Carter
+ */
+public class MappedPlaylistParserTest
+{
+	protected static final String STR_M3U8="#EXTM3U\n"
+			+ "#EXTINF:312,Artist One - Title One\n"
+			+ "/music/Artist One/Title One.mp3\n"
+			+ "#EXTINF:245,Artist Two - Title - With A Dash\n"
+			+ "/music/Artist Two/Title Two (Extended Mix).mp3\n"
+			+ "#EXTINF:0,Artist Three - Title Three\n"
+			+ "/music/Artist Three/Title Three.mp3\n";
+	protected static final String STR_TXT="#\tArtwork\tTrack Title\tArtist\tAlbum\tGenre\tBPM\tRating\tTime\tKey\tDate Added\n"
+			+ "1\t\tTitle One\tArtist One\tAlbum One\tDeep House\t122.00\t\t05:12\tGm\t2020-07-30\n"
+			+ "\n"
+			+ "2\t\tTitle Two\tArtist Two\tAlbum Two\tTech House\t124.50\t\t04:05\t8A\t2019-01-02\n"
+			+ "3\t\tTitle Three\tArtist Three\t\t\tn/a\t\t00:00\tH#\tsometime\n";
+
+	@TempDir
+	protected Path dir;
+
+	@Test
+	public void testSameAsReader() throws IOException
+	{
+		assertSameAsReader(STR_M3U8, STR_TXT);
+	}
+
+	@Test
+	public void testCRLF() throws IOException
+	{
+		assertSameAsReader(STR_M3U8.replace("\n", "\r\n"), STR_TXT.replace("\n", "\r\n"));
+	}
+
+	@Test
+	public void testCR() throws IOException
+	{
+		assertSameAsReader(STR_M3U8.replace("\n", "\r"), STR_TXT.replace("\n", "\r"));
+	}
+
+	@Test
+	public void testNoFinalLineEnd() throws IOException
+	{
+		assertSameAsReader(STR_M3U8.trim(), STR_TXT.trim());
+	}
+
+	@Test
+	public void testByteOrderMark() throws IOException
+	{
+		//The reader keeps the mark on the first line, which is never a track or a row so it makes no difference
+		Path m3u8=write("bom.m3u8", STR_M3U8, StandardCharsets.UTF_8, true);
+		Path txt=write("bom.txt", STR_TXT, StandardCharsets.UTF_8, true);
+		assertSameEntries(parseWithReader(write("plain.m3u8", STR_M3U8), write("plain.txt", STR_TXT)), parse(m3u8, txt));
+	}
+
+	@Test
+	public void testUTF16() throws IOException
+	{
+		String m3u8="#EXTM3U\r\n#EXTINF:200,\u00C9milie Simon - \u00C0 l'ombre \uD83C\uDFB5\r\n/music/\u00C9milie Simon/ombre.mp3\r\n";
+		String txt="#\tArtwork\tTrack Title\tArtist\tAlbum\tGenre\tBPM\tRating\tTime\tKey\tDate Added\r\n"
+				+ "1\t\t\u00C0 l'ombre \uD83C\uDFB5\t\u00C9milie Simon\tFran\u00E7ais\t\u00C9lectro\t98.00\t\t03:20\tF#m\t2021-03-04\r\n";
+		ArrayList<PlaylistEntry> expected=parse(write("utf8.m3u8", m3u8, StandardCharsets.UTF_8, true),
+				write("utf8.txt", txt, StandardCharsets.UTF_8, true));
+		assertEquals(1, expected.size());
+		PlaylistEntry entry=expected.get(0);
+		assertEquals("\u00C9milie Simon", entry.artist);
+		assertEquals("\u00C0 l'ombre \uD83C\uDFB5", entry.title);
+		assertEquals(new File("/music/\u00C9milie Simon/ombre.mp3").toURI().toString(), entry.fileLocation);
+		assertEquals("Fran\u00E7ais", entry.album);
+		assertEquals("\u00C9lectro", entry.genre);
+		assertEquals("98.00", entry.getBpmText());
+		assertEquals("F#m", entry.getKeyText());
+		assertEquals("2021-03-04", entry.getDateAddedText());
+
+		assertSameEntries(expected, parse(write("le.m3u8", m3u8, StandardCharsets.UTF_16LE, true),
+				write("le.txt", txt, StandardCharsets.UTF_16LE, true)));
+		assertSameEntries(expected, parse(write("be.m3u8", m3u8, StandardCharsets.UTF_16BE, true),
+				write("be.txt", txt, StandardCharsets.UTF_16BE, true)));
+	}
+
+	@Test
+	public void testShortTxt() throws IOException
+	{
+		//Only the first track has a row, the rest are left without metadata rather than failing
+		String txt=STR_TXT.substring(0, STR_TXT.indexOf("\n\n")+1);
+		ArrayList<PlaylistEntry> entries=parse(write("short.m3u8", STR_M3U8), write("short.txt", txt));
+		assertEquals(3, entries.size());
+		assertTrue(entries.get(0).hasMetadata);
+		assertEquals("Album One", entries.get(0).album);
+		assertFalse(entries.get(1).hasMetadata);
+		assertEquals("", entries.get(1).album);
+		assertFalse(entries.get(2).hasMetadata);
+	}
+
+	@Test
+	public void testShortRow() throws IOException
+	{
+		//A row missing its last columns leaves them empty
+		String txt="#\tArtwork\tTrack Title\tArtist\tAlbum\tGenre\tBPM\n1\t\tTitle One\tArtist One\tAlbum One\tDeep House\t122.00\n";
+		ArrayList<PlaylistEntry> entries=parse(write("row.m3u8", STR_M3U8), write("row.txt", txt));
+		assertEquals("Deep House", entries.get(0).genre);
+		assertEquals("122.00", entries.get(0).getBpmText());
+		assertEquals("", entries.get(0).getKeyText());
+		assertEquals("", entries.get(0).getDateAddedText());
+	}
+
+	@Test
+	public void testMapped() throws IOException
+	{
+		//Big enough to be mapped rather than read
+		StringBuilder m3u8=new StringBuilder("#EXTM3U\n");
+		for(int i=0;m3u8.length()<MappedPlaylistParser.MAP_THRESHOLD;i++)
+		{
+			m3u8.append("#EXTINF:").append(i%600).append(",Artist ").append(i).append(" - Title ").append(i).append('\n');
+			m3u8.append("/music/Artist ").append(i).append("/Title ").append(i).append(".mp3\n");
+		}
+		Path file=write("big.m3u8", m3u8.toString());
+		assertSameEntries(new PlaylistGenerator().parsem3u8(file), new MappedPlaylistParser(new PlaylistGenerator()).parsem3u8(file));
+	}
+
+	@Test
+	public void testMissingSeparator() throws IOException
+	{
+		final Path file=write("bad.m3u8", "#EXTM3U\n#EXTINF:100,A - B\n/x/a.mp3\n#EXTINF:oops\n/x/b.mp3\n");
+		PlaylistFormatException e=assertThrows(PlaylistFormatException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable
+			{
+				new MappedPlaylistParser(new PlaylistGenerator()).parsem3u8(file);
+			}
+		});
+		assertEquals(4, e.getLineNumber());
+		assertEquals(file.toString(), e.getSource());
+	}
+
+	protected void assertSameAsReader(String m3u8, String txt) throws IOException
+	{
+		Path m3u8File=write("playlist.m3u8", m3u8);
+		Path txtFile=write("playlist.txt", txt);
+		assertSameEntries(parseWithReader(m3u8File, txtFile), parse(m3u8File, txtFile));
+	}
+
+	protected ArrayList<PlaylistEntry> parseWithReader(Path m3u8, Path txt) throws IOException
+	{
+		PlaylistGenerator generator=new PlaylistGenerator();
+		ArrayList<PlaylistEntry> retVal=generator.parsem3u8(m3u8);
+		generator.parseKTxt(txt, retVal);
+		return retVal;
+	}
+
+	protected ArrayList<PlaylistEntry> parse(Path m3u8, Path txt) throws IOException
+	{
+		MappedPlaylistParser parser=new MappedPlaylistParser(new PlaylistGenerator());
+		ArrayList<PlaylistEntry> retVal=parser.parsem3u8(m3u8);
+		parser.parseKTxt(txt, retVal);
+		return retVal;
+	}
+
+	protected Path write(String filename, String content) throws IOException
+	{
+		//The reader uses the platform charset, so the content is ASCII and reads the same either way
+		return write(filename, content, Charset.defaultCharset(), false);
+	}
+
+	protected Path write(String filename, String content, Charset charset, boolean isByteOrderMark) throws IOException
+	{
+		return Files.write(dir.resolve(filename), (isByteOrderMark ? "\uFEFF"+content : content).getBytes(charset));
+	}
+
+	protected static void assertSameEntries(ArrayList<PlaylistEntry> expected, ArrayList<PlaylistEntry> actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		for(int i=0;i<expected.size();i++)
+		{
+			assertSameEntry(expected.get(i), actual.get(i));
+		}
+	}
+
+	protected static void assertSameEntry(PlaylistEntry expected, PlaylistEntry actual)
+	{
+		assertEquals(expected.getDurationText(), actual.getDurationText());
+		assertEquals(expected.artist, actual.artist);
+		assertEquals(expected.title, actual.title);
+		assertEquals(expected.fileLocation, actual.fileLocation);
+		assertEquals(expected.getTrackNumberText(), actual.getTrackNumberText());
+		assertEquals(expected.album, actual.album);
+		assertEquals(expected.genre, actual.genre);
+		assertEquals(expected.getBpmText(), actual.getBpmText());
+		assertEquals(expected.getKeyText(), actual.getKeyText());
+		assertEquals(expected.getDateAddedText(), actual.getDateAddedText());
+		assertEquals(expected.hasMetadata, actual.hasMetadata);
+	}
+}
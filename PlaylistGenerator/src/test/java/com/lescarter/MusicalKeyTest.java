@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to test that {@link MusicalKey} recognises a key in every notation Rekordbox can write it in, and
+ * gives it back exactly as it was written.
+ *
+ * @author Les Carter
+ */
+public class MusicalKeyTest
+{
+	@ParameterizedTest
+	@CsvSource({
+		"A_FLAT_MINOR, Abm, G#m, 1A, 6m",
+		"E_FLAT_MINOR, Ebm, D#m, 2A, 7m",
+		"B_FLAT_MINOR, Bbm, A#m, 3A, 8m",
+		"F_MINOR, Fm, Fm, 4A, 9m",
+		"C_MINOR, Cm, Cm, 5A, 10m",
+		"G_MINOR, Gm, Gm, 6A, 11m",
+		"D_MINOR, Dm, Dm, 7A, 12m",
+		"A_MINOR, Am, Am, 8A, 1m",
+		"E_MINOR, Em, Em, 9A, 2m",
+		"B_MINOR, Bm, Bm, 10A, 3m",
+		"F_SHARP_MINOR, Gbm, F#m, 11A, 4m",
+		"D_FLAT_MINOR, Dbm, C#m, 12A, 5m",
+		"B_MAJOR, B, B, 1B, 6d",
+		"F_SHARP_MAJOR, Gb, F#, 2B, 7d",
+		"D_FLAT_MAJOR, Db, C#, 3B, 8d",
+		"A_FLAT_MAJOR, Ab, G#, 4B, 9d",
+		"E_FLAT_MAJOR, Eb, D#, 5B, 10d",
+		"B_FLAT_MAJOR, Bb, A#, 6B, 11d",
+		"F_MAJOR, F, F, 7B, 12d",
+		"C_MAJOR, C, C, 8B, 1d",
+		"G_MAJOR, G, G, 9B, 2d",
+		"D_MAJOR, D, D, 10B, 3d",
+		"A_MAJOR, A, A, 11B, 4d",
+		"E_MAJOR, E, E, 12B, 5d"
+	})
+	public void testNotations(String name, String flat, String sharp, String camelot, String openKey)
+	{
+		MusicalKey key=MusicalKey.valueOf(name);
+		assertEquals(camelot, key.getCamelot());
+		assertEquals(openKey, key.getOpenKey());
+		for(String spelling : new String[] {flat, sharp, camelot, openKey})
+		{
+			byte code=MusicalKey.parse(spelling);
+			assertTrue(code>MusicalKey.NONE, spelling);
+			assertSame(key, MusicalKey.valueOf(code));
+			assertEquals(spelling, MusicalKey.getSpelling(code));
+		}
+	}
+
+	@Test
+	public void testCodes()
+	{
+		//Every spelling has its own code, so the way it was written is never lost
+		HashSet<Byte> codes=new HashSet<Byte>();
+		for(int i=1;i<MusicalKey.SPELLINGS.length;i++)
+		{
+			assertTrue(codes.add(Byte.valueOf(MusicalKey.parse(MusicalKey.SPELLINGS[i]))), MusicalKey.SPELLINGS[i]);
+		}
+		assertTrue(MusicalKey.SPELLINGS.length<=Byte.MAX_VALUE);
+	}
+
+	@Test
+	public void testNone()
+	{
+		assertEquals(MusicalKey.NONE, MusicalKey.parse(""));
+		assertEquals(MusicalKey.NONE, MusicalKey.parse(null));
+		assertEquals("", MusicalKey.getSpelling(MusicalKey.NONE));
+		assertNull(MusicalKey.valueOf(MusicalKey.NONE));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings={"am", "H", "13A", "0B", "1x", "A minor", " Am"})
+	public void testUnknown(String text)
+	{
+		assertEquals(-1, MusicalKey.parse(text));
+		assertEquals("", MusicalKey.getSpelling((byte)-1));
+		assertNull(MusicalKey.valueOf((byte)-1));
+
+		//An entry keeps a key it doesn't recognise as it was written
+		PlaylistEntry entry=new PlaylistEntry();
+		entry.setKey(text);
+		assertEquals(text, entry.getKeyText());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings={"Am", "A#m", "Bbm", "8A", "1m", "12B", "5d", "Db", "C#"})
+	public void testEntry(String text)
+	{
+		PlaylistEntry entry=new PlaylistEntry();
+		entry.setKey(text);
+		assertEquals(MusicalKey.parse(text), entry.key);
+		assertEquals(text, entry.getKeyText());
+	}
+
+	@Test
+	public void testCompatible()
+	{
+		assertArrayEquals(new MusicalKey[] {MusicalKey.A_MINOR, MusicalKey.D_MINOR, MusicalKey.E_MINOR, MusicalKey.C_MAJOR},
+				MusicalKey.A_MINOR.getCompatible());
+		//Wraps around the wheel
+		assertArrayEquals(new MusicalKey[] {MusicalKey.A_FLAT_MINOR, MusicalKey.D_FLAT_MINOR, MusicalKey.E_FLAT_MINOR, MusicalKey.B_MAJOR},
+				MusicalKey.A_FLAT_MINOR.getCompatible());
+		assertArrayEquals(new MusicalKey[] {MusicalKey.E_MAJOR, MusicalKey.A_MAJOR, MusicalKey.B_MAJOR, MusicalKey.D_FLAT_MINOR},
+				MusicalKey.E_MAJOR.getCompatible());
+	}
+}
@@ -0,0 +1,261 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to test that {@link PlaylistSpliterator} gives the same entries, in the same order, however the
+ * playlist is split, as {@link MappedPlaylistParser} does reading the whole playlist.
+ *
+ * @author Les Carter
+ */
+public class PlaylistSpliteratorTest
+{
+	protected static final int TRACKS=1000;
+
+	@TempDir
+	protected Path dir;
+
+	@Test
+	public void testSameAsParser() throws IOException
+	{
+		List<PlaylistEntry> entries=traverse(spliterator(m3u8(TRACKS), txt(TRACKS)));
+		MappedPlaylistParserTest.assertSameEntries(parse(m3u8(TRACKS), txt(TRACKS)), new ArrayList<PlaylistEntry>(entries));
+	}
+
+	@Test
+	public void testSplitOrder() throws IOException
+	{
+		PlaylistSpliterator whole=spliterator(m3u8(TRACKS), txt(TRACKS));
+		ArrayList<PlaylistEntry> expected=new ArrayList<PlaylistEntry>(traverse(whole));
+
+		//Split all the way down, the prefix is always the part returned
+		ArrayList<PlaylistEntry> entries=new ArrayList<PlaylistEntry>();
+		splitAndTraverse(spliterator(m3u8(TRACKS), txt(TRACKS)), entries);
+		MappedPlaylistParserTest.assertSameEntries(expected, entries);
+		for(int i=0;i<TRACKS;i++)
+		{
+			assertEquals("Title "+i, entries.get(i).title);
+			assertEquals(Integer.toString(i+1), entries.get(i).getTrackNumberText());
+		}
+	}
+
+	@Test
+	public void testSplitSizes() throws IOException
+	{
+		PlaylistSpliterator spliterator=spliterator(m3u8(TRACKS), txt(TRACKS));
+		assertEquals(TRACKS, spliterator.estimateSize());
+		assertEquals(TRACKS, spliterator.getExactSizeIfKnown());
+		assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+		Spliterator<PlaylistEntry> prefix=spliterator.trySplit();
+		assertEquals(TRACKS/2, prefix.estimateSize());
+		assertEquals(TRACKS-TRACKS/2, spliterator.estimateSize());
+
+		//Part way through, only what's left is split
+		spliterator.tryAdvance(new Consumer<PlaylistEntry>() {
+			@Override
+			public void accept(PlaylistEntry entry)
+			{
+				assertEquals("Title "+TRACKS/2, entry.title);
+			}
+		});
+		Spliterator<PlaylistEntry> middle=spliterator.trySplit();
+		assertEquals((TRACKS/2-1)/2, middle.estimateSize());
+		assertEquals(TRACKS/2-1-(TRACKS/2-1)/2, spliterator.estimateSize());
+	}
+
+	@Test
+	public void testSplitSmall() throws IOException
+	{
+		assertNull(spliterator(m3u8(0), txt(0)).trySplit());
+		assertNull(spliterator(m3u8(1), txt(1)).trySplit());
+		PlaylistSpliterator spliterator=spliterator(m3u8(2), txt(2));
+		assertEquals(1, spliterator.trySplit().estimateSize());
+		assertNull(spliterator.trySplit());
+	}
+
+	@Test
+	public void testParallel() throws IOException
+	{
+		List<PlaylistEntry> expected=traverse(spliterator(m3u8(TRACKS), txt(TRACKS)));
+		List<PlaylistEntry> entries=new PlaylistReader().read("parallel.m3u8", buffer(m3u8(TRACKS)), buffer(txt(TRACKS)))
+				.parallel().collect(Collectors.<PlaylistEntry>toList());
+		MappedPlaylistParserTest.assertSameEntries(new ArrayList<PlaylistEntry>(expected), new ArrayList<PlaylistEntry>(entries));
+	}
+
+	@Test
+	public void testShortTxt() throws IOException
+	{
+		//The rows run out part way through, wherever the playlist is split
+		ArrayList<PlaylistEntry> entries=new ArrayList<PlaylistEntry>();
+		splitAndTraverse(spliterator(m3u8(TRACKS), txt(TRACKS/3)), entries);
+		assertEquals(TRACKS, entries.size());
+		for(int i=0;i<TRACKS;i++)
+		{
+			assertEquals(i<TRACKS/3, entries.get(i).hasMetadata, entries.get(i).title);
+		}
+	}
+
+	@Test
+	public void testNoTxt() throws IOException
+	{
+		//The track number is the position in the playlist
+		ArrayList<PlaylistEntry> entries=new ArrayList<PlaylistEntry>();
+		splitAndTraverse(spliterator(m3u8(TRACKS), null), entries);
+		assertEquals(TRACKS, entries.size());
+		for(int i=0;i<TRACKS;i++)
+		{
+			assertEquals(i+1, entries.get(i).trackNumber);
+			assertFalse(entries.get(i).hasMetadata);
+		}
+	}
+
+	@Test
+	public void testFormatError() throws IOException
+	{
+		String m3u8=m3u8(10);
+		//Break the 8th track, which is on lines 16 and 17
+		final String broken=m3u8.replace("#EXTINF:307,", "#EXTINF:307");
+		final PlaylistSpliterator spliterator=spliterator(broken, null);
+		UncheckedIOException e=assertThrows(UncheckedIOException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable
+			{
+				traverse(spliterator);
+			}
+		});
+		PlaylistFormatException cause=(PlaylistFormatException)e.getCause();
+		assertEquals("test.m3u8", cause.getSource());
+		assertEquals(16, cause.getLineNumber());
+	}
+
+	@Test
+	public void testRelease() throws IOException
+	{
+		PlaylistSpliterator spliterator=spliterator(m3u8(10), txt(10));
+		Spliterator<PlaylistEntry> prefix=spliterator.trySplit();
+		spliterator.release();
+		assertEquals(0, spliterator.estimateSize());
+		assertFalse(spliterator.tryAdvance(new Consumer<PlaylistEntry>() {
+			@Override
+			public void accept(PlaylistEntry entry)
+			{
+				throw new AssertionError("Released, but still gave "+entry.title);
+			}
+		}));
+		//The other part still has its own hold on the bytes
+		assertEquals(5, traverse(prefix).size());
+	}
+
+	@Test
+	public void testReadFile() throws IOException
+	{
+		Path m3u8=Files.write(dir.resolve("test.m3u8"), m3u8(TRACKS).getBytes(StandardCharsets.UTF_8));
+		Path txt=Files.write(dir.resolve("test.txt"), txt(TRACKS).getBytes(StandardCharsets.UTF_8));
+		List<PlaylistEntry> entries=new PlaylistReader().read(m3u8, txt).collect(Collectors.<PlaylistEntry>toList());
+		MappedPlaylistParserTest.assertSameEntries(parse(m3u8(TRACKS), txt(TRACKS)), new ArrayList<PlaylistEntry>(entries));
+		//Nothing is left holding the files
+		Files.delete(m3u8);
+		Files.delete(txt);
+	}
+
+	protected static String m3u8(int tracks)
+	{
+		StringBuilder retVal=new StringBuilder("#EXTM3U\r\n");
+		for(int i=0;i<tracks;i++)
+		{
+			retVal.append("#EXTINF:").append(300+i%60).append(",Artist ").append(i).append(" - Title ").append(i).append("\r\n");
+			retVal.append("/music/Artist ").append(i).append("/Title ").append(i).append(".mp3\r\n");
+		}
+		return retVal.toString();
+	}
+
+	protected static String txt(int tracks)
+	{
+		StringBuilder retVal=new StringBuilder("#\tArtwork\tTrack Title\tArtist\tAlbum\tGenre\tBPM\tRating\tTime\tKey\tDate Added\r\n");
+		for(int i=0;i<tracks;i++)
+		{
+			retVal.append(i+1).append("\t\tTitle ").append(i).append("\tArtist ").append(i).append("\tAlbum ").append(i/10)
+				.append("\tHouse\t").append(120+i%10).append(".00\t\t05:00\t").append(MusicalKey.values()[i%24].getCamelot())
+				.append("\t2020-07-").append(10+i%20).append("\r\n");
+			if(i%100==0)
+			{
+				//Blank lines are skipped
+				retVal.append("\r\n");
+			}
+		}
+		return retVal.toString();
+	}
+
+	protected static ByteBuffer buffer(String content)
+	{
+		return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	protected static PlaylistSpliterator spliterator(String m3u8, String txt)
+	{
+		return new PlaylistSpliterator(new PlaylistGenerator(), "test.m3u8", buffer(m3u8), txt!=null ? buffer(txt) : null);
+	}
+
+	protected ArrayList<PlaylistEntry> parse(String m3u8, String txt) throws IOException
+	{
+		MappedPlaylistParser parser=new MappedPlaylistParser(new PlaylistGenerator());
+		ArrayList<PlaylistEntry> retVal=parser.parsem3u8(Files.write(dir.resolve("parse.m3u8"), m3u8.getBytes(StandardCharsets.UTF_8)));
+		parser.parseKTxt(Files.write(dir.resolve("parse.txt"), txt.getBytes(StandardCharsets.UTF_8)), retVal);
+		return retVal;
+	}
+
+	protected static List<PlaylistEntry> traverse(Spliterator<PlaylistEntry> spliterator)
+	{
+		final ArrayList<PlaylistEntry> retVal=new ArrayList<PlaylistEntry>();
+		spliterator.forEachRemaining(new Consumer<PlaylistEntry>() {
+			@Override
+			public void accept(PlaylistEntry entry)
+			{
+				retVal.add(entry);
+			}
+		});
+		return retVal;
+	}
+
+	/**
+	 * Splits the spliterator in half until the parts can't be split, traversing the parts in order.
+	 */
+	protected static void splitAndTraverse(Spliterator<PlaylistEntry> spliterator, List<PlaylistEntry> entries)
+	{
+		long size=spliterator.estimateSize();
+		Spliterator<PlaylistEntry> prefix=spliterator.trySplit();
+		if(prefix==null)
+		{
+			entries.addAll(traverse(spliterator));
+			return;
+		}
+		assertEquals(size, prefix.estimateSize()+spliterator.estimateSize());
+		splitAndTraverse(prefix, entries);
+		splitAndTraverse(spliterator, entries);
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to test that {@link StreamingXMLWriter} escapes and lays out the XML the same way as the JAXP
+ * serializer used by {@link RekordboxDocument}.
+ *
+ * @author Les Carter
+ */
+public class StreamingXMLWriterTest
+{
+	protected static final String NL=System.lineSeparator();
+
+	@TempDir
+	protected Path dir;
+
+	@Test
+	public void testMarkup() throws IOException
+	{
+		assertEquals("a&amp;b &lt;c&gt; &quot;d&quot; 'e'", escape("a&b <c> \"d\" 'e'"));
+	}
+
+	@Test
+	public void testControlCharacters() throws IOException
+	{
+		assertEquals("a&#9;b&#10;c&#13;d&#0;e&#31;", escape("a\tb\nc\rd\u0000e\u001F"));
+	}
+
+	@Test
+	public void testNonBMP() throws IOException
+	{
+		//Characters outside the Basic Multilingual Plane are written as a single reference, not one per surrogate
+		assertEquals("&#127925;", escape("\uD83C\uDFB5"));
+		assertEquals("a&#127925;&#128512;b", escape("a\uD83C\uDFB5\uD83D\uDE00b"));
+		//Everything else in the BMP is left for the encoder
+		assertEquals("\u00C9lectro \u00FC\u4E2D", escape("\u00C9lectro \u00FC\u4E2D"));
+	}
+
+	@Test
+	public void testEmpty() throws IOException
+	{
+		assertEquals("", escape(""));
+		assertEquals("", escape(null));
+	}
+
+	@Test
+	public void testLayout() throws IOException
+	{
+		StringWriter out=new StringWriter();
+		StreamingXMLWriter writer=new StreamingXMLWriter(out);
+		writer.writeStartDocument();
+		writer.writeStartElement("ROOT");
+		writer.writeAttribute("b", "2");
+		writer.writeAttribute("a", "1");
+		writer.writeStartElement("CHILD");
+		writer.writeStartElement("LEAF");
+		writer.writeAttribute("Name", "x");
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		assertEquals(StreamingXMLWriter.STR_DECLARATION+NL
+				+ "<ROOT a=\"1\" b=\"2\">"+NL
+				+ "    <CHILD>"+NL
+				+ "        <LEAF Name=\"x\"/>"+NL
+				+ "    </CHILD>"+NL
+				+ "</ROOT>"+NL, out.toString());
+	}
+
+	@Test
+	public void testAttributeOutsideStartTag() throws IOException
+	{
+		final StreamingXMLWriter writer=new StreamingXMLWriter(new StringWriter());
+		writer.writeStartElement("ROOT");
+		writer.writeStartElement("CHILD");
+		writer.writeEndElement();
+		assertThrows(IllegalStateException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable
+			{
+				writer.writeAttribute("a", "1");
+			}
+		});
+	}
+
+	@Test
+	public void testSameAsDOM() throws Exception
+	{
+		ArrayList<PlaylistEntry> entries=new ArrayList<PlaylistEntry>();
+		entries.add(entry(1, "Artist & \"Friends\"", "<Title>\tOne", "/music/a&b/one.mp3"));
+		entries.add(entry(2, "\u00C9milie Simon", "\u00C0 l'ombre \uD83C\uDFB5", "/music/\u00C9milie/ombre.mp3"));
+		entries.add(entry(3, "Line\nBreak", "Control\u0001Char", "/music/c.mp3"));
+		PlaylistGenerator generator=new PlaylistGenerator();
+
+		File dom=dir.resolve("dom.xml").toFile();
+		RekordboxDocument.write(RekordboxDocument.create(generator, "Tricky <Mix> & \uD83D\uDE00", entries), dom.getPath());
+
+		ByteArrayOutputStream streamed=new ByteArrayOutputStream();
+		new RekordboxXMLSink(generator).writeStream(new StreamingXMLWriter(Channels.newChannel(streamed)), "Tricky <Mix> & \uD83D\uDE00", entries);
+
+		assertArrayEquals(Files.readAllBytes(dom.toPath()), streamed.toByteArray());
+	}
+
+	protected static PlaylistEntry entry(int trackNumber, String artist, String title, String path)
+	{
+		PlaylistEntry retVal=new PlaylistEntry("300", artist, title, new File(path).toURI().toString());
+		retVal.setTrackNumber(trackNumber);
+		retVal.album="Album";
+		retVal.genre="Genre";
+		retVal.setBpm("124.00");
+		retVal.setKey("Am");
+		retVal.setDateAdded("2020-07-30");
+		retVal.hasMetadata=true;
+		return retVal;
+	}
+
+	protected static String escape(String value) throws IOException
+	{
+		StringWriter out=new StringWriter();
+		StreamingXMLWriter writer=new StreamingXMLWriter(out);
+		writer.writeEscaped(value);
+		writer.writeEndDocument();
+		return out.toString();
+	}
+}
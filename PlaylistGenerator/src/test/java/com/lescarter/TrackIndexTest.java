@@ -0,0 +1,216 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.lescarter.TrackIndex.Track;
+
+/**
+ * This class is used to test that {@link TrackIndex} gives back what was put in it, across reopening the file and as
+ * the table and the file grow.
+ *
+ * @author Les Carter
+ */
+public class TrackIndexTest
+{
+	@TempDir
+	protected Path dir;
+
+	protected String filename;
+	protected TrackIndex index;
+
+	@BeforeEach
+	public void setUp() throws IOException
+	{
+		filename=dir.resolve(TrackIndex.STR_INDEX_FILENAME).toString();
+		index=TrackIndex.open(filename);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException
+	{
+		index.close();
+	}
+
+	@Test
+	public void testPutGet()
+	{
+		assertNull(index.get(location(1)));
+		index.put(track(1));
+		assertEquals(1, index.size());
+		assertTrack(1, index.get(location(1)));
+		assertNull(index.get(location(2)));
+	}
+
+	@Test
+	public void testText()
+	{
+		//Values that can't be held as numbers are kept as they were read
+		Track track=new Track(location(1));
+		track.metadata.setBpm("n/a");
+		track.metadata.setKey("H#");
+		track.metadata.setDateAdded("sometime");
+		index.put(track);
+		Track read=index.get(location(1));
+		assertEquals("n/a", read.metadata.getBpmText());
+		assertEquals("H#", read.metadata.getKeyText());
+		assertEquals("sometime", read.metadata.getDateAddedText());
+		assertFalse(read.isProbed);
+		assertFalse(read.metadata.hasMetadata);
+	}
+
+	@Test
+	public void testReplace()
+	{
+		index.put(track(1));
+		Track track=track(1);
+		track.metadata.album="A much longer album name than before, which won't fit where the record was";
+		index.put(track);
+		assertEquals(track.metadata.album, index.get(location(1)).metadata.album);
+		track.metadata.album="Short";
+		index.put(track);
+		assertEquals("Short", index.get(location(1)).metadata.album);
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testReopen() throws IOException
+	{
+		for(int i=0;i<100;i++)
+		{
+			index.put(track(i));
+		}
+		index.close();
+		index=TrackIndex.open(filename);
+		assertEquals(100, index.size());
+		for(int i=0;i<100;i++)
+		{
+			assertTrack(i, index.get(location(i)));
+		}
+	}
+
+	@Test
+	public void testGrow() throws IOException
+	{
+		//Enough to rehash the table several times and grow the file past its first mapping
+		int count=TrackIndex.INITIAL_SLOTS*4;
+		for(int i=0;i<count;i++)
+		{
+			Track track=track(i);
+			track.metadata.album=track.metadata.album+" "+new String(new char[256]).replace('\0', 'x');
+			index.put(track);
+		}
+		assertEquals(count, index.size());
+		assertTrue(Files.size(dir.resolve(TrackIndex.STR_INDEX_FILENAME))>TrackIndex.INITIAL_CAPACITY);
+		for(int i=0;i<count;i++)
+		{
+			assertNotNull(index.get(location(i)), location(i));
+		}
+
+		index.close();
+		index=TrackIndex.open(filename);
+		assertEquals(count, index.size());
+		for(int i=0;i<count;i++)
+		{
+			Track track=index.get(location(i));
+			assertEquals(location(i), track.location);
+			assertEquals(i, track.size);
+			assertTrue(track.metadata.album.startsWith("Album "+i+" x"));
+		}
+		//Still takes more after reopening
+		index.put(track(count));
+		assertTrack(count, index.get(location(count)));
+	}
+
+	@Test
+	public void testNotAnIndex() throws IOException
+	{
+		index.close();
+		Files.write(dir.resolve(TrackIndex.STR_INDEX_FILENAME), new byte[TrackIndex.HEADER_SIZE*2]);
+		ByteArrayOutputStream err=new ByteArrayOutputStream();
+		index=TrackIndex.open(filename, new PrintStream(err, true));
+		assertEquals(0, index.size());
+		assertTrue(err.toString().startsWith("Ignoring the contents of "));
+		index.put(track(1));
+		assertTrack(1, index.get(location(1)));
+	}
+
+	@Test
+	public void testLocked() throws IOException
+	{
+		assertThrows(TrackIndex.LockedException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable
+			{
+				TrackIndex.open(filename);
+			}
+		});
+		//The first one is still usable, and the lock goes with it
+		index.put(track(1));
+		index.close();
+		index=TrackIndex.open(filename);
+		assertTrack(1, index.get(location(1)));
+	}
+
+	protected static String location(int i)
+	{
+		return "file:///music/Artist%20"+i+"/Track%20"+i+".mp3";
+	}
+
+	protected static Track track(int i)
+	{
+		Track retVal=new Track(location(i));
+		retVal.size=i;
+		retVal.modified=1600000000000L+i;
+		retVal.isProbed=true;
+		retVal.metadata.hasMetadata=true;
+		retVal.metadata.album="Album "+i;
+		retVal.metadata.genre="Genre \u00C9";
+		retVal.metadata.setBpm("124.50");
+		retVal.metadata.setKey("Am");
+		retVal.metadata.setDateAdded("2020-07-30");
+		retVal.metadata.format=AudioFormat.MP3.getCode();
+		retVal.metadata.bitRate=320;
+		retVal.metadata.sampleRate=44100;
+		retVal.metadata.durationMillis=i*1000;
+		return retVal;
+	}
+
+	protected static void assertTrack(int i, Track track)
+	{
+		assertNotNull(track);
+		assertEquals(location(i), track.location);
+		assertEquals(i, track.size);
+		assertEquals(1600000000000L+i, track.modified);
+		assertTrue(track.isProbed);
+		assertTrue(track.metadata.hasMetadata);
+		assertEquals("Album "+i, track.metadata.album);
+		assertEquals("Genre \u00C9", track.metadata.genre);
+		assertEquals("124.50", track.metadata.getBpmText());
+		assertEquals("Am", track.metadata.getKeyText());
+		assertEquals("2020-07-30", track.metadata.getDateAddedText());
+		assertEquals(AudioFormat.MP3.getCode(), track.metadata.format);
+		assertEquals(320, track.metadata.bitRate);
+		assertEquals(44100, track.metadata.sampleRate);
+		assertEquals(i*1000, track.metadata.durationMillis);
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * This class is used to test that {@link TrackQuery} turns each criterion into the right range, including where the
+ * ends of the ranges fall for comparisons.
+ *
+ * @author Les Carter
+ */
+public class TrackQueryTest
+{
+	@ParameterizedTest
+	@CsvSource({
+		"'bpm=122-125', 12200, 12500",
+		"'bpm=128', 12800, 12800",
+		"'bpm=122.5-124.75', 12250, 12475",
+		"'bpm>=128', 12800, -2147483648",
+		"'bpm>128', 12801, -2147483648",
+		"'bpm<=128', -2147483648, 12800",
+		"'bpm<128', -2147483648, 12799",
+		"'bpm>127.99', 12800, -2147483648",
+		"' BPM = 122 - 125 ', 12200, 12500",
+		"'bpm>=120;bpm<=130', 12000, 13000"
+	})
+	public void testBpm(String text, int minBpm, int maxBpm)
+	{
+		TrackQuery query=TrackQuery.parse(text);
+		assertTrue(query.hasBpm());
+		assertEquals(minBpm, query.getMinBpm());
+		assertEquals(maxBpm, query.getMaxBpm());
+		assertFalse(query.hasDateAdded());
+	}
+
+	@ParameterizedTest
+	@CsvSource({
+		"'added=2020', 2020-01-01, 2020-12-31",
+		"'added=2020-07', 2020-07-01, 2020-07-31",
+		"'added=2020-02', 2020-02-01, 2020-02-29",
+		"'added=2020-07-30', 2020-07-30, 2020-07-30",
+		"'added>2020-07', 2020-08-01, ",
+		"'added>=2020-07', 2020-07-01, ",
+		"'added<2020-07', , 2020-06-30",
+		"'added<=2020-07', , 2020-07-31",
+		"'added>2020', 2021-01-01, ",
+		"'added<2020-01-01', , 2019-12-31",
+		"'added>2020-12', 2021-01-01, "
+	})
+	public void testDateAdded(String text, String first, String last)
+	{
+		TrackQuery query=TrackQuery.parse(text);
+		assertTrue(query.hasDateAdded());
+		assertEquals(first!=null ? (int)LocalDate.parse(first).toEpochDay() : TrackQuery.NONE, query.getMinDateAdded());
+		assertEquals(last!=null ? (int)LocalDate.parse(last).toEpochDay() : TrackQuery.NONE, query.getMaxDateAdded());
+		assertFalse(query.hasBpm());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings={"key=Gm", "key=6A", "key=11m", "KEY = Gm"})
+	public void testKey(String text)
+	{
+		assertSame(MusicalKey.G_MINOR, TrackQuery.parse(text).getKey());
+	}
+
+	@Test
+	public void testGenre()
+	{
+		assertEquals("deep house", TrackQuery.parse("genre=Deep House").getGenre());
+	}
+
+	@Test
+	public void testCombined()
+	{
+		TrackQuery query=TrackQuery.parse("bpm=122-125;key=Gm;genre=house;added>2020-07");
+		assertEquals(12200, query.getMinBpm());
+		assertEquals(12500, query.getMaxBpm());
+		assertSame(MusicalKey.G_MINOR, query.getKey());
+		assertEquals("house", query.getGenre());
+		assertEquals((int)LocalDate.of(2020, 8, 1).toEpochDay(), query.getMinDateAdded());
+		assertEquals(TrackQuery.NONE, query.getMaxDateAdded());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings={"", ";", " ; ; "})
+	public void testEmpty(String text)
+	{
+		TrackQuery query=TrackQuery.parse(text);
+		assertFalse(query.hasBpm());
+		assertFalse(query.hasDateAdded());
+		assertNull(query.getKey());
+		assertNull(query.getGenre());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings={"bpm", "=128", "tempo=128", "bpm=fast", "key=H", "key>Am", "genre>house",
+			"added=2020-13", "added=July", "added=2020-07-32"})
+	public void testInvalid(final String text)
+	{
+		IllegalArgumentException e=assertThrows(IllegalArgumentException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable
+			{
+				TrackQuery.parse("bpm=120-130;"+text);
+			}
+		});
+		assertTrue(e.getMessage().startsWith("Unable to understand \""+text.trim()+"\""), e.getMessage());
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to test that {@link TrackTableIndex} finds the same tracks as checking every track against the
+ * query would, especially at the ends of the ranges.
+ *
+ * @author Les Carter
+ */
+public class TrackTableIndexTest
+{
+	protected TrackTableIndex index;
+
+	@BeforeEach
+	public void setUp()
+	{
+		TrackTable tracks=new TrackTable();
+		tracks.add(entry(0, "121.99", "Am", "Deep House", "2020-06-30"));
+		tracks.add(entry(1, "122.00", "Em", "Tech House", "2020-07-01"));
+		tracks.add(entry(2, "123.50", "8B", "Techno", "2020-07-31"));
+		tracks.add(entry(3, "125.00", "Gm", "house", "2020-08-01"));
+		tracks.add(entry(4, "125.01", "Dm", "Drum & Bass", "2019-12-31"));
+		//Nothing that can be searched on
+		tracks.add(entry(5, "n/a", "", "", "sometime"));
+		index=new TrackTableIndex(tracks);
+	}
+
+	@ParameterizedTest
+	@CsvSource({
+		"'', '0,1,2,3,4,5'",
+		"'bpm=122-125', '1,2,3'",
+		"'bpm=121.99', '0'",
+		"'bpm>125', '4'",
+		"'bpm>=125', '3,4'",
+		"'bpm<122', '0'",
+		"'bpm<=122', '0,1'",
+		"'bpm>=122', '1,2,3,4'",
+		"'bpm=200', ''",
+		"'bpm=0-1000', '0,1,2,3,4'",
+		"'key=Am', '0,1,2,4'",
+		"'key=8A', '0,1,2,4'",
+		"'key=1m', '0,1,2,4'",
+		"'key=C', '0,2'",
+		"'key=Abm', ''",
+		"'genre=HOUSE', '0,1,3'",
+		"'genre=&', '4'",
+		"'genre=jazz', ''",
+		"'added=2020-07', '1,2'",
+		"'added>2020-07', '3'",
+		"'added>=2020-07', '1,2,3'",
+		"'added<2020-07', '0,4'",
+		"'added<=2020-06-30', '0,4'",
+		"'added<2020', '4'",
+		"'added=2020', '0,1,2,3'",
+		"'bpm=122-125;key=Am;genre=house', '1'",
+		"'bpm>=122;added=2020-07;key=Am', '1,2'",
+		"'bpm>=122;added=2020-07;key=Em', '1'"
+	})
+	public void testSelect(String query, String expected)
+	{
+		BitSet expectedTracks=new BitSet();
+		for(String track : expected.split(","))
+		{
+			if(!track.isEmpty())
+			{
+				expectedTracks.set(Integer.parseInt(track));
+			}
+		}
+		assertEquals(expectedTracks, index.select(TrackQuery.parse(query)));
+	}
+
+	@Test
+	public void testSameAsScan()
+	{
+		//Lots of repeated values, so the searches land on runs of equal values
+		Random random=new Random(42);
+		String[] genres={"Deep House", "Tech House", "Techno", "Drum & Bass", ""};
+		TrackTable tracks=new TrackTable();
+		for(int i=0;i<5000;i++)
+		{
+			tracks.add(entry(i, random.nextInt(20)==0 ? "" : String.format(Locale.ROOT, "%.2f", 118+random.nextInt(1000)/100.0),
+					MusicalKey.getSpelling((byte)random.nextInt(MusicalKey.SPELLINGS.length)),
+					genres[random.nextInt(genres.length)],
+					random.nextInt(20)==0 ? "" : dateOf(random.nextInt(800))));
+		}
+		index=new TrackTableIndex(tracks);
+
+		for(int i=0;i<500;i++)
+		{
+			StringBuilder text=new StringBuilder();
+			if(random.nextBoolean())
+			{
+				String[] operators={"=", ">", ">=", "<", "<="};
+				text.append("bpm").append(operators[random.nextInt(operators.length)])
+					.append(String.format(Locale.ROOT, "%.2f", 118+random.nextInt(1000)/100.0)).append(';');
+			}
+			if(random.nextBoolean())
+			{
+				text.append("bpm=").append(118+random.nextInt(5)).append('-').append(122+random.nextInt(5)).append(';');
+			}
+			if(random.nextInt(3)==0)
+			{
+				text.append("key=").append(MusicalKey.values()[random.nextInt(MusicalKey.values().length)].getCamelot()).append(';');
+			}
+			if(random.nextInt(3)==0)
+			{
+				text.append("genre=").append(random.nextBoolean() ? "house" : "tech").append(';');
+			}
+			if(random.nextBoolean())
+			{
+				String[] operators={"=", ">", ">=", "<", "<="};
+				String date=dateOf(random.nextInt(800));
+				text.append("added").append(operators[random.nextInt(operators.length)])
+					.append(date.substring(0, random.nextBoolean() ? 7 : 10));
+			}
+			TrackQuery query=TrackQuery.parse(text.toString());
+			assertEquals(scan(tracks, query), index.select(query), text.toString());
+		}
+	}
+
+	protected static String dateOf(int day)
+	{
+		return LocalDate.of(2019, 1, 1).plusDays(day).toString();
+	}
+
+	/**
+	 * @return the tracks matching the query, found by checking every one.
+	 */
+	protected static BitSet scan(TrackTable tracks, TrackQuery query)
+	{
+		BitSet retVal=new BitSet();
+		for(int i=0;i<tracks.size();i++)
+		{
+			if(query.hasBpm() && !isInRange(tracks.getBpm(i), query.getMinBpm(), query.getMaxBpm()))
+			{
+				continue;
+			}
+			if(query.hasDateAdded() && !isInRange(tracks.getDateAdded(i), query.getMinDateAdded(), query.getMaxDateAdded()))
+			{
+				continue;
+			}
+			if(query.getKey()!=null)
+			{
+				MusicalKey key=MusicalKey.valueOf(tracks.getKey(i));
+				boolean isCompatible=false;
+				for(MusicalKey compatible : query.getKey().getCompatible())
+				{
+					isCompatible|=compatible==key;
+				}
+				if(!isCompatible)
+				{
+					continue;
+				}
+			}
+			if(query.getGenre()!=null && !tracks.getGenre(i).toLowerCase(Locale.ROOT).contains(query.getGenre()))
+			{
+				continue;
+			}
+			retVal.set(i);
+		}
+		return retVal;
+	}
+
+	protected static boolean isInRange(int value, int min, int max)
+	{
+		return value!=TrackQuery.NONE && (min==TrackQuery.NONE || value>=min) && (max==TrackQuery.NONE || value<=max);
+	}
+
+	protected static PlaylistEntry entry(int i, String bpm, String key, String genre, String dateAdded)
+	{
+		PlaylistEntry retVal=new PlaylistEntry("300", "Artist "+i, "Title "+i, new File("/music/"+i+".mp3").toURI().toString());
+		retVal.setTrackNumber(i+1);
+		retVal.setBpm(bpm);
+		retVal.setKey(key);
+		retVal.genre=genre;
+		retVal.setDateAdded(dateAdded);
+		retVal.hasMetadata=true;
+		return retVal;
+	}
+}
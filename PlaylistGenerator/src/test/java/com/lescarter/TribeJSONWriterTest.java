@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package com.lescarter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class is used to test that {@link TribeJSONWriter} escapes the names and paths of the tracks and encodes them as
+ * UTF-8, whichever side of its buffers they fall on.
+ *
+ * @author Les Carter
+ */
+public class TribeJSONWriterTest
+{
+	protected static final String STR_START="{\n\"name\": \"";
+
+	@Test
+	public void testPlaylist() throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		TribeJSONWriter writer=new TribeJSONWriter(Channels.newChannel(out));
+		writer.writeStartPlaylist("Mix");
+		writer.writeTrack("One", "/music/a/one.mp3");
+		writer.writeTrack("Two", "two.mp3", "/music/b/two.mp3");
+		writer.writeEndPlaylist();
+		assertEquals("{\n\"name\": \"Mix \",\n\"tracks\": [\n"
+				+ "{\n\"trackName\": \"One\",\n\"filename\": \"one.mp3\",\n\"fullPath\": \"/music/a/one.mp3\"\n}\n"
+				+ ",\n{\n\"trackName\": \"Two\",\n\"filename\": \"two.mp3\",\n\"fullPath\": \"/music/b/two.mp3\"\n}\n"
+				+ "]\n}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testEscaping() throws IOException
+	{
+		assertEquals("a\\\"b\\\\c/d", escape("a\"b\\c/d"));
+		assertEquals("\\n\\r\\t\\b\\f", escape("\n\r\t\b\f"));
+		assertEquals("\\u0000\\u0001\\u001f", escape("\u0000\u0001\u001F"));
+		//Nothing above the control characters is escaped
+		assertEquals("\u007F<>&'", escape("\u007F<>&'"));
+		assertEquals("", escape(null));
+	}
+
+	@Test
+	public void testNonBMP() throws IOException
+	{
+		String value="\u00C9milie \uD83C\uDFB5 \u4E2D";
+		assertEquals(value, escape(value));
+		byte[] bytes=playlist(value);
+		//The pair is encoded as one four byte sequence, not two replacements
+		byte[] note={(byte)0xF0, (byte)0x9F, (byte)0x8E, (byte)0xB5};
+		assertEquals(STR_START.length()+8, indexOf(bytes, note));
+	}
+
+	@Test
+	public void testSurrogatePairAcrossBuffer() throws IOException
+	{
+		//Every offset either side of the end of the char buffer, so the pair is split across an encode
+		int size=TribeJSONWriter.BUFFER_SIZE/4;
+		for(int length=size-STR_START.length()-3;length<size-STR_START.length()+3;length++)
+		{
+			String value=repeat('a', length)+"\uD83C\uDFB5b";
+			assertEquals(value, escape(value));
+		}
+	}
+
+	@Test
+	public void testLarge() throws IOException
+	{
+		//More than fills the byte buffer several times over with multi-byte characters
+		String value=repeat('\u00E9', TribeJSONWriter.BUFFER_SIZE)+repeat('\u4E2D', TribeJSONWriter.BUFFER_SIZE);
+		assertEquals(value, escape(value));
+	}
+
+	@Test
+	public void testReuse() throws IOException
+	{
+		TribeJSONWriter writer=new TribeJSONWriter();
+		for(int i=0;i<2;i++)
+		{
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			writer.open(Channels.newChannel(out));
+			writer.writeStartPlaylist("Mix "+i);
+			writer.writeTrack("One", "/music/one.mp3");
+			writer.writeEndPlaylist();
+			assertEquals("{\n\"name\": \"Mix "+i+" \",\n\"tracks\": [\n"
+					+ "{\n\"trackName\": \"One\",\n\"filename\": \"one.mp3\",\n\"fullPath\": \"/music/one.mp3\"\n}\n"
+					+ "]\n}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	protected static byte[] playlist(String name) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		TribeJSONWriter writer=new TribeJSONWriter(Channels.newChannel(out));
+		writer.writeStartPlaylist(name);
+		writer.writeEndPlaylist();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return the name of the playlist as it was written, still escaped.
+	 */
+	protected static String escape(String name) throws IOException
+	{
+		String retVal=new String(playlist(name), StandardCharsets.UTF_8);
+		return retVal.substring(STR_START.length(), retVal.indexOf(" \",\n\"tracks\""));
+	}
+
+	protected static String repeat(char c, int count)
+	{
+		char[] retVal=new char[count];
+		Arrays.fill(retVal, c);
+		return new String(retVal);
+	}
+
+	protected static int indexOf(byte[] bytes, byte[] value)
+	{
+		for(int i=0;i+value.length<=bytes.length;i++)
+		{
+			if(Arrays.equals(Arrays.copyOfRange(bytes, i, i+value.length), value))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+}
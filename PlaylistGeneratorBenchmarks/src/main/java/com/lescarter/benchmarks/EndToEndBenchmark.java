@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package com.lescarter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lescarter.ConversionResult;
+import com.lescarter.PlaylistGenerator;
+import com.lescarter.PlaylistSink;
+
+/**
+ * This class is used to time converting a playlist from its m3u8 and KUVO txt files to both output formats, as a single
+ * playlist is converted from the command line.
+ *
+ * @author Les Carter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value=1, jvmArgsAppend={"-Xmx4g", "-Dfile.encoding=UTF-8"})
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+public class EndToEndBenchmark
+{
+	@Param({PlaylistGenerator.STR_PARSER_READER, PlaylistGenerator.STR_PARSER_MAPPED})
+	public String parser;
+
+	@Param({"false", "true"})
+	public boolean isXMLDOM;
+
+	protected PlaylistGenerator generator;
+	protected List<PlaylistSink> sinks;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		generator=new PlaylistGenerator();
+		generator.setMappedParser(PlaylistGenerator.STR_PARSER_MAPPED.equals(parser));
+		generator.setXMLDOM(isXMLDOM);
+		sinks=generator.createSinks(true, true);
+	}
+
+	@Benchmark
+	public ConversionResult convert(LibraryState library)
+	{
+		ConversionResult retVal=generator.convertPlaylist(library.srcDir, library.destDir, library.name, sinks, true);
+		if(retVal.isFailed())
+		{
+			throw new IllegalStateException(retVal.failures.get(0), retVal.exceptions.get(0));
+		}
+		return retVal;
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ *
+ */
+package com.lescarter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.lescarter.ConversionResult;
+import com.lescarter.PlaylistGenerator;
+import com.lescarter.PlaylistSink;
+import com.lescarter.RekordboxXMLSink;
+import com.lescarter.TribeJSONSink;
+
+/**
+ * This class is used to check that every way of converting a playlist still writes exactly the same bytes.
+ * <br/><br/>
+ * The sample playlist is converted with each parser, and with the Rekordbox 5 XML both built as a DOM and streamed.  Every
+ * output must match the reader parser with the DOM, the way the tool originally worked, byte for byte, and that output
+ * must match the golden files next to the sample.  The same is then done for a generated library of 1,000 tracks, which
+ * covers characters the sample doesn't have.
+ * <br/><br/>
+ * The golden files were written on Windows, so line endings are compared as <code>\n</code>, track locations and the
+ * JSON file names are left out (they depend on the directory the tool is run from) and so is the <code>PRODUCT</code>
+ * element, which held the name of the tool that wrote them.
+ * <br/><br/>
+ * <code>GoldenCheck &lt;golden directory&gt; &lt;work directory&gt;</code>, exits with 1 if anything differs.
+ *
+ * @author Les Carter
+ */
+public class GoldenCheck
+{
+	public static final String STR_SAMPLE="test";
+	public static final int GENERATED_TRACKS=1000;
+
+	protected static final String[] PARSERS={PlaylistGenerator.STR_PARSER_READER, PlaylistGenerator.STR_PARSER_MAPPED};
+	protected static final boolean[] XMLDOMS={true, false};
+
+	public static void main(String[] args)
+	{
+		if(args.length<2)
+		{
+			System.out.println("GoldenCheck <golden directory> <work directory>");
+			System.exit(-1);
+		}
+		try {
+			GoldenCheck check=new GoldenCheck();
+			File goldenDir=new File(args[0]);
+			File workDir=new File(args[1]);
+
+			File sampleDir=new File(workDir, "sample");
+			copy(goldenDir, sampleDir, STR_SAMPLE+PlaylistGenerator.STR_M3U8_FILE_EXTENSION);
+			copy(goldenDir, sampleDir, STR_SAMPLE+PlaylistGenerator.STR_TXT_FILE_EXTENSION);
+			File reference=check.checkPaths(sampleDir, STR_SAMPLE);
+			check.checkGolden(new File(goldenDir, STR_SAMPLE+PlaylistGenerator.STR_XML_FILE_EXTENSION),
+					new File(reference, STR_SAMPLE+PlaylistGenerator.STR_XML_FILE_EXTENSION));
+			check.checkGolden(new File(goldenDir, STR_SAMPLE+PlaylistGenerator.STR_JSON_FILE_EXTENSION),
+					new File(reference, STR_SAMPLE+PlaylistGenerator.STR_JSON_FILE_EXTENSION));
+
+			if(StandardCharsets.UTF_8.equals(Charset.defaultCharset()))
+			{
+				File generatedDir=new File(workDir, "generated");
+				check.checkPaths(generatedDir, LibraryGenerator.ensure(generatedDir, GENERATED_TRACKS));
+			}
+			else
+			{
+				//The reader parser decodes with the platform charset, so it can't be expected to read UTF-8 correctly
+				System.out.println("Skipped the generated library, run with -Dfile.encoding=UTF-8 to check it");
+			}
+		} catch (Exception e)
+		{
+			System.err.println("Golden check failed : "+e.getLocalizedMessage());
+			if(!(e instanceof MismatchException))
+			{
+				e.printStackTrace();
+			}
+			System.exit(1);
+		}
+		System.out.println("Golden check passed");
+	}
+
+	/**
+	 * This method is used to convert a playlist every way it can be converted and check the outputs are identical.
+	 * @param srcDir the directory that holds the m3u8 and txt files, the outputs are written to sub-directories of it.
+	 * @param filenamePrefix the name of the playlist (without the file extension).
+	 * @return the directory holding the output of the reference path.
+	 * @throws Exception if a conversion fails or an output differs.
+	 */
+	public File checkPaths(File srcDir, String filenamePrefix) throws Exception
+	{
+		File retVal=null;
+		for(String parser : PARSERS)
+		{
+			for(boolean isXMLDOM : XMLDOMS)
+			{
+				File destDir=new File(srcDir, parser+(isXMLDOM ? "-dom" : "-stream"));
+				convert(srcDir, destDir, filenamePrefix, parser, isXMLDOM);
+				if(retVal==null)
+				{
+					retVal=destDir;
+					continue;
+				}
+				for(String extension : Arrays.asList(PlaylistGenerator.STR_XML_FILE_EXTENSION, PlaylistGenerator.STR_JSON_FILE_EXTENSION))
+				{
+					compare(readLines(new File(retVal, filenamePrefix+extension), false),
+							readLines(new File(destDir, filenamePrefix+extension), false),
+							new File(retVal, filenamePrefix+extension), new File(destDir, filenamePrefix+extension));
+				}
+			}
+		}
+		System.out.println("All paths identical for "+new File(srcDir, filenamePrefix+PlaylistGenerator.STR_M3U8_FILE_EXTENSION));
+		return retVal;
+	}
+
+	/**
+	 * This method is used to compare an output with its golden file, ignoring what depends on the machine it was written on.
+	 * @param golden the golden file.
+	 * @param output the output of the reference path.
+	 * @throws Exception if they differ.
+	 */
+	public void checkGolden(File golden, File output) throws Exception
+	{
+		compare(readLines(golden, true), readLines(output, true), golden, output);
+		System.out.println(output+" matches "+golden);
+	}
+
+	protected void convert(File srcDir, File destDir, String filenamePrefix, String parser, boolean isXMLDOM) throws Exception
+	{
+		if(!destDir.isDirectory() && !destDir.mkdirs())
+		{
+			throw new IOException("Unable to create "+destDir);
+		}
+		PlaylistGenerator generator=new PlaylistGenerator();
+		generator.setMappedParser(PlaylistGenerator.STR_PARSER_MAPPED.equals(parser));
+		generator.setXMLDOM(isXMLDOM);
+		List<PlaylistSink> sinks=new ArrayList<PlaylistSink>();
+		sinks.add(new TribeJSONSink());
+		sinks.add(new RekordboxXMLSink(generator));
+		ConversionResult result=generator.convertPlaylist(srcDir.getPath(), destDir.getPath(), filenamePrefix, sinks, true);
+		if(result.isFailed())
+		{
+			throw result.exceptions.get(0);
+		}
+	}
+
+	protected void compare(List<String> expected, List<String> actual, File expectedFile, File actualFile) throws MismatchException
+	{
+		int lines=Math.min(expected.size(), actual.size());
+		for(int i=0;i<lines;i++)
+		{
+			if(!expected.get(i).equals(actual.get(i)))
+			{
+				throw new MismatchException(actualFile+" differs from "+expectedFile+" at line "+(i+1)+"\nexpected: "
+						+expected.get(i)+"\nactual:   "+actual.get(i));
+			}
+		}
+		if(expected.size()!=actual.size())
+		{
+			throw new MismatchException(actualFile+" has "+actual.size()+" lines, "+expectedFile+" has "+expected.size());
+		}
+	}
+
+	/**
+	 * @param isNormalized <code>true</code> to leave out what depends on the machine the file was written on.
+	 * @return the lines of the file, split on <code>\n</code> so a <code>\r</code> only matches a <code>\r</code> unless
+	 * the file is normalized.
+	 */
+	protected static List<String> readLines(File file, boolean isNormalized) throws IOException
+	{
+		String content=new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		ArrayList<String> retVal=new ArrayList<String>();
+		for(String line : content.split("\n", -1))
+		{
+			if(isNormalized)
+			{
+				line=line.endsWith("\r") ? line.substring(0, line.length()-1) : line;
+				if(line.trim().startsWith("<PRODUCT "))
+				{
+					continue;
+				}
+				line=line.replaceAll("Location=\"[^\"]*\"", "Location=\"\"");
+				line=line.replaceAll("^\"(filename|fullPath)\": \".*\"(,?)$", "\"$1\": \"\"$2");
+			}
+			retVal.add(line);
+		}
+		return retVal;
+	}
+
+	protected static void copy(File srcDir, File destDir, String filename) throws IOException
+	{
+		if(!destDir.isDirectory() && !destDir.mkdirs())
+		{
+			throw new IOException("Unable to create "+destDir);
+		}
+		Files.copy(new File(srcDir, filename).toPath(), new File(destDir, filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Thrown when an output doesn't match what was expected.
+	 */
+	public static class MismatchException extends Exception
+	{
+		private static final long serialVersionUID=1L;
+
+		public MismatchException(String message)
+		{
+			super(message);
+		}
+	}
+}
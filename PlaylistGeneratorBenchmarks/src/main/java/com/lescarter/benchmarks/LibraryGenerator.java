@@ -0,0 +1,245 @@
+/**
+ *
+ */
+package com.lescarter.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import com.lescarter.PlaylistGenerator;
+
+/**
+ * This class is used to write synthetic Rekordbox exports, an m3u8 and KUVO txt pair, of any number of tracks.
+ * <br/><br/>
+ * The same seed and number of tracks always give the same files byte for byte, so benchmark results can be compared from
+ * one run to the next.  The tracks are made to look like a real library: artists and titles with accents, CJK and emoji,
+ * quotes, ampersands and apostrophes; Windows paths, some of them close to the 260 character limit; a few hundred
+ * artists, albums and genres shared between the tracks; and keys, BPMs and dates in the form Rekordbox writes them.
+ * <br/><br/>
+ * Both files are written as UTF-8 without a byte order mark and with Windows line endings.  Run the benchmarks with
+ * <code>-Dfile.encoding=UTF-8</code> so the reader parser decodes them the same way as the mapped parser.
+ *
+ * @author Les Carter
+ */
+public class LibraryGenerator
+{
+	public static final long DEFAULT_SEED=20200808L;
+	public static final int[] STANDARD_SIZES={10, 1000, 100000, 1000000};
+	public static final String STR_LIBRARY_PREFIX="library-";
+	public static final String STR_LINE_SEPARATOR="\r\n";
+	public static final String STR_KUVO_HEADER="#\tArtwork\tTrack Title\tArtist\tAlbum\tGenre\tBPM\tRating\tTime\tKey\tDate Added";
+
+	protected static final String[] FIRST_NAMES={"Blood Groove", "Ost", "Leon", "Toman", "Hondo Vega", "Alexic Rod",
+		"Röyksopp", "Sigur Rós", "Beyoncé", "Mø", "Ólafur Arnalds", "坂本龍一", "Ryōji Ikeda", "DJ \"Q\"", "Kölsch", "Âme",
+		"Dominik Eulberg", "Ängie", "Nicolás Jaar", "Łona", "Zeds Dead", "Ибрагим", "Ἀλέξανδρος", "Øyvind", "Ben Böhmer"};
+	protected static final String[] JOINS={" & ", ", ", " feat. ", " vs "};
+	protected static final String[] WORDS={"Garden", "Kaputt", "Please", "Don't", "Leave", "Hindsight", "Bias", "Moody",
+		"C'mon", "Yeah", "Freak", "Revolution", "Sleeping", "Faster", "Night", "Café", "Übermensch", "Señorita", "夜",
+		"東京", "Rêve", "Blue", "\"Quoted\"", "Rock & Roll", "<Tag>", "100%", "Déjà Vu", "Smörgåsbord", "Naïve", "🎵", "❤"};
+	protected static final String[] MIXES={"Original Mix", "Extended Mix", "Radio Edit", "Remix", "Dub", "Revamp Mix",
+		"Karmon remix", "VIP"};
+	protected static final String[] GENRES={"Deep House", "Minimal / Deep Tech", "Tech House", "Techno (Peak Time / Driving)",
+		"Melodic House & Techno", "Progressive House", "Afro House", "Indie Dance", "Drum & Bass", "Electronica", "Breaks / Breakbeat / UK Bass",
+		"Organic House / Downtempo", "Minimal/tech house", "Deep house", ""};
+	protected static final String[] KEYS={"Am", "Em", "Bm", "F#m", "Dbm", "Abm", "Ebm", "Bbm", "Fm", "Cm", "Gm", "Dm",
+		"C", "G", "D", "A", "E", "B", "F#", "Db", "Ab", "Eb", "Bb", "F", "8A", "1m", ""};
+	protected static final String[] STORES={"beatport", "traxsource", "juno_download", "bandcamp", "bleep"};
+	protected static final String[] RATINGS={"", "*", "**", "***  ", "****", "*****"};
+
+	/**
+	 * Writes the standard libraries, or the sizes given, to a directory.
+	 * <br/><br/>
+	 * <code>LibraryGenerator &lt;directory&gt; [tracks...]</code>
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length<1)
+		{
+			System.out.println("LibraryGenerator <directory> [tracks...]\n\n"
+					+ "Writes "+STR_LIBRARY_PREFIX+"<tracks>.m3u8 and "+STR_LIBRARY_PREFIX+"<tracks>.txt to the directory, "
+					+ "for 10, 1000, 100000 and 1000000 tracks unless the sizes are given");
+			System.exit(-1);
+		}
+		File dir=new File(args[0]);
+		int[] sizes=STANDARD_SIZES;
+		if(args.length>1)
+		{
+			sizes=new int[args.length-1];
+			for(int i=1;i<args.length;i++)
+			{
+				sizes[i-1]=Integer.parseInt(args[i]);
+			}
+		}
+		for(int tracks : sizes)
+		{
+			long start=System.currentTimeMillis();
+			String name=ensure(dir, tracks);
+			System.out.println("Created "+new File(dir, name+PlaylistGenerator.STR_M3U8_FILE_EXTENSION)+" and "
+					+new File(dir, name+PlaylistGenerator.STR_TXT_FILE_EXTENSION)+" in "+(System.currentTimeMillis()-start)+"ms");
+		}
+	}
+
+	/**
+	 * @param tracks the number of tracks.
+	 * @return the name of the playlist (without the file extension) for a library of that size.
+	 */
+	public static String getName(int tracks)
+	{
+		return STR_LIBRARY_PREFIX+tracks;
+	}
+
+	/**
+	 * This method is used to write a library with the default seed unless it has already been written.
+	 * @param dir the directory to write the library to.
+	 * @param tracks the number of tracks.
+	 * @return the name of the playlist (without the file extension).
+	 * @throws IOException
+	 */
+	public static String ensure(File dir, int tracks) throws IOException
+	{
+		String name=getName(tracks);
+		File m3u8=new File(dir, name+PlaylistGenerator.STR_M3U8_FILE_EXTENSION);
+		File txt=new File(dir, name+PlaylistGenerator.STR_TXT_FILE_EXTENSION);
+		if(!m3u8.isFile() || !txt.isFile())
+		{
+			write(dir, name, tracks, DEFAULT_SEED);
+		}
+		return name;
+	}
+
+	/**
+	 * This method is used to write a library.  The files are written under temporary names and then moved into place, so
+	 * an interrupted run never leaves a partial library that {@link #ensure(File, int)} would take as complete.
+	 * @param dir the directory to write the library to.
+	 * @param name the name of the playlist (without the file extension).
+	 * @param tracks the number of tracks.
+	 * @param seed the seed the tracks are made from.
+	 * @throws IOException
+	 */
+	public static void write(File dir, String name, int tracks, long seed) throws IOException
+	{
+		if(!dir.isDirectory() && !dir.mkdirs())
+		{
+			throw new IOException("Unable to create "+dir);
+		}
+		File m3u8=new File(dir, name+PlaylistGenerator.STR_M3U8_FILE_EXTENSION);
+		File txt=new File(dir, name+PlaylistGenerator.STR_TXT_FILE_EXTENSION);
+		File m3u8Temp=new File(dir, m3u8.getName()+".tmp");
+		File txtTemp=new File(dir, txt.getName()+".tmp");
+
+		Random random=new Random(seed);
+		Writer m3u8Writer=open(m3u8Temp);
+		Writer txtWriter=open(txtTemp);
+		try {
+			m3u8Writer.write("#EXTM3U");
+			m3u8Writer.write(STR_LINE_SEPARATOR);
+			txtWriter.write(STR_KUVO_HEADER);
+			txtWriter.write(STR_LINE_SEPARATOR);
+
+			StringBuilder builder=new StringBuilder();
+			for(int i=0;i<tracks;i++)
+			{
+				String artist=artist(random);
+				String title=title(random, builder);
+				int seconds=90+random.nextInt(600);
+
+				m3u8Writer.write(PlaylistGenerator.STR_EXTINF);
+				m3u8Writer.write(Integer.toString(seconds));
+				m3u8Writer.write(',');
+				m3u8Writer.write(artist);
+				m3u8Writer.write(PlaylistGenerator.STR_M3U8_SEPARATOR);
+				m3u8Writer.write(title);
+				m3u8Writer.write(STR_LINE_SEPARATOR);
+				m3u8Writer.write(path(random, i, artist, title, builder));
+				m3u8Writer.write(STR_LINE_SEPARATOR);
+
+				builder.setLength(0);
+				builder.append(i+1).append('\t');
+				builder.append('\t');
+				builder.append(title).append('\t');
+				builder.append(artist).append('\t');
+				builder.append("Album ").append(random.nextInt(500)).append('\t');
+				builder.append(GENRES[random.nextInt(GENRES.length)]).append('\t');
+				int bpm=8000+random.nextInt(9000);
+				builder.append(bpm/100).append('.').append(bpm%100<10 ? "0" : "").append(bpm%100).append('\t');
+				builder.append(RATINGS[random.nextInt(RATINGS.length)]).append('\t');
+				builder.append(two(seconds/60)).append(':').append(two(seconds%60)).append('\t');
+				builder.append(KEYS[random.nextInt(KEYS.length)]).append('\t');
+				builder.append(2010+random.nextInt(11)).append('-').append(two(1+random.nextInt(12))).append('-').append(two(1+random.nextInt(28)));
+				txtWriter.write(builder.toString());
+				txtWriter.write(STR_LINE_SEPARATOR);
+			}
+		}
+		finally
+		{
+			m3u8Writer.close();
+			txtWriter.close();
+		}
+		Files.move(m3u8Temp.toPath(), m3u8.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(txtTemp.toPath(), txt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	protected static Writer open(File file) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8), 64*1024);
+	}
+
+	protected static String artist(Random random)
+	{
+		//A few hundred distinct artists, as in a real library
+		String retVal=FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+		if(random.nextInt(4)==0)
+		{
+			retVal+=JOINS[random.nextInt(JOINS.length)]+FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+		}
+		return retVal;
+	}
+
+	protected static String title(Random random, StringBuilder builder)
+	{
+		builder.setLength(0);
+		int words=1+random.nextInt(4);
+		for(int i=0;i<words;i++)
+		{
+			if(i>0)
+			{
+				builder.append(' ');
+			}
+			builder.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		builder.append(" (").append(MIXES[random.nextInt(MIXES.length)]).append(')');
+		return builder.toString();
+	}
+
+	/**
+	 * @return a Windows path to the track, one in ten of them nested deep enough to be over 200 characters.
+	 */
+	protected static String path(Random random, int index, String artist, String title, StringBuilder builder)
+	{
+		builder.setLength(0);
+		builder.append(random.nextBoolean() ? "D:" : "d:").append("\\Music\\");
+		builder.append(STORES[random.nextInt(STORES.length)]).append(2018+random.nextInt(3));
+		builder.append(two(1+random.nextInt(12))).append(two(1+random.nextInt(28))).append('\\');
+		if(random.nextInt(10)==0)
+		{
+			builder.append("Various Artists - Best Of Deep House 2020 Vol. 02 - EDM Comps (Selected & Mixed By Someone)\\");
+			builder.append("CD ").append(1+random.nextInt(3)).append(" - Continuous Mixes And Bonus Tracks\\");
+		}
+		builder.append(index).append('-').append(artist.replace('"', '_')).append(" - ").append(title.replace('"', '_')
+				.replace('<', '_').replace('>', '_'));
+		builder.append(random.nextInt(8)==0 ? PlaylistGenerator.STR_WAV_FILE_EXTENSION : PlaylistGenerator.STR_MP3_FILE_EXTENSION);
+		return builder.toString();
+	}
+
+	protected static String two(int value)
+	{
+		return value<10 ? "0"+value : Integer.toString(value);
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package com.lescarter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.lescarter.PlaylistGenerator;
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to hold the generated library a benchmark runs against, along with its tracks already parsed for the
+ * benchmarks that only write.
+ * <br/><br/>
+ * Libraries are generated once into <code>target/libraries</code> (or the directory given with
+ * <code>-Dpg.benchmarkdir</code>) and reused by later runs, as the largest of them takes a while to write.
+ *
+ * @author Les Carter
+ */
+@State(Scope.Benchmark)
+public class LibraryState
+{
+	public static final String PARAM_BENCHMARKDIR="pg.benchmarkdir";
+	public static final String STR_DEFAULT_BENCHMARKDIR="target"+File.separator+"libraries";
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int tracks;
+
+	public String srcDir;
+	public String destDir;
+	public String name;
+	public List<PlaylistEntry> entries;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		File dir=new File(System.getProperty(PARAM_BENCHMARKDIR, STR_DEFAULT_BENCHMARKDIR));
+		name=LibraryGenerator.ensure(dir, tracks);
+		srcDir=dir.getPath();
+		destDir=Files.createTempDirectory("playlistgenerator").toString();
+		entries=new PlaylistGenerator().loadPlaylist(srcDir, name, true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		File[] files=new File(destDir).listFiles();
+		if(files!=null)
+		{
+			for(File file : files)
+			{
+				file.delete();
+			}
+		}
+		new File(destDir).delete();
+	}
+}
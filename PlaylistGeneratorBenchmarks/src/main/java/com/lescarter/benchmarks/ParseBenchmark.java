@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package com.lescarter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lescarter.MappedPlaylistParser;
+import com.lescarter.PlaylistGenerator;
+import com.lescarter.PlaylistGenerator.PlaylistEntry;
+
+/**
+ * This class is used to time reading a playlist with each parser: the m3u8 on its own, the KUVO txt on its own, and
+ * loading the whole playlist, which also looks up the size of every track.
+ *
+ * @author Les Carter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value=1, jvmArgsAppend={"-Xmx4g", "-Dfile.encoding=UTF-8"})
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+public class ParseBenchmark
+{
+	@Param({PlaylistGenerator.STR_PARSER_READER, PlaylistGenerator.STR_PARSER_MAPPED})
+	public String parser;
+
+	protected PlaylistGenerator generator;
+	protected MappedPlaylistParser mappedParser;
+	protected ArrayList<PlaylistEntry> m3u8Entries;
+
+	@Setup(Level.Trial)
+	public void setUp(LibraryState library) throws IOException
+	{
+		generator=new PlaylistGenerator();
+		generator.setMappedParser(PlaylistGenerator.STR_PARSER_MAPPED.equals(parser));
+		mappedParser=new MappedPlaylistParser(generator);
+		m3u8Entries=m3u8(library);
+	}
+
+	@Benchmark
+	public ArrayList<PlaylistEntry> m3u8(LibraryState library) throws IOException
+	{
+		String filename=library.srcDir+File.separator+library.name+PlaylistGenerator.STR_M3U8_FILE_EXTENSION;
+		return PlaylistGenerator.STR_PARSER_MAPPED.equals(parser) ? mappedParser.parsem3u8(filename) : generator.parsem3u8(filename);
+	}
+
+	@Benchmark
+	public ArrayList<PlaylistEntry> txt(LibraryState library) throws IOException
+	{
+		//Joining the txt onto entries that already have it overwrites the same values, so the m3u8 is only parsed once
+		String filename=library.srcDir+File.separator+library.name+PlaylistGenerator.STR_TXT_FILE_EXTENSION;
+		if(PlaylistGenerator.STR_PARSER_MAPPED.equals(parser))
+		{
+			mappedParser.parseKTxt(filename, m3u8Entries);
+		}
+		else
+		{
+			generator.parseKTxt(filename, m3u8Entries);
+		}
+		return m3u8Entries;
+	}
+
+	@Benchmark
+	public ArrayList<PlaylistEntry> load(LibraryState library) throws IOException
+	{
+		return generator.loadPlaylist(library.srcDir, library.name, true);
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package com.lescarter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is used to time how long a command takes from being started to exiting, to compare the startup of the jar,
+ * the jar with its AppCDS archive and the native executable.  JMH can't measure this, it runs inside a JVM that has
+ * already started.
+ * <br/><br/>
+ * The command is run twice first so the files it reads are in the OS cache, then the given number of times.  What it
+ * prints is thrown away; a run that exits with anything but 0 stops the timing.
+ * <br/><br/>
+ * <code>StartupTimer &lt;runs&gt; &lt;command&gt; [arguments...]</code>, for example
+ * <pre>
+ * StartupTimer 20 java -Dpg.srcdir=sample -Dpg.destdir=out -Dpg.force=true -Dpg.isclient=false -jar PlaylistGenerator.jar
+ * </pre>
+ *
+ * @author Les Carter
+ */
+public class StartupTimer
+{
+	public static final int WARMUP_RUNS=2;
+
+	public static void main(String[] args)
+	{
+		if(args.length<2)
+		{
+			System.out.println("StartupTimer <runs> <command> [arguments...]");
+			System.exit(-1);
+		}
+		try {
+			int runs=Integer.parseInt(args[0]);
+			List<String> command=Arrays.asList(Arrays.copyOfRange(args, 1, args.length));
+			long[] nanos=new StartupTimer().time(command, runs);
+			Arrays.sort(nanos);
+			long total=0;
+			for(long time : nanos)
+			{
+				total+=time;
+			}
+			System.out.println(String.format("%d runs, min %.1fms, median %.1fms, mean %.1fms, max %.1fms : %s", runs,
+					nanos[0]/1e6, nanos[runs/2]/1e6, total/1e6/runs, nanos[runs-1]/1e6, command));
+		} catch (Exception e)
+		{
+			System.err.println("Exception happened, unable to time the command : "+e.getLocalizedMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * This method is used to run a command a number of times, timing each run.
+	 * @param command the command and its arguments.
+	 * @param runs the number of runs to time, after the warm up runs.
+	 * @return the wall clock time of each timed run, in nanoseconds.
+	 * @throws IOException if the command can't be started or fails.
+	 * @throws InterruptedException
+	 */
+	public long[] time(List<String> command, int runs) throws IOException, InterruptedException
+	{
+		File output=File.createTempFile("startup", ".out");
+		try {
+			ProcessBuilder builder=new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output);
+			for(int i=0;i<WARMUP_RUNS;i++)
+			{
+				run(builder);
+			}
+			long[] retVal=new long[runs];
+			for(int i=0;i<runs;i++)
+			{
+				retVal[i]=run(builder);
+			}
+			return retVal;
+		}
+		finally
+		{
+			output.delete();
+		}
+	}
+
+	protected long run(ProcessBuilder builder) throws IOException, InterruptedException
+	{
+		long start=System.nanoTime();
+		int exitCode=builder.start().waitFor();
+		long retVal=System.nanoTime()-start;
+		if(exitCode!=0)
+		{
+			throw new IOException(builder.command()+" exited with "+exitCode);
+		}
+		return retVal;
+	}
+}
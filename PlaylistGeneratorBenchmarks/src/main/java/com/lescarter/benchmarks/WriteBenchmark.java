@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package com.lescarter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import com.lescarter.PlaylistGenerator;
+import com.lescarter.RekordboxDocument;
+import com.lescarter.RekordboxXMLSink;
+import com.lescarter.TribeJSONSink;
+
+/**
+ * This class is used to time writing an already parsed playlist in each output format, with the Rekordbox 5 XML both
+ * built as a DOM and streamed.
+ *
+ * @author Les Carter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value=1, jvmArgsAppend={"-Xmx4g", "-Dfile.encoding=UTF-8"})
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+public class WriteBenchmark
+{
+	protected PlaylistGenerator generator;
+	protected RekordboxXMLSink xmlSink;
+	protected TribeJSONSink jsonSink;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		generator=new PlaylistGenerator();
+		xmlSink=new RekordboxXMLSink(generator);
+		jsonSink=new TribeJSONSink();
+	}
+
+	@Benchmark
+	public Document xmlDOM(LibraryState library) throws Exception
+	{
+		Document retVal=RekordboxDocument.create(generator, library.name, library.entries);
+		RekordboxDocument.write(retVal, library.destDir, library.name);
+		return retVal;
+	}
+
+	@Benchmark
+	public String xmlStream(LibraryState library) throws Exception
+	{
+		return xmlSink.write(library.name, library.entries, library.destDir);
+	}
+
+	@Benchmark
+	public String json(LibraryState library) throws Exception
+	{
+		return jsonSink.write(library.name, library.entries, library.destDir);
+	}
+}